@@ -0,0 +1,36 @@
+package com.zenika.distributor.analytics;
+
+/**
+ * A product ranked by {@link SalesAnalytics#getBestSellers}, with its sales over the requested window.
+ */
+public final class BestSeller {
+
+  private final Long productId;
+  private final String name;
+  private final SalesFigures figures;
+
+  BestSeller(Long productId, String name, SalesFigures figures) {
+    this.productId = productId;
+    this.name = name;
+    this.figures = figures;
+  }
+
+  public Long getProductId() {
+    return productId;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getUnits() {
+    return figures.getUnits();
+  }
+
+  /**
+   * @return the line totals of the product, before combo discounts, which are not split between products.
+   */
+  public long getRevenueCents() {
+    return figures.getRevenueCents();
+  }
+}
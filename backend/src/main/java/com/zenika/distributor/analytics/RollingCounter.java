@@ -0,0 +1,63 @@
+package com.zenika.distributor.analytics;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Units and cents summed over the last buckets of a {@link SalesWindow}. Each bucket knows the period it
+ * counts; the first sale of a new period swaps in a fresh bucket with a compare-and-set, so recording takes no
+ * lock and allocates only once per bucket period. Buckets of periods older than the window are skipped when
+ * summing rather than cleared.
+ */
+final class RollingCounter {
+
+  private final long slotMillis;
+  private final AtomicReferenceArray<Bucket> buckets;
+
+  RollingCounter(SalesWindow window) {
+    this.slotMillis = window.getSlot().toMillis();
+    this.buckets = new AtomicReferenceArray<>(window.getSlots());
+  }
+
+  void add(long nowMillis, long units, long cents) {
+    long period = nowMillis / slotMillis;
+    int index = (int) (period % buckets.length());
+    Bucket bucket = buckets.get(index);
+    // A bucket of a later period means this thread read the clock just before it turned: count it there
+    while (bucket == null || bucket.period < period) {
+      Bucket fresh = new Bucket(period);
+      if (buckets.compareAndSet(index, bucket, fresh)) {
+        bucket = fresh;
+      } else {
+        bucket = buckets.get(index);
+      }
+    }
+    bucket.units.add(units);
+    bucket.cents.add(cents);
+  }
+
+  SalesFigures sum(long nowMillis) {
+    long oldest = nowMillis / slotMillis - buckets.length() + 1;
+    long units = 0;
+    long cents = 0;
+    for (int i = 0; i < buckets.length(); i++) {
+      Bucket bucket = buckets.get(i);
+      if (bucket != null && bucket.period >= oldest) {
+        units += bucket.units.sum();
+        cents += bucket.cents.sum();
+      }
+    }
+    return new SalesFigures(units, cents);
+  }
+
+  private static final class Bucket {
+
+    final long period;
+    final LongAdder units = new LongAdder();
+    final LongAdder cents = new LongAdder();
+
+    Bucket(long period) {
+      this.period = period;
+    }
+  }
+}
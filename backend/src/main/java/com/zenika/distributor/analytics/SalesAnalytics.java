@@ -0,0 +1,121 @@
+package com.zenika.distributor.analytics;
+
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.service.CartLine;
+import com.zenika.distributor.service.SessionRegistry;
+import com.zenika.distributor.service.VendingEventListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Sales figures of this node, kept in memory as products are dispensed and orders placed, so they can be
+ * queried without a GROUP BY on the database competing with sales. Per product, per machine and for the node,
+ * units and revenue are counted in {@link SalesWindow} buckets of striped adders.
+ * <p>
+ * Best sellers are ranked among the products held by a {@link SpaceSavingSketch} of
+ * {@code distributor.analytics.best-seller-capacity} slots, so a query reads a fixed number of counters however
+ * large the catalog. A product needs enough sales since the node started to be held; one selling only in the
+ * last minute can be missing from that minute's ranking until it does.
+ * <p>
+ * Figures start from zero at each start and only count the machines served by this node.
+ */
+@Component
+public class SalesAnalytics implements VendingEventListener {
+
+  private final Clock clock;
+  private final SalesCounter node = new SalesCounter();
+  private final ConcurrentMap<String, SalesCounter> machines = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Long, ProductSales> products = new ConcurrentHashMap<>();
+  private final SpaceSavingSketch bestSellers;
+
+  @Autowired
+  public SalesAnalytics(@Value("${distributor.analytics.best-seller-capacity:64}") int bestSellerCapacity) {
+    this(bestSellerCapacity, Clock.systemUTC());
+  }
+
+  public SalesAnalytics(int bestSellerCapacity, Clock clock) {
+    this.bestSellers = new SpaceSavingSketch(bestSellerCapacity);
+    this.clock = clock;
+  }
+
+  @Override
+  public void onDispensed(String machineId, List<CartLine> lines, int[] change, long totalCents) {
+    record(machineId, lines, totalCents);
+  }
+
+  @Override
+  public void onOrderPlaced(String machineId, int[] inserted, List<CartLine> lines, int[] change, long totalCents) {
+    record(machineId, lines, totalCents);
+  }
+
+  private void record(String machineId, List<CartLine> lines, long totalCents) {
+    long now = clock.millis();
+    long units = 0;
+    for (CartLine line : lines) {
+      Product product = line.getProduct();
+      ProductSales sales = products.get(product.getId());
+      if (sales == null) {
+        sales = products.computeIfAbsent(product.getId(), id -> new ProductSales());
+      }
+      sales.name = product.getName();
+      sales.counter.record(now, line.getQuantity(), line.getLineTotalCents());
+      bestSellers.add(product.getId(), line.getQuantity());
+      units += line.getQuantity();
+    }
+    SalesCounter machine = machines.get(machineId);
+    if (machine == null) {
+      machine = machines.computeIfAbsent(machineId, id -> new SalesCounter());
+    }
+    machine.record(now, units, totalCents);
+    node.record(now, units, totalCents);
+  }
+
+  /**
+   * @return the units sold and the amount paid on this node, promotions applied.
+   */
+  public SalesFigures getNodeFigures(SalesWindow window) {
+    return node.figures(window, clock.millis());
+  }
+
+  public SalesFigures getMachineFigures(String machineId, SalesWindow window) {
+    SalesCounter machine = machines.get(SessionRegistry.normalize(machineId));
+    return machine == null ? SalesFigures.ZERO : machine.figures(window, clock.millis());
+  }
+
+  /**
+   * @return up to {@code limit} products by units sold over {@code window}, most sold first, at most
+   * {@code best-seller-capacity} of them.
+   */
+  public List<BestSeller> getBestSellers(SalesWindow window, int limit) {
+    long now = clock.millis();
+    long[] candidates = bestSellers.keys();
+    List<BestSeller> ranked = new ArrayList<>(candidates.length);
+    for (long productId : candidates) {
+      ProductSales sales = products.get(productId);
+      SalesFigures figures = sales.counter.figures(window, now);
+      if (figures.getUnits() > 0) {
+        ranked.add(new BestSeller(productId, sales.name, figures));
+      }
+    }
+    ranked.sort(Comparator.comparingLong(BestSeller::getUnits).reversed());
+    return ranked.size() > limit ? ranked.subList(0, limit) : ranked;
+  }
+
+  public int getBestSellerCapacity() {
+    return bestSellers.capacity();
+  }
+
+  private static final class ProductSales {
+
+    final SalesCounter counter = new SalesCounter();
+    volatile String name;
+  }
+}
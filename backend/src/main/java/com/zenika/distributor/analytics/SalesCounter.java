@@ -0,0 +1,34 @@
+package com.zenika.distributor.analytics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The sales of one product, one machine or the whole node, over every {@link SalesWindow}.
+ */
+final class SalesCounter {
+
+  private final RollingCounter[] rolling = new RollingCounter[SalesWindow.ROLLING.length];
+  private final LongAdder units = new LongAdder();
+  private final LongAdder cents = new LongAdder();
+
+  SalesCounter() {
+    for (SalesWindow window : SalesWindow.ROLLING) {
+      rolling[window.ordinal()] = new RollingCounter(window);
+    }
+  }
+
+  void record(long nowMillis, long units, long cents) {
+    for (RollingCounter counter : rolling) {
+      counter.add(nowMillis, units, cents);
+    }
+    this.units.add(units);
+    this.cents.add(cents);
+  }
+
+  SalesFigures figures(SalesWindow window, long nowMillis) {
+    if (window == SalesWindow.TOTAL) {
+      return new SalesFigures(units.sum(), cents.sum());
+    }
+    return rolling[window.ordinal()].sum(nowMillis);
+  }
+}
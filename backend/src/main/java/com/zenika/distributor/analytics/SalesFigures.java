@@ -0,0 +1,25 @@
+package com.zenika.distributor.analytics;
+
+/**
+ * Units sold and revenue over a {@link SalesWindow}.
+ */
+public final class SalesFigures {
+
+  static final SalesFigures ZERO = new SalesFigures(0, 0);
+
+  private final long units;
+  private final long revenueCents;
+
+  SalesFigures(long units, long revenueCents) {
+    this.units = units;
+    this.revenueCents = revenueCents;
+  }
+
+  public long getUnits() {
+    return units;
+  }
+
+  public long getRevenueCents() {
+    return revenueCents;
+  }
+}
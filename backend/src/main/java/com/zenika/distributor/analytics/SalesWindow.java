@@ -0,0 +1,47 @@
+package com.zenika.distributor.analytics;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Periods the sales figures are summed over. A window is a ring of {@code slots} buckets of {@code slot} each,
+ * the current bucket included, so {@link #HOUR} covers the last 59 to 60 minutes.
+ */
+public enum SalesWindow {
+  MINUTE(Duration.ofSeconds(5), 12),
+  HOUR(Duration.ofMinutes(1), 60),
+  DAY(Duration.ofHours(1), 24),
+  /** Since the node started, not bucketed. */
+  TOTAL(null, 0);
+
+  /** The bucketed windows, in ordinal order. */
+  static final SalesWindow[] ROLLING = {MINUTE, HOUR, DAY};
+
+  private final Duration slot;
+  private final int slots;
+
+  SalesWindow(Duration slot, int slots) {
+    this.slot = slot;
+    this.slots = slots;
+  }
+
+  Duration getSlot() {
+    return slot;
+  }
+
+  int getSlots() {
+    return slots;
+  }
+
+  /**
+   * @return the window called {@code name} in any case, or null.
+   */
+  public static SalesWindow parse(String name) {
+    for (SalesWindow window : values()) {
+      if (window.name().equals(name.toUpperCase(Locale.ROOT))) {
+        return window;
+      }
+    }
+    return null;
+  }
+}
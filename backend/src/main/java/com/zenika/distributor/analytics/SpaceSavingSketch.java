@@ -0,0 +1,52 @@
+package com.zenika.distributor.analytics;
+
+import java.util.Arrays;
+
+/**
+ * Space-Saving heavy hitters over long keys: at most {@code capacity} keys are counted and a key seen for the
+ * first time when the sketch is full takes over the slot of the smallest count, inheriting that count. Any key
+ * whose true count exceeds {@code total / capacity} is guaranteed to be kept, whatever the number of distinct
+ * keys, in fixed memory. Slots are plain arrays scanned linearly, cheaper than a map for a few dozen keys.
+ */
+final class SpaceSavingSketch {
+
+  private final long[] keys;
+  private final long[] counts;
+  private int size;
+
+  SpaceSavingSketch(int capacity) {
+    this.keys = new long[capacity];
+    this.counts = new long[capacity];
+  }
+
+  synchronized void add(long key, long count) {
+    int smallest = 0;
+    for (int i = 0; i < size; i++) {
+      if (keys[i] == key) {
+        counts[i] += count;
+        return;
+      }
+      if (counts[i] < counts[smallest]) {
+        smallest = i;
+      }
+    }
+    if (size < keys.length) {
+      keys[size] = key;
+      counts[size++] = count;
+      return;
+    }
+    keys[smallest] = key;
+    counts[smallest] += count;
+  }
+
+  /**
+   * @return the keys currently counted, in no particular order.
+   */
+  synchronized long[] keys() {
+    return Arrays.copyOf(keys, size);
+  }
+
+  int capacity() {
+    return keys.length;
+  }
+}
@@ -0,0 +1,85 @@
+package com.zenika.distributor.catalog;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zenika.distributor.repository.ProductCursorRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the whole catalog in the formats {@link CatalogImporter} reads, streaming rows from a database cursor
+ * to the output as they come. Exported files can be imported as is, products getting new IDs.
+ */
+@Service
+public class CatalogExporter {
+
+  private final ProductCursorRepository productCursorRepository;
+  private final JsonFactory jsonFactory;
+
+  @Autowired
+  public CatalogExporter(ProductCursorRepository productCursorRepository, ObjectMapper objectMapper) {
+    this.productCursorRepository = productCursorRepository;
+    this.jsonFactory = objectMapper.getFactory();
+  }
+
+  /**
+   * Writes {@code id,name,price,stock} CSV. Flushes but does not close {@code output}.
+   */
+  public void exportCsv(OutputStream output) throws IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 65536);
+    writer.write("id,name,price,stock\r\n");
+    productCursorRepository.forEach((id, name, price, stock) -> {
+      writer.write(Long.toString(id));
+      writer.write(',');
+      writeCsvField(writer, name);
+      writer.write(',');
+      writer.write(price.toPlainString());
+      writer.write(',');
+      writer.write(Integer.toString(stock));
+      writer.write("\r\n");
+    });
+    writer.flush();
+  }
+
+  /**
+   * Writes one JSON object per line. Flushes but does not close {@code output}.
+   */
+  public void exportNdjson(OutputStream output) throws IOException {
+    try (JsonGenerator generator = jsonFactory.createGenerator(output)) {
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      generator.setRootValueSeparator(null);
+      productCursorRepository.forEach((id, name, price, stock) -> {
+        generator.writeStartObject();
+        generator.writeNumberField("id", id);
+        generator.writeStringField("name", name);
+        generator.writeNumberField("price", price);
+        generator.writeNumberField("stock", stock);
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+      });
+    }
+  }
+
+  private static void writeCsvField(Writer writer, String value) throws IOException {
+    boolean quote = false;
+    for (int i = 0; i < value.length() && !quote; i++) {
+      char c = value.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (!quote) {
+      writer.write(value);
+      return;
+    }
+    writer.write('"');
+    writer.write(value.replace("\"", "\"\""));
+    writer.write('"');
+  }
+}
@@ -0,0 +1,242 @@
+package com.zenika.distributor.catalog;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zenika.distributor.dto.CatalogImportResponse;
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.exception.CatalogImportException;
+import com.zenika.distributor.model.Money;
+import com.zenika.distributor.repository.BatchWriteRepository;
+import com.zenika.distributor.service.CatalogCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Loads products from a CSV or NDJSON stream as it is read: rows are validated one at a time and inserted in
+ * JDBC batches of {@code batch-size}, each batch committed on its own, so memory use does not depend on the
+ * size of the input. Invalid rows are counted and skipped; a stream that cannot be parsed any further stops
+ * the import, keeping the batches already committed.
+ */
+@Service
+public class CatalogImporter {
+
+  static final int MAX_NAME_LENGTH = 255;
+  static final int MAX_ERRORS = 100;
+
+  private final BatchWriteRepository batchWriteRepository;
+  private final CatalogCache catalogCache;
+  private final TransactionTemplate transactionTemplate;
+  private final JsonFactory jsonFactory;
+  private final int batchSize;
+
+  @Autowired
+  public CatalogImporter(BatchWriteRepository batchWriteRepository,
+                         CatalogCache catalogCache,
+                         TransactionTemplate transactionTemplate,
+                         ObjectMapper objectMapper,
+                         @Value("${distributor.catalog.import.batch-size:1000}") int batchSize) {
+    this.batchWriteRepository = batchWriteRepository;
+    this.catalogCache = catalogCache;
+    this.transactionTemplate = transactionTemplate;
+    this.jsonFactory = objectMapper.getFactory();
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Imports CSV with a header line naming the {@code name}, {@code price} and {@code stock} columns, in any
+   * order. Other columns, such as an {@code id} from an export, are ignored.
+   */
+  public CatalogImportResponse importCsv(InputStream input) throws IOException {
+    CsvReader csv = new CsvReader(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 65536));
+    List<String> header = csv.next();
+    if (header == null) {
+      throw new CatalogImportException("Empty input, expected a header line");
+    }
+    int nameColumn = -1;
+    int priceColumn = -1;
+    int stockColumn = -1;
+    for (int i = 0; i < header.size(); i++) {
+      switch (header.get(i).strip().toLowerCase(Locale.ROOT)) {
+        case "name" -> nameColumn = i;
+        case "price" -> priceColumn = i;
+        case "stock" -> stockColumn = i;
+        default -> { }
+      }
+    }
+    if (nameColumn < 0 || priceColumn < 0) {
+      throw new CatalogImportException("Header must name a name and a price column, got " + header);
+    }
+    Batch batch = new Batch();
+    List<String> record;
+    while ((record = next(csv, batch)) != null) {
+      if (record.size() == 1 && record.get(0).isBlank()) {
+        continue;
+      }
+      batch.add(csv.getRecordLine(), column(record, nameColumn), column(record, priceColumn),
+        column(record, stockColumn));
+    }
+    return batch.finish();
+  }
+
+  /**
+   * Imports one JSON object per line, e.g. {@code {"name": "Water", "price": 1.50, "stock": 20}}. Other
+   * properties are ignored.
+   */
+  public CatalogImportResponse importNdjson(InputStream input) throws IOException {
+    Batch batch = new Batch();
+    try (JsonParser parser = jsonFactory.createParser(input)) {
+      JsonToken token;
+      while ((token = parser.nextToken()) != null) {
+        long line = parser.currentTokenLocation().getLineNr();
+        if (token != JsonToken.START_OBJECT) {
+          batch.reject(line, "expected a JSON object");
+          parser.skipChildren();
+          continue;
+        }
+        String name = null;
+        String price = null;
+        String stock = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String field = parser.currentName();
+          JsonToken value = parser.nextToken();
+          if (value.isStructStart()) {
+            parser.skipChildren();
+            continue;
+          }
+          // Numbers are read from their text so that 1.499 is rejected rather than rounded
+          String text = value == JsonToken.VALUE_NULL ? null : parser.getText();
+          switch (field) {
+            case "name" -> name = text;
+            case "price" -> price = text;
+            case "stock" -> stock = text;
+            default -> { }
+          }
+        }
+        batch.add(line, name, price, stock);
+      }
+    } catch (JsonProcessingException e) {
+      throw batch.abort("Line " + e.getLocation().getLineNr() + ": " + e.getOriginalMessage(), e);
+    }
+    return batch.finish();
+  }
+
+  private static List<String> next(CsvReader csv, Batch batch) throws IOException {
+    try {
+      return csv.next();
+    } catch (CatalogImportException e) {
+      throw batch.abort(e.getMessage(), e);
+    }
+  }
+
+  private static String column(List<String> record, int index) {
+    return index >= 0 && index < record.size() ? record.get(index) : null;
+  }
+
+  /**
+   * Rows validated but not inserted yet, and the counts of the import so far.
+   */
+  private final class Batch {
+
+    private final long start = System.nanoTime();
+    private final List<Object[]> rows = new ArrayList<>(batchSize);
+    private final List<String> errors = new ArrayList<>();
+    private long imported;
+    private long rejected;
+
+    void add(long line, String name, String priceText, String stockText) {
+      String error = null;
+      name = name != null ? name.strip() : "";
+      BigDecimal price = null;
+      int stock = 0;
+      if (name.isEmpty()) {
+        error = "name is required";
+      } else if (name.length() > MAX_NAME_LENGTH) {
+        error = "name is longer than " + MAX_NAME_LENGTH + " characters";
+      } else if (priceText == null || priceText.isBlank()) {
+        error = "price is required";
+      } else {
+        try {
+          price = new BigDecimal(priceText.strip());
+          if (price.signum() <= 0) {
+            error = "price must be positive";
+          } else if (price.scale() > 2 || price.precision() - price.scale() > 10) {
+            error = "price must have at most 10 digits and 2 decimal places";
+          } else if (!Coin.isPayable(Money.toCents(price))) {
+            error = "price must be a multiple of " + Coin.payableStep() + ", or it cannot be paid in coins";
+          }
+        } catch (NumberFormatException e) {
+          error = "price is not a number: " + priceText;
+        }
+        if (error == null && stockText != null && !stockText.isBlank()) {
+          try {
+            stock = Integer.parseInt(stockText.strip());
+            if (stock < 0) {
+              error = "stock cannot be negative";
+            }
+          } catch (NumberFormatException e) {
+            error = "stock is not a whole number: " + stockText;
+          }
+        }
+      }
+      if (error != null) {
+        reject(line, error);
+        return;
+      }
+      rows.add(new Object[] {name, price, stock});
+      if (rows.size() >= batchSize) {
+        flush();
+      }
+    }
+
+    void reject(long line, String error) {
+      rejected++;
+      if (errors.size() < MAX_ERRORS) {
+        errors.add("Line " + line + ": " + error);
+      }
+    }
+
+    CatalogImportException abort(String message, Throwable cause) {
+      if (imported > 0) {
+        catalogCache.refresh();
+      }
+      return new CatalogImportException(message + " (" + imported + " products imported before)", cause);
+    }
+
+    CatalogImportResponse finish() {
+      flush();
+      if (imported > 0) {
+        catalogCache.refresh();
+      }
+      return new CatalogImportResponse(imported, rejected, errors, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void flush() {
+      if (rows.isEmpty()) {
+        return;
+      }
+      try {
+        transactionTemplate.executeWithoutResult(status -> batchWriteRepository.insertProducts(rows));
+      } catch (DataAccessException e) {
+        throw abort("Batch insert failed: " + e.getMostSpecificCause().getMessage(), e);
+      }
+      imported += rows.size();
+      rows.clear();
+    }
+  }
+}
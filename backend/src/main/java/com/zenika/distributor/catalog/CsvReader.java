@@ -0,0 +1,100 @@
+package com.zenika.distributor.catalog;
+
+import com.zenika.distributor.exception.CatalogImportException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads RFC 4180 CSV one record at a time from a character stream: fields separated by commas, optionally
+ * quoted, with {@code ""} for a quote inside a quoted field and line breaks allowed in quoted fields. Records
+ * end with LF or CRLF. Only the current record is held in memory, whatever the size of the input.
+ */
+final class CsvReader {
+
+  private final Reader reader;
+  private final char[] buffer = new char[8192];
+  private final StringBuilder field = new StringBuilder();
+  private int position;
+  private int limit;
+  private long line = 1;
+  private long recordLine;
+  private boolean started;
+
+  CsvReader(Reader reader) {
+    this.reader = reader;
+  }
+
+  /**
+   * @return the fields of the next record, or null at the end of the input. A blank line is one empty field.
+   */
+  List<String> next() throws IOException {
+    int c = read();
+    if (!started) {
+      started = true;
+      if (c == '\uFEFF') {
+        c = read(); // Byte order mark
+      }
+    }
+    if (c == -1) {
+      return null;
+    }
+    recordLine = line;
+    List<String> fields = new ArrayList<>();
+    field.setLength(0);
+    boolean quoted = false;
+    while (true) {
+      if (quoted) {
+        if (c == -1) {
+          throw new CatalogImportException("Line " + recordLine + ": quoted field is never closed");
+        }
+        if (c == '"') {
+          c = read();
+          if (c != '"') {
+            quoted = false;
+            continue; // Closing quote, c is the character after it
+          }
+        } else if (c == '\n') {
+          line++;
+        }
+        field.append((char) c);
+      } else if (c == '"' && field.length() == 0) {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else if (c == '\n') {
+        line++;
+        break;
+      } else if (c == -1) {
+        break;
+      } else if (c != '\r') {
+        field.append((char) c);
+      }
+      c = read();
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+
+  /**
+   * @return the line the last record returned by {@link #next()} started on, from 1.
+   */
+  long getRecordLine() {
+    return recordLine;
+  }
+
+  private int read() throws IOException {
+    if (position == limit) {
+      limit = reader.read(buffer, 0, buffer.length);
+      position = 0;
+      if (limit <= 0) {
+        limit = 0;
+        return -1;
+      }
+    }
+    return buffer[position++];
+  }
+}
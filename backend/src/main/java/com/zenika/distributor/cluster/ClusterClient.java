@@ -0,0 +1,130 @@
+package com.zenika.distributor.cluster;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zenika.distributor.dto.ClusterJoinRequest;
+import com.zenika.distributor.dto.SessionTransfer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Node-to-node calls over one shared {@link HttpClient}: heartbeats, session handoffs and forwarded requests.
+ * Every call carries the cluster's shared secret ({@code distributor.cluster.secret}) in {@link #SECRET_HEADER},
+ * which the receiving node checks before trusting it, see {@link ClusterSecretFilter}.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "distributor.cluster.enabled", havingValue = "true")
+public class ClusterClient {
+
+  public static final String FORWARDED_HEADER = "X-Distributor-Forwarded";
+  public static final String SECRET_HEADER = "X-Distributor-Cluster-Secret";
+
+  private static final TypeReference<Map<String, List<String>>> MEMBERS = new TypeReference<>() { };
+
+  private final HttpClient httpClient;
+  private final ObjectMapper objectMapper;
+  private final Duration requestTimeout;
+  private final String secret;
+
+  @Autowired
+  public ClusterClient(ObjectMapper objectMapper,
+                       @Value("${distributor.cluster.request-timeout:PT2S}") Duration requestTimeout,
+                       @Value("${distributor.cluster.secret:}") String secret) {
+    if (secret.isBlank()) {
+      throw new IllegalStateException("distributor.cluster.secret must be set when distributor.cluster.enabled=true: "
+        + "nodes authenticate each other's requests with it");
+    }
+    this.httpClient = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .connectTimeout(requestTimeout)
+      .followRedirects(HttpClient.Redirect.NEVER)
+      .build();
+    this.objectMapper = objectMapper;
+    this.requestTimeout = requestTimeout;
+    this.secret = secret;
+  }
+
+  /**
+   * Sends a heartbeat to {@code target}.
+   * @return the members {@code target} knows of, itself included.
+   */
+  public List<String> join(String target, String self, Collection<String> members) throws IOException {
+    HttpResponse<byte[]> response = send(post(target + "/internal/cluster/join",
+      new ClusterJoinRequest(self, List.copyOf(members))));
+    checkOk(target, response);
+    List<String> known = objectMapper.readValue(response.body(), MEMBERS).get("members");
+    return known != null ? known : List.of();
+  }
+
+  /**
+   * Hands a session over to its new owner, which merges it into whatever it holds for the machine.
+   */
+  public void transferSession(String target, SessionTransfer transfer) throws IOException {
+    checkOk(target, send(post(target + "/internal/cluster/sessions", transfer)));
+  }
+
+  public HttpResponse<byte[]> send(HttpRequest request) throws IOException {
+    try {
+      return httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while calling " + request.uri(), e);
+    }
+  }
+
+  public CompletableFuture<HttpResponse<byte[]>> sendAsync(HttpRequest request) {
+    return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+  }
+
+  /**
+   * @return a request to another node, marked as forwarded so that it is never routed again.
+   */
+  public HttpRequest.Builder newRequest(URI uri) {
+    return HttpRequest.newBuilder(uri)
+      .timeout(requestTimeout)
+      .header(FORWARDED_HEADER, "true")
+      .header(SECRET_HEADER, secret);
+  }
+
+  /**
+   * @return true if {@code value}, the {@link #SECRET_HEADER} of a request, is the cluster's secret.
+   */
+  public boolean isClusterSecret(String value) {
+    return value != null && MessageDigest.isEqual(
+      value.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public HttpRequest post(String uri, Object body) throws IOException {
+    return newRequest(URI.create(uri))
+      .header("Content-Type", "application/json")
+      .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+      .build();
+  }
+
+  public ObjectMapper getObjectMapper() {
+    return objectMapper;
+  }
+
+  private static void checkOk(String target, HttpResponse<byte[]> response) throws IOException {
+    if (response.statusCode() != 200) {
+      throw new IOException(target + " answered " + response.statusCode());
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package com.zenika.distributor.cluster;
+
+import com.zenika.distributor.service.SessionRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Which nodes form the cluster, and the {@link HashRing} built from them.
+ * <p>
+ * Every {@code distributor.cluster.heartbeat-interval} the node sends a heartbeat to the seeds and to every node
+ * it has heard of. A node joins the ring once it answered one directly, and leaves it after
+ * {@code distributor.cluster.failure-threshold} heartbeats in a row went unanswered; nodes named in a reply or
+ * announcing themselves are only heard of until then. Heartbeats run on their own thread, so a slow or dead
+ * node never holds up request threads or the application's scheduled tasks.
+ * <p>
+ * The first round runs before the web server starts, so a node never serves requests believing it owns every
+ * machine. Nodes can briefly disagree on the ring while a change spreads; requests then land on the previous
+ * owner, and the sessions it still holds are merged into the new owner when handed over.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "distributor.cluster.enabled", havingValue = "true")
+public class ClusterMembership implements SmartInitializingSingleton {
+
+  private static final Logger log = LoggerFactory.getLogger(ClusterMembership.class);
+
+  private final ClusterClient client;
+  private final String self;
+  private final Set<String> seeds = new LinkedHashSet<>();
+  private final int virtualNodes;
+  private final int failureThreshold;
+  private final Duration heartbeatInterval;
+
+  private final Map<String, Integer> live = new ConcurrentHashMap<>(); // missed heartbeats per member
+  private final Map<String, Integer> heardOf = new ConcurrentHashMap<>(); // failed attempts per candidate
+  private final ScheduledExecutorService heartbeats;
+  private volatile HashRing ring;
+  private volatile Consumer<HashRing> ringListener = ring -> { };
+
+  @Autowired
+  public ClusterMembership(ClusterClient client,
+                           @Value("${distributor.cluster.self-url:http://localhost:${server.port:8080}}") String selfUrl,
+                           @Value("${distributor.cluster.seeds:}") List<String> seeds,
+                           @Value("${distributor.cluster.virtual-nodes:128}") int virtualNodes,
+                           @Value("${distributor.cluster.failure-threshold:3}") int failureThreshold,
+                           @Value("${distributor.cluster.heartbeat-interval:PT1S}") Duration heartbeatInterval) {
+    this.client = client;
+    this.self = normalizeUrl(selfUrl);
+    for (String seed : seeds) {
+      if (!seed.isBlank() && !normalizeUrl(seed).equals(self)) {
+        this.seeds.add(normalizeUrl(seed));
+      }
+    }
+    this.virtualNodes = virtualNodes;
+    this.failureThreshold = failureThreshold;
+    this.heartbeatInterval = heartbeatInterval;
+    this.ring = new HashRing(List.of(self), virtualNodes);
+    this.heartbeats = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "cluster-heartbeat");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @Override
+  public void afterSingletonsInstantiated() {
+    heartbeat();
+    long intervalMillis = heartbeatInterval.toMillis();
+    heartbeats.scheduleWithFixedDelay(this::heartbeat, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Registers the callback run with the current ring after every heartbeat round, whether or not the ring
+   * changed, so that work left over by an earlier round is retried.
+   */
+  public void setRingListener(Consumer<HashRing> ringListener) {
+    this.ringListener = ringListener;
+  }
+
+  public String getSelf() {
+    return self;
+  }
+
+  public HashRing getRing() {
+    return ring;
+  }
+
+  public int getVirtualNodes() {
+    return virtualNodes;
+  }
+
+  /**
+   * @return the URL of the node serving the machine.
+   */
+  public String ownerOf(String machineId) {
+    return ring.ownerOf(SessionRegistry.normalize(machineId));
+  }
+
+  public boolean isLocal(String machineId) {
+    return self.equals(ownerOf(machineId));
+  }
+
+  /**
+   * @return the nodes heard of that have not answered a heartbeat yet.
+   */
+  public List<String> getPending() {
+    return new ArrayList<>(heardOf.keySet());
+  }
+
+  /**
+   * A heartbeat received from another node. The sender and the members it lists are only heard of until
+   * they answer one of ours.
+   * @return the members of the ring, this node included.
+   */
+  public List<String> onHeartbeat(String url, List<String> members) {
+    hearOf(url);
+    if (members != null) {
+      for (String member : members) {
+        hearOf(member);
+      }
+    }
+    return ring.getNodes();
+  }
+
+  synchronized void heartbeat() {
+    Set<String> targets = new LinkedHashSet<>(seeds);
+    targets.addAll(live.keySet());
+    targets.addAll(heardOf.keySet());
+    List<String> members = ring.getNodes();
+    boolean changed = false;
+    for (String target : targets) {
+      try {
+        List<String> known = client.join(target, self, members);
+        heardOf.remove(target);
+        if (live.put(target, 0) == null) {
+          log.info("Cluster node {} joined", target);
+          changed = true;
+        }
+        for (String member : known) {
+          hearOf(member);
+        }
+      } catch (IOException | RuntimeException e) {
+        changed |= missed(target, e);
+      }
+    }
+    if (changed) {
+      Set<String> nodes = new LinkedHashSet<>(live.keySet());
+      nodes.add(self);
+      ring = new HashRing(nodes, virtualNodes);
+      log.info("Cluster ring is now {}", ring.getNodes());
+    }
+    ringListener.accept(ring);
+  }
+
+  private boolean missed(String target, Exception e) {
+    Integer misses = live.computeIfPresent(target, (url, count) -> count + 1);
+    if (misses != null) {
+      if (misses < failureThreshold) {
+        return false;
+      }
+      log.warn("Cluster node {} left after {} missed heartbeats: {}", target, misses, e.getMessage());
+      live.remove(target);
+      return true;
+    }
+    // Seeds are tried for as long as the node runs, nodes only heard of are given up on
+    if (!seeds.contains(target) && heardOf.merge(target, 1, Integer::sum) >= failureThreshold) {
+      heardOf.remove(target);
+    }
+    return false;
+  }
+
+  private void hearOf(String url) {
+    String node = normalizeUrl(url);
+    if (!node.equals(self) && !live.containsKey(node)) {
+      heardOf.putIfAbsent(node, 0);
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    heartbeats.shutdownNow();
+  }
+
+  static String normalizeUrl(String url) {
+    String trimmed = url.trim();
+    return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+  }
+}
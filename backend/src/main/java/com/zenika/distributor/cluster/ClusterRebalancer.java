@@ -0,0 +1,118 @@
+package com.zenika.distributor.cluster;
+
+import com.zenika.distributor.dto.SessionTransfer;
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.events.MachineEventStream;
+import com.zenika.distributor.service.CoinInventoryService;
+import com.zenika.distributor.service.SessionHandOff;
+import com.zenika.distributor.service.SessionRegistry;
+import com.zenika.distributor.service.VendingMachineService;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Moves machines this node no longer owns to their owner after every heartbeat round: in-flight sessions are
+ * handed over (coins and selection, merged by the new owner), cached coin counts are dropped (they are written
+ * through, the new owner reloads them) and open event streams are closed so that their clients reconnect to
+ * the new owner. A failed handoff leaves the session here and is retried on the next round, under the same
+ * transfer ID so that the new owner ignores it if the failed attempt did reach it. Each handoff is a blocking call
+ * made on the heartbeat thread with the machine's session locked, see {@link VendingMachineService#handOffSession}.
+ * <p>
+ * Stock is counted per product in the shared database, so it needs no moving; the units a handed-over
+ * selection holds are released here and reserved again by the new owner.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "distributor.cluster.enabled", havingValue = "true")
+public class ClusterRebalancer {
+
+  private static final Logger log = LoggerFactory.getLogger(ClusterRebalancer.class);
+
+  private final ClusterMembership membership;
+  private final ClusterClient client;
+  private final VendingMachineService vendingMachineService;
+  private final SessionRegistry sessionRegistry;
+  private final CoinInventoryService coinInventoryService;
+  private final MachineEventStream machineEventStream;
+
+  @Autowired
+  public ClusterRebalancer(ClusterMembership membership, ClusterClient client,
+                           VendingMachineService vendingMachineService, SessionRegistry sessionRegistry,
+                           CoinInventoryService coinInventoryService, MachineEventStream machineEventStream) {
+    this.membership = membership;
+    this.client = client;
+    this.vendingMachineService = vendingMachineService;
+    this.sessionRegistry = sessionRegistry;
+    this.coinInventoryService = coinInventoryService;
+    this.machineEventStream = machineEventStream;
+    membership.setRingListener(this::rebalance);
+  }
+
+  /**
+   * Hands over every machine held here that {@code ring} assigns to another node.
+   */
+  void rebalance(HashRing ring) {
+    String self = membership.getSelf();
+    Set<String> machineIds = new LinkedHashSet<>(sessionRegistry.sessionIds());
+    machineIds.addAll(coinInventoryService.cachedMachineIds());
+    int[] moved = new int[2]; // handed over, failed
+    for (String machineId : machineIds) {
+      String owner = ring.ownerOf(machineId);
+      if (owner == null || owner.equals(self)) {
+        continue;
+      }
+      vendingMachineService.handOffSession(machineId, handOff -> {
+        boolean sent = transfer(owner, machineId, handOff);
+        moved[sent ? 0 : 1]++;
+        return sent;
+      });
+    }
+    for (String machineId : machineEventStream.subscribedMachineIds()) {
+      if (!self.equals(ring.ownerOf(machineId))) {
+        machineEventStream.disconnect(machineId);
+      }
+    }
+    if (moved[0] > 0 || moved[1] > 0) {
+      log.info("Handed {} sessions over to their new owners, {} to retry", moved[0], moved[1]);
+    }
+  }
+
+  private boolean transfer(String owner, String machineId, SessionHandOff handOff) {
+    List<BigDecimal> values = new ArrayList<>(handOff.getCoins().size());
+    for (Coin coin : handOff.getCoins()) {
+      values.add(coin.getValue());
+    }
+    try {
+      client.transferSession(owner,
+        new SessionTransfer(machineId, handOff.getTransferId(), values, handOff.getSelection()));
+      return true;
+    } catch (IOException e) {
+      log.warn("Could not hand session {} over to {}: {}", machineId, owner, e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Hands every session over to the remaining nodes before shutting down, as if this node had left the ring.
+   */
+  @PreDestroy
+  public void leave() {
+    List<String> others = new ArrayList<>(membership.getRing().getNodes());
+    others.remove(membership.getSelf());
+    if (!others.isEmpty()) {
+      rebalance(new HashRing(others, membership.getVirtualNodes()));
+    }
+  }
+}
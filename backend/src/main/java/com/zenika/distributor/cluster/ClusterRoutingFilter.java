@@ -0,0 +1,495 @@
+package com.zenika.distributor.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zenika.distributor.dto.BulkOrderRequest;
+import com.zenika.distributor.dto.BulkOrderResponse;
+import com.zenika.distributor.dto.MachineOrderRequest;
+import com.zenika.distributor.dto.OrderResult;
+import com.zenika.distributor.idempotency.IdempotencyCache;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static com.zenika.distributor.controller.VendingMachineController.MACHINE_ID_HEADER;
+
+/**
+ * Sends each {@code /api/distributor} request to the node owning its machine (the {@code X-Machine-Id} header,
+ * or the {@code machineId} parameter). With {@code distributor.cluster.routing=forward} the request is replayed
+ * on the owner and its answer copied back, so clients can talk to any node; with {@code redirect} the client is
+ * sent a 307 to the owner. Event streams are always redirected, a forwarded stream would tie up a thread here
+ * for as long as it stays open.
+ * <p>
+ * Catalog and price rule administration is not tied to a machine and runs wherever it lands, as do the node's sales
+ * figures and telemetry uploads, which mix machines. A bulk order is split by owner: each node places its share and
+ * the results are put back in request order. The bulk body is read and the merged answer written with the
+ * converters of the controllers, so it may be JSON or CBOR; a body no converter reads is refused here rather than
+ * placed on this node. An {@code Idempotency-Key} goes with every share. Forwarded requests carry
+ * {@link ClusterClient#FORWARDED_HEADER} and are always served locally, so nodes that briefly disagree on the ring
+ * cannot bounce a request between them; the header is only trusted next to the cluster secret, a client sending it
+ * alone is routed like any other.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "distributor.cluster.enabled", havingValue = "true")
+public class ClusterRoutingFilter extends OncePerRequestFilter {
+
+  private static final String API = "/api/distributor";
+
+  // Per-connection headers, and those HttpClient sets itself
+  private static final Set<String> HOP_BY_HOP = Set.of("connection", "content-length", "expect", "host",
+    "keep-alive", "proxy-authenticate", "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade");
+
+  private final ClusterMembership membership;
+  private final ClusterClient client;
+  private final ObjectMapper objectMapper;
+  private final Validator validator;
+  private final List<HttpMessageConverter<?>> converters;
+  private final boolean redirect;
+
+  @Autowired
+  public ClusterRoutingFilter(ClusterMembership membership, ClusterClient client, Validator validator,
+                              HttpMessageConverters converters,
+                              @Value("${distributor.cluster.routing:forward}") String routing) {
+    this.membership = membership;
+    this.client = client;
+    this.objectMapper = client.getObjectMapper();
+    this.validator = validator;
+    this.converters = converters.getConverters();
+    this.redirect = "redirect".equalsIgnoreCase(routing);
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    String path = request.getRequestURI();
+    return !path.startsWith(API + "/")
+      || isForwarded(request)
+      || "OPTIONS".equals(request.getMethod()) // CORS preflight
+      || path.startsWith(API + "/admin/product")
+      || path.startsWith(API + "/admin/catalog")
+      || path.startsWith(API + "/admin/price-rules")
+      || path.startsWith(API + "/admin/analytics/sales")
+      || path.startsWith(API + "/admin/telemetry")
+      || path.equals(API + "/telemetry");
+  }
+
+  private boolean isForwarded(HttpServletRequest request) {
+    return request.getHeader(ClusterClient.FORWARDED_HEADER) != null
+      && client.isClusterSecret(request.getHeader(ClusterClient.SECRET_HEADER));
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+    throws ServletException, IOException {
+    String path = request.getRequestURI();
+    if (path.equals(API + "/orders") && "POST".equals(request.getMethod())) {
+      routeOrders(request, response, chain);
+      return;
+    }
+    String machineId = request.getHeader(MACHINE_ID_HEADER);
+    if (machineId == null) {
+      machineId = request.getParameter("machineId");
+    }
+    String owner = membership.ownerOf(machineId);
+    if (owner.equals(membership.getSelf())) {
+      chain.doFilter(request, response);
+    } else if (redirect || path.equals(API + "/events")) {
+      response.setStatus(HttpServletResponse.SC_TEMPORARY_REDIRECT);
+      response.setHeader("Location", owner + pathAndQuery(request));
+    } else {
+      forward(request, response, owner);
+    }
+  }
+
+  private void forward(HttpServletRequest request, HttpServletResponse response, String owner) throws IOException {
+    byte[] body = request.getInputStream().readAllBytes();
+    HttpRequest.Builder forwarded = client.newRequest(URI.create(owner + pathAndQuery(request)))
+      .method(request.getMethod(), body.length == 0
+        ? HttpRequest.BodyPublishers.noBody()
+        : HttpRequest.BodyPublishers.ofByteArray(body));
+    Enumeration<String> names = request.getHeaderNames();
+    while (names.hasMoreElements()) {
+      String name = names.nextElement();
+      // The cluster headers are set by the client, never taken from the caller
+      if (HOP_BY_HOP.contains(name.toLowerCase(Locale.ROOT))
+        || name.equalsIgnoreCase(ClusterClient.FORWARDED_HEADER) || name.equalsIgnoreCase(ClusterClient.SECRET_HEADER)) {
+        continue;
+      }
+      Enumeration<String> values = request.getHeaders(name);
+      while (values.hasMoreElements()) {
+        forwarded.header(name, values.nextElement());
+      }
+    }
+    HttpResponse<byte[]> answer;
+    try {
+      answer = client.send(forwarded.build());
+    } catch (IOException e) {
+      writeUnavailable(response, owner, e);
+      return;
+    }
+    response.setStatus(answer.statusCode());
+    answer.headers().map().forEach((name, values) -> {
+      if (!name.startsWith(":") && !HOP_BY_HOP.contains(name.toLowerCase(Locale.ROOT))) {
+        for (String value : values) {
+          response.addHeader(name, value);
+        }
+      }
+    });
+    response.getOutputStream().write(answer.body());
+  }
+
+  /**
+   * Places each node's share of a bulk order on that node, remote shares concurrently with the local one. Nodes
+   * exchange their shares in JSON whatever the client speaks.
+   */
+  private void routeOrders(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+    throws ServletException, IOException {
+    byte[] body = request.getInputStream().readAllBytes();
+    MediaType contentType;
+    try {
+      contentType = request.getContentType() != null
+        ? MediaType.parseMediaType(request.getContentType())
+        : MediaType.APPLICATION_JSON;
+    } catch (InvalidMediaTypeException e) {
+      contentType = null;
+    }
+    HttpMessageConverter<BulkOrderRequest> reader = contentType != null ? readerOf(contentType) : null;
+    if (reader == null) {
+      writeError(request, response, HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, Map.of(
+        "error", "Unsupported Media Type",
+        "message", "Bulk orders cannot be read from " + request.getContentType()));
+      return;
+    }
+    MediaType accepted = acceptedType(request);
+    if (accepted == null) {
+      writeError(request, response, HttpServletResponse.SC_NOT_ACCEPTABLE, Map.of(
+        "error", "Not Acceptable",
+        "message", "Bulk order results cannot be written as " + request.getHeader(HttpHeaders.ACCEPT)));
+      return;
+    }
+    BulkOrderRequest bulk;
+    try {
+      bulk = reader.read(BulkOrderRequest.class, new ServletServerHttpRequest(new CachedBodyRequest(request, body)));
+    } catch (HttpMessageNotReadableException | IOException e) {
+      bulk = null;
+    }
+    if (bulk == null) {
+      writeError(request, response, HttpServletResponse.SC_BAD_REQUEST, Map.of(
+        "error", "Malformed JSON Request or Missing Body",
+        "message", "The request body is missing or not readable. Please ensure you are sending a valid JSON payload."));
+      return;
+    }
+    Set<ConstraintViolation<BulkOrderRequest>> violations = validator.validate(bulk);
+    if (!violations.isEmpty()) {
+      Map<String, String> fieldErrors = new HashMap<>();
+      for (ConstraintViolation<BulkOrderRequest> violation : violations) {
+        fieldErrors.put(violation.getPropertyPath().toString(), violation.getMessage());
+      }
+      writeError(request, response, HttpServletResponse.SC_BAD_REQUEST, Map.of(
+        "error", "Validation Failed",
+        "fieldErrors", fieldErrors));
+      return;
+    }
+    List<MachineOrderRequest> orders = bulk.getOrders();
+    Map<String, List<Integer>> byOwner = new LinkedHashMap<>();
+    for (int i = 0; i < orders.size(); i++) {
+      byOwner.computeIfAbsent(membership.ownerOf(orders.get(i).getMachineId()), owner -> new ArrayList<>()).add(i);
+    }
+    String self = membership.getSelf();
+    if (byOwner.size() == 1 && byOwner.containsKey(self)) {
+      chain.doFilter(new CachedBodyRequest(request, body), response);
+      return;
+    }
+
+    // Each share keeps the idempotency key, so a retry split the same way is answered from every owner's cache
+    String idempotencyKey = request.getHeader(IdempotencyCache.HEADER);
+    Map<String, CompletableFuture<HttpResponse<byte[]>>> remote = new LinkedHashMap<>();
+    for (Map.Entry<String, List<Integer>> share : byOwner.entrySet()) {
+      if (!share.getKey().equals(self)) {
+        remote.put(share.getKey(), client.sendAsync(postShare(share.getKey(), subset(orders, share.getValue()),
+          idempotencyKey)));
+      }
+    }
+    OrderResult[] results = new OrderResult[orders.size()];
+    List<Integer> local = byOwner.get(self);
+    if (local != null) {
+      ContentCachingResponseWrapper captured = new ContentCachingResponseWrapper(response);
+      chain.doFilter(new CachedBodyRequest(request, objectMapper.writeValueAsBytes(subset(orders, local)),
+        MediaType.APPLICATION_JSON_VALUE), captured);
+      collect(results, orders, local, self, captured.getStatus(), captured.getContentAsByteArray(), null);
+    }
+    for (Map.Entry<String, CompletableFuture<HttpResponse<byte[]>>> share : remote.entrySet()) {
+      List<Integer> indexes = byOwner.get(share.getKey());
+      try {
+        HttpResponse<byte[]> answer = share.getValue().get();
+        collect(results, orders, indexes, share.getKey(), answer.statusCode(), answer.body(), null);
+      } catch (ExecutionException e) {
+        collect(results, orders, indexes, share.getKey(), 0, null, e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        collect(results, orders, indexes, share.getKey(), 0, null, e);
+      }
+    }
+
+    int dispensed = 0;
+    for (OrderResult result : results) {
+      if (result.isSuccess()) {
+        dispensed++;
+      }
+    }
+    write(response, HttpServletResponse.SC_OK,
+      new BulkOrderResponse(Arrays.asList(results), dispensed, results.length - dispensed), accepted);
+  }
+
+  @SuppressWarnings("unchecked")
+  private HttpMessageConverter<BulkOrderRequest> readerOf(MediaType contentType) {
+    for (HttpMessageConverter<?> converter : converters) {
+      if (converter.canRead(BulkOrderRequest.class, contentType)) {
+        return (HttpMessageConverter<BulkOrderRequest>) converter;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the most preferred type of the {@code Accept} header a converter can write a bulk answer as (concrete,
+   * so the answer says what it is), or {@code null} if there is none.
+   */
+  private MediaType acceptedType(HttpServletRequest request) {
+    List<MediaType> accepted;
+    try {
+      accepted = new ArrayList<>(MediaType.parseMediaTypes(Collections.list(request.getHeaders(HttpHeaders.ACCEPT))));
+    } catch (InvalidMediaTypeException e) {
+      return null;
+    }
+    if (accepted.isEmpty()) {
+      accepted.add(MediaType.ALL);
+    }
+    MimeTypeUtils.sortBySpecificity(accepted);
+    for (MediaType type : accepted) {
+      for (HttpMessageConverter<?> converter : converters) {
+        for (MediaType producible : converter.getSupportedMediaTypes(BulkOrderResponse.class)) {
+          if (converter.canWrite(BulkOrderResponse.class, producible) && producible.isConcrete()
+            && type.isCompatibleWith(producible)) {
+            return producible;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void write(HttpServletResponse response, int status, Object body, MediaType type) throws IOException {
+    response.setStatus(status);
+    // Replaces whatever the local share's controller set on the way
+    response.setContentType(type.toString());
+    for (HttpMessageConverter<?> converter : converters) {
+      if (converter.canWrite(body.getClass(), type)) {
+        ((HttpMessageConverter<Object>) converter).write(body, type, new ServletServerHttpResponse(response));
+        return;
+      }
+    }
+    throw new IOException("No converter writes " + body.getClass().getSimpleName() + " as " + type);
+  }
+
+  // Errors follow the Accept header too, in JSON when it asks for nothing a converter writes
+  private void writeError(HttpServletRequest request, HttpServletResponse response, int status,
+                          Map<String, Object> error) throws IOException {
+    MediaType accepted = acceptedType(request);
+    write(response, status, error, accepted != null ? accepted : MediaType.APPLICATION_JSON);
+  }
+
+  private HttpRequest postShare(String owner, BulkOrderRequest share, String idempotencyKey) throws IOException {
+    if (idempotencyKey == null) {
+      return client.post(owner + API + "/orders", share);
+    }
+    return client.newRequest(URI.create(owner + API + "/orders"))
+      .header("Content-Type", "application/json")
+      .header(IdempotencyCache.HEADER, idempotencyKey)
+      .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(share)))
+      .build();
+  }
+
+  private static BulkOrderRequest subset(List<MachineOrderRequest> orders, List<Integer> indexes) {
+    List<MachineOrderRequest> share = new ArrayList<>(indexes.size());
+    for (Integer index : indexes) {
+      share.add(orders.get(index));
+    }
+    BulkOrderRequest request = new BulkOrderRequest();
+    request.setOrders(share);
+    return request;
+  }
+
+  /**
+   * Puts one node's results back at the positions of its orders; every order is refused if the node failed.
+   */
+  private void collect(OrderResult[] results, List<MachineOrderRequest> orders, List<Integer> indexes, String node,
+                       int status, byte[] body, Throwable failure) {
+    List<OrderResult> answered = null;
+    if (failure == null && status == HttpServletResponse.SC_OK) {
+      try {
+        answered = objectMapper.readValue(body, BulkOrderResponse.class).getResults();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+    for (int i = 0; i < indexes.size(); i++) {
+      int index = indexes.get(i);
+      if (answered != null && i < answered.size()) {
+        results[index] = answered.get(i);
+      } else {
+        String reason = failure != null ? failure.getMessage() : "status " + status;
+        results[index] = OrderResult.refused(orders.get(index).getMachineId(),
+          "Machine is served by " + node + ", which could not place the order: " + reason);
+      }
+    }
+  }
+
+  private void writeUnavailable(HttpServletResponse response, String owner, IOException e) throws IOException {
+    response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    objectMapper.writeValue(response.getOutputStream(), Map.of(
+      "error", "Node Unavailable",
+      "message", "The machine is served by " + owner + ", which did not answer: " + e.getMessage()));
+  }
+
+  private static String pathAndQuery(HttpServletRequest request) {
+    String query = request.getQueryString();
+    return query != null ? request.getRequestURI() + "?" + query : request.getRequestURI();
+  }
+
+  /**
+   * Replays a body already read by the filter, optionally re-encoded: {@code mediaType} then replaces both the
+   * {@code Content-Type} and the {@code Accept} headers of the request.
+   */
+  private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+    private final byte[] body;
+    private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    private CachedBodyRequest(HttpServletRequest request, byte[] body) {
+      super(request);
+      this.body = body;
+    }
+
+    private CachedBodyRequest(HttpServletRequest request, byte[] body, String mediaType) {
+      this(request, body);
+      headers.put(HttpHeaders.CONTENT_TYPE, mediaType);
+      headers.put(HttpHeaders.ACCEPT, mediaType);
+    }
+
+    @Override
+    public String getContentType() {
+      return headers.getOrDefault(HttpHeaders.CONTENT_TYPE, super.getContentType());
+    }
+
+    @Override
+    public String getHeader(String name) {
+      return headers.containsKey(name) ? headers.get(name) : super.getHeader(name);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+      return headers.containsKey(name) ? Collections.enumeration(List.of(headers.get(name))) : super.getHeaders(name);
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+      ByteArrayInputStream in = new ByteArrayInputStream(body);
+      return new ServletInputStream() {
+        @Override
+        public int read() {
+          return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+          return in.read(b, off, len);
+        }
+
+        @Override
+        public boolean isFinished() {
+          return in.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+          return true;
+        }
+
+        // The whole body is already in memory: it is available at once, and all read when the listener returns
+        @Override
+        public void setReadListener(ReadListener readListener) {
+          try {
+            if (!isFinished()) {
+              readListener.onDataAvailable();
+            }
+            if (isFinished()) {
+              readListener.onAllDataRead();
+            }
+          } catch (IOException | RuntimeException e) {
+            readListener.onError(e);
+          }
+        }
+      };
+    }
+
+    @Override
+    public BufferedReader getReader() {
+      return new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public int getContentLength() {
+      return body.length;
+    }
+
+    @Override
+    public long getContentLengthLong() {
+      return body.length;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package com.zenika.distributor.cluster;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Refuses node-to-node requests ({@code /internal/cluster/**}) that do not carry the cluster secret in
+ * {@link ClusterClient#SECRET_HEADER}. They share the port of the public API, and they can add a node to the ring
+ * (which customer requests are then forwarded to) or hand a session, and so a balance, over to this node.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "distributor.cluster.enabled", havingValue = "true")
+public class ClusterSecretFilter extends OncePerRequestFilter {
+
+  static final String INTERNAL = "/internal/cluster";
+
+  private final ClusterClient client;
+
+  @Autowired
+  public ClusterSecretFilter(ClusterClient client) {
+    this.client = client;
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    String path = request.getRequestURI();
+    return !path.equals(INTERNAL) && !path.startsWith(INTERNAL + "/");
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+    throws ServletException, IOException {
+    if (client.isClusterSecret(request.getHeader(ClusterClient.SECRET_HEADER))) {
+      chain.doFilter(request, response);
+      return;
+    }
+    response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    client.getObjectMapper().writeValue(response.getOutputStream(), Map.of(
+      "error", "Unauthorized",
+      "message", "Cluster requests must carry the cluster secret in " + ClusterClient.SECRET_HEADER + "."));
+  }
+}
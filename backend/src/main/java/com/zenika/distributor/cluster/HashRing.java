@@ -0,0 +1,93 @@
+package com.zenika.distributor.cluster;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Consistent hash ring mapping machine IDs to cluster nodes. Each node is placed at {@code virtualNodes} points
+ * of a 64-bit ring and a key belongs to the first point at or after its hash, so adding or removing a node only
+ * moves the keys between its points and their predecessors, about 1/n of them.
+ * <p>
+ * Immutable: membership changes build a new ring. Lookups are one hash and one binary search over a sorted
+ * {@code long[]}, with no allocation.
+ */
+public final class HashRing {
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final List<String> nodes;
+  private final long[] points;
+  private final String[] owners;
+
+  public HashRing(Collection<String> nodes, int virtualNodes) {
+    if (virtualNodes < 1) {
+      throw new IllegalArgumentException("virtualNodes must be positive: " + virtualNodes);
+    }
+    this.nodes = List.copyOf(new TreeSet<>(nodes));
+    int count = this.nodes.size() * virtualNodes;
+    // Sort hash and node index together, packed in a long[] pair per point
+    long[][] placed = new long[count][];
+    int p = 0;
+    for (int n = 0; n < this.nodes.size(); n++) {
+      String node = this.nodes.get(n);
+      for (int v = 0; v < virtualNodes; v++) {
+        placed[p++] = new long[] {hash(node + '#' + v), n};
+      }
+    }
+    // Ties (never seen in practice) go to the smallest node so every instance builds the same ring
+    Arrays.sort(placed, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+    this.points = new long[count];
+    this.owners = new String[count];
+    for (int i = 0; i < count; i++) {
+      points[i] = placed[i][0];
+      owners[i] = this.nodes.get((int) placed[i][1]);
+    }
+  }
+
+  /**
+   * @return the node owning the key, or null if the ring is empty.
+   */
+  public String ownerOf(String key) {
+    if (points.length == 0) {
+      return null;
+    }
+    int index = Arrays.binarySearch(points, hash(key));
+    if (index < 0) {
+      index = -index - 1;
+      if (index == points.length) {
+        index = 0; // Wrap around
+      }
+    }
+    return owners[index];
+  }
+
+  /**
+   * @return the nodes on the ring, sorted.
+   */
+  public List<String> getNodes() {
+    return nodes;
+  }
+
+  public boolean contains(String node) {
+    return nodes.contains(node);
+  }
+
+  /**
+   * 64-bit FNV-1a over the bytes of the UTF-16 chars, finished with the SplitMix64 mixer: FNV alone spreads
+   * keys that only differ in their last characters ({@code kiosk-1}, {@code kiosk-2}) poorly over the high bits.
+   */
+  static long hash(String key) {
+    long h = FNV_OFFSET;
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      h = (h ^ (c & 0xff)) * FNV_PRIME;
+      h = (h ^ (c >>> 8)) * FNV_PRIME;
+    }
+    h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+    h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+    return h ^ (h >>> 31);
+  }
+}
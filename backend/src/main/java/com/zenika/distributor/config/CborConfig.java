@@ -0,0 +1,133 @@
+package com.zenika.distributor.config;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.NumberDeserializers;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.zenika.distributor.model.Money;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.reactivestreams.Publisher;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.CodecConfigurer;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CBOR ({@code application/cbor}) bodies next to JSON on every endpoint, chosen by the {@code Accept} and
+ * {@code Content-Type} headers. Same fields as the JSON, but every amount is an integer number of cents: all the
+ * {@link BigDecimal}s of the API are money.
+ */
+@Configuration
+public class CborConfig {
+
+  /**
+   * A CBOR mapper configured like the JSON one by {@code builder} (Boot's, or a plain one in benchmarks and tests).
+   */
+  public static ObjectMapper cborMapper(Jackson2ObjectMapperBuilder builder) {
+    return builder.factory(new CBORFactory()).build().registerModule(centsModule());
+  }
+
+  static SimpleModule centsModule() {
+    return new SimpleModule("MoneyAsCents")
+      .addSerializer(BigDecimal.class, new CentsSerializer())
+      .addDeserializer(BigDecimal.class, new CentsDeserializer());
+  }
+
+  // Replaces the CBOR converter Spring MVC registers by default, which would write amounts as decimal fractions
+  @Bean
+  @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+  public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+    return new MappingJackson2CborHttpMessageConverter(cborMapper(builder));
+  }
+
+  @Bean
+  @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+  public CodecCustomizer cborCodecCustomizer(ObjectMapper jsonMapper, Jackson2ObjectMapperBuilder builder) {
+    ObjectMapper cborMapper = cborMapper(builder);
+    return configurer -> registerCodecs(configurer, jsonMapper, cborMapper);
+  }
+
+  /**
+   * WebFlux offers custom writers before its own, so JSON is registered again ahead of CBOR to stay the answer to
+   * clients that accept anything. The CBOR media type is explicit: without it the Jackson CBOR codecs claim JSON too.
+   */
+  public static void registerCodecs(CodecConfigurer configurer, ObjectMapper jsonMapper, ObjectMapper cborMapper) {
+    configurer.customCodecs().register(new Jackson2JsonEncoder(jsonMapper));
+    configurer.customCodecs().register(new ListCborEncoder(cborMapper));
+    configurer.customCodecs().register(new Jackson2CborDecoder(cborMapper, MediaType.APPLICATION_CBOR));
+  }
+
+  /**
+   * Writes a {@link Flux} as one CBOR array once it completes; the Jackson encoder only takes single values.
+   */
+  static final class ListCborEncoder extends Jackson2CborEncoder {
+
+    ListCborEncoder(ObjectMapper mapper) {
+      super(mapper, MediaType.APPLICATION_CBOR);
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory, ResolvableType elementType,
+                                   MimeType mimeType, Map<String, Object> hints) {
+      if (inputStream instanceof Mono<?> mono) {
+        return mono.map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints)).flux();
+      }
+      ResolvableType listType = ResolvableType.forClassWithGenerics(List.class, elementType);
+      return Flux.from(inputStream).collectList()
+        .map(list -> encodeValue(list, bufferFactory, listType, mimeType, hints))
+        .flux();
+    }
+  }
+
+  static final class CentsSerializer extends StdSerializer<BigDecimal> {
+
+    CentsSerializer() {
+      super(BigDecimal.class);
+    }
+
+    @Override
+    public void serialize(BigDecimal amount, JsonGenerator gen, SerializerProvider provider) throws IOException {
+      gen.writeNumber(Money.toCents(amount));
+    }
+  }
+
+  // Integers are cents; a client may still send a decimal amount (or a string), read as in JSON
+  static final class CentsDeserializer extends StdDeserializer<BigDecimal> {
+
+    CentsDeserializer() {
+      super(BigDecimal.class);
+    }
+
+    @Override
+    public BigDecimal deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+      if (p.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+        return Money.fromCents(p.getLongValue());
+      }
+      return NumberDeserializers.BigDecimalDeserializer.instance.deserialize(p, ctxt);
+    }
+  }
+}
@@ -3,6 +3,8 @@ package com.zenika.distributor.config;
 
 import com.zenika.distributor.model.Product;
 import com.zenika.distributor.repository.ProductRepository;
+import com.zenika.distributor.service.CoinInventoryService;
+import com.zenika.distributor.service.SessionRegistry;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 import java.math.BigDecimal;
@@ -13,22 +15,34 @@ import java.util.List;
 public class DataInitializer implements CommandLineRunner {
 
   private final ProductRepository productRepository;
+  private final CoinInventoryService coinInventoryService;
 
-  public DataInitializer(ProductRepository productRepository) {
+  public DataInitializer(ProductRepository productRepository, CoinInventoryService coinInventoryService) {
     this.productRepository = productRepository;
+    this.coinInventoryService = coinInventoryService;
   }
 
   @Override
   public void run(String... args) throws Exception {
+    // Seed the catalog once: the database outlives restarts and every node of a cluster runs this
+    if (productRepository.count() == 0) {
+      seedCatalog();
+    }
+
+    // Every machine gets its float of coins on first use, see CoinInventoryService; load the default one now
+    coinInventoryService.getInventory(SessionRegistry.DEFAULT_SESSION_ID);
+  }
+
+  private void seedCatalog() {
     List<Product> products = Arrays.asList(
-      new Product(null, "Soda Classique", new BigDecimal("3.50")),
-      new Product(null, "Jus d'Orange Frais", new BigDecimal("4.00")),
-      new Product(null, "Eau Minérale Naturelle", new BigDecimal("1.50")),
-      new Product(null, "Chips Croustillantes Sel & Vinaigre", new BigDecimal("2.75")),
-      new Product(null, "Barre Chocolatée aux Noisettes", new BigDecimal("5.00")),
-      new Product(null, "Bonbons Gélifiés Fruités", new BigDecimal("2.00")),
-      new Product(null, "Sandwich Poulet Crudités", new BigDecimal("7.50")),
-      new Product(null, "Café Express Chaud", new BigDecimal("3.00"))
+      new Product(null, "Soda Classique", new BigDecimal("3.50"), 20),
+      new Product(null, "Jus d'Orange Frais", new BigDecimal("4.00"), 20),
+      new Product(null, "Eau Minérale Naturelle", new BigDecimal("1.50"), 20),
+      new Product(null, "Chips Croustillantes Sel & Vinaigre", new BigDecimal("2.50"), 20),
+      new Product(null, "Barre Chocolatée aux Noisettes", new BigDecimal("5.00"), 20),
+      new Product(null, "Bonbons Gélifiés Fruités", new BigDecimal("2.00"), 20),
+      new Product(null, "Sandwich Poulet Crudités", new BigDecimal("7.50"), 20),
+      new Product(null, "Café Express Chaud", new BigDecimal("3.00"), 20)
     );
 
     productRepository.saveAll(products);
@@ -0,0 +1,112 @@
+package com.zenika.distributor.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reports virtual threads that stay pinned to their carrier (blocking inside {@code synchronized} or native
+ * code), which silently turns a virtual thread back into a platform thread. Listens to the
+ * {@code jdk.VirtualThreadPinned} JFR event in-process, logs the first occurrence of each call site and keeps
+ * a count per site. The service itself only uses {@link java.util.concurrent.locks.ReentrantLock}, so sites
+ * reported here come from libraries (JDBC driver, connection pool).
+ */
+@Component
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadPinningMonitor {
+
+  private static final Logger log = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+  private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+  private static final int FRAMES_IN_SITE = 6;
+
+  private final Duration threshold;
+  private final Map<String, LongAdder> pinnedBySite = new ConcurrentHashMap<>();
+  private final LongAdder pinnedEvents = new LongAdder();
+  private RecordingStream stream;
+
+  public VirtualThreadPinningMonitor(@Value("${distributor.virtual-threads.pinned-threshold:20ms}") Duration threshold) {
+    this.threshold = threshold;
+  }
+
+  @PostConstruct
+  public void start() {
+    if (Runtime.version().feature() < 21) {
+      log.warn("spring.threads.virtual.enabled is set but the JVM is Java {}; requests run on platform threads. " +
+        "Use Java 21 or later (and build with -Pjava21) for virtual threads.", Runtime.version().feature());
+      return;
+    }
+    stream = new RecordingStream();
+    stream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+    stream.onEvent(PINNED_EVENT, this::onPinned);
+    stream.startAsync();
+    log.info("Virtual thread pinning monitor started (threshold {})", threshold);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (stream != null) {
+      stream.close();
+    }
+  }
+
+  public long getPinnedEvents() {
+    return pinnedEvents.sum();
+  }
+
+  /**
+   * @return pinned events per call site (the top frames of the pinned thread).
+   */
+  public Map<String, Long> getPinnedBySite() {
+    Map<String, Long> counts = new ConcurrentHashMap<>();
+    pinnedBySite.forEach((site, count) -> counts.put(site, count.sum()));
+    return Collections.unmodifiableMap(counts);
+  }
+
+  private void onPinned(RecordedEvent event) {
+    pinnedEvents.increment();
+    String site = site(event.getStackTrace());
+    LongAdder count = pinnedBySite.get(site);
+    if (count == null) {
+      LongAdder created = new LongAdder();
+      count = pinnedBySite.putIfAbsent(site, created);
+      if (count == null) {
+        count = created;
+        log.warn("Virtual thread pinned for {} ms at:\n{}", event.getDuration().toMillis(), site);
+      }
+    }
+    count.increment();
+  }
+
+  private static String site(RecordedStackTrace stackTrace) {
+    if (stackTrace == null) {
+      return "<no stack trace>";
+    }
+    StringBuilder site = new StringBuilder();
+    int frames = 0;
+    for (RecordedFrame frame : stackTrace.getFrames()) {
+      if (!frame.isJavaFrame()) {
+        continue;
+      }
+      site.append("  at ").append(frame.getMethod().getType().getName()).append('.')
+        .append(frame.getMethod().getName()).append(':').append(frame.getLineNumber()).append('\n');
+      if (++frames == FRAMES_IN_SITE) {
+        break;
+      }
+    }
+    return site.toString();
+  }
+}
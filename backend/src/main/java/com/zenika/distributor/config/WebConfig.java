@@ -1,7 +1,10 @@
 package com.zenika.distributor.config; // Or your appropriate config package
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -17,9 +20,33 @@ public class WebConfig {
           .allowedOrigins("http://localhost:3000") // Allow your React app's origin
           .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS") // Allowed HTTP methods
           .allowedHeaders("*") // Allow all headers
+          .exposedHeaders("ETag", "Last-Modified", "Link") // Validators and next page of /products
           .allowCredentials(true) // Allow credentials (cookies, authorization headers)
           .maxAge(3600); // Cache pre-flight response for 1 hour
       }
     };
   }
+
+  // Same policy for the reactive profile, which only picks up WebFlux configurers
+  @Bean
+  public WebFluxConfigurer reactiveCorsConfigurer() {
+    return new WebFluxConfigurer() {
+      @Override
+      public void addCorsMappings(org.springframework.web.reactive.config.CorsRegistry registry) {
+        registry.addMapping("/api/**")
+          .allowedOrigins("http://localhost:3000")
+          .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
+          .allowedHeaders("*")
+          .allowCredentials(true)
+          .maxAge(3600);
+      }
+    };
+  }
+
+  // Tomcat is on the classpath for the servlet API; the reactive profile runs on Netty event loops instead
+  @Bean
+  @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+  public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+    return new NettyReactiveWebServerFactory();
+  }
 }
@@ -0,0 +1,86 @@
+package com.zenika.distributor.controller;
+
+import com.zenika.distributor.analytics.BestSeller;
+import com.zenika.distributor.analytics.SalesAnalytics;
+import com.zenika.distributor.analytics.SalesFigures;
+import com.zenika.distributor.analytics.SalesWindow;
+import com.zenika.distributor.model.Money;
+import com.zenika.distributor.service.SessionRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.zenika.distributor.controller.VendingMachineController.MACHINE_ID_HEADER;
+
+/**
+ * Sales figures kept in memory by {@link SalesAnalytics}; the database is not queried. In a cluster each node
+ * answers {@code /sales} for the machines it serves, while {@code /machine} is routed to the machine's owner.
+ */
+@RestController
+@RequestMapping("/api/distributor/admin/analytics")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class AnalyticsController {
+
+  private final SalesAnalytics salesAnalytics;
+
+  @Autowired
+  public AnalyticsController(SalesAnalytics salesAnalytics) {
+    this.salesAnalytics = salesAnalytics;
+  }
+
+  @GetMapping("/sales")
+  public ResponseEntity<Map<String, Object>> getSales(@RequestParam(value = "window", defaultValue = "hour") String window,
+                                                      @RequestParam(value = "top", defaultValue = "10") int top) {
+    SalesWindow salesWindow = SalesWindow.parse(window);
+    if (salesWindow == null) {
+      return invalidWindow(window);
+    }
+    List<Map<String, Object>> bestSellers = new ArrayList<>();
+    for (BestSeller bestSeller : salesAnalytics.getBestSellers(salesWindow, Math.max(top, 0))) {
+      bestSellers.add(Map.of(
+        "productId", bestSeller.getProductId(),
+        "name", bestSeller.getName(),
+        "units", bestSeller.getUnits(),
+        "revenue", Money.fromCents(bestSeller.getRevenueCents())
+      ));
+    }
+    Map<String, Object> body = figures(salesWindow, salesAnalytics.getNodeFigures(salesWindow));
+    body.put("bestSellers", bestSellers);
+    return ResponseEntity.ok(body);
+  }
+
+  @GetMapping("/machine")
+  public ResponseEntity<Map<String, Object>> getMachineSales(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                                             @RequestParam(value = "machineId", required = false) String machineIdParam,
+                                                             @RequestParam(value = "window", defaultValue = "hour") String window) {
+    SalesWindow salesWindow = SalesWindow.parse(window);
+    if (salesWindow == null) {
+      return invalidWindow(window);
+    }
+    String id = SessionRegistry.normalize(machineId != null ? machineId : machineIdParam);
+    Map<String, Object> body = figures(salesWindow, salesAnalytics.getMachineFigures(id, salesWindow));
+    body.put("machineId", id);
+    return ResponseEntity.ok(body);
+  }
+
+  private static Map<String, Object> figures(SalesWindow window, SalesFigures figures) {
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("window", window.name().toLowerCase(Locale.ROOT));
+    body.put("units", figures.getUnits());
+    body.put("revenue", Money.fromCents(figures.getRevenueCents()));
+    return body;
+  }
+
+  private static ResponseEntity<Map<String, Object>> invalidWindow(String window) {
+    return ResponseEntity.badRequest().body(Map.of(
+      "error", "Invalid Window",
+      "message", "Window must be minute, hour, day or total, got " + window));
+  }
+}
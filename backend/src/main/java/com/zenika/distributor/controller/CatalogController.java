@@ -0,0 +1,68 @@
+package com.zenika.distributor.controller;
+
+import com.zenika.distributor.catalog.CatalogExporter;
+import com.zenika.distributor.catalog.CatalogImporter;
+import com.zenika.distributor.dto.CatalogImportResponse;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Bulk catalog transfer. Request and response bodies are streamed, never held in memory as a whole.
+ */
+@RestController
+@RequestMapping("/api/distributor/admin/catalog")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class CatalogController {
+
+  static final String NDJSON = "application/x-ndjson";
+
+  private final CatalogImporter catalogImporter;
+  private final CatalogExporter catalogExporter;
+
+  @Autowired
+  public CatalogController(CatalogImporter catalogImporter, CatalogExporter catalogExporter) {
+    this.catalogImporter = catalogImporter;
+    this.catalogExporter = catalogExporter;
+  }
+
+  @PostMapping(value = "/import", consumes = "text/csv")
+  public ResponseEntity<CatalogImportResponse> importCsv(InputStream body) throws IOException {
+    return ResponseEntity.ok(catalogImporter.importCsv(body));
+  }
+
+  @PostMapping(value = "/import", consumes = NDJSON)
+  public ResponseEntity<CatalogImportResponse> importNdjson(InputStream body) throws IOException {
+    return ResponseEntity.ok(catalogImporter.importNdjson(body));
+  }
+
+  @GetMapping("/export")
+  public ResponseEntity<Map<String, String>> export(@RequestParam(value = "format", defaultValue = "csv") String format,
+                                                    HttpServletResponse response) throws IOException {
+    switch (format) {
+      case "csv" -> {
+        response.setContentType("text/csv;charset=UTF-8");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"catalog.csv\"");
+        catalogExporter.exportCsv(response.getOutputStream());
+      }
+      case "ndjson" -> {
+        response.setContentType(NDJSON);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"catalog.ndjson\"");
+        catalogExporter.exportNdjson(response.getOutputStream());
+      }
+      default -> {
+        return ResponseEntity.badRequest().body(Map.of(
+          "error", "Invalid Format",
+          "message", "Format must be csv or ndjson, got " + format));
+      }
+    }
+    return null;
+  }
+}
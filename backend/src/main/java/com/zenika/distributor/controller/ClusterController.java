@@ -0,0 +1,78 @@
+package com.zenika.distributor.controller;
+
+import com.zenika.distributor.cluster.ClusterMembership;
+import com.zenika.distributor.dto.ClusterJoinRequest;
+import com.zenika.distributor.dto.SessionTransfer;
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.exception.InvalidCoinException;
+import com.zenika.distributor.service.CartState;
+import com.zenika.distributor.service.VendingMachineService;
+import jakarta.validation.Valid;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Node-to-node endpoints of a cluster, see {@link ClusterMembership}. Not part of the public API.
+ */
+@RestController
+@RequestMapping("/internal/cluster")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "distributor.cluster.enabled", havingValue = "true")
+public class ClusterController {
+
+  private final ClusterMembership membership;
+  private final VendingMachineService vendingMachineService;
+
+  @Autowired
+  public ClusterController(ClusterMembership membership, VendingMachineService vendingMachineService) {
+    this.membership = membership;
+    this.vendingMachineService = vendingMachineService;
+  }
+
+  @GetMapping
+  public ResponseEntity<Map<String, Object>> getStatus() {
+    return ResponseEntity.ok(Map.of(
+      "self", membership.getSelf(),
+      "members", membership.getRing().getNodes(),
+      "pending", membership.getPending()
+    ));
+  }
+
+  @GetMapping("/owner")
+  public ResponseEntity<Map<String, Object>> getOwner(@RequestParam(value = "machineId", required = false) String machineId) {
+    String owner = membership.ownerOf(machineId);
+    return ResponseEntity.ok(Map.of("owner", owner, "local", owner.equals(membership.getSelf())));
+  }
+
+  @PostMapping("/join")
+  public ResponseEntity<Map<String, List<String>>> join(@Valid @RequestBody ClusterJoinRequest request) {
+    return ResponseEntity.ok(Map.of("members", membership.onHeartbeat(request.getUrl(), request.getMembers())));
+  }
+
+  /**
+   * Receives a session from the node that owned the machine before. A transfer received again is answered
+   * without being merged twice.
+   */
+  @PostMapping("/sessions")
+  public ResponseEntity<Map<String, Object>> adoptSession(@Valid @RequestBody SessionTransfer transfer) {
+    List<Coin> coins = new ArrayList<>(transfer.getCoins().size());
+    for (BigDecimal value : transfer.getCoins()) {
+      Coin coin = Coin.lookup(value);
+      if (coin == null) {
+        throw new InvalidCoinException("Invalid coin value: " + value + ". Accepted values: " + Coin.acceptedValues());
+      }
+      coins.add(coin);
+    }
+    CartState state = vendingMachineService.adoptSession(transfer.getMachineId(), transfer.getTransferId(), coins,
+      transfer.getSelection());
+    return ResponseEntity.ok(DistributorResponses.state(state));
+  }
+}
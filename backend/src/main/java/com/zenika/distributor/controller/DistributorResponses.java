@@ -0,0 +1,71 @@
+package com.zenika.distributor.controller;
+
+import com.zenika.distributor.model.Money;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.service.CartLine;
+import com.zenika.distributor.service.CartState;
+import com.zenika.distributor.service.CartUpdate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response bodies shared by the servlet and the reactive controllers, so both serve the same contract.
+ */
+final class DistributorResponses {
+
+  private DistributorResponses() {
+  }
+
+  static Map<String, Object> selected(CartUpdate update) {
+    Product newlySelectedProduct = update.getProduct();
+    return Map.of(
+      "message", "Product '" + newlySelectedProduct.getName() + "' added to selection.",
+      "action", "selected",
+      "product", Map.of("id", newlySelectedProduct.getId(), "name", newlySelectedProduct.getName(), "price", newlySelectedProduct.getPrice()),
+      "quantityOfThisProductInSelection", update.getQuantity(),
+      "currentSelectedItemsCost", Money.fromCents(update.getSelectedCostCents()),
+      "currentBalance", Money.fromCents(update.getBalanceCents())
+    );
+  }
+
+  static Map<String, Object> deselected(CartUpdate update) {
+    Product productThatWasDeselected = update.getProduct();
+    return Map.of(
+      "message", "One instance of product '" + productThatWasDeselected.getName() + "' removed from selection.",
+      "action", "deselected",
+      "product", Map.of("id", productThatWasDeselected.getId(), "name", productThatWasDeselected.getName(), "price", productThatWasDeselected.getPrice()),
+      "quantityOfThisProductRemainingInSelection", update.getQuantity(),
+      "currentSelectedItemsCost", Money.fromCents(update.getSelectedCostCents()),
+      "currentBalance", Money.fromCents(update.getBalanceCents())
+    );
+  }
+
+  static Map<String, Object> notInSelection(Long productId) {
+    return Map.of(
+      "message", "Product with ID " + productId + " not found in current selection or does not exist."
+    );
+  }
+
+  static Map<String, Object> state(CartState state) {
+    List<CartLine> lines = state.getLines();
+    List<Map<String, Object>> selectedItemsWithQuantity = new ArrayList<>(lines.size());
+    for (CartLine line : lines) {
+      Product p = line.getProduct();
+      Map<String, Object> productMap = new HashMap<>();
+      productMap.put("id", p.getId());
+      productMap.put("name", p.getName());
+      productMap.put("price", p.getPrice());
+      productMap.put("quantity", line.getQuantity());
+      selectedItemsWithQuantity.add(productMap);
+    }
+
+    Map<String, Object> responseBody = new HashMap<>();
+    responseBody.put("currentBalance", Money.fromCents(state.getBalanceCents()));
+    responseBody.put("selectedProducts", selectedItemsWithQuantity);
+    responseBody.put("totalSelectedCost", Money.fromCents(state.getSelectedCostCents()));
+    return responseBody;
+  }
+}
@@ -4,11 +4,14 @@ package com.zenika.distributor.controller;
 import com.zenika.distributor.exception.*; // Ensure this import matches your exception package
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.validation.BindingResult;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.http.converter.HttpMessageNotReadableException; // For the first WARN in your log
+import org.springframework.web.bind.support.WebExchangeBindException;
+import org.springframework.web.server.ServerWebInputException;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -50,11 +53,77 @@ public class GlobalExceptionHandler {
     return ResponseEntity.badRequest().body(errorResponse);
   }
 
+  @ExceptionHandler(ExactChangeUnavailableException.class)
+  public ResponseEntity<Map<String, String>> handleExactChangeUnavailableException(ExactChangeUnavailableException ex) {
+    Map<String, String> errorResponse = new HashMap<>();
+    errorResponse.put("error", "Exact Change Unavailable");
+    errorResponse.put("message", ex.getMessage());
+    return ResponseEntity.status(HttpStatus.CONFLICT).body(errorResponse);
+  }
+
+  @ExceptionHandler(OutOfStockException.class)
+  public ResponseEntity<Map<String, String>> handleOutOfStockException(OutOfStockException ex) {
+    Map<String, String> errorResponse = new HashMap<>();
+    errorResponse.put("error", "Out Of Stock");
+    errorResponse.put("message", ex.getMessage());
+    return ResponseEntity.status(HttpStatus.CONFLICT).body(errorResponse);
+  }
+
+  @ExceptionHandler(TransactionInProgressException.class)
+  public ResponseEntity<Map<String, String>> handleTransactionInProgressException(TransactionInProgressException ex) {
+    Map<String, String> errorResponse = new HashMap<>();
+    errorResponse.put("error", "Transaction In Progress");
+    errorResponse.put("message", ex.getMessage());
+    return ResponseEntity.status(HttpStatus.CONFLICT).body(errorResponse);
+  }
+
+  @ExceptionHandler(IdempotencyKeyReusedException.class)
+  public ResponseEntity<Map<String, String>> handleIdempotencyKeyReusedException(IdempotencyKeyReusedException ex) {
+    Map<String, String> errorResponse = new HashMap<>();
+    errorResponse.put("error", "Idempotency Key Reused");
+    errorResponse.put("message", ex.getMessage());
+    return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(errorResponse);
+  }
+
+  @ExceptionHandler(CatalogImportException.class)
+  public ResponseEntity<Map<String, String>> handleCatalogImportException(CatalogImportException ex) {
+    Map<String, String> errorResponse = new HashMap<>();
+    errorResponse.put("error", "Malformed Import");
+    errorResponse.put("message", ex.getMessage());
+    return ResponseEntity.badRequest().body(errorResponse);
+  }
+
+  @ExceptionHandler(MalformedTelemetryException.class)
+  public ResponseEntity<Map<String, String>> handleMalformedTelemetryException(MalformedTelemetryException ex) {
+    Map<String, String> errorResponse = new HashMap<>();
+    errorResponse.put("error", "Malformed Telemetry");
+    errorResponse.put("message", ex.getMessage());
+    return ResponseEntity.badRequest().body(errorResponse);
+  }
+
+  @ExceptionHandler(InvalidPriceRuleException.class)
+  public ResponseEntity<Map<String, String>> handleInvalidPriceRuleException(InvalidPriceRuleException ex) {
+    Map<String, String> errorResponse = new HashMap<>();
+    errorResponse.put("error", "Invalid Price Rule");
+    errorResponse.put("message", ex.getMessage());
+    return ResponseEntity.badRequest().body(errorResponse);
+  }
+
   // Handles validation errors from @Valid on request bodies
   @ExceptionHandler(MethodArgumentNotValidException.class)
   public ResponseEntity<Map<String, Object>> handleValidationExceptions(MethodArgumentNotValidException ex) {
+    return validationFailed(ex.getBindingResult());
+  }
+
+  // Same, raised by the reactive controller
+  @ExceptionHandler(WebExchangeBindException.class)
+  public ResponseEntity<Map<String, Object>> handleWebExchangeBindException(WebExchangeBindException ex) {
+    return validationFailed(ex.getBindingResult());
+  }
+
+  private ResponseEntity<Map<String, Object>> validationFailed(BindingResult bindingResult) {
     Map<String, String> fieldErrors = new HashMap<>();
-    ex.getBindingResult().getAllErrors().forEach((error) -> {
+    bindingResult.getAllErrors().forEach((error) -> {
       String fieldName = ((FieldError) error).getField();
       String errorMessage = error.getDefaultMessage();
       fieldErrors.put(fieldName, errorMessage);
@@ -68,6 +137,16 @@ public class GlobalExceptionHandler {
   // Handles "Required request body is missing"
   @ExceptionHandler(HttpMessageNotReadableException.class)
   public ResponseEntity<Map<String, String>> handleHttpMessageNotReadable(HttpMessageNotReadableException ex) {
+    return bodyNotReadable();
+  }
+
+  // Same, raised by the reactive controller when the body cannot be decoded
+  @ExceptionHandler(ServerWebInputException.class)
+  public ResponseEntity<Map<String, String>> handleServerWebInputException(ServerWebInputException ex) {
+    return bodyNotReadable();
+  }
+
+  private ResponseEntity<Map<String, String>> bodyNotReadable() {
     Map<String, String> errorResponse = new HashMap<>();
     errorResponse.put("error", "Malformed JSON Request or Missing Body");
     // You can make this message more specific if you parse ex.getMessage()
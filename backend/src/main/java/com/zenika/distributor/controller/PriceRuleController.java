@@ -0,0 +1,46 @@
+package com.zenika.distributor.controller;
+
+import com.zenika.distributor.dto.PriceRuleRequest;
+import com.zenika.distributor.model.PriceRule;
+import com.zenika.distributor.pricing.PricingEngine;
+import jakarta.validation.Valid;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * Promotions applied to carts when products are selected. Every node reloads the rules from the database, a
+ * change made here reaches the others within {@code distributor.pricing.refresh-interval}.
+ */
+@RestController
+@RequestMapping("/api/distributor/admin/price-rules")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class PriceRuleController {
+
+  private final PricingEngine pricingEngine;
+
+  @Autowired
+  public PriceRuleController(PricingEngine pricingEngine) {
+    this.pricingEngine = pricingEngine;
+  }
+
+  @GetMapping
+  public ResponseEntity<List<PriceRule>> getRules() {
+    return ResponseEntity.ok(pricingEngine.getRules());
+  }
+
+  @PostMapping
+  public ResponseEntity<PriceRule> addRule(@Valid @RequestBody PriceRuleRequest request) {
+    PriceRule rule = new PriceRule(null, request.getName(), request.getType(), request.getProductIds(),
+      request.getQuantity(), request.getAmount(), request.getMachineId(), request.getStartTime(), request.getEndTime());
+    return ResponseEntity.status(201).body(pricingEngine.addRule(rule));
+  }
+
+  @DeleteMapping("/{ruleId}")
+  public ResponseEntity<Void> deleteRule(@PathVariable Long ruleId) {
+    return pricingEngine.deleteRule(ruleId) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+  }
+}
@@ -0,0 +1,47 @@
+package com.zenika.distributor.controller;
+
+import com.zenika.distributor.dto.ProductDTO;
+import com.zenika.distributor.search.ProductSearchIndex;
+import com.zenika.distributor.service.CatalogCache;
+import com.zenika.distributor.service.VendingMachineService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+import static com.zenika.distributor.controller.VendingMachineController.MACHINE_ID_HEADER;
+
+/**
+ * Product search for kiosk search boxes and admin tools, answered from {@link ProductSearchIndex}. Results are
+ * listed like {@code /products}: with the machine's prices and whether it can afford them.
+ */
+@RestController
+@RequestMapping("/api/distributor")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class ProductSearchController {
+
+  static final int MAX_LIMIT = 100;
+
+  private final ProductSearchIndex productSearchIndex;
+  private final CatalogCache catalogCache;
+  private final VendingMachineService vendingMachineService;
+
+  @Autowired
+  public ProductSearchController(ProductSearchIndex productSearchIndex, CatalogCache catalogCache,
+                                 VendingMachineService vendingMachineService) {
+    this.productSearchIndex = productSearchIndex;
+    this.catalogCache = catalogCache;
+    this.vendingMachineService = vendingMachineService;
+  }
+
+  @GetMapping("/products/search")
+  public ResponseEntity<List<ProductDTO>> search(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                                 @RequestParam(value = "q", defaultValue = "") String query,
+                                                 @RequestParam(value = "limit", defaultValue = "10") int limit) {
+    int bounded = Math.max(0, Math.min(limit, MAX_LIMIT));
+    catalogCache.getSnapshot(); // The index is filled when the catalog is first loaded
+    return ResponseEntity.ok(vendingMachineService.listProducts(machineId, productSearchIndex.search(query, bounded)));
+  }
+}
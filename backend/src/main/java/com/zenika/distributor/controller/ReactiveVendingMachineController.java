@@ -0,0 +1,113 @@
+package com.zenika.distributor.controller;
+
+import com.zenika.distributor.dto.CoinInsertRequest;
+import com.zenika.distributor.dto.DispenseResponse;
+import com.zenika.distributor.dto.ProductDTO;
+import com.zenika.distributor.dto.RefundResponse;
+import com.zenika.distributor.dto.SelectionRequest;
+import com.zenika.distributor.idempotency.IdempotencyCache;
+import com.zenika.distributor.service.ReactiveVendingMachineService;
+import jakarta.validation.Valid;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import static com.zenika.distributor.controller.VendingMachineController.MACHINE_ID_HEADER;
+
+/**
+ * The customer-facing part of the {@code /api/distributor} contract on WebFlux, registered with the
+ * {@code reactive} profile instead of {@link VendingMachineController}.
+ */
+@RestController
+@RequestMapping("/api/distributor")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveVendingMachineController {
+
+  private static final String IDEMPOTENCY_KEY_HEADER = IdempotencyCache.HEADER;
+
+  private final ReactiveVendingMachineService vendingMachineService;
+  private final IdempotencyCache idempotencyCache;
+
+  @Autowired
+  public ReactiveVendingMachineController(ReactiveVendingMachineService vendingMachineService,
+                                          IdempotencyCache idempotencyCache) {
+    this.vendingMachineService = vendingMachineService;
+    this.idempotencyCache = idempotencyCache;
+  }
+
+  // The mutating calls below accept an Idempotency-Key header, like the servlet variant
+  @PostMapping("/coin")
+  public Mono<ResponseEntity<Map<String, BigDecimal>>> insertCoin(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                                                 @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                                                 @Valid @RequestBody CoinInsertRequest request) {
+    return idempotencyCache.executeAsync(machineId, idempotencyKey, "coin", IdempotencyCache.normalized(request.getValue()),
+      () -> vendingMachineService.insertCoin(machineId, request.getValue())
+        .map(newBalance -> ResponseEntity.ok(Map.of("currentBalance", newBalance))));
+  }
+
+  /**
+   * Streamed as a JSON array, or one product per line with {@code Accept: application/x-ndjson}. A CBOR array is
+   * written once the listing is complete.
+   */
+  @GetMapping(value = "/products",
+    produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+  public Flux<ProductDTO> listProducts(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId) {
+    return vendingMachineService.listAvailableProducts(machineId);
+  }
+
+  @PostMapping("/select")
+  public Mono<ResponseEntity<Map<String, Object>>> selectProduct(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                                                 @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                                                 @Valid @RequestBody SelectionRequest request) {
+    return idempotencyCache.executeAsync(machineId, idempotencyKey, "select", request,
+      () -> vendingMachineService.addToCart(machineId, request.getProductId())
+        .map(update -> ResponseEntity.ok(DistributorResponses.selected(update))));
+  }
+
+  @PostMapping("/deselect")
+  public Mono<ResponseEntity<Map<String, Object>>> deselectProduct(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                                                   @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                                                   @Valid @RequestBody SelectionRequest request) {
+    return idempotencyCache.executeAsync(machineId, idempotencyKey, "deselect", request,
+      () -> vendingMachineService.removeFromCart(machineId, request.getProductId())
+        .map(update -> ResponseEntity.ok(DistributorResponses.deselected(update)))
+        .defaultIfEmpty(ResponseEntity.badRequest().body(DistributorResponses.notInSelection(request.getProductId()))));
+  }
+
+  @PostMapping("/dispense")
+  public Mono<ResponseEntity<DispenseResponse>> dispense(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                                         @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+    return idempotencyCache.executeAsync(machineId, idempotencyKey, "dispense", null,
+      () -> vendingMachineService.dispenseProducts(machineId).map(ResponseEntity::ok));
+  }
+
+  @PostMapping("/cancel")
+  public Mono<ResponseEntity<RefundResponse>> cancelTransaction(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                                                @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+    return idempotencyCache.executeAsync(machineId, idempotencyKey, "cancel", null,
+      () -> vendingMachineService.cancelTransaction(machineId).map(ResponseEntity::ok));
+  }
+
+  /**
+   * Same stream as the servlet variant, without holding a thread per open connection.
+   */
+  @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public Flux<ServerSentEvent<String>> streamEvents(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                                    @RequestParam(value = "machineId", required = false) String machineIdParam) {
+    return vendingMachineService.streamEvents(machineId != null ? machineId : machineIdParam);
+  }
+
+  @GetMapping("/state")
+  public Mono<ResponseEntity<Map<String, Object>>> getCurrentState(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId) {
+    return vendingMachineService.getCartState(machineId)
+      .map(state -> ResponseEntity.ok(DistributorResponses.state(state)));
+  }
+}
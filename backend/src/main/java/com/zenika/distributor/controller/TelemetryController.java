@@ -0,0 +1,87 @@
+package com.zenika.distributor.controller;
+
+import com.zenika.distributor.dto.TelemetryIngestResponse;
+import com.zenika.distributor.model.MachineTelemetry;
+import com.zenika.distributor.repository.MachineTelemetryRepository;
+import com.zenika.distributor.service.SessionRegistry;
+import com.zenika.distributor.telemetry.TelemetryDecoder;
+import com.zenika.distributor.telemetry.TelemetryPipeline;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.zenika.distributor.controller.VendingMachineController.MACHINE_ID_HEADER;
+
+/**
+ * Reports pushed by the machines every few seconds, see {@link TelemetryDecoder} for the formats. An upload may
+ * mix machines and is served by whichever node receives it. Accepted readings are written asynchronously, so
+ * the last report of a machine shows up within {@code distributor.telemetry.flush-interval}.
+ */
+@RestController
+@RequestMapping("/api/distributor")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class TelemetryController {
+
+  private final TelemetryDecoder telemetryDecoder;
+  private final TelemetryPipeline telemetryPipeline;
+  private final MachineTelemetryRepository machineTelemetryRepository;
+
+  @Autowired
+  public TelemetryController(TelemetryDecoder telemetryDecoder, TelemetryPipeline telemetryPipeline,
+                             MachineTelemetryRepository machineTelemetryRepository) {
+    this.telemetryDecoder = telemetryDecoder;
+    this.telemetryPipeline = telemetryPipeline;
+    this.machineTelemetryRepository = machineTelemetryRepository;
+  }
+
+  @PostMapping(value = "/telemetry", consumes = CatalogController.NDJSON)
+  public ResponseEntity<TelemetryIngestResponse> ingestNdjson(InputStream body) throws IOException {
+    return answer(telemetryDecoder.readNdjson(body));
+  }
+
+  @PostMapping(value = "/telemetry", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+  public ResponseEntity<TelemetryIngestResponse> ingestBinary(InputStream body) throws IOException {
+    return answer(telemetryDecoder.readBinary(body));
+  }
+
+  private static ResponseEntity<TelemetryIngestResponse> answer(TelemetryIngestResponse response) {
+    if (response.isRefused()) {
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").body(response);
+    }
+    return ResponseEntity.accepted().body(response);
+  }
+
+  @GetMapping("/admin/telemetry")
+  public ResponseEntity<MachineTelemetry> getLatest(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                                    @RequestParam(value = "machineId", required = false) String machineIdParam) {
+    String id = SessionRegistry.normalize(machineId != null ? machineId : machineIdParam);
+    return machineTelemetryRepository.findById(id)
+      .map(ResponseEntity::ok)
+      .orElseGet(() -> ResponseEntity.notFound().build());
+  }
+
+  @GetMapping("/admin/telemetry/stats")
+  public ResponseEntity<Map<String, Object>> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("accepted", telemetryPipeline.getAccepted());
+    stats.put("rejected", telemetryPipeline.getRejected());
+    stats.put("dropped", telemetryPipeline.getDropped());
+    stats.put("refusedRequests", telemetryPipeline.getRefusedRequests());
+    stats.put("coalesced", telemetryPipeline.getCoalesced());
+    stats.put("written", telemetryPipeline.getWritten());
+    stats.put("failed", telemetryPipeline.getFailed());
+    stats.put("batches", telemetryPipeline.getBatches());
+    stats.put("queued", telemetryPipeline.getQueued());
+    stats.put("capacity", telemetryPipeline.getCapacity());
+    return ResponseEntity.ok(stats);
+  }
+}
@@ -1,14 +1,34 @@
 package com.zenika.distributor.controller;
 
 import com.zenika.distributor.dto.*;
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.events.EventSubscription;
+import com.zenika.distributor.events.MachineEventStream;
+import com.zenika.distributor.events.SseEmitterSink;
+import com.zenika.distributor.idempotency.IdempotencyCache;
+import com.zenika.distributor.model.Money;
 import com.zenika.distributor.model.Product;
+import com.zenika.distributor.service.CartUpdate;
+import com.zenika.distributor.service.CatalogCache;
+import com.zenika.distributor.service.CatalogSnapshot;
+import com.zenika.distributor.service.CoinInventorySnapshot;
+import com.zenika.distributor.service.ListingVersion;
+import com.zenika.distributor.service.ProductPage;
+import com.zenika.distributor.service.SessionRegistry;
 import com.zenika.distributor.service.VendingMachineService;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,116 +36,225 @@ import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/distributor")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class VendingMachineController {
 
+  /** Identifies the kiosk a request belongs to; each machine runs its own transaction. */
+  public static final String MACHINE_ID_HEADER = "X-Machine-Id";
+
+  private static final String IDEMPOTENCY_KEY_HEADER = IdempotencyCache.HEADER;
+
+  static final int DEFAULT_PAGE_SIZE = 100;
+  static final int MAX_PAGE_SIZE = 1000;
+
   private final VendingMachineService vendingMachineService;
+  private final MachineEventStream machineEventStream;
+  private final IdempotencyCache idempotencyCache;
 
   @Autowired
-  public VendingMachineController(VendingMachineService vendingMachineService) {
+  public VendingMachineController(VendingMachineService vendingMachineService, MachineEventStream machineEventStream,
+                                  IdempotencyCache idempotencyCache) {
     this.vendingMachineService = vendingMachineService;
+    this.machineEventStream = machineEventStream;
+    this.idempotencyCache = idempotencyCache;
   }
 
+  // The mutating calls below accept an Idempotency-Key header: a retry with the same key gets the first response
   @PostMapping("/coin")
-  public ResponseEntity<Map<String, BigDecimal>> insertCoin(@Valid @RequestBody CoinInsertRequest request) {
-    BigDecimal newBalance = vendingMachineService.insertCoin(request.getValue());
-    return ResponseEntity.ok(Map.of("currentBalance", newBalance));
+  public ResponseEntity<Map<String, BigDecimal>> insertCoin(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                                           @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                                           @Valid @RequestBody CoinInsertRequest request) {
+    return idempotencyCache.execute(machineId, idempotencyKey, "coin", IdempotencyCache.normalized(request.getValue()), () -> {
+      BigDecimal newBalance = vendingMachineService.insertCoin(machineId, request.getValue());
+      return ResponseEntity.ok(Map.of("currentBalance", newBalance));
+    });
   }
 
+  /**
+   * The whole listing, or one page of it when {@code after} or {@code limit} is given, with a {@code Link} to the
+   * next page. A poll whose {@code If-None-Match} or {@code If-Modified-Since} still holds gets a 304 without the
+   * listing being built. The validators cover the page returned only, so a page is not sent again for products
+   * sold out on other pages.
+   */
   @GetMapping("/products")
-  public ResponseEntity<List<ProductDTO>> listProducts() {
-    return ResponseEntity.ok(vendingMachineService.listAvailableProducts());
+  public ResponseEntity<List<ProductDTO>> listProducts(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                                       @RequestParam(value = "after", required = false) Long after,
+                                                       @RequestParam(value = "limit", required = false) Integer limit,
+                                                       WebRequest request) {
+    boolean paged = after != null || limit != null;
+    int pageSize = Math.max(1, Math.min(limit != null ? limit : DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE));
+    long afterId = after != null ? after : 0L;
+    ListingVersion version = paged
+      ? vendingMachineService.listingVersion(machineId, afterId, pageSize)
+      : vendingMachineService.listingVersion(machineId);
+    // Weak: the JSON and CBOR bodies of one listing differ byte for byte but are the same products
+    String etag = "W/" + version.getEtag();
+    if (request.checkNotModified(etag, version.getLastModifiedMillis())) {
+      return null; // 304, with the validators already set
+    }
+    ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+      .eTag(etag)
+      .varyBy(HttpHeaders.ACCEPT)
+      .lastModified(version.getLastModifiedMillis())
+      .cacheControl(CacheControl.noCache()); // Stored, but always revalidated
+    if (!paged) {
+      return response.body(vendingMachineService.listAvailableProducts(machineId));
+    }
+    ProductPage page = vendingMachineService.listAvailableProducts(machineId, afterId, pageSize);
+    if (page.getNextAfter() != null) {
+      response.header(HttpHeaders.LINK,
+        "</api/distributor/products?after=" + page.getNextAfter() + "&limit=" + pageSize + ">; rel=\"next\"");
+    }
+    return response.body(page.getProducts());
+  }
+
+  @GetMapping("/products/affordable")
+  public ResponseEntity<List<ProductDTO>> listAffordableProducts(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId) {
+    return ResponseEntity.ok(vendingMachineService.listAffordableProducts(machineId));
+  }
+
+  @GetMapping("/products/affordable/count")
+  public ResponseEntity<Map<String, Integer>> countAffordableProducts(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId) {
+    return ResponseEntity.ok(Map.of("count", vendingMachineService.countAffordableProducts(machineId)));
   }
 
   @PostMapping("/select")
-  public ResponseEntity<Map<String, Object>> selectProduct(@Valid @RequestBody SelectionRequest request) {
-    Product newlySelectedProduct = vendingMachineService.selectProduct(request.getProductId());
-
-    List<Product> currentSelection = vendingMachineService.getSelectedProducts();
-    BigDecimal currentSelectedItemsCost = currentSelection.stream()
-      .map(Product::getPrice)
-      .reduce(BigDecimal.ZERO, BigDecimal::add);
-    long countOfThisProductSelected = currentSelection.stream()
-      .filter(p -> p.getId().equals(newlySelectedProduct.getId()))
-      .count();
-
-    return ResponseEntity.ok(Map.of(
-      "message", "Product '" + newlySelectedProduct.getName() + "' added to selection.",
-      "action", "selected",
-      "product", Map.of("id", newlySelectedProduct.getId(), "name", newlySelectedProduct.getName(), "price", newlySelectedProduct.getPrice()),
-      "quantityOfThisProductInSelection", countOfThisProductSelected,
-      "currentSelectedItemsCost", currentSelectedItemsCost,
-      "currentBalance", vendingMachineService.getCurrentBalance()
-    ));
+  public ResponseEntity<Map<String, Object>> selectProduct(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                                           @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                                           @Valid @RequestBody SelectionRequest request) {
+    return idempotencyCache.execute(machineId, idempotencyKey, "select", request, () -> {
+      CartUpdate update = vendingMachineService.addToCart(machineId, request.getProductId());
+      return ResponseEntity.ok(DistributorResponses.selected(update));
+    });
   }
 
   @PostMapping("/deselect")
-  public ResponseEntity<Map<String, Object>> deselectProduct(@Valid @RequestBody SelectionRequest request) {
-    Product productThatWasDeselected = vendingMachineService.deselectProduct(request.getProductId());
+  public ResponseEntity<Map<String, Object>> deselectProduct(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                                             @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                                             @Valid @RequestBody SelectionRequest request) {
+    return idempotencyCache.execute(machineId, idempotencyKey, "deselect", request, () -> {
+      CartUpdate update = vendingMachineService.removeFromCart(machineId, request.getProductId());
 
-    if (productThatWasDeselected == null) {
-      return ResponseEntity.badRequest().body(Map.of(
-        "message", "Product with ID " + request.getProductId() + " not found in current selection or does not exist."
-      ));
-    }
+      if (update == null) {
+        return ResponseEntity.badRequest().body(DistributorResponses.notInSelection(request.getProductId()));
+      }
+      return ResponseEntity.ok(DistributorResponses.deselected(update));
+    });
+  }
 
-    List<Product> currentSelection = vendingMachineService.getSelectedProducts();
-    BigDecimal currentSelectedItemsCost = currentSelection.stream()
-      .map(Product::getPrice)
-      .reduce(BigDecimal.ZERO, BigDecimal::add);
-    long countOfThisProductRemaining = currentSelection.stream()
-      .filter(p -> p.getId().equals(productThatWasDeselected.getId()))
-      .count();
+  @PostMapping("/dispense")
+  public ResponseEntity<DispenseResponse> dispense(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                                   @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+    return idempotencyCache.execute(machineId, idempotencyKey, "dispense", null,
+      () -> ResponseEntity.ok(vendingMachineService.dispenseProducts(machineId)));
+  }
 
-    return ResponseEntity.ok(Map.of(
-      "message", "One instance of product '" + productThatWasDeselected.getName() + "' removed from selection.",
-      "action", "deselected",
-      "product", Map.of("id", productThatWasDeselected.getId(), "name", productThatWasDeselected.getName(), "price", productThatWasDeselected.getPrice()),
-      "quantityOfThisProductRemainingInSelection", countOfThisProductRemaining,
-      "currentSelectedItemsCost", currentSelectedItemsCost,
-      "currentBalance", vendingMachineService.getCurrentBalance()
-    ));
+  /**
+   * Coins, selection and dispense in one atomic call.
+   */
+  @PostMapping("/order")
+  public ResponseEntity<DispenseResponse> placeOrder(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                                     @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                                     @Valid @RequestBody OrderRequest request) {
+    List<BigDecimal> coins = request.getCoins().stream().map(IdempotencyCache::normalized).toList();
+    return idempotencyCache.execute(machineId, idempotencyKey, "order", Arrays.asList(coins, request.getItems()),
+      () -> ResponseEntity.ok(vendingMachineService.placeOrder(machineId, request.getCoins(), request.getItems())));
   }
 
-  @PostMapping("/dispense")
-  public ResponseEntity<DispenseResponse> dispense() {
-    return ResponseEntity.ok(vendingMachineService.dispenseProducts());
+  /**
+   * Independent orders for many machines; refused orders are reported per entry. Its idempotency keys are kept
+   * under the set of machines ordered for, so two batches for different machines never share a key.
+   */
+  @PostMapping("/orders")
+  public ResponseEntity<BulkOrderResponse> placeOrders(@RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                                       @Valid @RequestBody BulkOrderRequest request) {
+    List<List<Object>> orders = request.getOrders().stream()
+      .map(order -> Arrays.<Object>asList(SessionRegistry.normalize(order.getMachineId()),
+        order.getCoins().stream().map(IdempotencyCache::normalized).toList(), order.getItems()))
+      .toList();
+    // Header values hold no line break, so joining on one keeps distinct machine sets apart
+    String machines = orders.stream().map(order -> (String) order.get(0)).distinct().sorted()
+      .collect(Collectors.joining("\n"));
+    return idempotencyCache.execute(machines, idempotencyKey, "orders", orders,
+      () -> ResponseEntity.ok(vendingMachineService.placeOrders(request.getOrders())));
   }
 
   @PostMapping("/cancel")
-  public ResponseEntity<RefundResponse> cancelTransaction() {
-    return ResponseEntity.ok(vendingMachineService.cancelTransaction());
+  public ResponseEntity<RefundResponse> cancelTransaction(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                                          @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+    return idempotencyCache.execute(machineId, idempotencyKey, "cancel", null,
+      () -> ResponseEntity.ok(vendingMachineService.cancelTransaction(machineId)));
   }
 
   @PostMapping("/admin/product")
   public ResponseEntity<Product> addProduct(@Valid @RequestBody AddProductRequest request) {
-    Product newProduct = vendingMachineService.addProduct(request.getName(), request.getPrice());
+    int stock = request.getStock() != null ? request.getStock() : 0;
+    Product newProduct = vendingMachineService.addProduct(request.getName(), request.getPrice(), stock);
     return ResponseEntity.status(201).body(newProduct);
   }
 
-  @GetMapping("/state")
-  public ResponseEntity<Map<String, Object>> getCurrentState() {
-    List<Product> currentSelectionRaw = vendingMachineService.getSelectedProducts();
-
-    Map<Long, List<Product>> groupedById = currentSelectionRaw.stream()
-      .collect(Collectors.groupingBy(Product::getId));
-
-    List<Map<String, Object>> selectedItemsWithQuantity = groupedById.entrySet().stream()
-      .map(entry -> {
-        Product p = entry.getValue().get(0); // Get representative product for name/price
-        Map<String, Object> productMap = new HashMap<>();
-        productMap.put("id", p.getId());
-        productMap.put("name", p.getName());
-        productMap.put("price", p.getPrice());
-        productMap.put("quantity", (long) entry.getValue().size());
-        return productMap;
-      })
-      .collect(Collectors.toList());
+  @PostMapping("/admin/product/{productId}/restock")
+  public ResponseEntity<Map<String, Object>> restockProduct(@PathVariable Long productId,
+                                                            @Valid @RequestBody RestockRequest request) {
+    int stock = vendingMachineService.restockProduct(productId, request.getQuantity());
+    return ResponseEntity.ok(Map.of("productId", productId, "stock", stock));
+  }
 
+  @GetMapping("/admin/catalog/stats")
+  public ResponseEntity<Map<String, Object>> getCatalogStats() {
+    CatalogCache cache = vendingMachineService.getCatalogCache();
+    CatalogSnapshot snapshot = cache.getSnapshot();
     Map<String, Object> responseBody = new HashMap<>();
-    responseBody.put("currentBalance", vendingMachineService.getCurrentBalance());
-    responseBody.put("selectedProducts", selectedItemsWithQuantity);
-    responseBody.put("totalSelectedCost", currentSelectionRaw.stream().map(Product::getPrice).reduce(BigDecimal.ZERO, BigDecimal::add));
-
+    responseBody.put("version", snapshot.getVersion());
+    responseBody.put("products", snapshot.size());
+    responseBody.put("hits", cache.getHits());
+    responseBody.put("misses", cache.getMisses());
+    responseBody.put("hitRatio", cache.getHitRatio());
+    responseBody.put("rebuilds", cache.getRebuilds());
+    responseBody.put("lastRebuildMicros", cache.getLastRebuildNanos() / 1_000);
     return ResponseEntity.ok(responseBody);
   }
+
+  @GetMapping("/admin/coins")
+  public ResponseEntity<Map<String, Object>> getCoinInventory(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId) {
+    return ResponseEntity.ok(coinInventoryBody(vendingMachineService.getCoinInventory(machineId)));
+  }
+
+  @PutMapping("/admin/coins")
+  public ResponseEntity<Map<String, Object>> setCoinQuantity(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                                             @Valid @RequestBody CoinStockRequest request) {
+    CoinInventorySnapshot inventory = vendingMachineService.setCoinQuantity(machineId, request.getValue(), request.getQuantity());
+    return ResponseEntity.ok(coinInventoryBody(inventory));
+  }
+
+  private static Map<String, Object> coinInventoryBody(CoinInventorySnapshot inventory) {
+    List<Map<String, Object>> coins = Coin.getSortedCoinsDesc().stream()
+      .map(coin -> Map.<String, Object>of("value", coin.getValue(), "quantity", inventory.count(coin)))
+      .collect(Collectors.toList());
+    return Map.of(
+      "coins", coins,
+      "totalValue", Money.fromCents(inventory.totalCents())
+    );
+  }
+
+  /**
+   * Pushes the machine's balance, cart, affordability and stock changes as server-sent events, see
+   * {@link MachineEventStream}. EventSource cannot set headers, so the machine may also be given as a parameter.
+   */
+  @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter streamEvents(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId,
+                                 @RequestParam(value = "machineId", required = false) String machineIdParam) {
+    SseEmitter emitter = new SseEmitter(0L); // No timeout: heartbeats find dead connections
+    EventSubscription subscription = vendingMachineService.withCartState(machineId != null ? machineId : machineIdParam,
+      (id, state) -> machineEventStream.subscribe(id, state, new SseEmitterSink(emitter)));
+    emitter.onCompletion(subscription::close);
+    emitter.onTimeout(subscription::close);
+    emitter.onError(e -> subscription.close());
+    return emitter;
+  }
+
+  @GetMapping("/state")
+  public ResponseEntity<Map<String, Object>> getCurrentState(@RequestHeader(value = MACHINE_ID_HEADER, required = false) String machineId) {
+    return ResponseEntity.ok(DistributorResponses.state(vendingMachineService.getCartState(machineId)));
+  }
 }
@@ -1,6 +1,10 @@
 package com.zenika.distributor.dto;
 
+import com.zenika.distributor.enums.Coin;
+import jakarta.validation.constraints.AssertTrue;
 import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Digits;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import lombok.Data;
@@ -13,5 +17,14 @@ public class AddProductRequest {
 
   @NotNull(message = "Product price is required")
   @DecimalMin(value = "0.0", inclusive = false, message = "Price must be positive")
+  @Digits(integer = 10, fraction = 2, message = "Price must have at most two decimal places")
   private BigDecimal price;
+
+  @Min(value = 0, message = "Stock cannot be negative")
+  private Integer stock;
+
+  @AssertTrue(message = "Price must be a multiple of the smallest coin, or it cannot be paid")
+  private boolean isPricePayable() {
+    return price == null || price.scale() > 2 || Coin.isPayable(price.movePointRight(2).longValue());
+  }
 }
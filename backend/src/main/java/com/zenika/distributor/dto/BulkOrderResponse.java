@@ -0,0 +1,16 @@
+package com.zenika.distributor.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkOrderResponse {
+  private List<OrderResult> results; // Same order as the request
+  private int dispensed;
+  private int refused;
+}
@@ -0,0 +1,20 @@
+package com.zenika.distributor.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk catalog import. Rejected rows are skipped, the others are imported.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CatalogImportResponse {
+  private long imported;
+  private long rejected;
+  private List<String> errors; // The first rejections, with their line number
+  private long elapsedMillis;
+}
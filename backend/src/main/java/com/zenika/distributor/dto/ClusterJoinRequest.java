@@ -0,0 +1,21 @@
+package com.zenika.distributor.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Heartbeat of a cluster node: its own URL and the members it currently routes to.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClusterJoinRequest {
+  @NotBlank(message = "Node URL cannot be blank")
+  private String url;
+
+  private List<String> members;
+}
@@ -0,0 +1,17 @@
+package com.zenika.distributor.dto;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+@Data
+public class CoinStockRequest {
+  @NotNull(message = "Coin value cannot be null")
+  private BigDecimal value;
+
+  @NotNull(message = "Quantity cannot be null")
+  @Min(value = 0, message = "Quantity cannot be negative")
+  private Integer quantity;
+}
@@ -0,0 +1,23 @@
+package com.zenika.distributor.dto;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * One order of a bulk request, addressed to a machine. A missing machine ID targets the default machine.
+ */
+@Data
+@NoArgsConstructor
+@EqualsAndHashCode(callSuper = true)
+public class MachineOrderRequest extends OrderRequest {
+  private String machineId;
+
+  public MachineOrderRequest(String machineId, List<BigDecimal> coins, List<OrderItem> items) {
+    super(coins, items);
+    this.machineId = machineId;
+  }
+}
@@ -0,0 +1,25 @@
+package com.zenika.distributor.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * A whole basket in one call: the coins to insert and the products to buy.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderRequest {
+  @NotNull(message = "Coins cannot be null")
+  private List<@NotNull BigDecimal> coins;
+
+  @NotEmpty(message = "At least one item must be ordered")
+  private List<@Valid @NotNull OrderItem> items;
+}
@@ -0,0 +1,26 @@
+package com.zenika.distributor.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of one order of a bulk request: either the dispensed order or the reason it was refused.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderResult {
+  private String machineId;
+  private boolean success;
+  private DispenseResponse order;
+  private String error;
+
+  public static OrderResult dispensed(String machineId, DispenseResponse order) {
+    return new OrderResult(machineId, true, order, null);
+  }
+
+  public static OrderResult refused(String machineId, String error) {
+    return new OrderResult(machineId, false, null, error);
+  }
+}
@@ -0,0 +1,41 @@
+package com.zenika.distributor.dto;
+
+import com.zenika.distributor.enums.PriceRuleType;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Digits;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalTime;
+import java.util.List;
+
+@Data
+public class PriceRuleRequest {
+  @NotBlank(message = "Rule name is required")
+  private String name;
+
+  @NotNull(message = "Rule type is required")
+  private PriceRuleType type;
+
+  @NotEmpty(message = "At least one product ID is required")
+  private List<Long> productIds;
+
+  @Min(value = 1, message = "Quantity must be at least 1")
+  private Integer quantity;
+
+  @DecimalMin(value = "0.0", inclusive = false, message = "Amount must be positive")
+  @Digits(integer = 10, fraction = 2, message = "Amount must have at most two decimal places")
+  private BigDecimal amount;
+
+  // Applies to every machine when missing
+  private String machineId;
+
+  // Applies all day when both are missing
+  private LocalTime startTime;
+
+  private LocalTime endTime;
+}
@@ -14,4 +14,5 @@ public class ProductDTO {
   private String name;
   private BigDecimal price;
   private boolean purchasable;
+  private int stock; // Units left that are not reserved by a cart
 }
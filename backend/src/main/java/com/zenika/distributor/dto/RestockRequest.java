@@ -0,0 +1,12 @@
+package com.zenika.distributor.dto;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+@Data
+public class RestockRequest {
+  @NotNull(message = "Quantity cannot be null")
+  @Min(value = 1, message = "Quantity must be at least 1")
+  private Integer quantity;
+}
@@ -0,0 +1,33 @@
+package com.zenika.distributor.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A machine's in-flight session moved to the node that now owns the machine.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SessionTransfer {
+  @NotNull(message = "Machine ID cannot be null")
+  private String machineId;
+
+  // Same for every attempt of one handoff, so the receiver applies it once
+  @NotBlank(message = "Transfer ID cannot be blank")
+  private String transferId;
+
+  @NotNull(message = "Coins cannot be null")
+  private List<@NotNull BigDecimal> coins;
+
+  // Units selected per product ID
+  @NotNull(message = "Selection cannot be null")
+  private Map<Long, Integer> selection;
+}
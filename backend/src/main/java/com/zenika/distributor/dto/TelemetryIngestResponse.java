@@ -0,0 +1,19 @@
+package com.zenika.distributor.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of a telemetry upload, in reading order: the first {@code accepted + rejected + dropped} readings
+ * were read. When {@code refused} is set the queue was full and the readings after them were not read.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TelemetryIngestResponse {
+  private long accepted;
+  private long rejected; // Invalid readings, skipped
+  private long dropped; // Valid readings that did not fit in the queue
+  private boolean refused;
+}
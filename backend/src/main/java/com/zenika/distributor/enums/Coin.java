@@ -14,29 +14,116 @@ public enum Coin {
   FIVE_MAD(new BigDecimal("5.00")),
   TEN_MAD(new BigDecimal("10.00"));
 
+  // Lookup tables built once: value in cents -> coin, and the denominations from largest to smallest
+  private static final Coin[] BY_CENTS;
+  private static final List<Coin> SORTED_DESC;
+  private static final String ACCEPTED_VALUES;
+  private static final int GRID_CENTS; // greatest common divisor of the denominations
+
+  static {
+    Coin[] coins = values();
+    int maxCents = Arrays.stream(coins).mapToInt(Coin::getCents).max().orElse(0);
+    BY_CENTS = new Coin[maxCents + 1];
+    for (Coin coin : coins) {
+      BY_CENTS[coin.cents] = coin;
+    }
+    SORTED_DESC = Arrays.stream(coins)
+      .sorted(Comparator.comparingInt(Coin::getCents).reversed())
+      .toList();
+    int gcd = 0;
+    for (Coin coin : coins) {
+      gcd = gcd(gcd, coin.cents);
+    }
+    GRID_CENTS = gcd;
+    ACCEPTED_VALUES = SORTED_DESC.stream()
+      .map(coin -> coin.getValue().toPlainString())
+      .collect(Collectors.joining(", "));
+  }
+
   private final BigDecimal value;
+  private final int cents;
 
   Coin(BigDecimal value) {
     this.value = value;
+    this.cents = value.movePointRight(2).intValueExact();
   }
 
   public BigDecimal getValue() {
     return value;
   }
 
+  public int getCents() {
+    return cents;
+  }
+
+  /**
+   * @return true if some combination of coins adds up to exactly {@code cents}: prices off this grid (a multiple
+   * of 0.50 for MAD) could never be paid without change the machine cannot give.
+   */
+  public static boolean isPayable(long cents) {
+    return cents >= 0 && cents % GRID_CENTS == 0;
+  }
+
+  /**
+   * @return the greatest common divisor of the denominations in cents: every amount coins add up to is a
+   * multiple of it.
+   */
+  public static int gridCents() {
+    return GRID_CENTS;
+  }
+
+  /**
+   * @return the step of the amounts {@link #isPayable} accepts, e.g. "0.50".
+   */
+  public static String payableStep() {
+    return BigDecimal.valueOf(GRID_CENTS, 2).toPlainString();
+  }
+
+  private static int gcd(int a, int b) {
+    return b == 0 ? a : gcd(b, a % b);
+  }
+
   public static boolean isValid(BigDecimal value) {
-    return Arrays.stream(values()).anyMatch(coin -> coin.getValue().compareTo(value) == 0);
+    return lookup(value) != null;
   }
 
   public static Optional<Coin> fromValue(BigDecimal value) {
-    return Arrays.stream(values())
-      .filter(coin -> coin.getValue().compareTo(value) == 0)
-      .findFirst();
+    return Optional.ofNullable(lookup(value));
+  }
+
+  /**
+   * Finds the coin with the given value.
+   * @return the matching coin, or null if the value is not an accepted denomination.
+   */
+  public static Coin lookup(BigDecimal value) {
+    // Reject non-positive, oversized (more than 16 integer digits) and sub-cent values before converting
+    if (value == null || value.signum() <= 0 || value.precision() - value.scale() > 16) {
+      return null;
+    }
+    if (value.scale() > 2 && value.stripTrailingZeros().scale() > 2) {
+      return null;
+    }
+    return fromCents(value.movePointRight(2).longValue());
   }
 
+  /**
+   * @return the coin worth exactly {@code cents}, or null if there is none.
+   */
+  public static Coin fromCents(long cents) {
+    return cents >= 0 && cents < BY_CENTS.length ? BY_CENTS[(int) cents] : null;
+  }
+
+  /**
+   * @return the denominations from largest to smallest, as a cached immutable list.
+   */
   public static List<Coin> getSortedCoinsDesc() {
-    return Arrays.stream(values())
-      .sorted(Comparator.comparing(Coin::getValue).reversed())
-      .collect(Collectors.toList());
+    return SORTED_DESC;
+  }
+
+  /**
+   * @return the accepted values as a display string, e.g. "10.00, 5.00, 2.00, 1.00, 0.50".
+   */
+  public static String acceptedValues() {
+    return ACCEPTED_VALUES;
   }
 }
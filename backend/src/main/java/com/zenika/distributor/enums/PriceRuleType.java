@@ -0,0 +1,13 @@
+package com.zenika.distributor.enums;
+
+/**
+ * Kinds of promotion a {@link com.zenika.distributor.model.PriceRule} can describe.
+ */
+public enum PriceRuleType {
+  /** Replaces the catalog price of one product, e.g. for one machine or during a happy hour. */
+  UNIT_PRICE,
+  /** Every {@code quantity + 1}th unit of one product is free. */
+  BUY_N_GET_ONE,
+  /** {@code amount} off each complete set of the listed products (a product listed twice needs two units). */
+  COMBO
+}
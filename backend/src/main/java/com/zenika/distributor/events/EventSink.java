@@ -0,0 +1,24 @@
+package com.zenika.distributor.events;
+
+import java.io.IOException;
+
+/**
+ * The connection a {@link MachineEventStream} subscription writes to. Calls for one subscription never overlap.
+ */
+public interface EventSink {
+
+  /**
+   * @param data a JSON document.
+   */
+  void send(String event, String data) throws IOException;
+
+  /**
+   * Writes a comment line so idle connections stay open through proxies and dead ones are detected.
+   */
+  void heartbeat() throws IOException;
+
+  /**
+   * Ends the stream from the server side; the client is expected to reconnect and receive a fresh state.
+   */
+  void close();
+}
@@ -0,0 +1,112 @@
+package com.zenika.distributor.events;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One open event stream. Events are queued by whichever thread produced them and written in order by at most one
+ * dispatcher thread at a time, so a slow connection never holds a session lock or delays other connections.
+ * A connection that falls {@code maxQueued} events behind is closed; its client reconnects and starts again
+ * from a fresh state.
+ */
+public final class EventSubscription {
+
+  private static final String[] HEARTBEAT = new String[0];
+  private static final int DRAIN_BATCH = 64;
+
+  private final MachineEventStream stream;
+  private final String machineId;
+  private final EventSink sink;
+  private final Executor dispatcher;
+  private final int maxQueued;
+
+  private final Queue<String[]> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  EventSubscription(MachineEventStream stream, String machineId, EventSink sink, Executor dispatcher, int maxQueued) {
+    this.stream = stream;
+    this.machineId = machineId;
+    this.sink = sink;
+    this.dispatcher = dispatcher;
+    this.maxQueued = maxQueued;
+  }
+
+  public String getMachineId() {
+    return machineId;
+  }
+
+  public boolean isClosed() {
+    return closed.get();
+  }
+
+  void offer(String event, String data) {
+    enqueue(new String[] {event, data});
+  }
+
+  void heartbeat() {
+    enqueue(HEARTBEAT);
+  }
+
+  private void enqueue(String[] entry) {
+    if (closed.get()) {
+      return;
+    }
+    if (queued.incrementAndGet() > maxQueued) {
+      close();
+      return;
+    }
+    queue.add(entry);
+    schedule();
+  }
+
+  private void schedule() {
+    if (scheduled.compareAndSet(false, true)) {
+      try {
+        dispatcher.execute(this::drain);
+      } catch (RejectedExecutionException e) {
+        close();
+      }
+    }
+  }
+
+  private void drain() {
+    int budget = DRAIN_BATCH;
+    String[] entry;
+    while (budget-- > 0 && (entry = queue.poll()) != null) {
+      queued.decrementAndGet();
+      if (closed.get()) {
+        continue;
+      }
+      try {
+        if (entry == HEARTBEAT) {
+          sink.heartbeat();
+        } else {
+          sink.send(entry[0], entry[1]);
+        }
+      } catch (Exception e) {
+        close(); // Client went away
+      }
+    }
+    scheduled.set(false);
+    // Give other connections a turn when this one has more, and pick up events queued while finishing
+    if (!queue.isEmpty()) {
+      schedule();
+    }
+  }
+
+  /**
+   * Stops delivery and releases the connection; safe to call from any thread, any number of times.
+   */
+  public void close() {
+    if (closed.compareAndSet(false, true)) {
+      stream.unsubscribe(this);
+      sink.close();
+    }
+  }
+}
@@ -0,0 +1,584 @@
+package com.zenika.distributor.events;
+
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.model.Money;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.pricing.PriceBook;
+import com.zenika.distributor.pricing.PriceBookSource;
+import com.zenika.distributor.service.CartLine;
+import com.zenika.distributor.service.CartState;
+import com.zenika.distributor.service.CatalogCache;
+import com.zenika.distributor.service.StockService;
+import com.zenika.distributor.service.VendingEventListener;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pushes each machine's state to its open screens as small deltas instead of having them poll
+ * {@code /state} and {@code /products} after every action.
+ * <p>
+ * A new subscription first receives a {@code state} event (balance, selection cost, cart lines and the IDs of
+ * the products the balance covers), and receives it again whenever the machine's promotions change. From then on the stream mirrors the machine's session from the
+ * {@link VendingEventListener} callbacks, which arrive in order under the session lock, and sends:
+ * <ul>
+ *   <li>{@code balance}: balance and selection cost;</li>
+ *   <li>{@code cart}: the cart lines whose quantity changed, 0 meaning removed;</li>
+ *   <li>{@code affordability}: products the spendable amount now covers or no longer covers, at the machine's
+ *   promotional unit price if it has one, else found in the price-sorted catalog index between the old and the new
+ *   amount. A product counts only while units are left, so one selling out or coming back flips too;</li>
+ *   <li>{@code stock}: units left per product, shared by all machines. Changes are coalesced and sent at most
+ *   once per {@code distributor.events.stock-interval} with the values read at that time.</li>
+ * </ul>
+ * Machines without a subscriber cost one map lookup per event.
+ */
+@Component
+public class MachineEventStream implements VendingEventListener {
+
+  private final CatalogCache catalogCache;
+  private final StockService stockService;
+  private final PriceBookSource pricing;
+  private final Executor dispatcher;
+  private final int maxQueuedEvents;
+
+  private final Map<String, MachineView> views = new ConcurrentHashMap<>();
+  private final AtomicInteger subscriptions = new AtomicInteger();
+  private final Set<Long> dirtyStock = ConcurrentHashMap.newKeySet();
+  private final Map<Long, Integer> sentStock = new ConcurrentHashMap<>();
+  // Products left out of some affordability for lack of units, to announce when they come back
+  private final Set<Long> withheld = ConcurrentHashMap.newKeySet();
+  private final LongAdder published = new LongAdder();
+
+  @Autowired
+  public MachineEventStream(CatalogCache catalogCache, StockService stockService,
+                            ObjectProvider<PriceBookSource> pricing,
+                            @Value("${distributor.events.dispatch-threads:4}") int dispatchThreads,
+                            @Value("${distributor.events.max-queued:256}") int maxQueuedEvents) {
+    this(catalogCache, stockService, pricing.getIfAvailable(() -> PriceBookSource.NONE), newDispatcher(dispatchThreads),
+      maxQueuedEvents);
+  }
+
+  public MachineEventStream(CatalogCache catalogCache, StockService stockService, Executor dispatcher, int maxQueuedEvents) {
+    this(catalogCache, stockService, PriceBookSource.NONE, dispatcher, maxQueuedEvents);
+  }
+
+  public MachineEventStream(CatalogCache catalogCache, StockService stockService, PriceBookSource pricing,
+                            Executor dispatcher, int maxQueuedEvents) {
+    this.catalogCache = catalogCache;
+    this.stockService = stockService;
+    this.pricing = pricing;
+    this.dispatcher = dispatcher;
+    this.maxQueuedEvents = maxQueuedEvents;
+  }
+
+  private static ExecutorService newDispatcher(int threads) {
+    AtomicInteger count = new AtomicInteger();
+    return Executors.newFixedThreadPool(threads, task -> {
+      Thread thread = new Thread(task, "machine-events-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Opens a stream for a machine. Must be called with the machine's session lock held, see
+   * {@link com.zenika.distributor.service.VendingMachineService#withCartState}, so that no event falls between
+   * {@code state} and the first delta.
+   */
+  public EventSubscription subscribe(String machineId, CartState state, EventSink sink) {
+    EventSubscription subscription = new EventSubscription(this, machineId, sink, dispatcher, maxQueuedEvents);
+    MachineView view = views.compute(machineId, (id, current) -> {
+      MachineView next = current != null ? current : new MachineView(id);
+      next.subscriptions.add(subscription);
+      return next;
+    });
+    subscriptions.incrementAndGet();
+    synchronized (view) {
+      view.reset(state, pricing.forMachine(machineId));
+      subscription.offer("state", stateJson(view));
+    }
+    published.increment();
+    return subscription;
+  }
+
+  void unsubscribe(EventSubscription subscription) {
+    views.computeIfPresent(subscription.getMachineId(), (id, view) -> {
+      if (view.subscriptions.remove(subscription)) {
+        subscriptions.decrementAndGet();
+      }
+      return view.subscriptions.isEmpty() ? null : view;
+    });
+  }
+
+  /**
+   * @return how many events a connection may fall behind before it is closed.
+   */
+  public int getMaxQueuedEvents() {
+    return maxQueuedEvents;
+  }
+
+  public int getSubscriptions() {
+    return subscriptions.get();
+  }
+
+  /**
+   * @return events handed to subscriptions, each subscription counted once.
+   */
+  public long getPublishedEvents() {
+    return published.sum();
+  }
+
+  @Override
+  public void onCoinInserted(String machineId, Coin coin) {
+    MachineView view = views.get(machineId);
+    if (view == null) {
+      return;
+    }
+    synchronized (view) {
+      long spendableBefore = view.spendableCents();
+      view.balanceCents += coin.getCents();
+      publishBalance(view, spendableBefore);
+    }
+  }
+
+  @Override
+  public void onProductSelected(String machineId, Product product, long selectedCostCents) {
+    stockChanged(product.getId());
+    MachineView view = views.get(machineId);
+    if (view == null) {
+      return;
+    }
+    synchronized (view) {
+      long spendableBefore = view.spendableCents();
+      view.products.put(product.getId(), product);
+      int quantity = view.quantities.merge(product.getId(), 1, Integer::sum);
+      view.selectedCents = selectedCostCents;
+      view.publish(this, "cart", cartJson(Map.of(product.getId(), quantity)));
+      publishBalance(view, spendableBefore);
+    }
+  }
+
+  @Override
+  public void onProductDeselected(String machineId, Long productId, int quantity, long selectedCostCents) {
+    stockChanged(productId);
+    MachineView view = views.get(machineId);
+    if (view == null) {
+      return;
+    }
+    synchronized (view) {
+      if (!view.products.containsKey(productId)) {
+        return;
+      }
+      long spendableBefore = view.spendableCents();
+      int remaining = Math.max(0, view.quantities.getOrDefault(productId, 0) - quantity);
+      if (remaining == 0) {
+        view.quantities.remove(productId);
+        view.products.remove(productId);
+      } else {
+        view.quantities.put(productId, remaining);
+      }
+      view.selectedCents = selectedCostCents;
+      view.publish(this, "cart", cartJson(Map.of(productId, remaining)));
+      publishBalance(view, spendableBefore);
+    }
+  }
+
+  @Override
+  public void onDispensed(String machineId, List<CartLine> lines, int[] change) {
+    for (CartLine line : lines) {
+      stockChanged(line.getProduct().getId());
+    }
+    endTransaction(machineId);
+  }
+
+  @Override
+  public void onRefunded(String machineId, int[] coins) {
+    endTransaction(machineId);
+  }
+
+  @Override
+  public void onOrderPlaced(String machineId, int[] inserted, List<CartLine> lines, int[] change) {
+    for (CartLine line : lines) {
+      stockChanged(line.getProduct().getId());
+    }
+  }
+
+  @Override
+  public void onSessionEvicted(String machineId) {
+    endTransaction(machineId);
+  }
+
+  @Override
+  public void onSessionAdopted(String machineId, List<Coin> coins, List<CartLine> lines, long selectedCostCents) {
+    for (CartLine line : lines) {
+      stockChanged(line.getProduct().getId());
+    }
+    MachineView view = views.get(machineId);
+    if (view == null) {
+      return;
+    }
+    synchronized (view) {
+      long spendableBefore = view.spendableCents();
+      for (Coin coin : coins) {
+        view.balanceCents += coin.getCents();
+      }
+      view.selectedCents = selectedCostCents;
+      if (!lines.isEmpty()) {
+        Map<Long, Integer> changed = new HashMap<>();
+        for (CartLine line : lines) {
+          Product product = line.getProduct();
+          view.products.put(product.getId(), product);
+          changed.put(product.getId(), view.quantities.merge(product.getId(), line.getQuantity(), Integer::sum));
+        }
+        view.publish(this, "cart", cartJson(changed));
+      }
+      publishBalance(view, spendableBefore);
+    }
+  }
+
+  @Override
+  public void onRestocked(Long productId) {
+    stockChanged(productId);
+  }
+
+  /**
+   * The session was emptied: its cart lines are cleared and their reservations released.
+   */
+  private void endTransaction(String machineId) {
+    MachineView view = views.get(machineId);
+    if (view == null) {
+      return;
+    }
+    synchronized (view) {
+      if (view.balanceCents == 0 && view.quantities.isEmpty()) {
+        return;
+      }
+      long spendableBefore = view.spendableCents();
+      if (!view.quantities.isEmpty()) {
+        Map<Long, Integer> cleared = new HashMap<>();
+        for (Long productId : view.quantities.keySet()) {
+          cleared.put(productId, 0);
+          stockChanged(productId);
+        }
+        view.quantities.clear();
+        view.products.clear();
+        view.publish(this, "cart", cartJson(cleared));
+      }
+      view.balanceCents = 0;
+      view.selectedCents = 0;
+      publishBalance(view, spendableBefore);
+    }
+  }
+
+  private void publishBalance(MachineView view, long spendableBefore) {
+    PriceBook book = pricing.forMachine(view.machineId);
+    if (book != view.book) {
+      // The screens' list was priced with other promotions: send it whole again
+      view.book = book;
+      view.publish(this, "state", stateJson(view));
+      return;
+    }
+    view.publish(this, "balance", "{\"balance\":" + Money.fromCents(view.balanceCents).toPlainString()
+      + ",\"selectedCost\":" + Money.fromCents(view.selectedCents).toPlainString() + "}");
+    long spendableAfter = view.spendableCents();
+    if (spendableAfter == spendableBefore) {
+      return;
+    }
+    long low = Math.min(spendableBefore, spendableAfter);
+    long high = Math.max(spendableBefore, spendableAfter);
+    boolean gained = spendableAfter > spendableBefore;
+    // Products are only announced while in stock, but always withdrawn: the screen may hold one that sold out since
+    List<Product> flipped = new ArrayList<>();
+    for (Product product : catalogCache.getSnapshot().pricedBetween(low, high)) {
+      if (!book.hasUnitPrice(product.getId()) && (!gained || inStock(product))) {
+        flipped.add(product);
+      }
+    }
+    for (int i = 0; i < book.promotedCount(); i++) {
+      long priceCents = book.promotedPriceCents(i);
+      Product product = priceCents > low && priceCents <= high && Coin.isPayable(priceCents)
+        ? catalogCache.findById(book.promotedProductId(i))
+        : null;
+      if (product != null && (!gained || inStock(product))) {
+        flipped.add(product);
+      }
+    }
+    if (flipped.isEmpty()) {
+      return;
+    }
+    view.publish(this, "affordability", affordabilityJson(gained ? flipped : List.of(), gained ? List.of() : flipped));
+  }
+
+  /**
+   * @return the products the machine can buy one more unit of for {@code spendableCents}, as {@code /products}
+   * marks them purchasable: at their promotional or catalog price, payable in coins, with units left.
+   */
+  private List<Product> affordableProducts(PriceBook book, long spendableCents) {
+    List<Product> affordable = new ArrayList<>();
+    for (Product product : catalogCache.getSnapshot().affordableProducts(spendableCents)) {
+      if (!book.hasUnitPrice(product.getId()) && inStock(product)) {
+        affordable.add(product);
+      }
+    }
+    for (int i = 0; i < book.promotedCount(); i++) {
+      long priceCents = book.promotedPriceCents(i);
+      Product product = priceCents <= spendableCents && Coin.isPayable(priceCents)
+        ? catalogCache.findById(book.promotedProductId(i))
+        : null;
+      if (product != null && inStock(product)) {
+        affordable.add(product);
+      }
+    }
+    return affordable;
+  }
+
+  private boolean inStock(Product product) {
+    if (stockService.available(product) > 0) {
+      return true;
+    }
+    withheld.add(product.getId());
+    return false;
+  }
+
+  private void stockChanged(Long productId) {
+    if (!views.isEmpty()) {
+      dirtyStock.add(productId);
+    }
+  }
+
+  /**
+   * Sends the products whose units left changed since the last flush to every subscription.
+   */
+  @Scheduled(fixedDelayString = "${distributor.events.stock-interval:PT0.1S}")
+  public void flushStock() {
+    // Units a machine without subscribers gives back are not reported: look for withheld products coming back
+    for (Iterator<Long> ids = withheld.iterator(); ids.hasNext(); ) {
+      Long productId = ids.next();
+      Product product = catalogCache.findById(productId);
+      if (product == null) {
+        ids.remove();
+      } else if (stockService.available(product) > 0) {
+        dirtyStock.add(productId);
+      }
+    }
+    if (dirtyStock.isEmpty()) {
+      return;
+    }
+    StringBuilder json = new StringBuilder("{\"products\":[");
+    boolean any = false;
+    List<Product> soldOut = new ArrayList<>();
+    List<Product> backInStock = new ArrayList<>();
+    for (Iterator<Long> dirty = dirtyStock.iterator(); dirty.hasNext(); ) {
+      Long productId = dirty.next();
+      dirty.remove();
+      Product product = catalogCache.findById(productId);
+      if (product == null) {
+        continue;
+      }
+      int available = stockService.available(product);
+      Integer previous = sentStock.put(productId, available);
+      if (previous != null && previous == available) {
+        continue;
+      }
+      if (available == 0) {
+        withheld.add(productId);
+        soldOut.add(product);
+      } else if (withheld.remove(productId)) {
+        backInStock.add(product);
+      }
+      if (any) {
+        json.append(',');
+      }
+      json.append("{\"productId\":").append(productId).append(",\"stock\":").append(available).append('}');
+      any = true;
+    }
+    if (!any) {
+      return;
+    }
+    String data = json.append("]}").toString();
+    for (MachineView view : views.values()) {
+      view.publish(this, "stock", data);
+      if (!soldOut.isEmpty() || !backInStock.isEmpty()) {
+        publishStockAffordability(view, soldOut, backInStock);
+      }
+    }
+  }
+
+  /**
+   * Flips the products that sold out or came back among those the machine's spendable amount covers.
+   */
+  private void publishStockAffordability(MachineView view, List<Product> soldOut, List<Product> backInStock) {
+    synchronized (view) {
+      long spendableCents = view.spendableCents();
+      List<Product> lost = coveredBy(view.book, spendableCents, soldOut);
+      List<Product> gained = coveredBy(view.book, spendableCents, backInStock);
+      if (!lost.isEmpty() || !gained.isEmpty()) {
+        view.publish(this, "affordability", affordabilityJson(gained, lost));
+      }
+    }
+  }
+
+  private static List<Product> coveredBy(PriceBook book, long spendableCents, List<Product> products) {
+    List<Product> covered = new ArrayList<>(products.size());
+    for (Product product : products) {
+      long priceCents = book.unitPriceCents(product);
+      if (priceCents <= spendableCents && Coin.isPayable(priceCents)) {
+        covered.add(product);
+      }
+    }
+    return covered;
+  }
+
+  @Scheduled(fixedDelayString = "${distributor.events.heartbeat-interval:PT25S}")
+  public void sendHeartbeats() {
+    for (MachineView view : views.values()) {
+      for (EventSubscription subscription : view.subscriptions) {
+        subscription.heartbeat();
+      }
+    }
+  }
+
+  /**
+   * Closes the machine's open streams, for instance once another instance serves it. Clients reconnect
+   * and get a fresh {@code state} from wherever the machine is served.
+   */
+  public void disconnect(String machineId) {
+    MachineView view = views.get(machineId);
+    if (view != null) {
+      for (EventSubscription subscription : view.subscriptions) {
+        subscription.close();
+      }
+    }
+  }
+
+  /**
+   * @return the machines with at least one open stream.
+   */
+  public List<String> subscribedMachineIds() {
+    return new ArrayList<>(views.keySet());
+  }
+
+  @PreDestroy
+  public void close() {
+    for (MachineView view : new ArrayList<>(views.values())) {
+      for (EventSubscription subscription : view.subscriptions) {
+        subscription.close();
+      }
+    }
+    if (dispatcher instanceof ExecutorService executor) {
+      executor.shutdown();
+    }
+  }
+
+  private String stateJson(MachineView view) {
+    StringBuilder json = new StringBuilder(128);
+    json.append("{\"balance\":").append(Money.fromCents(view.balanceCents).toPlainString())
+      .append(",\"selectedCost\":").append(Money.fromCents(view.selectedCents).toPlainString())
+      .append(",\"cart\":");
+    appendLines(json, view.quantities);
+    json.append(",\"affordable\":");
+    appendIds(json, affordableProducts(view.book, view.spendableCents()));
+    return json.append('}').toString();
+  }
+
+  private static String affordabilityJson(List<Product> affordable, List<Product> unaffordable) {
+    StringBuilder json = new StringBuilder(32 + (affordable.size() + unaffordable.size()) * 8).append('{');
+    if (!affordable.isEmpty()) {
+      json.append("\"affordable\":");
+      appendIds(json, affordable);
+    }
+    if (!unaffordable.isEmpty()) {
+      json.append(affordable.isEmpty() ? "\"unaffordable\":" : ",\"unaffordable\":");
+      appendIds(json, unaffordable);
+    }
+    return json.append('}').toString();
+  }
+
+  private static String cartJson(Map<Long, Integer> quantities) {
+    StringBuilder json = new StringBuilder(48).append("{\"lines\":");
+    appendLines(json, quantities);
+    return json.append('}').toString();
+  }
+
+  private static void appendLines(StringBuilder json, Map<Long, Integer> quantities) {
+    json.append('[');
+    boolean first = true;
+    for (Map.Entry<Long, Integer> line : quantities.entrySet()) {
+      if (!first) {
+        json.append(',');
+      }
+      json.append("{\"productId\":").append(line.getKey()).append(",\"quantity\":").append(line.getValue()).append('}');
+      first = false;
+    }
+    json.append(']');
+  }
+
+  private static void appendIds(StringBuilder json, List<Product> products) {
+    json.append('[');
+    for (int i = 0; i < products.size(); i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append(products.get(i).getId());
+    }
+    json.append(']');
+  }
+
+  /**
+   * What the screens of one machine currently show. Fields are only touched holding the view's monitor: session
+   * events take it under the machine's session lock, the stock flush on its own.
+   */
+  private static final class MachineView {
+    private final String machineId;
+    private final List<EventSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Map<Long, Product> products = new HashMap<>();
+    private final Map<Long, Integer> quantities = new HashMap<>();
+    private long balanceCents;
+    private long selectedCents;
+    private PriceBook book = PriceBook.NONE; // Prices of the affordable products sent
+
+    private MachineView(String machineId) {
+      this.machineId = machineId;
+    }
+
+    private void reset(CartState state, PriceBook book) {
+      this.book = book;
+      balanceCents = state.getBalanceCents();
+      selectedCents = state.getSelectedCostCents();
+      products.clear();
+      quantities.clear();
+      for (CartLine line : state.getLines()) {
+        products.put(line.getProduct().getId(), line.getProduct());
+        quantities.put(line.getProduct().getId(), line.getQuantity());
+      }
+    }
+
+    private long spendableCents() {
+      return balanceCents - selectedCents;
+    }
+
+    private void publish(MachineEventStream stream, String event, String data) {
+      for (EventSubscription subscription : subscriptions) {
+        subscription.offer(event, data);
+        stream.published.increment();
+      }
+    }
+  }
+}
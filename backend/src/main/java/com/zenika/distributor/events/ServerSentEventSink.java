@@ -0,0 +1,47 @@
+package com.zenika.distributor.events;
+
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.io.IOException;
+
+/**
+ * Feeds a WebFlux {@code text/event-stream} response. The buffer in front of the connection is bounded: when the
+ * client stops reading, emission fails and the subscription is closed like any other dead connection.
+ */
+public final class ServerSentEventSink implements EventSink {
+
+  private final Sinks.Many<ServerSentEvent<String>> sink;
+
+  public ServerSentEventSink(int bufferSize) {
+    this.sink = Sinks.many().unicast().onBackpressureBuffer(Queues.<ServerSentEvent<String>>get(bufferSize).get());
+  }
+
+  public Flux<ServerSentEvent<String>> asFlux() {
+    return sink.asFlux();
+  }
+
+  @Override
+  public void send(String event, String data) throws IOException {
+    emit(ServerSentEvent.builder(data).event(event).build());
+  }
+
+  @Override
+  public void heartbeat() throws IOException {
+    emit(ServerSentEvent.<String>builder().comment("keep-alive").build());
+  }
+
+  private void emit(ServerSentEvent<String> event) throws IOException {
+    Sinks.EmitResult result = sink.tryEmitNext(event);
+    if (result.isFailure()) {
+      throw new IOException("Event stream closed: " + result);
+    }
+  }
+
+  @Override
+  public void close() {
+    sink.tryEmitComplete();
+  }
+}
@@ -0,0 +1,34 @@
+package com.zenika.distributor.events;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+
+/**
+ * Writes to a Spring MVC {@link SseEmitter}. The request runs in async mode, so an open stream holds a
+ * connection but no servlet thread.
+ */
+public final class SseEmitterSink implements EventSink {
+
+  private final SseEmitter emitter;
+
+  public SseEmitterSink(SseEmitter emitter) {
+    this.emitter = emitter;
+  }
+
+  @Override
+  public void send(String event, String data) throws IOException {
+    emitter.send(SseEmitter.event().name(event).data(data, MediaType.APPLICATION_JSON));
+  }
+
+  @Override
+  public void heartbeat() throws IOException {
+    emitter.send(SseEmitter.event().comment("keep-alive"));
+  }
+
+  @Override
+  public void close() {
+    emitter.complete();
+  }
+}
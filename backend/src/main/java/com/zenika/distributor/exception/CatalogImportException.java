@@ -0,0 +1,14 @@
+package com.zenika.distributor.exception;
+
+/**
+ * A catalog import stream could not be read any further; rows before the error may already be imported.
+ */
+public class CatalogImportException extends RuntimeException {
+  public CatalogImportException(String message) {
+    super(message);
+  }
+
+  public CatalogImportException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
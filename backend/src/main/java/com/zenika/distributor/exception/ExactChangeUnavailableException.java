@@ -0,0 +1,7 @@
+package com.zenika.distributor.exception;
+
+public class ExactChangeUnavailableException extends RuntimeException {
+  public ExactChangeUnavailableException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,10 @@
+package com.zenika.distributor.exception;
+
+/**
+ * An {@code Idempotency-Key} sent again with a different operation or body than the first time.
+ */
+public class IdempotencyKeyReusedException extends RuntimeException {
+  public IdempotencyKeyReusedException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,7 @@
+package com.zenika.distributor.exception;
+
+public class InvalidPriceRuleException extends RuntimeException {
+  public InvalidPriceRuleException(String message) {
+    super(message);
+  }
+}
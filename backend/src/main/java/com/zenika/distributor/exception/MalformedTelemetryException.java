@@ -0,0 +1,14 @@
+package com.zenika.distributor.exception;
+
+/**
+ * A telemetry upload could not be read any further; the readings before the error are already queued.
+ */
+public class MalformedTelemetryException extends RuntimeException {
+  public MalformedTelemetryException(String message) {
+    super(message);
+  }
+
+  public MalformedTelemetryException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,14 @@
+package com.zenika.distributor.exception;
+
+public class OutOfStockException extends RuntimeException {
+  private final Long productId;
+
+  public OutOfStockException(Long productId, String message) {
+    super(message);
+    this.productId = productId;
+  }
+
+  public Long getProductId() {
+    return productId;
+  }
+}
@@ -0,0 +1,7 @@
+package com.zenika.distributor.exception;
+
+public class TransactionInProgressException extends RuntimeException {
+  public TransactionInProgressException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,259 @@
+package com.zenika.distributor.idempotency;
+
+import com.zenika.distributor.exception.IdempotencyKeyReusedException;
+import com.zenika.distributor.service.SessionRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the response of each request sent with an {@code Idempotency-Key}, per machine, so that a kiosk
+ * retrying after a lost response gets the same answer without the coin being counted or the products dispensed
+ * twice. A retry arriving while the first attempt still runs waits for it. A request that throws is forgotten,
+ * as nothing was changed, and its retry runs again.
+ * <p>
+ * Entries all live for {@code ttl}, so insertion order is expiry order: a FIFO queue is enough to drop expired
+ * entries and, past {@code max-entries}, the oldest ones, both on insertion and without a background sweep. An
+ * entry whose request still runs is never dropped nor replaced, even past {@code ttl}, its retries must wait for
+ * it: it goes back to the end of the queue, so the cache may briefly hold one entry over capacity per request in
+ * flight. Reusing a key for another operation or body is refused with {@link IdempotencyKeyReusedException}.
+ * <p>
+ * Entries are kept on the node that served the machine: after a cluster ring change, a retry reaching the new
+ * owner runs again. The reactive controller goes through {@link #executeAsync}, whose retries wait for the first
+ * attempt without blocking their thread.
+ */
+@Component
+public class IdempotencyCache {
+
+  public static final String HEADER = "Idempotency-Key";
+  /** Set on replayed responses. */
+  public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+  private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final LongAdder replays = new LongAdder();
+  private final long ttlNanos;
+  private final int maxEntries;
+
+  @Autowired
+  public IdempotencyCache(@Value("${distributor.idempotency.ttl:PT10M}") Duration ttl,
+                          @Value("${distributor.idempotency.max-entries:100000}") int maxEntries) {
+    this.ttlNanos = ttl.toNanos();
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Runs {@code action} once per machine and key, and answers its retries with the stored response.
+   * @param key the {@value #HEADER} header, null runs {@code action} without caching.
+   * @param operation what the request does, e.g. {@code "coin"}.
+   * @param request the request body, compared with {@code equals} to the one stored under the key, amounts passed
+   * through {@link #normalized(BigDecimal)}; may be null.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> ResponseEntity<T> execute(String machineId, String key, String operation, Object request,
+                                       Supplier<ResponseEntity<T>> action) {
+    if (key == null) {
+      return action.get();
+    }
+    Entry fresh = newEntry(machineId, key, operation, request);
+    Entry existing = claim(fresh);
+    if (existing != null) {
+      return (ResponseEntity<T>) replay(existing, operation, request);
+    }
+
+    ResponseEntity<T> response;
+    try {
+      response = action.get();
+      fresh.response.complete(response);
+    } catch (RuntimeException | Error e) {
+      fail(fresh, e);
+      throw e;
+    } finally {
+      // Once this entry is complete, so that it can go too
+      evict(System.nanoTime());
+    }
+    return response;
+  }
+
+  /**
+   * {@link #execute} for a response produced asynchronously: {@code action} is subscribed to once per machine and
+   * key, and a retry arriving meanwhile completes with it rather than waiting on its thread. A cancelled or empty
+   * response is forgotten like an error.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> Mono<ResponseEntity<T>> executeAsync(String machineId, String key, String operation, Object request,
+                                                  Supplier<Mono<ResponseEntity<T>>> action) {
+    if (key == null) {
+      return Mono.defer(action);
+    }
+    return Mono.defer(() -> {
+      Entry fresh = newEntry(machineId, key, operation, request);
+      Entry existing = claim(fresh);
+      if (existing != null) {
+        checkSameRequest(existing, operation, request);
+        // A copy, so that a retry whose client goes away does not cancel the first attempt's entry
+        return Mono.fromFuture(existing.response.copy()).map(stored -> (ResponseEntity<T>) replayed(stored));
+      }
+      return action.get()
+        .doOnNext(fresh.response::complete)
+        .doOnError(e -> fail(fresh, e))
+        .doFinally(signal -> {
+          if (!fresh.response.isDone()) {
+            fail(fresh, new CancellationException("Request " + signal + " without a response"));
+          }
+          evict(System.nanoTime());
+        });
+    });
+  }
+
+  private Entry newEntry(String machineId, String key, String operation, Object request) {
+    return new Entry(new Key(SessionRegistry.normalize(machineId), key), operation, request,
+      System.nanoTime() + ttlNanos);
+  }
+
+  /**
+   * Stores {@code fresh} unless a live entry holds its key. An expired entry whose request still runs is live:
+   * replacing it would run the request a second time.
+   * @return that live entry, or null if {@code fresh} was stored and its request must run.
+   */
+  private Entry claim(Entry fresh) {
+    long now = System.nanoTime();
+    Entry existing = entries.putIfAbsent(fresh.id, fresh);
+    while (existing != null && existing.expiresAtNanos - now <= 0 && existing.response.isDone()) {
+      existing = entries.replace(fresh.id, existing, fresh) ? null : entries.putIfAbsent(fresh.id, fresh);
+    }
+    if (existing == null) {
+      insertionOrder.add(fresh);
+      queued.incrementAndGet();
+    }
+    return existing;
+  }
+
+  private void fail(Entry entry, Throwable error) {
+    entries.remove(entry.id, entry);
+    entry.response.completeExceptionally(error);
+  }
+
+  /**
+   * @return {@code amount} in a form whose {@code equals} ignores the scale, so that a retry sending {@code 1} for
+   * {@code 1.00} is the same request.
+   */
+  public static BigDecimal normalized(BigDecimal amount) {
+    return amount != null ? amount.stripTrailingZeros() : null;
+  }
+
+  private ResponseEntity<?> replay(Entry entry, String operation, Object request) {
+    checkSameRequest(entry, operation, request);
+    ResponseEntity<?> stored;
+    try {
+      stored = entry.response.join();
+    } catch (CompletionException e) {
+      // The first attempt failed while this one waited: fail the same way, the client retries again
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+    return replayed(stored);
+  }
+
+  private static void checkSameRequest(Entry entry, String operation, Object request) {
+    if (!entry.operation.equals(operation) || !Objects.equals(entry.request, request)) {
+      throw new IdempotencyKeyReusedException("Idempotency key " + entry.id.key + " was already used for another "
+        + (entry.operation.equals(operation) ? "request body" : "operation (" + entry.operation + ")") + ".");
+    }
+  }
+
+  private ResponseEntity<?> replayed(ResponseEntity<?> stored) {
+    replays.increment();
+    return ResponseEntity.status(stored.getStatusCode())
+      .headers(stored.getHeaders())
+      .header(REPLAYED_HEADER, "true")
+      .body(stored.getBody());
+  }
+
+  /**
+   * Drops expired entries from the head of the queue, then the oldest ones while over capacity. Entries still
+   * running are moved to the end instead, each queued entry is looked at once at most.
+   */
+  private void evict(long now) {
+    Entry head;
+    int budget = queued.get();
+    while (budget-- > 0 && (head = insertionOrder.peek()) != null
+      && (head.expiresAtNanos - now <= 0 || queued.get() > maxEntries)) {
+      // Another thread may have taken that head first, any oldest entry will do
+      Entry oldest = insertionOrder.poll();
+      if (oldest == null) {
+        continue;
+      }
+      if (oldest.response.isDone()) {
+        queued.decrementAndGet();
+        entries.remove(oldest.id, oldest);
+      } else {
+        insertionOrder.add(oldest);
+      }
+    }
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return how many retries were answered with a stored response.
+   */
+  public long getReplays() {
+    return replays.sum();
+  }
+
+  private static final class Key {
+    private final String machineId;
+    private final String key;
+
+    private Key(String machineId, String key) {
+      this.machineId = machineId;
+      this.key = key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Key other && key.equals(other.key) && machineId.equals(other.machineId);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * machineId.hashCode() + key.hashCode();
+    }
+  }
+
+  private static final class Entry {
+    private final Key id;
+    private final String operation;
+    private final Object request;
+    private final long expiresAtNanos;
+    private final CompletableFuture<ResponseEntity<?>> response = new CompletableFuture<>();
+
+    private Entry(Key id, String operation, Object request, long expiresAtNanos) {
+      this.id = id;
+      this.operation = operation;
+      this.request = request;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+  }
+}
@@ -0,0 +1,13 @@
+package com.zenika.distributor.journal;
+
+/**
+ * When appended records are forced to disk.
+ */
+public enum FsyncPolicy {
+  /** Never forced explicitly; the OS writes the mapped pages back on its own schedule. */
+  NONE,
+  /** Forced by a background thread every fsync interval; appends never wait. */
+  BATCH,
+  /** Every append waits until it is on disk. Concurrent appends share one force (group commit). */
+  SYNC
+}
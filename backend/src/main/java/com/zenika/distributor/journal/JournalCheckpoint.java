@@ -0,0 +1,133 @@
+package com.zenika.distributor.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * The replay of every segment before segment N, saved as {@code checkpoint-N.bin} followed by its CRC32C.
+ * Written to a temporary file then moved in place, so a crash leaves either the old or the new checkpoint.
+ */
+final class JournalCheckpoint {
+
+  private static final Logger log = LoggerFactory.getLogger(JournalCheckpoint.class);
+
+  static final String CHECKPOINT_PREFIX = "checkpoint-";
+  static final String CHECKPOINT_SUFFIX = ".bin";
+  private static final int FORMAT = 2; // 1 also held sales per product and coins per machine
+
+  private final int segment;
+  private final JournalReplay replay;
+
+  private JournalCheckpoint(int segment, JournalReplay replay) {
+    this.segment = segment;
+    this.replay = replay;
+  }
+
+  /**
+   * @return the first segment not included in {@link #getReplay()}.
+   */
+  int getSegment() {
+    return segment;
+  }
+
+  JournalReplay getReplay() {
+    return replay;
+  }
+
+  /**
+   * The latest readable checkpoint of {@code directory}, or an empty replay starting at segment 0.
+   */
+  static JournalCheckpoint restore(Path directory) throws IOException {
+    List<Path> checkpoints = checkpoints(directory);
+    for (int i = checkpoints.size() - 1; i >= 0; i--) {
+      Path path = checkpoints.get(i);
+      JournalReplay replay = read(path);
+      if (replay != null) {
+        return new JournalCheckpoint(segmentNumber(path), replay);
+      }
+      log.warn("Journal checkpoint {} is damaged or in an older format, trying an older one", path);
+    }
+    return new JournalCheckpoint(0, new JournalReplay());
+  }
+
+  /**
+   * Saves {@code replay} as the state at the start of {@code segment} and deletes the older checkpoints.
+   */
+  static void write(Path directory, int segment, JournalReplay replay) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(FORMAT);
+    replay.writeTo(out);
+    out.flush();
+    CRC32C crc = new CRC32C();
+    crc.update(bytes.toByteArray());
+    out.writeInt((int) crc.getValue());
+
+    Path path = checkpointPath(directory, segment);
+    Path temporary = directory.resolve(path.getFileName() + ".tmp");
+    Files.write(temporary, bytes.toByteArray());
+    Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    for (Path older : checkpoints(directory)) {
+      if (segmentNumber(older) < segment) {
+        Files.deleteIfExists(older);
+      }
+    }
+  }
+
+  static Path checkpointPath(Path directory, int segment) {
+    return directory.resolve(String.format("%s%010d%s", CHECKPOINT_PREFIX, segment, CHECKPOINT_SUFFIX));
+  }
+
+  static List<Path> checkpoints(Path directory) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return List.of();
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      List<Path> checkpoints = new ArrayList<>();
+      files.filter(JournalCheckpoint::isCheckpoint).sorted().forEach(checkpoints::add);
+      return checkpoints;
+    }
+  }
+
+  private static boolean isCheckpoint(Path path) {
+    String name = path.getFileName().toString();
+    return name.startsWith(CHECKPOINT_PREFIX) && name.endsWith(CHECKPOINT_SUFFIX);
+  }
+
+  private static int segmentNumber(Path path) {
+    String name = path.getFileName().toString();
+    return Integer.parseInt(name.substring(CHECKPOINT_PREFIX.length(), name.length() - CHECKPOINT_SUFFIX.length()));
+  }
+
+  private static JournalReplay read(Path path) throws IOException {
+    byte[] bytes = Files.readAllBytes(path);
+    if (bytes.length < 8) {
+      return null;
+    }
+    CRC32C crc = new CRC32C();
+    crc.update(bytes, 0, bytes.length - 4);
+    if ((int) crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt()) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 4)))) {
+      return in.readInt() == FORMAT ? JournalReplay.readFrom(in) : null;
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
+  }
+}
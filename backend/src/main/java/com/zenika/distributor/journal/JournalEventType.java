@@ -0,0 +1,40 @@
+package com.zenika.distributor.journal;
+
+/**
+ * Record types of the journal. The code is the first byte of every record and must never change.
+ */
+public enum JournalEventType {
+  COIN_INSERTED(1),
+  PRODUCT_SELECTED(2),
+  PRODUCT_DESELECTED(3),
+  DISPENSED(4),
+  REFUNDED(5),
+  ORDER_PLACED(6),
+  SESSION_EVICTED(7),
+  SESSION_ADOPTED(8);
+
+  private static final JournalEventType[] BY_CODE = new JournalEventType[9];
+
+  static {
+    for (JournalEventType type : values()) {
+      BY_CODE[type.code] = type;
+    }
+  }
+
+  private final byte code;
+
+  JournalEventType(int code) {
+    this.code = (byte) code;
+  }
+
+  public byte getCode() {
+    return code;
+  }
+
+  /**
+   * @return the type for the code, or null if the code is unknown.
+   */
+  public static JournalEventType fromCode(byte code) {
+    return code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+  }
+}
@@ -0,0 +1,154 @@
+package com.zenika.distributor.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Sequential reader of the journal segments, oldest first. Reading stops at the end of the written data of
+ * each segment: a zero length, or a record whose length or checksum is wrong (a write torn by a crash).
+ */
+public final class JournalReader {
+
+  static final String SEGMENT_PREFIX = "journal-";
+  static final String SEGMENT_SUFFIX = ".log";
+
+  private JournalReader() {
+  }
+
+  /**
+   * Receives each valid record. The payload buffer is only valid during the call.
+   */
+  public interface RecordVisitor {
+    void onRecord(JournalEventType type, long timestampMillis, String machineId, ByteBuffer payload);
+  }
+
+  /**
+   * Where the written data of the last segment ends, i.e. where the next record goes.
+   */
+  public static final class End {
+    private final int segment;
+    private final int offset;
+    private final boolean torn;
+
+    End(int segment, int offset, boolean torn) {
+      this.segment = segment;
+      this.offset = offset;
+      this.torn = torn;
+    }
+
+    public int getSegment() {
+      return segment;
+    }
+
+    public int getOffset() {
+      return offset;
+    }
+
+    /**
+     * @return true if the last segment holds a partial record after {@link #getOffset()}.
+     */
+    public boolean isTorn() {
+      return torn;
+    }
+  }
+
+  public static End read(Path directory, RecordVisitor visitor) throws IOException {
+    List<Path> segments = segments(directory);
+    if (segments.isEmpty()) {
+      return new End(0, 0, false);
+    }
+    End end = null;
+    for (Path path : segments) {
+      end = readSegment(path, visitor);
+    }
+    return end;
+  }
+
+  /**
+   * Reads the segments numbered from {@code fromSegment} (inclusive) to {@code toSegment} (exclusive).
+   * @return where the last segment read ends, or null if there was none in the range.
+   */
+  static End read(Path directory, int fromSegment, int toSegment, RecordVisitor visitor) throws IOException {
+    End end = null;
+    for (Path path : segments(directory)) {
+      int segment = segmentNumber(path);
+      if (segment >= fromSegment && segment < toSegment) {
+        end = readSegment(path, visitor);
+      }
+    }
+    return end;
+  }
+
+  static Path segmentPath(Path directory, int segment) {
+    return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+  }
+
+  static List<Path> segments(Path directory) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return List.of();
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      List<Path> segments = new ArrayList<>();
+      files.filter(JournalReader::isSegment).sorted().forEach(segments::add);
+      return segments;
+    }
+  }
+
+  private static boolean isSegment(Path path) {
+    String name = path.getFileName().toString();
+    return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+  }
+
+  static int segmentNumber(Path path) {
+    String name = path.getFileName().toString();
+    return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  private static End readSegment(Path path, RecordVisitor visitor) throws IOException {
+    int segment = segmentNumber(path);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      CRC32C crc = new CRC32C();
+      int position = 0;
+      int capacity = buffer.capacity();
+      while (position + TransactionJournal.HEADER_BYTES <= capacity) {
+        int length = buffer.getInt(position);
+        if (length == 0) {
+          return new End(segment, position, false);
+        }
+        int bodyStart = position + TransactionJournal.HEADER_BYTES;
+        if (length < TransactionJournal.FIXED_BODY_BYTES || length > capacity - bodyStart) {
+          return new End(segment, position, true);
+        }
+        crc.reset();
+        crc.update(buffer.slice(bodyStart, length));
+        if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+          return new End(segment, position, true);
+        }
+        JournalEventType type = JournalEventType.fromCode(buffer.get(bodyStart));
+        long timestamp = buffer.getLong(bodyStart + 1);
+        int idLength = buffer.getInt(bodyStart + 9);
+        int payloadStart = bodyStart + TransactionJournal.FIXED_BODY_BYTES + idLength;
+        if (type == null || idLength < 0 || payloadStart > bodyStart + length) {
+          return new End(segment, position, true);
+        }
+        byte[] id = new byte[idLength];
+        buffer.get(bodyStart + TransactionJournal.FIXED_BODY_BYTES, id);
+        visitor.onRecord(type, timestamp, new String(id, StandardCharsets.UTF_8),
+          buffer.slice(payloadStart, bodyStart + length - payloadStart));
+        position = bodyStart + length;
+      }
+      return new End(segment, position, false);
+    }
+  }
+}
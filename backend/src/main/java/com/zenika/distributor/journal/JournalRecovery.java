@@ -0,0 +1,41 @@
+package com.zenika.distributor.journal;
+
+import com.zenika.distributor.service.VendingMachineService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Puts the sessions that were in flight when the application stopped back into the service, before the
+ * web server starts taking requests. Coin and stock counts are already in the database; the journal only
+ * restores what lived in memory (balances, inserted coins and the reserved selections).
+ */
+@Component
+@ConditionalOnProperty(name = "distributor.journal.enabled", havingValue = "true", matchIfMissing = true)
+public class JournalRecovery implements SmartInitializingSingleton {
+
+  private static final Logger log = LoggerFactory.getLogger(JournalRecovery.class);
+
+  private final TransactionJournal journal;
+  private final VendingMachineService vendingMachineService;
+
+  public JournalRecovery(TransactionJournal journal, VendingMachineService vendingMachineService) {
+    this.journal = journal;
+    this.vendingMachineService = vendingMachineService;
+  }
+
+  @Override
+  public void afterSingletonsInstantiated() {
+    int restored = 0;
+    for (JournalReplay.PendingSession session : journal.getReplay().getPendingSessions()) {
+      if (vendingMachineService.restoreSession(session.getMachineId(), session.getCoins(), session.getSelection())) {
+        restored++;
+      }
+    }
+    if (restored > 0) {
+      log.info("Restored {} in-flight sessions from the journal", restored);
+    }
+  }
+}
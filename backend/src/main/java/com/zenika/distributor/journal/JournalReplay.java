@@ -0,0 +1,182 @@
+package com.zenika.distributor.journal;
+
+import com.zenika.distributor.enums.Coin;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State rebuilt by reading the journal from the start: the sessions that were still in flight (coins
+ * inserted or products selected, not yet dispensed, refunded or evicted) and counts of the events, sales and
+ * refunds read. Coin and stock counts are not rebuilt, the database holds them (see {@link TransactionJournal}).
+ * Saved in checkpoints with {@link #writeTo} so the journal does not have to be read from the start every time.
+ */
+public final class JournalReplay implements JournalReader.RecordVisitor {
+
+  private static final Coin[] COINS = Coin.values();
+
+  /**
+   * A session that was open when the journal ended.
+   */
+  public static final class PendingSession {
+    private final String machineId;
+    private final List<Coin> coins = new ArrayList<>();
+    private final Map<Long, Integer> selection = new LinkedHashMap<>();
+
+    private PendingSession(String machineId) {
+      this.machineId = machineId;
+    }
+
+    public String getMachineId() {
+      return machineId;
+    }
+
+    public List<Coin> getCoins() {
+      return Collections.unmodifiableList(coins);
+    }
+
+    /**
+     * @return units selected per product ID.
+     */
+    public Map<Long, Integer> getSelection() {
+      return Collections.unmodifiableMap(selection);
+    }
+
+    private boolean isEmpty() {
+      return coins.isEmpty() && selection.isEmpty();
+    }
+  }
+
+  private final Map<String, PendingSession> sessions = new LinkedHashMap<>();
+  private long events;
+  private long sales;
+  private long refunds;
+
+  @Override
+  public void onRecord(JournalEventType type, long timestampMillis, String machineId, ByteBuffer payload) {
+    events++;
+    switch (type) {
+      case COIN_INSERTED -> session(machineId).coins.add(COINS[payload.get()]);
+      case PRODUCT_SELECTED -> session(machineId).selection.merge(payload.getLong(), 1, Integer::sum);
+      case PRODUCT_DESELECTED -> {
+        long productId = payload.getLong();
+        int quantity = payload.getInt();
+        PendingSession session = sessions.get(machineId);
+        if (session != null) {
+          session.selection.computeIfPresent(productId, (id, selected) -> selected > quantity ? selected - quantity : null);
+          dropIfEmpty(session);
+        }
+      }
+      case DISPENSED -> {
+        sales++;
+        sessions.remove(machineId);
+      }
+      case REFUNDED -> {
+        refunds++;
+        sessions.remove(machineId);
+      }
+      case ORDER_PLACED -> sales++;
+      case SESSION_EVICTED -> sessions.remove(machineId);
+      case SESSION_ADOPTED -> {
+        PendingSession session = session(machineId);
+        int[] coins = readCoins(payload);
+        for (int i = 0; i < coins.length; i++) {
+          for (int n = coins[i]; n > 0; n--) {
+            session.coins.add(COINS[i]);
+          }
+        }
+        int lines = payload.getInt();
+        for (int i = 0; i < lines; i++) {
+          long productId = payload.getLong();
+          session.selection.merge(productId, payload.getInt(), Integer::sum);
+        }
+        dropIfEmpty(session);
+      }
+    }
+  }
+
+  public Collection<PendingSession> getPendingSessions() {
+    return Collections.unmodifiableCollection(sessions.values());
+  }
+
+  public long getEvents() {
+    return events;
+  }
+
+  public long getSales() {
+    return sales;
+  }
+
+  public long getRefunds() {
+    return refunds;
+  }
+
+  void writeTo(DataOutputStream out) throws IOException {
+    out.writeLong(events);
+    out.writeLong(sales);
+    out.writeLong(refunds);
+    out.writeInt(sessions.size());
+    for (PendingSession session : sessions.values()) {
+      out.writeUTF(session.machineId);
+      out.writeInt(session.coins.size());
+      for (Coin coin : session.coins) {
+        out.writeByte(coin.ordinal());
+      }
+      out.writeInt(session.selection.size());
+      for (Map.Entry<Long, Integer> line : session.selection.entrySet()) {
+        out.writeLong(line.getKey());
+        out.writeInt(line.getValue());
+      }
+    }
+  }
+
+  static JournalReplay readFrom(DataInputStream in) throws IOException {
+    JournalReplay replay = new JournalReplay();
+    replay.events = in.readLong();
+    replay.sales = in.readLong();
+    replay.refunds = in.readLong();
+    for (int s = in.readInt(); s > 0; s--) {
+      PendingSession session = replay.session(in.readUTF());
+      for (int c = in.readInt(); c > 0; c--) {
+        session.coins.add(COINS[in.readByte()]);
+      }
+      for (int l = in.readInt(); l > 0; l--) {
+        session.selection.put(in.readLong(), in.readInt());
+      }
+    }
+    return replay;
+  }
+
+  private PendingSession session(String machineId) {
+    return sessions.computeIfAbsent(machineId, PendingSession::new);
+  }
+
+  private void dropIfEmpty(PendingSession session) {
+    if (session.isEmpty()) {
+      sessions.remove(session.machineId);
+    }
+  }
+
+  /**
+   * Coin counts are written with their own length so denominations can be added later.
+   */
+  static int[] readCoins(ByteBuffer payload) {
+    int written = payload.get();
+    int[] coins = new int[COINS.length];
+    for (int i = 0; i < written; i++) {
+      int count = payload.getInt();
+      if (i < coins.length) {
+        coins[i] = count;
+      }
+    }
+    return coins;
+  }
+}
@@ -0,0 +1,527 @@
+package com.zenika.distributor.journal;
+
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.service.CartLine;
+import com.zenika.distributor.service.VendingEventListener;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only audit log of every coin insert, selection, sale and refund, written to memory-mapped segment
+ * files ({@code journal-0000000000.log}, ...). Appending is a copy into the mapped file under a short lock;
+ * when the data reaches the disk depends on the {@link FsyncPolicy}. In {@code SYNC} mode concurrent appenders
+ * wait for the same background force, so one fsync commits a whole group of records; the service thread waits
+ * once it has released the machine's session lock ({@link #onSessionReleased}), never while holding it.
+ * <p>
+ * Record layout: {@code int length, int crc32c, body} where the body is {@code byte type, long epochMillis,
+ * int machineIdLength, machineId (UTF-8), payload}. A zero length marks the end of the written data.
+ * <p>
+ * The journal is read back when it is opened; see {@link #getReplay()}. Each time a new segment is started, the
+ * replay of all the segments before it is saved in a checkpoint ({@link JournalCheckpoint}), so opening only
+ * reads the segments written since. Old segments are kept as the audit log.
+ * <p>
+ * Only customer transactions are journaled. Coin counts set by an operator, restocks and catalog imports are
+ * written straight to the database, which remains the record of coin and stock counts: replaying the journal
+ * restores in-flight sessions, it cannot reproduce those counts.
+ */
+@Component
+@ConditionalOnProperty(name = "distributor.journal.enabled", havingValue = "true", matchIfMissing = true)
+public class TransactionJournal implements VendingEventListener, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(TransactionJournal.class);
+
+  static final int HEADER_BYTES = 8;
+  static final int FIXED_BODY_BYTES = 1 + 8 + 4;
+  private static final Coin[] COINS = Coin.values();
+  private static final int COINS_BYTES = 1 + COINS.length * 4;
+  private static final int LINE_BYTES = 8 + 4;
+
+  private final Path directory;
+  private final int segmentSize;
+  private final FsyncPolicy fsyncPolicy;
+  private final long fsyncIntervalNanos;
+  private final JournalReplay replay;
+  private final ConcurrentMap<String, byte[]> machineIds = new ConcurrentHashMap<>();
+  private final ThreadLocal<long[]> owed = ThreadLocal.withInitial(() -> new long[1]); // see owe()
+
+  private final ReentrantLock appendLock = new ReentrantLock();
+  private final CRC32C crc = new CRC32C(); // guarded by appendLock
+  private FileChannel channel; // guarded by appendLock
+  private MappedByteBuffer buffer; // guarded by appendLock
+  private int segment; // guarded by appendLock
+  private long bufferBase; // appended bytes counter at offset 0 of the buffer, guarded by appendLock
+  private volatile long appended; // bytes appended since open, written under appendLock
+  private final AtomicLong forced = new AtomicLong(); // bytes known to be on disk
+
+  private final ReentrantLock flushLock = new ReentrantLock();
+  private final Condition pending = flushLock.newCondition();
+  private final Condition durable = flushLock.newCondition();
+  private final Thread flusher;
+  private final ExecutorService checkpointer = Executors.newSingleThreadExecutor(task -> {
+    Thread thread = new Thread(task, "journal-checkpoint");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private volatile boolean closed;
+
+  @Autowired
+  public TransactionJournal(@Value("${distributor.journal.directory:./data/journal}") Path directory,
+                            @Value("${distributor.journal.segment-size:64MB}") DataSize segmentSize,
+                            @Value("${distributor.journal.fsync:batch}") FsyncPolicy fsyncPolicy,
+                            @Value("${distributor.journal.fsync-interval:10ms}") Duration fsyncInterval) throws IOException {
+    this.directory = directory;
+    this.segmentSize = (int) Math.min(Integer.MAX_VALUE, segmentSize.toBytes());
+    this.fsyncPolicy = fsyncPolicy;
+    this.fsyncIntervalNanos = fsyncInterval.toNanos();
+
+    Files.createDirectories(directory);
+    JournalCheckpoint checkpoint = JournalCheckpoint.restore(directory);
+    replay = checkpoint.getReplay();
+    List<Path> segments = JournalReader.segments(directory);
+    int last = segments.isEmpty() ? 0 : JournalReader.segmentNumber(segments.get(segments.size() - 1));
+    last = Math.max(last, checkpoint.getSegment());
+    if (last > checkpoint.getSegment()) {
+      JournalReader.read(directory, checkpoint.getSegment(), last, replay);
+      JournalCheckpoint.write(directory, last, replay);
+    }
+    JournalReader.End end = JournalReader.read(directory, last, last + 1, replay);
+    if (end == null) {
+      end = new JournalReader.End(last, 0, false);
+    }
+    open(end.getSegment(), end.getOffset(), end.isTorn());
+    log.info("Journal {} opened at segment {} offset {} ({} events replayed from segment {}, {} sessions in flight, fsync {})",
+      directory, end.getSegment(), end.getOffset(), replay.getEvents(), checkpoint.getSegment(),
+      replay.getPendingSessions().size(), fsyncPolicy);
+
+    if (fsyncPolicy == FsyncPolicy.NONE) {
+      flusher = null;
+    } else {
+      flusher = new Thread(this::flushLoop, "journal-flusher");
+      flusher.setDaemon(true);
+      flusher.start();
+    }
+  }
+
+  /**
+   * State read from the journal when it was opened.
+   */
+  public JournalReplay getReplay() {
+    return replay;
+  }
+
+  public FsyncPolicy getFsyncPolicy() {
+    return fsyncPolicy;
+  }
+
+  /**
+   * @return bytes appended since the journal was opened.
+   */
+  public long getAppendedBytes() {
+    return appended;
+  }
+
+  /**
+   * @return bytes appended since the journal was opened that are known to be on disk.
+   */
+  public long getForcedBytes() {
+    return forced.get();
+  }
+
+  @Override
+  public void onCoinInserted(String machineId, Coin coin) {
+    byte[] id = idBytes(machineId);
+    long end;
+    appendLock.lock();
+    try {
+      begin(JournalEventType.COIN_INSERTED, id, 1).put((byte) coin.ordinal());
+      end = commitRecord();
+    } finally {
+      appendLock.unlock();
+    }
+    owe(end);
+  }
+
+  @Override
+  public void onProductSelected(String machineId, Product product) {
+    byte[] id = idBytes(machineId);
+    long end;
+    appendLock.lock();
+    try {
+      begin(JournalEventType.PRODUCT_SELECTED, id, 16).putLong(product.getId()).putLong(product.getPriceCents());
+      end = commitRecord();
+    } finally {
+      appendLock.unlock();
+    }
+    owe(end);
+  }
+
+  @Override
+  public void onProductDeselected(String machineId, Long productId, int quantity) {
+    byte[] id = idBytes(machineId);
+    long end;
+    appendLock.lock();
+    try {
+      begin(JournalEventType.PRODUCT_DESELECTED, id, 12).putLong(productId).putInt(quantity);
+      end = commitRecord();
+    } finally {
+      appendLock.unlock();
+    }
+    owe(end);
+  }
+
+  @Override
+  public void onDispensed(String machineId, List<CartLine> lines, int[] change) {
+    byte[] id = idBytes(machineId);
+    long end;
+    appendLock.lock();
+    try {
+      begin(JournalEventType.DISPENSED, id, COINS_BYTES + 4 + lines.size() * LINE_BYTES);
+      putCoins(change);
+      putLines(lines);
+      end = commitRecord();
+    } finally {
+      appendLock.unlock();
+    }
+    owe(end);
+  }
+
+  @Override
+  public void onRefunded(String machineId, int[] coins) {
+    byte[] id = idBytes(machineId);
+    long end;
+    appendLock.lock();
+    try {
+      begin(JournalEventType.REFUNDED, id, COINS_BYTES);
+      putCoins(coins);
+      end = commitRecord();
+    } finally {
+      appendLock.unlock();
+    }
+    owe(end);
+  }
+
+  @Override
+  public void onOrderPlaced(String machineId, int[] inserted, List<CartLine> lines, int[] change) {
+    byte[] id = idBytes(machineId);
+    long end;
+    appendLock.lock();
+    try {
+      begin(JournalEventType.ORDER_PLACED, id, 2 * COINS_BYTES + 4 + lines.size() * LINE_BYTES);
+      putCoins(inserted);
+      putCoins(change);
+      putLines(lines);
+      end = commitRecord();
+    } finally {
+      appendLock.unlock();
+    }
+    owe(end);
+  }
+
+  @Override
+  public void onSessionEvicted(String machineId) {
+    byte[] id = idBytes(machineId);
+    long end;
+    appendLock.lock();
+    try {
+      begin(JournalEventType.SESSION_EVICTED, id, 0);
+      end = commitRecord();
+    } finally {
+      appendLock.unlock();
+    }
+    owe(end);
+  }
+
+  @Override
+  public void onSessionAdopted(String machineId, List<Coin> coins, List<CartLine> lines) {
+    int[] counts = new int[COINS.length];
+    for (Coin coin : coins) {
+      counts[coin.ordinal()]++;
+    }
+    byte[] id = idBytes(machineId);
+    long end;
+    appendLock.lock();
+    try {
+      begin(JournalEventType.SESSION_ADOPTED, id, COINS_BYTES + 4 + lines.size() * LINE_BYTES);
+      putCoins(counts);
+      putLines(lines);
+      end = commitRecord();
+    } finally {
+      appendLock.unlock();
+    }
+    owe(end);
+  }
+
+  @PreDestroy
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    flushLock.lock();
+    try {
+      pending.signalAll();
+      durable.signalAll();
+    } finally {
+      flushLock.unlock();
+    }
+    if (flusher != null) {
+      try {
+        flusher.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    checkpointer.shutdown();
+    try {
+      checkpointer.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    appendLock.lock();
+    try {
+      buffer.force();
+      forced.accumulateAndGet(appended, Math::max);
+      channel.close();
+    } catch (IOException e) {
+      log.warn("Could not close journal segment {}", segment, e);
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  // --- writing, all called with appendLock held ---
+
+  private MappedByteBuffer begin(JournalEventType type, byte[] machineId, int payloadBytes) {
+    if (closed) {
+      throw new IllegalStateException("Journal is closed");
+    }
+    int recordBytes = HEADER_BYTES + FIXED_BODY_BYTES + machineId.length + payloadBytes;
+    if (buffer.remaining() < recordBytes) {
+      roll(recordBytes);
+    }
+    buffer.position(buffer.position() + HEADER_BYTES);
+    buffer.put(type.getCode()).putLong(System.currentTimeMillis()).putInt(machineId.length).put(machineId);
+    return buffer;
+  }
+
+  /**
+   * Fills in the header of the record written since {@link #begin} and publishes it.
+   * @return the appended bytes counter once this record is included.
+   */
+  private long commitRecord() {
+    int end = buffer.position();
+    int recordStart = (int) (appended - bufferBase);
+    int bodyStart = recordStart + HEADER_BYTES;
+    crc.reset();
+    buffer.position(bodyStart).limit(end);
+    crc.update(buffer);
+    buffer.limit(buffer.capacity());
+    buffer.putInt(recordStart + 4, (int) crc.getValue());
+    buffer.putInt(recordStart, end - bodyStart); // Length last: a non-zero length marks a complete record
+    appended += end - recordStart;
+    return appended;
+  }
+
+  private void putCoins(int[] coins) {
+    buffer.put((byte) coins.length);
+    for (int count : coins) {
+      buffer.putInt(count);
+    }
+  }
+
+  private void putLines(List<CartLine> lines) {
+    buffer.putInt(lines.size());
+    for (int i = 0; i < lines.size(); i++) {
+      CartLine line = lines.get(i);
+      buffer.putLong(line.getProduct().getId()).putInt(line.getQuantity());
+    }
+  }
+
+  private void roll(int recordBytes) {
+    buffer.force();
+    forced.accumulateAndGet(appended, Math::max);
+    try {
+      channel.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    open(segment + 1, 0, false);
+    if (buffer.remaining() < recordBytes) {
+      throw new IllegalStateException("Journal record of " + recordBytes + " bytes is larger than a segment");
+    }
+    int next = segment;
+    try {
+      checkpointer.execute(() -> checkpoint(next));
+    } catch (RejectedExecutionException e) {
+      // Closing: the next open checkpoints the segments it has to read
+    }
+  }
+
+  // Runs on the checkpoint thread: catches up from the previous checkpoint with the segments now complete
+  private void checkpoint(int upToSegment) {
+    try {
+      JournalCheckpoint previous = JournalCheckpoint.restore(directory);
+      if (previous.getSegment() < upToSegment) {
+        JournalReader.read(directory, previous.getSegment(), upToSegment, previous.getReplay());
+        JournalCheckpoint.write(directory, upToSegment, previous.getReplay());
+      }
+    } catch (IOException | RuntimeException e) {
+      log.warn("Could not checkpoint the journal at segment {}", upToSegment, e);
+    }
+  }
+
+  private void open(int segmentNumber, int offset, boolean torn) {
+    Path path = JournalReader.segmentPath(directory, segmentNumber);
+    try {
+      channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      long size = Math.max(channel.size(), segmentSize);
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot open journal segment " + path, e);
+    }
+    if (torn) {
+      // Wipe the partial record so a shorter record written over it cannot be followed by stale bytes
+      log.warn("Journal segment {} has a torn record at offset {}, truncating", path, offset);
+      for (int i = offset; i < buffer.capacity(); i++) {
+        buffer.put(i, (byte) 0);
+      }
+      buffer.force();
+    }
+    segment = segmentNumber;
+    buffer.position(offset);
+    bufferBase = appended - offset;
+  }
+
+  private byte[] idBytes(String machineId) {
+    byte[] id = machineIds.get(machineId);
+    return id != null ? id : machineIds.computeIfAbsent(machineId, key -> key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  // --- durability ---
+
+  /**
+   * In {@code SYNC} mode, remembers that the calling thread must not return before {@code end} is on disk. The
+   * wait happens in {@link #onSessionReleased}, so other requests on the machine are not held behind the fsync.
+   */
+  private void owe(long end) {
+    if (fsyncPolicy == FsyncPolicy.SYNC) {
+      long[] owed = this.owed.get();
+      owed[0] = Math.max(owed[0], end);
+    }
+  }
+
+  @Override
+  public void onSessionReleased(String machineId) {
+    if (fsyncPolicy != FsyncPolicy.SYNC) {
+      return;
+    }
+    long[] owed = this.owed.get();
+    long end = owed[0];
+    owed[0] = 0;
+    awaitDurable(end);
+  }
+
+  private void awaitDurable(long end) {
+    if (fsyncPolicy != FsyncPolicy.SYNC || forced.get() >= end) {
+      return;
+    }
+    flushLock.lock();
+    try {
+      pending.signal();
+      while (forced.get() < end && !closed) {
+        durable.await();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  private void flushLoop() {
+    while (!closed) {
+      flushLock.lock();
+      try {
+        while (!closed && appended <= forced.get()) {
+          pending.awaitNanos(fsyncIntervalNanos);
+        }
+      } catch (InterruptedException e) {
+        return;
+      } finally {
+        flushLock.unlock();
+      }
+      if (closed) {
+        return;
+      }
+      flush();
+      if (fsyncPolicy == FsyncPolicy.BATCH) {
+        // Let records accumulate so one force covers a whole interval
+        sleepNanos(fsyncIntervalNanos);
+      }
+    }
+  }
+
+  private void flush() {
+    MappedByteBuffer target;
+    long upTo;
+    int from;
+    int to;
+    appendLock.lock();
+    try {
+      target = buffer;
+      upTo = appended;
+      from = (int) Math.max(0, forced.get() - bufferBase);
+      to = (int) (upTo - bufferBase);
+    } finally {
+      appendLock.unlock();
+    }
+    if (to > from) {
+      target.force(from, to - from);
+    }
+    forced.accumulateAndGet(upTo, Math::max);
+    flushLock.lock();
+    try {
+      durable.signalAll();
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  private static void sleepNanos(long nanos) {
+    try {
+      Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
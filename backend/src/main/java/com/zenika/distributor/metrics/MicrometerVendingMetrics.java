@@ -0,0 +1,132 @@
+package com.zenika.distributor.metrics;
+
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.events.MachineEventStream;
+import com.zenika.distributor.service.CatalogCache;
+import com.zenika.distributor.service.CoinInventoryService;
+import com.zenika.distributor.service.SessionRegistry;
+import com.zenika.distributor.service.StockService;
+import com.zenika.distributor.service.VendingMetrics;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the service timings into Micrometer, exported at {@code /actuator/prometheus}.
+ * <p>
+ * Every meter is registered up front and kept in a field or an array indexed by operation, so recording is a
+ * few atomic adds on pre-built buckets: no tag lookup, no varargs and no boxing per call. The gauges are read
+ * at scrape time. Coin levels are summed over all machines rather than tagged by machine, which would give
+ * the registry one series per kiosk ever seen.
+ */
+@Component
+public class MicrometerVendingMetrics implements VendingMetrics {
+
+  private final Timer[] succeeded;
+  private final Timer[] failed;
+  private final Timer changePlanning;
+  private final DistributionSummary checkoutItems;
+  private final DistributionSummary changeCoins;
+
+  @Autowired
+  public MicrometerVendingMetrics(MeterRegistry registry, SessionRegistry sessionRegistry, StockService stockService,
+                                  CoinInventoryService coinInventoryService, CatalogCache catalogCache,
+                                  MachineEventStream machineEventStream) {
+    Operation[] operations = Operation.values();
+    succeeded = new Timer[operations.length];
+    failed = new Timer[operations.length];
+    for (Operation operation : operations) {
+      succeeded[operation.ordinal()] = operationTimer(registry, operation, "success");
+      failed[operation.ordinal()] = operationTimer(registry, operation, "failure");
+    }
+    changePlanning = Timer.builder("distributor.change.planning")
+      .description("Time to plan change from a machine's coins")
+      .publishPercentileHistogram()
+      .minimumExpectedValue(Duration.ofNanos(100))
+      .maximumExpectedValue(Duration.ofMillis(100))
+      .register(registry);
+    checkoutItems = DistributionSummary.builder("distributor.checkout.items")
+      .description("Units per sold cart")
+      .baseUnit("items")
+      .serviceLevelObjectives(1, 2, 3, 5, 10, 20, 50, 100)
+      .register(registry);
+    changeCoins = DistributionSummary.builder("distributor.change.coins")
+      .description("Coins returned as change per sale")
+      .baseUnit("coins")
+      .serviceLevelObjectives(1, 2, 3, 4, 5, 7, 10, 15)
+      .register(registry);
+
+    Gauge.builder("distributor.sessions.active", sessionRegistry, SessionRegistry::activeSessions)
+      .description("Machines with a session in memory")
+      .strongReference(true)
+      .register(registry);
+    Gauge.builder("distributor.cart.reserved", stockService, StockService::reservedUnits)
+      .description("Units held by open carts")
+      .baseUnit("items")
+      .strongReference(true)
+      .register(registry);
+    for (Coin coin : Coin.values()) {
+      Gauge.builder("distributor.coins.inventory", coinInventoryService, service -> service.totalCount(coin))
+        .description("Coins held by the machines, per denomination")
+        .tag("coin", coin.getValue().toPlainString())
+        .baseUnit("coins")
+        .strongReference(true)
+        .register(registry);
+    }
+    FunctionCounter.builder("distributor.catalog.cache.requests", catalogCache, CatalogCache::getHits)
+      .description("Product lookups served by the catalog snapshot or missing it")
+      .tag("result", "hit")
+      .register(registry);
+    FunctionCounter.builder("distributor.catalog.cache.requests", catalogCache, CatalogCache::getMisses)
+      .description("Product lookups served by the catalog snapshot or missing it")
+      .tag("result", "miss")
+      .register(registry);
+    FunctionCounter.builder("distributor.catalog.cache.rebuilds", catalogCache, CatalogCache::getRebuilds)
+      .register(registry);
+    Gauge.builder("distributor.catalog.cache.hit.ratio", catalogCache, CatalogCache::getHitRatio)
+      .strongReference(true)
+      .register(registry);
+    Gauge.builder("distributor.events.subscriptions", machineEventStream, MachineEventStream::getSubscriptions)
+      .description("Open /events connections")
+      .strongReference(true)
+      .register(registry);
+  }
+
+  private static Timer operationTimer(MeterRegistry registry, Operation operation, String outcome) {
+    return Timer.builder("distributor.operations")
+      .description("Vending service calls, lock wait and database writes included")
+      .tag("operation", operation.getTag())
+      .tag("outcome", outcome)
+      .publishPercentileHistogram()
+      .minimumExpectedValue(Duration.ofNanos(1_000))
+      .maximumExpectedValue(Duration.ofSeconds(5))
+      .register(registry);
+  }
+
+  @Override
+  public void recordOperation(Operation operation, long elapsedNanos, boolean success) {
+    (success ? succeeded : failed)[operation.ordinal()].record(elapsedNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void recordChangePlanned(long elapsedNanos) {
+    changePlanning.record(elapsedNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void recordCheckout(int items, int[] change) {
+    checkoutItems.record(items);
+    int coins = 0;
+    for (int count : change) {
+      coins += count;
+    }
+    changeCoins.record(coins);
+  }
+}
@@ -0,0 +1,104 @@
+package com.zenika.distributor.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.reactivestreams.Publisher;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.stereotype.Repository;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every call to a {@code @Repository} bean as {@code distributor.repository.calls}, tagged with the bean
+ * name, the method and the outcome. The timers of a method are resolved on its first call and then found by an
+ * identity lookup on the {@link Method}. Methods returning a {@link Publisher} are not timed: the call only
+ * assembles the query.
+ */
+@Component
+public class RepositoryMetricsPostProcessor implements BeanPostProcessor {
+
+  // Resolved on the first repository call: asking for it here would create it before the other post-processors
+  private final ObjectProvider<MeterRegistry> registry;
+
+  public RepositoryMetricsPostProcessor(ObjectProvider<MeterRegistry> registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public Object postProcessAfterInitialization(Object bean, String beanName) {
+    if (!AnnotatedElementUtils.hasAnnotation(AopUtils.getTargetClass(bean), Repository.class)) {
+      return bean;
+    }
+    RepositoryTimer timer = new RepositoryTimer(beanName);
+    if (bean instanceof Advised advised && !advised.isFrozen()) {
+      // Outermost, so transaction handling and exception translation are included
+      advised.addAdvice(0, timer);
+      return bean;
+    }
+    ProxyFactory proxyFactory = new ProxyFactory(bean);
+    proxyFactory.addAdvice(timer);
+    return proxyFactory.getProxy();
+  }
+
+  private final class RepositoryTimer implements MethodInterceptor {
+    private final String repository;
+    private final Map<Method, Timer[]> timers = new ConcurrentHashMap<>();
+
+    private RepositoryTimer(String repository) {
+      this.repository = repository;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+      Method method = invocation.getMethod();
+      Timer[] outcomes = timers.get(method);
+      if (outcomes == null) {
+        outcomes = timers.computeIfAbsent(method, this::register);
+      }
+      if (outcomes.length == 0) {
+        return invocation.proceed();
+      }
+      long startNanos = System.nanoTime();
+      boolean success = false;
+      try {
+        Object result = invocation.proceed();
+        success = true;
+        return result;
+      } finally {
+        outcomes[success ? 0 : 1].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+
+    private Timer[] register(Method method) {
+      MeterRegistry meterRegistry = registry.getIfAvailable();
+      if (meterRegistry == null || Publisher.class.isAssignableFrom(method.getReturnType())) {
+        return new Timer[0];
+      }
+      return new Timer[] {timer(meterRegistry, method, "success"), timer(meterRegistry, method, "failure")};
+    }
+
+    private Timer timer(MeterRegistry meterRegistry, Method method, String outcome) {
+      return Timer.builder("distributor.repository.calls")
+        .description("Repository calls, transaction included")
+        .tag("repository", repository)
+        .tag("method", method.getName())
+        .tag("outcome", outcome)
+        .publishPercentileHistogram()
+        .minimumExpectedValue(Duration.ofNanos(10_000))
+        .maximumExpectedValue(Duration.ofSeconds(10))
+        .register(meterRegistry);
+    }
+  }
+}
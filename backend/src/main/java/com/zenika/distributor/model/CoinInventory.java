@@ -0,0 +1,48 @@
+package com.zenika.distributor.model;
+
+import com.zenika.distributor.enums.Coin;
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import jakarta.persistence.EmbeddedId;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+
+/**
+ * Number of coins of one denomination held by one machine.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CoinInventory {
+
+  @EmbeddedId
+  private Key id;
+
+  @Column(nullable = false)
+  private int quantity;
+
+  @Embeddable
+  @Getter
+  @Setter
+  @NoArgsConstructor
+  @AllArgsConstructor
+  @EqualsAndHashCode
+  public static class Key implements Serializable {
+    @Column(name = "machine_id", nullable = false)
+    private String machineId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Coin coin;
+  }
+}
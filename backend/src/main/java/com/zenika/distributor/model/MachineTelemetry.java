@@ -0,0 +1,39 @@
+package com.zenika.distributor.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * The last report received from a machine, written by the telemetry pipeline.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class MachineTelemetry {
+  @Id
+  @Column(name = "machine_id")
+  private String machineId;
+
+  // Epoch millis, as sent by the machine
+  @Column(nullable = false)
+  private long reportedAt;
+
+  // Tenths of a degree Celsius
+  @Column(nullable = false)
+  private int temperatureTenths;
+
+  // Percent
+  @Column(nullable = false)
+  private int coinBoxLevel;
+
+  // 0 when the machine reports no error
+  @Column(nullable = false)
+  private int errorCode;
+}
@@ -0,0 +1,31 @@
+package com.zenika.distributor.model;
+
+import java.math.BigDecimal;
+
+/**
+ * Fixed-point money helpers. Amounts are handled internally as a {@code long} number of cents (centimes)
+ * so the transaction hot path never allocates; {@link BigDecimal} is only used at the REST/JSON boundary.
+ */
+public final class Money {
+
+  public static final int SCALE = 2;
+
+  private Money() {
+  }
+
+  /**
+   * Converts a decimal amount to cents.
+   * @throws ArithmeticException if the amount has more than two decimal places or does not fit in a long.
+   */
+  public static long toCents(BigDecimal amount) {
+    return amount.movePointRight(SCALE).longValueExact();
+  }
+
+  public static BigDecimal fromCents(long cents) {
+    return BigDecimal.valueOf(cents, SCALE);
+  }
+
+  public static String format(long cents) {
+    return fromCents(cents).toPlainString();
+  }
+}
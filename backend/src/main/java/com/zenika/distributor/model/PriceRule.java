@@ -0,0 +1,83 @@
+package com.zenika.distributor.model;
+
+import com.zenika.distributor.enums.PriceRuleType;
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.LocalTime;
+import java.util.List;
+
+/**
+ * A promotion, see {@link PriceRuleType} for what each field means per type. A rule with a machine ID only
+ * applies to that machine; one with a start and end time only applies between them (local time, the end
+ * excluded, wrapping past midnight when the end is before the start).
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class PriceRule {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @Column(nullable = false)
+  private String name;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false)
+  private PriceRuleType type;
+
+  @Convert(converter = ProductIdsConverter.class)
+  @Column(nullable = false, length = 1000)
+  private List<Long> productIds;
+
+  // BUY_N_GET_ONE: units to buy before one is free
+  private Integer quantity;
+
+  // UNIT_PRICE: the new price; COMBO: the discount per set
+  @Column(precision = 12, scale = 2)
+  private BigDecimal amount;
+
+  private String machineId;
+
+  private LocalTime startTime;
+
+  private LocalTime endTime;
+
+  /**
+   * @return true if the rule applies at {@code secondOfDay}, local time.
+   */
+  public boolean appliesAt(int secondOfDay) {
+    if (startTime == null || endTime == null) {
+      return true;
+    }
+    int start = startTime.toSecondOfDay();
+    int end = endTime.toSecondOfDay();
+    return start <= end
+      ? secondOfDay >= start && secondOfDay < end
+      : secondOfDay >= start || secondOfDay < end;
+  }
+
+  @Override
+  public String toString() {
+    return "PriceRule{" +
+      "id=" + id +
+      ", name='" + name + '\'' +
+      ", type=" + type +
+      ", productIds=" + productIds +
+      '}';
+  }
+}
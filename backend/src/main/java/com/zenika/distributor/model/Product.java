@@ -1,16 +1,23 @@
 package com.zenika.distributor.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.Transient;
 import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.Digits;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
-import lombok.AllArgsConstructor;
+import lombok.AccessLevel;
 import lombok.Getter; // Use Getter/Setter instead of Data for more control
 import lombok.NoArgsConstructor;
 import lombok.Setter; // Use Getter/Setter instead of Data
+import org.hibernate.annotations.ColumnDefault;
 
 import java.math.BigDecimal;
 import java.util.Objects; // Import Objects
@@ -19,7 +26,6 @@ import java.util.Objects; // Import Objects
 @Getter // Using individual annotations for more control
 @Setter
 @NoArgsConstructor
-@AllArgsConstructor
 public class Product {
   @Id
   @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -30,8 +36,42 @@ public class Product {
 
   @NotNull(message = "Product price cannot be null")
   @DecimalMin(value = "0.0", inclusive = false, message = "Price must be positive")
+  @Digits(integer = 10, fraction = 2, message = "Price must have at most two decimal places")
   private BigDecimal price;
 
+  // Units on hand in the machine; decremented with a conditional UPDATE when a sale is committed
+  @Min(value = 0, message = "Stock cannot be negative")
+  @ColumnDefault("0")
+  @Column(nullable = false)
+  private int stock;
+
+  // Price in cents, derived from price and used by all internal arithmetic
+  @Transient
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  private long priceCents;
+
+  public Product(Long id, String name, BigDecimal price) {
+    this(id, name, price, 0);
+  }
+
+  public Product(Long id, String name, BigDecimal price, int stock) {
+    this.id = id;
+    this.name = name;
+    this.stock = stock;
+    setPrice(price);
+  }
+
+  public void setPrice(BigDecimal price) {
+    this.price = price;
+    this.priceCents = price != null ? Money.toCents(price) : 0L;
+  }
+
+  @PostLoad
+  void computePriceCents() {
+    this.priceCents = price != null ? Money.toCents(price) : 0L;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -53,6 +93,7 @@ public class Product {
       "id=" + id +
       ", name='" + name + '\'' +
       ", price=" + price +
+      ", stock=" + stock +
       '}';
   }
 }
@@ -0,0 +1,40 @@
+package com.zenika.distributor.model;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores a list of product IDs as comma-separated text.
+ */
+@Converter
+public class ProductIdsConverter implements AttributeConverter<List<Long>, String> {
+
+  @Override
+  public String convertToDatabaseColumn(List<Long> productIds) {
+    if (productIds == null) {
+      return null;
+    }
+    StringBuilder text = new StringBuilder(productIds.size() * 4);
+    for (Long productId : productIds) {
+      if (!text.isEmpty()) {
+        text.append(',');
+      }
+      text.append(productId);
+    }
+    return text.toString();
+  }
+
+  @Override
+  public List<Long> convertToEntityAttribute(String text) {
+    List<Long> productIds = new ArrayList<>();
+    if (text != null && !text.isBlank()) {
+      for (String productId : text.split(",")) {
+        productIds.add(Long.valueOf(productId.trim()));
+      }
+    }
+    return productIds;
+  }
+}
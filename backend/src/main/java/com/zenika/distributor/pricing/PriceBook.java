@@ -0,0 +1,322 @@
+package com.zenika.distributor.pricing;
+
+import com.zenika.distributor.model.Money;
+import com.zenika.distributor.model.PriceRule;
+import com.zenika.distributor.model.Product;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * The promotions in force for one machine at one time of day, compiled into arrays indexed by product: its
+ * unit price, its buy-N-get-one group and the combos it is part of. Immutable, so a cart can keep a reference
+ * to the book it was priced with and compare it with the current one.
+ * <p>
+ * A unit price set for the machine wins over one set for every machine; among rules of the same scope the
+ * lowest price and the smallest buy-N-get-one group win. Combos stack with each other and with the other rules;
+ * combos of the same products are merged into one with the sum of their discounts, capped at the lowest price a
+ * set of them can have in this book.
+ */
+public final class PriceBook {
+
+  /**
+   * Catalog prices, no promotion.
+   */
+  public static final PriceBook NONE = new PriceBook(new long[0], new long[0], new int[0], new int[0][], new Combo[0]);
+
+  private static final int[] NO_COMBOS = new int[0];
+
+  /**
+   * Read access to the quantities of a cart.
+   */
+  public interface Quantities {
+    int quantity(long productId);
+  }
+
+  private final long[] productIds; // sorted
+  private final long[] unitPriceCents; // -1 keeps the catalog price
+  private final int[] groupSizes; // buy-N-get-one: N + 1, 0 if none
+  private final int[][] combosByProduct;
+  private final Combo[] combos;
+  private final long[] promotedIds; // sorted, the products with a unit price
+  private final long[] promotedCents;
+  private final long unitPricesHash;
+
+  private PriceBook(long[] productIds, long[] unitPriceCents, int[] groupSizes, int[][] combosByProduct,
+                    Combo[] combos) {
+    this.productIds = productIds;
+    this.unitPriceCents = unitPriceCents;
+    this.groupSizes = groupSizes;
+    this.combosByProduct = combosByProduct;
+    this.combos = combos;
+    int promoted = 0;
+    for (long price : unitPriceCents) {
+      promoted += price >= 0 ? 1 : 0;
+    }
+    this.promotedIds = new long[promoted];
+    this.promotedCents = new long[promoted];
+    long hash = 0L;
+    for (int i = 0, j = 0; i < unitPriceCents.length; i++) {
+      if (unitPriceCents[i] >= 0) {
+        promotedIds[j] = productIds[i];
+        promotedCents[j++] = unitPriceCents[i];
+        hash = (hash * 1_000_003L + productIds[i]) * 1_000_003L + unitPriceCents[i];
+      }
+    }
+    this.unitPricesHash = hash;
+  }
+
+  /**
+   * @param rules the rules in force, already filtered by machine and time of day.
+   * @param catalogCents the catalog price of a product ID, 0 if it is no longer in the catalog.
+   */
+  static PriceBook compile(List<PriceRule> rules, LongUnaryOperator catalogCents) {
+    if (rules.isEmpty()) {
+      return NONE;
+    }
+    TreeMap<Long, Entry> entries = new TreeMap<>();
+    Map<List<Long>, Long> comboDiscounts = new LinkedHashMap<>();
+    for (PriceRule rule : rules) {
+      switch (rule.getType()) {
+        case UNIT_PRICE -> {
+          Entry entry = entries.computeIfAbsent(rule.getProductIds().get(0), id -> new Entry());
+          long cents = Money.toCents(rule.getAmount());
+          boolean specific = rule.getMachineId() != null;
+          if (entry.unitPriceCents < 0 || (specific && !entry.machineSpecific)
+            || (specific == entry.machineSpecific && cents < entry.unitPriceCents)) {
+            entry.unitPriceCents = cents;
+            entry.machineSpecific = specific;
+          }
+        }
+        case BUY_N_GET_ONE -> {
+          Entry entry = entries.computeIfAbsent(rule.getProductIds().get(0), id -> new Entry());
+          int groupSize = rule.getQuantity() + 1;
+          if (entry.groupSize == 0 || groupSize < entry.groupSize) {
+            entry.groupSize = groupSize;
+          }
+        }
+        case COMBO -> {
+          List<Long> members = new ArrayList<>(rule.getProductIds());
+          members.sort(null);
+          comboDiscounts.merge(members, Money.toCents(rule.getAmount()), Long::sum);
+        }
+      }
+    }
+    List<Combo> combos = new ArrayList<>(comboDiscounts.size());
+    for (Map.Entry<List<Long>, Long> discount : comboDiscounts.entrySet()) {
+      Combo combo = Combo.of(discount.getKey(), discount.getValue(), entries, catalogCents);
+      for (long productId : combo.productIds) {
+        entries.computeIfAbsent(productId, id -> new Entry()).combos.add(combos.size());
+      }
+      combos.add(combo);
+    }
+
+    int size = entries.size();
+    long[] productIds = new long[size];
+    long[] unitPriceCents = new long[size];
+    int[] groupSizes = new int[size];
+    int[][] combosByProduct = new int[size][];
+    int i = 0;
+    for (Map.Entry<Long, Entry> entry : entries.entrySet()) {
+      productIds[i] = entry.getKey();
+      unitPriceCents[i] = entry.getValue().unitPriceCents;
+      groupSizes[i] = entry.getValue().groupSize;
+      List<Integer> productCombos = entry.getValue().combos;
+      combosByProduct[i] = productCombos.isEmpty()
+        ? NO_COMBOS
+        : productCombos.stream().mapToInt(Integer::intValue).toArray();
+      i++;
+    }
+    return new PriceBook(productIds, unitPriceCents, groupSizes, combosByProduct, combos.toArray(new Combo[0]));
+  }
+
+  /**
+   * @return the least {@code units} units can cost at {@code unitCents} each, whatever else is in the cart, when
+   * one unit in {@code groupSize} is free (0 for none).
+   */
+  static long lowestCents(long unitCents, int groupSize, int units) {
+    return groupSize == 0 ? unitCents * units : unitCents * units * (groupSize - 1) / groupSize;
+  }
+
+  /**
+   * @return the price of one unit, before buy-N-get-one and combos.
+   */
+  public long unitPriceCents(Product product) {
+    int index = indexOf(product.getId());
+    return index >= 0 && unitPriceCents[index] >= 0 ? unitPriceCents[index] : product.getPriceCents();
+  }
+
+  /**
+   * @return the price of {@code quantity} units, free units deducted, before combos.
+   */
+  public long lineCents(Product product, int quantity) {
+    int index = indexOf(product.getId());
+    if (index < 0) {
+      return quantity * product.getPriceCents();
+    }
+    long unit = unitPriceCents[index] >= 0 ? unitPriceCents[index] : product.getPriceCents();
+    int groupSize = groupSizes[index];
+    return unit * (groupSize == 0 ? quantity : quantity - quantity / groupSize);
+  }
+
+  /**
+   * How much the cart total changes when the product goes from {@code from} to {@code to} units, the other
+   * products keeping the quantities {@code cart} reports. Only the combos this product is part of are looked at.
+   */
+  public long deltaCents(Product product, int from, int to, Quantities cart) {
+    long delta = lineCents(product, to) - lineCents(product, from);
+    int index = indexOf(product.getId());
+    if (index >= 0) {
+      for (int c : combosByProduct[index]) {
+        delta -= combos[c].deltaCents(cart, product.getId(), from, to);
+      }
+    }
+    return delta;
+  }
+
+  /**
+   * @return the discount of the combos whose first product is {@code productId}, for the quantities in
+   * {@code cart}. Summed over every product of a cart, each combo is counted once.
+   */
+  public long comboDiscountCents(long productId, Quantities cart) {
+    int index = indexOf(productId);
+    if (index < 0) {
+      return 0L;
+    }
+    long discount = 0L;
+    for (int c : combosByProduct[index]) {
+      Combo combo = combos[c];
+      if (combo.productIds[0] == productId) {
+        discount += combo.discountCents * combo.sets(cart, productId, cart.quantity(productId));
+      }
+    }
+    return discount;
+  }
+
+  /**
+   * @return true if some product has a unit price other than its catalog price, which changes what a
+   * balance can afford.
+   */
+  public boolean hasUnitPrices() {
+    return promotedIds.length > 0;
+  }
+
+  /**
+   * @return a hash of the unit prices only, equal for two books showing the same prices, e.g. before and after
+   * the rules were reloaded. 0 without unit prices.
+   */
+  public long unitPricesHash() {
+    return unitPricesHash;
+  }
+
+  /**
+   * @return true if the book sets the unit price of the product, even to its catalog price.
+   */
+  public boolean hasUnitPrice(long productId) {
+    return promotedIds.length > 0 && Arrays.binarySearch(promotedIds, productId) >= 0;
+  }
+
+  /**
+   * @return how many products have a unit price, see {@link #promotedProductId} and {@link #promotedPriceCents}.
+   */
+  public int promotedCount() {
+    return promotedIds.length;
+  }
+
+  public long promotedProductId(int index) {
+    return promotedIds[index];
+  }
+
+  public long promotedPriceCents(int index) {
+    return promotedCents[index];
+  }
+
+  public boolean isEmpty() {
+    return productIds.length == 0;
+  }
+
+  private int indexOf(long productId) {
+    return productIds.length == 0 ? -1 : Arrays.binarySearch(productIds, productId);
+  }
+
+  /**
+   * Products of a combo, distinct and sorted, with the units of each one set needs.
+   */
+  private static final class Combo {
+    private final long[] productIds;
+    private final int[] required;
+    private final long discountCents;
+
+    private Combo(long[] productIds, int[] required, long discountCents) {
+      this.productIds = productIds;
+      this.required = required;
+      this.discountCents = discountCents;
+    }
+
+    private static Combo of(List<Long> members, long discountCents, Map<Long, Entry> entries,
+                            LongUnaryOperator catalogCents) {
+      TreeMap<Long, Integer> counts = new TreeMap<>();
+      for (Long productId : members) {
+        counts.merge(productId, 1, Integer::sum);
+      }
+      long[] productIds = new long[counts.size()];
+      int[] required = new int[counts.size()];
+      long setCents = 0L;
+      int i = 0;
+      for (Map.Entry<Long, Integer> count : counts.entrySet()) {
+        productIds[i] = count.getKey();
+        required[i] = count.getValue();
+        Entry entry = entries.get(count.getKey());
+        long unit = entry != null && entry.unitPriceCents >= 0 ? entry.unitPriceCents : catalogCents.applyAsLong(productIds[i]);
+        setCents += lowestCents(unit, entry != null ? entry.groupSize : 0, required[i]);
+        i++;
+      }
+      // Rules stored by other nodes or before a price change are not validated against this book
+      return new Combo(productIds, required, Math.min(discountCents, setCents));
+    }
+
+    /**
+     * @return how the discount of this combo changes when {@code productId} goes from {@code from} to
+     * {@code to} units. The quantities of the other products are read once.
+     */
+    private long deltaCents(Quantities cart, long productId, int from, int to) {
+      int others = Integer.MAX_VALUE;
+      int own = 1;
+      for (int i = 0; i < productIds.length && others > 0; i++) {
+        if (productIds[i] == productId) {
+          own = required[i];
+        } else {
+          others = Math.min(others, cart.quantity(productIds[i]) / required[i]);
+        }
+      }
+      if (others == 0) {
+        return 0L;
+      }
+      return discountCents * (Math.min(others, to / own) - Math.min(others, from / own));
+    }
+
+    /**
+     * @return the complete sets in the cart, counting {@code quantity} units of {@code productId}.
+     */
+    private int sets(Quantities cart, long productId, int quantity) {
+      int sets = Integer.MAX_VALUE;
+      for (int i = 0; i < productIds.length && sets > 0; i++) {
+        int units = productIds[i] == productId ? quantity : cart.quantity(productIds[i]);
+        sets = Math.min(sets, units / required[i]);
+      }
+      return sets;
+    }
+  }
+
+  private static final class Entry {
+    private long unitPriceCents = -1;
+    private boolean machineSpecific;
+    private int groupSize;
+    private final List<Integer> combos = new ArrayList<>(0);
+  }
+}
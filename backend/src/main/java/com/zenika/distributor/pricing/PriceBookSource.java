@@ -0,0 +1,13 @@
+package com.zenika.distributor.pricing;
+
+/**
+ * Looks up the {@link PriceBook} a machine's carts are priced with. Called on every cart change, under the
+ * session lock: implementations must not block.
+ */
+@FunctionalInterface
+public interface PriceBookSource {
+
+  PriceBookSource NONE = machineId -> PriceBook.NONE;
+
+  PriceBook forMachine(String machineId);
+}
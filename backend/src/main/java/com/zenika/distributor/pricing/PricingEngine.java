@@ -0,0 +1,312 @@
+package com.zenika.distributor.pricing;
+
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.exception.InvalidPriceRuleException;
+import com.zenika.distributor.model.Money;
+import com.zenika.distributor.model.PriceRule;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.repository.PriceRuleRepository;
+import com.zenika.distributor.service.CatalogCache;
+import com.zenika.distributor.service.SessionRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Keeps the price rules compiled for lookup on the cart path. The day is cut into the segments between the
+ * start and end times of all rules, so the rules in force are the same throughout a segment; a {@link PriceBook}
+ * is compiled, on first use, per segment for the machines without a rule of their own and per segment for each
+ * machine with one. A lookup is a map get, a binary search over the segment boundaries and an array read.
+ * <p>
+ * Rules live in the database; every node reloads them every {@code distributor.pricing.refresh-interval}.
+ */
+@Service
+public class PricingEngine implements PriceBookSource {
+
+  private final PriceRuleRepository priceRuleRepository;
+  private final CatalogCache catalogCache;
+  private final Clock clock;
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private volatile CompiledRules compiled;
+
+  @Autowired
+  public PricingEngine(PriceRuleRepository priceRuleRepository, CatalogCache catalogCache) {
+    this(priceRuleRepository, catalogCache, Clock.systemDefaultZone());
+  }
+
+  public PricingEngine(PriceRuleRepository priceRuleRepository, CatalogCache catalogCache, Clock clock) {
+    this.priceRuleRepository = priceRuleRepository;
+    this.catalogCache = catalogCache;
+    this.clock = clock;
+  }
+
+  @Override
+  public PriceBook forMachine(String machineId) {
+    return compiled().bookFor(machineId, LocalTime.now(clock).toSecondOfDay(), this::catalogCents);
+  }
+
+  public List<PriceRule> getRules() {
+    return compiled().rules;
+  }
+
+  /**
+   * Validates and stores a rule, then recompiles.
+   * @throws InvalidPriceRuleException if the rule does not fit its type or names an unknown product.
+   */
+  public PriceRule addRule(PriceRule rule) {
+    validate(rule);
+    rule.setId(null);
+    rule.setMachineId(rule.getMachineId() != null ? SessionRegistry.normalize(rule.getMachineId()) : null);
+    PriceRule saved = priceRuleRepository.save(rule);
+    refresh();
+    return saved;
+  }
+
+  /**
+   * @return false if there was no such rule.
+   */
+  public boolean deleteRule(Long ruleId) {
+    if (!priceRuleRepository.existsById(ruleId)) {
+      return false;
+    }
+    priceRuleRepository.deleteById(ruleId);
+    refresh();
+    return true;
+  }
+
+  /**
+   * Reloads the rules from the database, picking up the changes made through other nodes.
+   */
+  @Scheduled(fixedDelayString = "${distributor.pricing.refresh-interval:PT30S}")
+  public void refresh() {
+    writeLock.lock();
+    try {
+      install(priceRuleRepository.findAll());
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Compiles and publishes a whole rule set read by the caller.
+   */
+  public void install(List<PriceRule> rules) {
+    writeLock.lock();
+    try {
+      compiled = new CompiledRules(List.copyOf(rules));
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private long catalogCents(long productId) {
+    Product product = catalogCache.findById(productId);
+    return product != null ? product.getPriceCents() : 0L;
+  }
+
+  private CompiledRules compiled() {
+    CompiledRules current = compiled;
+    if (current == null) {
+      refresh();
+      current = compiled;
+    }
+    return current;
+  }
+
+  private void validate(PriceRule rule) {
+    List<Long> productIds = rule.getProductIds();
+    if (rule.getType() == null || productIds == null || productIds.isEmpty()) {
+      throw new InvalidPriceRuleException("A rule needs a type and at least one product.");
+    }
+    long basePriceCents = 0L;
+    for (Long productId : productIds) {
+      Product product = productId != null ? catalogCache.findById(productId) : null;
+      if (product == null) {
+        throw new InvalidPriceRuleException("Product with ID " + productId + " not found.");
+      }
+      basePriceCents += product.getPriceCents();
+    }
+    boolean positiveAmount = rule.getAmount() != null && rule.getAmount().signum() > 0;
+    switch (rule.getType()) {
+      case UNIT_PRICE -> {
+        if (productIds.size() != 1 || !positiveAmount) {
+          throw new InvalidPriceRuleException("A unit price rule needs one product and a positive amount.");
+        }
+        requirePayable(rule.getAmount());
+      }
+      case BUY_N_GET_ONE -> {
+        if (productIds.size() != 1 || rule.getQuantity() == null || rule.getQuantity() < 1) {
+          throw new InvalidPriceRuleException("A buy-N-get-one rule needs one product and a quantity of at least 1.");
+        }
+      }
+      case COMBO -> {
+        if (productIds.size() < 2 || !positiveAmount) {
+          throw new InvalidPriceRuleException("A combo needs at least two units and a positive amount.");
+        }
+        if (rule.getAmount().compareTo(BigDecimal.valueOf(basePriceCents, 2)) >= 0) {
+          throw new InvalidPriceRuleException("A combo discount must be less than the price of the combo.");
+        }
+        requirePayable(rule.getAmount());
+      }
+    }
+    if ((rule.getStartTime() == null) != (rule.getEndTime() == null)
+      || (rule.getStartTime() != null && rule.getStartTime().equals(rule.getEndTime()))) {
+      throw new InvalidPriceRuleException("A time window needs a start and a different end time.");
+    }
+    List<PriceRule> rules = new ArrayList<>(compiled().rules);
+    rules.add(rule);
+    validateCombos(rules, rule);
+  }
+
+  // A price or discount off the coin grid makes totals that no combination of coins can pay exactly
+  private static void requirePayable(BigDecimal amount) {
+    if (amount.scale() > 2 || !Coin.isPayable(Money.toCents(amount))) {
+      throw new InvalidPriceRuleException("The amount must be a multiple of " + Coin.payableStep() + ".");
+    }
+  }
+
+  /**
+   * Combos of the same products add up and stack on unit prices and buy-N-get-one, so in every book the new rule
+   * can be part of, the discounts of each set of products must stay below the lowest price that set can have.
+   * Rules are taken as overlapping whatever their time windows.
+   */
+  private void validateCombos(List<PriceRule> rules, PriceRule added) {
+    String addedMachine = added.getMachineId() != null ? SessionRegistry.normalize(added.getMachineId()) : null;
+    Set<String> machines = new HashSet<>();
+    machines.add(null); // The machines without a rule of their own
+    for (PriceRule rule : rules) {
+      if (rule.getMachineId() != null) {
+        machines.add(SessionRegistry.normalize(rule.getMachineId()));
+      }
+    }
+    for (String machine : machines) {
+      if (addedMachine == null || addedMachine.equals(machine)) {
+        validateCombos(rules, added, machine);
+      }
+    }
+  }
+
+  private void validateCombos(List<PriceRule> rules, PriceRule added, String machine) {
+    Map<List<Long>, Long> comboDiscounts = new HashMap<>();
+    Map<Long, Long> lowestUnitCents = new HashMap<>();
+    Map<Long, Integer> smallestGroups = new HashMap<>();
+    for (PriceRule rule : rules) {
+      if (rule.getMachineId() != null && !SessionRegistry.normalize(rule.getMachineId()).equals(machine)) {
+        continue;
+      }
+      Long productId = rule.getProductIds().get(0);
+      switch (rule.getType()) {
+        case UNIT_PRICE -> lowestUnitCents.merge(productId, Money.toCents(rule.getAmount()), Math::min);
+        case BUY_N_GET_ONE -> smallestGroups.merge(productId, rule.getQuantity() + 1, Math::min);
+        case COMBO -> {
+          List<Long> members = new ArrayList<>(rule.getProductIds());
+          members.sort(null);
+          comboDiscounts.merge(members, Money.toCents(rule.getAmount()), Long::sum);
+        }
+      }
+    }
+    for (Map.Entry<List<Long>, Long> combo : comboDiscounts.entrySet()) {
+      if (combo.getKey().stream().noneMatch(added.getProductIds()::contains)) {
+        continue;
+      }
+      Map<Long, Integer> units = new HashMap<>();
+      combo.getKey().forEach(productId -> units.merge(productId, 1, Integer::sum));
+      long lowestCents = 0L;
+      for (Map.Entry<Long, Integer> member : units.entrySet()) {
+        long catalog = catalogCents(member.getKey());
+        long unit = Math.min(catalog, lowestUnitCents.getOrDefault(member.getKey(), catalog));
+        lowestCents += PriceBook.lowestCents(unit, smallestGroups.getOrDefault(member.getKey(), 0), member.getValue());
+      }
+      if (combo.getValue() >= lowestCents) {
+        throw new InvalidPriceRuleException("The combo discounts on products " + combo.getKey() + " would add up to "
+          + Money.format(combo.getValue()) + ", not less than the lowest price of the set with its other promotions ("
+          + Money.format(lowestCents) + ").");
+      }
+    }
+  }
+
+  /**
+   * One rule set with its books, compiled as they are asked for.
+   */
+  private static final class CompiledRules {
+    private final List<PriceRule> rules;
+    private final int[] boundaries; // seconds of day starting a segment, boundaries[0] == 0
+    private final Scope everyMachine;
+    private final Map<String, Scope> machines = new HashMap<>();
+
+    private CompiledRules(List<PriceRule> rules) {
+      this.rules = rules;
+      TreeSet<Integer> starts = new TreeSet<>(List.of(0));
+      List<PriceRule> shared = new ArrayList<>();
+      Map<String, List<PriceRule>> byMachine = new HashMap<>();
+      for (PriceRule rule : rules) {
+        if (rule.getStartTime() != null && rule.getEndTime() != null) {
+          starts.add(rule.getStartTime().toSecondOfDay());
+          starts.add(rule.getEndTime().toSecondOfDay());
+        }
+        if (rule.getMachineId() == null) {
+          shared.add(rule);
+        } else {
+          byMachine.computeIfAbsent(rule.getMachineId(), id -> new ArrayList<>()).add(rule);
+        }
+      }
+      this.boundaries = starts.stream().mapToInt(Integer::intValue).toArray();
+      this.everyMachine = new Scope(shared, boundaries.length);
+      for (Map.Entry<String, List<PriceRule>> machine : byMachine.entrySet()) {
+        List<PriceRule> scoped = new ArrayList<>(shared);
+        scoped.addAll(machine.getValue());
+        machines.put(machine.getKey(), new Scope(scoped, boundaries.length));
+      }
+    }
+
+    PriceBook bookFor(String machineId, int secondOfDay, LongUnaryOperator catalogCents) {
+      if (rules.isEmpty()) {
+        return PriceBook.NONE;
+      }
+      Scope scope = machines.isEmpty() ? everyMachine : machines.getOrDefault(machineId, everyMachine);
+      int segment = Arrays.binarySearch(boundaries, secondOfDay);
+      if (segment < 0) {
+        segment = -segment - 2; // The boundary before
+      }
+      PriceBook book = scope.books.get(segment);
+      if (book == null) {
+        // Racing threads compile equal books, any of them will do
+        int start = boundaries[segment];
+        List<PriceRule> active = new ArrayList<>(scope.rules.size());
+        for (PriceRule rule : scope.rules) {
+          if (rule.appliesAt(start)) {
+            active.add(rule);
+          }
+        }
+        book = PriceBook.compile(active, catalogCents);
+        scope.books.set(segment, book);
+      }
+      return book;
+    }
+  }
+
+  private static final class Scope {
+    private final List<PriceRule> rules;
+    private final AtomicReferenceArray<PriceBook> books;
+
+    private Scope(List<PriceRule> rules, int segments) {
+      this.rules = rules;
+      this.books = new AtomicReferenceArray<>(segments);
+    }
+  }
+}
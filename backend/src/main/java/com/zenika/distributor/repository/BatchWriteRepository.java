@@ -0,0 +1,91 @@
+package com.zenika.distributor.repository;
+
+import com.zenika.distributor.telemetry.TelemetryReading;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Multi-row writes sent as one JDBC batch (a single round trip per statement) instead of one
+ * repository call per row. Joins the caller's transaction when there is one.
+ */
+@Repository
+public class BatchWriteRepository {
+
+  private final JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  public BatchWriteRepository(JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  /**
+   * Same conditional decrement as {@link ProductRepository#decrementStock(Long, int)} for many rows.
+   * @param rows {productId, quantity} pairs.
+   * @return per row, 1 if the stock was decremented, 0 if not enough units were left.
+   */
+  public int[] decrementStock(List<long[]> rows) {
+    return jdbcTemplate.batchUpdate("UPDATE product SET stock = stock - ? WHERE id = ? AND stock >= ?",
+      new BatchPreparedStatementSetter() {
+        @Override
+        public void setValues(PreparedStatement ps, int i) throws SQLException {
+          long[] row = rows.get(i);
+          ps.setLong(1, row[1]);
+          ps.setLong(2, row[0]);
+          ps.setLong(3, row[1]);
+        }
+
+        @Override
+        public int getBatchSize() {
+          return rows.size();
+        }
+      });
+  }
+
+  /**
+   * Same upsert as {@link CoinInventoryRepository#upsert(String, String, int)} for many rows.
+   * @param rows {machineId, coin name, quantity} triples.
+   */
+  public void upsertCoins(List<Object[]> rows) {
+    jdbcTemplate.batchUpdate("MERGE INTO coin_inventory (machine_id, coin, quantity) KEY (machine_id, coin) VALUES (?, ?, ?)",
+      rows);
+  }
+
+  /**
+   * Stores the latest reading of each machine, replacing the one stored before.
+   * @param readings one per machine.
+   */
+  public void upsertTelemetry(List<TelemetryReading> readings) {
+    jdbcTemplate.batchUpdate("MERGE INTO machine_telemetry (machine_id, reported_at, temperature_tenths, coin_box_level, error_code) "
+        + "KEY (machine_id) VALUES (?, ?, ?, ?, ?)",
+      new BatchPreparedStatementSetter() {
+        @Override
+        public void setValues(PreparedStatement ps, int i) throws SQLException {
+          TelemetryReading reading = readings.get(i);
+          ps.setString(1, reading.getMachineId());
+          ps.setLong(2, reading.getReportedAt());
+          ps.setInt(3, reading.getTemperatureTenths());
+          ps.setInt(4, reading.getCoinBoxLevel());
+          ps.setInt(5, reading.getErrorCode());
+        }
+
+        @Override
+        public int getBatchSize() {
+          return readings.size();
+        }
+      });
+  }
+
+  /**
+   * Inserts new products, IDs being assigned by the database.
+   * @param rows {name, price, stock} triples.
+   */
+  public void insertProducts(List<Object[]> rows) {
+    jdbcTemplate.batchUpdate("INSERT INTO product (name, price, stock) VALUES (?, ?, ?)", rows);
+  }
+}
@@ -0,0 +1,24 @@
+package com.zenika.distributor.repository;
+
+import com.zenika.distributor.model.CoinInventory;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface CoinInventoryRepository extends JpaRepository<CoinInventory, CoinInventory.Key> {
+
+  List<CoinInventory> findByIdMachineId(String machineId);
+
+  // Single-statement upsert (H2 MERGE), avoids the select-then-insert of save() on an assigned id
+  @Modifying
+  @Transactional
+  @Query(value = "MERGE INTO coin_inventory (machine_id, coin, quantity) KEY (machine_id, coin) VALUES (:machineId, :coin, :quantity)",
+    nativeQuery = true)
+  int upsert(@Param("machineId") String machineId, @Param("coin") String coin, @Param("quantity") int quantity);
+}
@@ -0,0 +1,9 @@
+package com.zenika.distributor.repository;
+
+import com.zenika.distributor.model.MachineTelemetry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface MachineTelemetryRepository extends JpaRepository<MachineTelemetry, String> {
+}
@@ -0,0 +1,49 @@
+package com.zenika.distributor.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+
+/**
+ * Reads the whole product table through a forward-only cursor, {@code fetch-size} rows per round trip, without
+ * building entities or holding the result in memory.
+ */
+@Repository
+public class ProductCursorRepository {
+
+  @FunctionalInterface
+  public interface ProductRowHandler {
+    void accept(long id, String name, BigDecimal price, int stock) throws IOException;
+  }
+
+  private final JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  public ProductCursorRepository(JdbcTemplate jdbcTemplate,
+                                 @Value("${distributor.catalog.export.fetch-size:1000}") int fetchSize) {
+    this.jdbcTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+    this.jdbcTemplate.setFetchSize(fetchSize);
+  }
+
+  /**
+   * Hands every product to {@code handler}, in ID order.
+   */
+  public void forEach(ProductRowHandler handler) throws IOException {
+    try {
+      jdbcTemplate.query("SELECT id, name, price, stock FROM product ORDER BY id", rs -> {
+        try {
+          handler.accept(rs.getLong(1), rs.getString(2), rs.getBigDecimal(3), rs.getInt(4));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+}
@@ -3,8 +3,23 @@ package com.zenika.distributor.repository;
 
 import com.zenika.distributor.model.Product;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface ProductRepository extends JpaRepository<Product, Long> {
+
+  /**
+   * Takes {@code quantity} units out of stock in a single conditional statement.
+   * @return 1 if the stock was decremented, 0 if the product does not have enough units left.
+   */
+  @Modifying
+  @Query("update Product p set p.stock = p.stock - :quantity where p.id = :id and p.stock >= :quantity")
+  int decrementStock(@Param("id") Long id, @Param("quantity") int quantity);
+
+  @Modifying
+  @Query("update Product p set p.stock = p.stock + :quantity where p.id = :id")
+  int incrementStock(@Param("id") Long id, @Param("quantity") int quantity);
 }
@@ -0,0 +1,58 @@
+package com.zenika.distributor.repository;
+
+import com.zenika.distributor.model.Product;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Readable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+
+/**
+ * Non-blocking reads of the product table for the reactive API. Rows are emitted as the driver produces them,
+ * so a listing is streamed with the subscriber's demand instead of being loaded as a whole first.
+ * The connection factory is kept private to this repository: exposed as a bean it would make Spring Boot drop
+ * the JDBC DataSource that JPA still uses for writes.
+ */
+@Repository
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveProductRepository {
+
+  private static final String SELECT = "SELECT id, name, price, stock FROM product";
+
+  private final DatabaseClient databaseClient;
+
+  @Autowired
+  public ReactiveProductRepository(@Value("${distributor.reactive.r2dbc-url}") String url) {
+    this(ConnectionFactories.get(url));
+  }
+
+  public ReactiveProductRepository(ConnectionFactory connectionFactory) {
+    this.databaseClient = DatabaseClient.create(connectionFactory);
+  }
+
+  public Flux<Product> findAll() {
+    return databaseClient.sql(SELECT + " ORDER BY id")
+      .map(ReactiveProductRepository::toProduct)
+      .all();
+  }
+
+  public Mono<Product> findById(Long productId) {
+    return databaseClient.sql(SELECT + " WHERE id = :id")
+      .bind("id", productId)
+      .map(ReactiveProductRepository::toProduct)
+      .one();
+  }
+
+  private static Product toProduct(Readable row) {
+    Integer stock = row.get("stock", Integer.class);
+    return new Product(row.get("id", Long.class), row.get("name", String.class), row.get("price", BigDecimal.class),
+      stock != null ? stock : 0);
+  }
+}
@@ -0,0 +1,697 @@
+package com.zenika.distributor.search;
+
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.service.CatalogListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Prefix and typo-tolerant search over product names, kept in memory and updated from the {@link CatalogListener}
+ * events of the catalog cache: a new or renamed product only touches the posting lists of its own words.
+ * <p>
+ * Names are split into words, lowercased and accent-folded ("Jus d'Orange Frais" gives {@code jus}, {@code d},
+ * {@code orange}, {@code frais}). Each word maps to the sorted list of products using it, in a skip list so
+ * that the words starting with a prefix are a range of keys. Words also index their trigrams, so a query word
+ * matching nothing can be corrected to the words within one or two edits of it.
+ * <p>
+ * Every query word must match a word of the name: exactly, as a prefix or, failing both, fuzzily; a name
+ * starting with the match of the first query word ranks higher. Products are scanned through the rarest query
+ * word and checked against the others by galloping through their lists, or by a bit test for the words common
+ * enough to be worth a bitmap over product slots. Posting lists are ordered by name length, so the scan stops
+ * as soon as no later product can make it into the results, and in any case after {@code max-candidates}
+ * matching products.
+ * <p>
+ * Readers take no lock and may briefly see a product under both its old and new words while it is renamed.
+ */
+@Component
+public class ProductSearchIndex implements CatalogListener {
+
+  static final int EXACT = 3;
+  static final int PREFIX = 2;
+  static final int FUZZY = 1;
+  static final int FIRST_WORD = 1;
+
+  // Posting keys are the name length above the product slot, so that they sort shorter names first
+  private static final int SLOT_BITS = 32;
+  private static final long SLOT_MASK = (1L << SLOT_BITS) - 1;
+  // A word used by at least one name in this many gets a bitmap, no larger than its list of keys
+  private static final int BITMAP_DENSITY = 64;
+  private static final Postings NONE = new Postings(new long[0], null);
+
+  private static final Comparator<Hit> WORST_FIRST = Comparator.<Hit>comparingInt(hit -> hit.score)
+    .thenComparing(Comparator.<Hit>comparingLong(hit -> hit.entry.key).reversed());
+
+  private final int maxCandidates;
+  private final int maxExpansions;
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private final ConcurrentMap<Long, Entry> entries = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListMap<String, Postings> postings = new ConcurrentSkipListMap<>();
+  private final ConcurrentMap<String, String[]> trigrams = new ConcurrentHashMap<>();
+  // Number of names starting with each word, to know whether the first-word bonus can be earned at all
+  private final ConcurrentMap<String, Integer> firstWords = new ConcurrentHashMap<>();
+  // Entries by slot, republished by a volatile write after each update; freed slots are reused
+  private volatile Entry[] slots = new Entry[1024];
+  private final Deque<Integer> freeSlots = new ArrayDeque<>();
+  private int nextSlot;
+
+  @Autowired
+  public ProductSearchIndex(@Value("${distributor.search.max-candidates:10000}") int maxCandidates,
+                            @Value("${distributor.search.max-expansions:50}") int maxExpansions) {
+    this.maxCandidates = maxCandidates;
+    this.maxExpansions = maxExpansions;
+  }
+
+  // --- updates ---
+
+  @Override
+  public void onCatalogInstalled(List<Product> products) {
+    writeLock.lock();
+    try {
+      Changes changes = new Changes();
+      Set<Long> present = new HashSet<>(products.size() * 2);
+      for (Product product : products) {
+        present.add(product.getId());
+        stage(product, changes);
+      }
+      List<Entry> gone = new ArrayList<>();
+      for (Entry entry : entries.values()) {
+        if (!present.contains(entry.product.getId())) {
+          gone.add(entry);
+          for (String word : entry.words) {
+            changes.removed(word).add(entry.key);
+          }
+          changes.firstWord(entry.words, -1);
+        }
+      }
+      apply(changes);
+      for (Entry entry : gone) {
+        entries.remove(entry.product.getId());
+        slots[slot(entry.key)] = null;
+        freeSlots.push(slot(entry.key));
+      }
+      slots = slots; // Publishes the slot writes above to readers
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public void onProductInstalled(Product product) {
+    writeLock.lock();
+    try {
+      Changes changes = new Changes();
+      stage(product, changes);
+      apply(changes);
+      slots = slots; // Publishes the slot writes above to readers
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void stage(Product product, Changes changes) {
+    Entry previous = entries.get(product.getId());
+    if (previous != null && previous.product.getName().equals(product.getName())) {
+      put(new Entry(product, previous.words, previous.key)); // e.g. a stock change
+      return;
+    }
+    String[] words = words(product.getName());
+    for (int i = 0; i < words.length; i++) {
+      String known = postings.ceilingKey(words[i]);
+      if (words[i].equals(known)) {
+        words[i] = known; // One instance per word across names
+      }
+    }
+    int slot = previous != null ? slot(previous.key) : allocateSlot();
+    Entry entry = new Entry(product, words, ((long) product.getName().length() << SLOT_BITS) | slot);
+    put(entry);
+    if (previous != null) {
+      for (String word : previous.words) {
+        changes.removed(word).add(previous.key);
+      }
+      changes.firstWord(previous.words, -1);
+    }
+    for (String word : words) {
+      changes.added(word).add(entry.key);
+    }
+    changes.firstWord(words, 1);
+  }
+
+  private int allocateSlot() {
+    if (!freeSlots.isEmpty()) {
+      return freeSlots.pop();
+    }
+    if (nextSlot == slots.length) {
+      slots = Arrays.copyOf(slots, slots.length * 2);
+    }
+    return nextSlot++;
+  }
+
+  private void put(Entry entry) {
+    entries.put(entry.product.getId(), entry);
+    slots[slot(entry.key)] = entry;
+  }
+
+  private static int slot(long key) {
+    return (int) (key & SLOT_MASK);
+  }
+
+  /**
+   * Rewrites the posting list of each changed word once, then the trigrams of the words that appeared or
+   * disappeared.
+   */
+  private void apply(Changes changes) {
+    changes.firstWords.forEach((word, delta) -> firstWords.compute(word, (key, count) -> {
+      int next = (count != null ? count : 0) + delta;
+      return next > 0 ? next : null;
+    }));
+    Set<String> words = new HashSet<>(changes.added.keySet());
+    words.addAll(changes.removed.keySet());
+    Map<String, List<String>> trigramsAdded = new HashMap<>();
+    Map<String, Set<String>> trigramsRemoved = new HashMap<>();
+    for (String word : words) {
+      Postings current = postings.getOrDefault(word, NONE);
+      LongList added = changes.added.get(word);
+      LongList removed = changes.removed.get(word);
+      long[] removedKeys = removed != null ? removed.sorted() : NONE.keys;
+      long[] addedKeys = added != null ? added.sorted() : NONE.keys;
+      long[] next = merge(current.keys, removedKeys, addedKeys);
+      if (next.length == 0) {
+        if (current != NONE) {
+          postings.remove(word);
+          for (String trigram : trigramsOf(word)) {
+            trigramsRemoved.computeIfAbsent(trigram, key -> new HashSet<>()).add(word);
+          }
+        }
+      } else {
+        postings.put(word, new Postings(next, bitmap(current, next, removedKeys, addedKeys)));
+        if (current == NONE) {
+          for (String trigram : trigramsOf(word)) {
+            trigramsAdded.computeIfAbsent(trigram, key -> new ArrayList<>()).add(word);
+          }
+        }
+      }
+    }
+    Set<String> changed = new HashSet<>(trigramsAdded.keySet());
+    changed.addAll(trigramsRemoved.keySet());
+    for (String trigram : changed) {
+      List<String> next = new ArrayList<>(Arrays.asList(trigrams.getOrDefault(trigram, new String[0])));
+      Set<String> removed = trigramsRemoved.get(trigram);
+      if (removed != null) {
+        next.removeIf(removed::contains);
+      }
+      next.addAll(trigramsAdded.getOrDefault(trigram, List.of()));
+      if (next.isEmpty()) {
+        trigrams.remove(trigram);
+      } else {
+        trigrams.put(trigram, next.toArray(new String[0]));
+      }
+    }
+  }
+
+  /**
+   * @return the slots of {@code keys} as a bitmap if the word is common enough, patched from the current one
+   * when there is one.
+   */
+  private long[] bitmap(Postings current, long[] keys, long[] removed, long[] added) {
+    if ((long) keys.length * BITMAP_DENSITY < nextSlot) {
+      return null;
+    }
+    long[] bits;
+    if (current.bits != null) {
+      bits = Arrays.copyOf(current.bits, Math.max(current.bits.length, (nextSlot + 63) >>> 6));
+      for (long key : removed) {
+        bits[slot(key) >>> 6] &= ~(1L << slot(key));
+      }
+    } else {
+      bits = new long[(nextSlot + 63) >>> 6];
+      added = keys;
+    }
+    for (long key : added) {
+      bits[slot(key) >>> 6] |= 1L << slot(key);
+    }
+    return bits;
+  }
+
+  /**
+   * @return {@code current} without the keys of {@code removed} and with those of {@code added}, all sorted.
+   */
+  private static long[] merge(long[] current, long[] removed, long[] added) {
+    long[] merged = new long[current.length + added.length];
+    int size = 0;
+    int r = 0;
+    int a = 0;
+    for (long key : current) {
+      while (r < removed.length && removed[r] < key) {
+        r++;
+      }
+      if (r < removed.length && removed[r] == key) {
+        continue;
+      }
+      while (a < added.length && added[a] <= key) {
+        if (added[a] != key && (size == 0 || merged[size - 1] != added[a])) {
+          merged[size++] = added[a];
+        }
+        a++;
+      }
+      merged[size++] = key;
+    }
+    while (a < added.length) {
+      if (size == 0 || merged[size - 1] != added[a]) {
+        merged[size++] = added[a];
+      }
+      a++;
+    }
+    return size == merged.length ? merged : Arrays.copyOf(merged, size);
+  }
+
+  // --- queries ---
+
+  /**
+   * @return up to {@code limit} products whose name matches every word of {@code query}, best first.
+   */
+  public List<Product> search(String query, int limit) {
+    String[] terms = words(query);
+    if (terms.length == 0 || limit <= 0) {
+      return List.of();
+    }
+    Expansion[] expansions = new Expansion[terms.length];
+    int driver = 0;
+    int bestWeights = 0;
+    for (int i = 0; i < terms.length; i++) {
+      expansions[i] = expand(terms[i]);
+      if (expansions[i].count == 0) {
+        return List.of();
+      }
+      if (expansions[i].postings < expansions[driver].postings) {
+        driver = i;
+      }
+      bestWeights += expansions[i].weights[0];
+    }
+    int firstWord = 0;
+    for (String word : expansions[0].positions.keySet()) {
+      if (firstWords.containsKey(word)) {
+        firstWord = FIRST_WORD;
+        break;
+      }
+    }
+
+    Entry[] table = slots;
+    Expansion scanned = expansions[driver];
+    // The other query words, rarest first so that a product missing one is skipped sooner
+    Expansion[] others = new Expansion[expansions.length - 1];
+    for (int i = 0, o = 0; i < expansions.length; i++) {
+      if (i != driver) {
+        others[o++] = expansions[i];
+      }
+    }
+    Arrays.sort(others, Comparator.comparingLong(expansion -> expansion.postings));
+    PriorityQueue<Hit> top = new PriorityQueue<>(limit, WORST_FIRST);
+    int candidates = 0;
+    scan:
+    for (int k = 0; k < scanned.count; k++) {
+      // The best score a product first found through this word can get
+      int bound = bestWeights - scanned.weights[0] + scanned.weights[k] + firstWord;
+      if (top.size() == limit && top.peek().score > bound) {
+        break;
+      }
+      long[] list = scanned.lists[k].keys;
+      int[][] cursors = new int[others.length][];
+      for (int o = 0; o < others.length; o++) {
+        cursors[o] = new int[others[o].count];
+      }
+      int p = 0;
+      candidates:
+      while (p < list.length) {
+        long key = list[p];
+        if (top.size() == limit && (top.peek().score > bound
+          || top.peek().score == bound && top.peek().entry.key < key)) {
+          break; // The products left have longer names and would lose ties
+        }
+        int score = scanned.weights[k];
+        for (int o = 0; o < others.length; o++) {
+          Expansion expansion = others[o];
+          int weight = 0;
+          // The next key that may match this query word
+          long next = Long.MAX_VALUE;
+          for (int j = 0; j < expansion.count && weight == 0; j++) {
+            Postings other = expansion.lists[j];
+            if (other.bits != null) {
+              if (other.hasSlot(slot(key))) {
+                weight = expansion.weights[j];
+              } else {
+                next = key + 1;
+              }
+            } else {
+              int c = cursors[o][j] = seek(other.keys, cursors[o][j], key);
+              if (c < other.keys.length) {
+                if (other.keys[c] == key) {
+                  weight = expansion.weights[j];
+                } else {
+                  next = Math.min(next, other.keys[c]);
+                }
+              }
+            }
+          }
+          if (weight == 0) {
+            if (next == Long.MAX_VALUE) {
+              continue scan;
+            }
+            p = seek(list, p + 1, next);
+            continue candidates;
+          }
+          score += weight;
+        }
+        p++;
+        if (seenBefore(scanned, k, key)) {
+          continue;
+        }
+        if (++candidates > maxCandidates) {
+          break scan;
+        }
+        Entry entry = slot(key) < table.length ? table[slot(key)] : null;
+        if (entry == null || entry.key != key) {
+          continue;
+        }
+        if (firstWord > 0 && expansions[0].positions.containsKey(entry.words[0])) {
+          score += FIRST_WORD;
+        }
+        Hit hit = new Hit(entry, score);
+        if (top.size() < limit) {
+          top.add(hit);
+        } else if (WORST_FIRST.compare(top.peek(), hit) < 0) {
+          top.poll();
+          top.add(hit);
+        }
+      }
+    }
+    Hit[] hits = top.toArray(new Hit[0]);
+    Arrays.sort(hits, WORST_FIRST.reversed());
+    List<Product> products = new ArrayList<>(hits.length);
+    for (Hit hit : hits) {
+      products.add(hit.entry.product);
+    }
+    return products;
+  }
+
+  /**
+   * @return whether {@code key} is in a list of {@code expansion} before {@code list}, so was already scored.
+   */
+  private static boolean seenBefore(Expansion expansion, int list, long key) {
+    for (int j = 0; j < list; j++) {
+      Postings postings = expansion.lists[j];
+      if (postings.bits != null ? postings.hasSlot(slot(key)) : Arrays.binarySearch(postings.keys, key) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the first index from {@code from} whose key is at least {@code key}, found by galloping.
+   */
+  static int seek(long[] list, int from, long key) {
+    if (from >= list.length || list[from] >= key) {
+      return from;
+    }
+    int step = 1;
+    int low = from;
+    int high = from + 1;
+    while (high < list.length && list[high] < key) {
+      low = high;
+      step <<= 1;
+      high = from + step;
+    }
+    int index = Arrays.binarySearch(list, low + 1, Math.min(high, list.length - 1) + 1, key);
+    return index >= 0 ? index : -index - 1;
+  }
+
+  /**
+   * The words of the index a query word stands for, best first: itself, those it is a prefix of, and when
+   * there are none, those within one edit (two from 6 letters on).
+   */
+  private Expansion expand(String term) {
+    Expansion expansion = new Expansion(maxExpansions + 1);
+    Postings exact = postings.get(term);
+    if (exact != null) {
+      expansion.add(term, EXACT, exact);
+    }
+    for (Map.Entry<String, Postings> entry : postings.tailMap(term, false).entrySet()) {
+      if (!entry.getKey().startsWith(term) || expansion.count > maxExpansions) {
+        break;
+      }
+      expansion.add(entry.getKey(), PREFIX, entry.getValue());
+    }
+    if (expansion.count == 0 && term.length() >= 3) {
+      int maxEdits = term.length() <= 5 ? 1 : 2;
+      String[] termTrigrams = trigramsOf(term);
+      Map<String, Integer> shared = new HashMap<>();
+      for (String trigram : termTrigrams) {
+        String[] words = trigrams.get(trigram);
+        if (words != null) {
+          for (String word : words) {
+            shared.merge(word, 1, Integer::sum);
+          }
+        }
+      }
+      // Each edit changes at most three trigrams
+      int minShared = Math.max(1, termTrigrams.length - 3 * maxEdits);
+      for (Map.Entry<String, Integer> candidate : shared.entrySet()) {
+        String word = candidate.getKey();
+        if (candidate.getValue() >= minShared && Math.abs(word.length() - term.length()) <= maxEdits
+          && expansion.count <= maxExpansions && editDistance(term, word, maxEdits) <= maxEdits) {
+          Postings list = postings.get(word);
+          if (list != null) {
+            expansion.add(word, FUZZY, list);
+          }
+        }
+      }
+    }
+    return expansion;
+  }
+
+  /**
+   * Optimal string alignment distance (a swap of two neighbours counts as one edit), or {@code max + 1} as soon
+   * as it exceeds {@code max}.
+   */
+  static int editDistance(String a, String b, int max) {
+    int[] previous2 = new int[b.length() + 1];
+    int[] previous = new int[b.length() + 1];
+    int[] current = new int[b.length() + 1];
+    for (int j = 0; j <= b.length(); j++) {
+      previous[j] = j;
+    }
+    for (int i = 1; i <= a.length(); i++) {
+      current[0] = i;
+      int rowMin = i;
+      for (int j = 1; j <= b.length(); j++) {
+        int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+        int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+        if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+          value = Math.min(value, previous2[j - 2] + 1);
+        }
+        current[j] = value;
+        rowMin = Math.min(rowMin, value);
+      }
+      if (rowMin > max) {
+        return max + 1;
+      }
+      int[] recycled = previous2;
+      previous2 = previous;
+      previous = current;
+      current = recycled;
+    }
+    return Math.min(previous[b.length()], max + 1);
+  }
+
+  // --- text ---
+
+  /**
+   * @return the distinct words of {@code text}, lowercased and without accents, in order.
+   */
+  static String[] words(String text) {
+    if (text == null) {
+      return new String[0];
+    }
+    String folded = text;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) >= 0x80) {
+        folded = Normalizer.normalize(text, Normalizer.Form.NFD);
+        break;
+      }
+    }
+    Set<String> words = new LinkedHashSet<>();
+    StringBuilder word = new StringBuilder();
+    for (int i = 0; i <= folded.length(); i++) {
+      char c = i < folded.length() ? folded.charAt(i) : ' ';
+      if (Character.getType(c) == Character.NON_SPACING_MARK) {
+        continue;
+      }
+      switch (c) {
+        case 'œ', 'Œ' -> word.append("oe");
+        case 'æ', 'Æ' -> word.append("ae");
+        case 'ß' -> word.append("ss");
+        default -> {
+          if (Character.isLetterOrDigit(c)) {
+            word.append(Character.toLowerCase(c));
+          } else if (!word.isEmpty()) {
+            words.add(word.toString());
+            word.setLength(0);
+          }
+        }
+      }
+    }
+    return words.toArray(new String[0]);
+  }
+
+  /**
+   * @return the trigrams of {@code word} framed by {@code $}, e.g. {@code $ea}, {@code eau}, {@code au$}.
+   */
+  static String[] trigramsOf(String word) {
+    String framed = "$" + word + "$";
+    String[] trigrams = new String[framed.length() - 2];
+    for (int i = 0; i < trigrams.length; i++) {
+      trigrams[i] = framed.substring(i, i + 3);
+    }
+    return trigrams;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return the number of distinct words indexed.
+   */
+  public int words() {
+    return postings.size();
+  }
+
+  private static final class Entry {
+
+    final Product product;
+    final String[] words;
+    final long key;
+
+    Entry(Product product, String[] words, long key) {
+      this.product = product;
+      this.words = words;
+      this.key = key;
+    }
+  }
+
+  private static final class Hit {
+
+    final Entry entry;
+    final int score;
+
+    Hit(Entry entry, int score) {
+      this.entry = entry;
+      this.score = score;
+    }
+  }
+
+  /**
+   * The products using a word: their keys in order, and for a common word the bitmap of their slots.
+   */
+  private static final class Postings {
+
+    final long[] keys;
+    final long[] bits;
+
+    Postings(long[] keys, long[] bits) {
+      this.keys = keys;
+      this.bits = bits;
+    }
+
+    boolean hasSlot(int slot) {
+      int word = slot >>> 6;
+      return word < bits.length && (bits[word] & (1L << slot)) != 0;
+    }
+  }
+
+  /**
+   * Index words matched by one query word, in decreasing weight, with their posting lists.
+   */
+  private static final class Expansion {
+
+    final int[] weights;
+    final Postings[] lists;
+    final Map<String, Integer> positions = new HashMap<>();
+    int count;
+    long postings;
+
+    Expansion(int capacity) {
+      weights = new int[capacity];
+      lists = new Postings[capacity];
+    }
+
+    void add(String word, int weight, Postings list) {
+      weights[count] = weight;
+      lists[count] = list;
+      positions.put(word, count++);
+      postings += list.keys.length;
+    }
+  }
+
+  /**
+   * Posting keys to add and to remove, per word.
+   */
+  private static final class Changes {
+
+    final Map<String, LongList> added = new HashMap<>();
+    final Map<String, LongList> removed = new HashMap<>();
+    final Map<String, Integer> firstWords = new HashMap<>();
+
+    LongList added(String word) {
+      return added.computeIfAbsent(word, key -> new LongList());
+    }
+
+    LongList removed(String word) {
+      return removed.computeIfAbsent(word, key -> new LongList());
+    }
+
+    void firstWord(String[] words, int delta) {
+      if (words.length > 0) {
+        firstWords.merge(words[0], delta, Integer::sum);
+      }
+    }
+  }
+
+  private static final class LongList {
+
+    long[] values = new long[4];
+    int size;
+
+    void add(long value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    long[] sorted() {
+      long[] sorted = Arrays.copyOf(values, size);
+      Arrays.sort(sorted);
+      return sorted;
+    }
+  }
+}
@@ -0,0 +1,264 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.pricing.PriceBook;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Multiset of selected products keyed by product ID. Backed by an open-addressing hash table with primitive
+ * keys and counts (linear probing, backward-shift deletion), so adding or removing one unit is O(1) and no
+ * boxing happens. The total price and item count are maintained on every change.
+ * <p>
+ * Prices come from the cart's {@link PriceBook}: a change only prices the lines and combos of the product it
+ * touches, and the whole cart is priced again only when {@link #reprice} is handed another book.
+ * <p>
+ * Not thread-safe: a cart is only touched while its {@link VendingSession} is locked.
+ */
+public final class Cart implements PriceBook.Quantities {
+
+  private static final int INITIAL_CAPACITY = 8; // power of two
+
+  private long[] keys = new long[INITIAL_CAPACITY];
+  private int[] counts = new int[INITIAL_CAPACITY];
+  private Product[] products = new Product[INITIAL_CAPACITY]; // null marks a free slot
+  private int mask = INITIAL_CAPACITY - 1;
+
+  private int lines;
+  private int totalItems;
+  private long totalCents; // before the floor at 0, so that changes stay incremental
+  private PriceBook book = PriceBook.NONE;
+
+  /**
+   * Adds one unit of the product.
+   * @return the quantity of this product now in the cart.
+   */
+  public int add(Product product) {
+    return add(product, 1);
+  }
+
+  /**
+   * Adds {@code quantity} units of the product.
+   * @return the quantity of this product now in the cart.
+   */
+  public int add(Product product, int quantity) {
+    long id = product.getId();
+    int slot = indexFor(id);
+    while (products[slot] != null) {
+      if (keys[slot] == id) {
+        totalItems += quantity;
+        totalCents += book.deltaCents(products[slot], counts[slot], counts[slot] + quantity, this);
+        return counts[slot] += quantity;
+      }
+      slot = (slot + 1) & mask;
+    }
+    totalCents += book.deltaCents(product, 0, quantity, this);
+    keys[slot] = id;
+    counts[slot] = quantity;
+    products[slot] = product;
+    lines++;
+    totalItems += quantity;
+    if (lines * 2 > keys.length) {
+      resize(keys.length * 2);
+    }
+    return quantity;
+  }
+
+  /**
+   * Removes one unit of the product.
+   * @return the quantity left, or -1 if the product was not in the cart.
+   */
+  public int removeOne(long productId) {
+    int slot = find(productId);
+    if (slot < 0) {
+      return -1;
+    }
+    totalItems--;
+    totalCents += book.deltaCents(products[slot], counts[slot], counts[slot] - 1, this);
+    int left = --counts[slot];
+    if (left == 0) {
+      deleteSlot(slot);
+    }
+    return left;
+  }
+
+  /**
+   * Removes every unit of the product.
+   * @return how many units were removed.
+   */
+  public int removeAll(long productId) {
+    int slot = find(productId);
+    if (slot < 0) {
+      return 0;
+    }
+    int removed = counts[slot];
+    totalItems -= removed;
+    totalCents += book.deltaCents(products[slot], removed, 0, this);
+    deleteSlot(slot);
+    return removed;
+  }
+
+  @Override
+  public int quantity(long productId) {
+    int slot = find(productId);
+    return slot < 0 ? 0 : counts[slot];
+  }
+
+  /**
+   * @return the product instance selected under this ID, or null if it is not in the cart.
+   */
+  public Product product(long productId) {
+    int slot = find(productId);
+    return slot < 0 ? null : products[slot];
+  }
+
+  public boolean isEmpty() {
+    return totalItems == 0;
+  }
+
+  public int lineCount() {
+    return lines;
+  }
+
+  public int totalItems() {
+    return totalItems;
+  }
+
+  /**
+   * @return the price of the cart, never below 0: combos sharing a product may each discount the same units.
+   */
+  public long totalCents() {
+    return Math.max(0L, totalCents);
+  }
+
+  /**
+   * @return what the cart would cost with {@code quantity} more units of the product; the cart is not changed.
+   */
+  public long quoteAdd(Product product, int quantity) {
+    int held = quantity(product.getId());
+    return Math.max(0L, totalCents + book.deltaCents(product, held, held + quantity, this));
+  }
+
+  /**
+   * Prices the cart with {@code next} from now on. Free if it is the book the cart is already priced with.
+   */
+  public void reprice(PriceBook next) {
+    if (next == book) {
+      return;
+    }
+    book = next;
+    long total = 0L;
+    for (int slot = 0; slot < products.length; slot++) {
+      if (products[slot] != null) {
+        total += next.lineCents(products[slot], counts[slot]);
+      }
+    }
+    for (int slot = 0; slot < products.length; slot++) {
+      if (products[slot] != null) {
+        total -= next.comboDiscountCents(keys[slot], this);
+      }
+    }
+    totalCents = total;
+  }
+
+  public PriceBook priceBook() {
+    return book;
+  }
+
+  /**
+   * @return one entry per distinct product with its quantity and its price before combo discounts.
+   */
+  public List<CartLine> lines() {
+    List<CartLine> result = new ArrayList<>(lines);
+    for (int slot = 0; slot < products.length; slot++) {
+      if (products[slot] != null) {
+        result.add(new CartLine(products[slot], counts[slot], book.lineCents(products[slot], counts[slot])));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return every selected unit as its own list element, the shape used by the API responses.
+   */
+  public List<Product> expand() {
+    List<Product> result = new ArrayList<>(totalItems);
+    for (int slot = 0; slot < products.length; slot++) {
+      for (int n = counts[slot]; products[slot] != null && n > 0; n--) {
+        result.add(products[slot]);
+      }
+    }
+    return result;
+  }
+
+  public void clear() {
+    if (lines > 0) {
+      Arrays.fill(products, null);
+      Arrays.fill(counts, 0);
+    }
+    lines = 0;
+    totalItems = 0;
+    totalCents = 0L;
+  }
+
+  private int find(long productId) {
+    int slot = indexFor(productId);
+    while (products[slot] != null) {
+      if (keys[slot] == productId) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  private void deleteSlot(int slot) {
+    lines--;
+    // Backward-shift deletion: pull later entries of the probe chain into the gap
+    int gap = slot;
+    int i = slot;
+    while (true) {
+      i = (i + 1) & mask;
+      if (products[i] == null) {
+        break;
+      }
+      int ideal = indexFor(keys[i]);
+      if (((i - ideal) & mask) >= ((i - gap) & mask)) {
+        keys[gap] = keys[i];
+        counts[gap] = counts[i];
+        products[gap] = products[i];
+        gap = i;
+      }
+    }
+    products[gap] = null;
+    counts[gap] = 0;
+  }
+
+  private void resize(int capacity) {
+    long[] oldKeys = keys;
+    int[] oldCounts = counts;
+    Product[] oldProducts = products;
+    keys = new long[capacity];
+    counts = new int[capacity];
+    products = new Product[capacity];
+    mask = capacity - 1;
+    for (int slot = 0; slot < oldProducts.length; slot++) {
+      if (oldProducts[slot] != null) {
+        int target = indexFor(oldKeys[slot]);
+        while (products[target] != null) {
+          target = (target + 1) & mask;
+        }
+        keys[target] = oldKeys[slot];
+        counts[target] = oldCounts[slot];
+        products[target] = oldProducts[slot];
+      }
+    }
+  }
+
+  private int indexFor(long productId) {
+    long h = productId * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+}
@@ -0,0 +1,34 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.model.Product;
+
+/**
+ * One distinct product in a {@link Cart} with the number of units selected.
+ */
+public final class CartLine {
+
+  private final Product product;
+  private final int quantity;
+  private final long lineTotalCents;
+
+  CartLine(Product product, int quantity, long lineTotalCents) {
+    this.product = product;
+    this.quantity = quantity;
+    this.lineTotalCents = lineTotalCents;
+  }
+
+  public Product getProduct() {
+    return product;
+  }
+
+  public int getQuantity() {
+    return quantity;
+  }
+
+  /**
+   * @return the price of the line with its unit price and free units applied, before combo discounts.
+   */
+  public long getLineTotalCents() {
+    return lineTotalCents;
+  }
+}
@@ -0,0 +1,31 @@
+package com.zenika.distributor.service;
+
+import java.util.List;
+
+/**
+ * Point-in-time view of a session's balance and selection.
+ */
+public final class CartState {
+
+  private final long balanceCents;
+  private final long selectedCostCents;
+  private final List<CartLine> lines;
+
+  CartState(long balanceCents, long selectedCostCents, List<CartLine> lines) {
+    this.balanceCents = balanceCents;
+    this.selectedCostCents = selectedCostCents;
+    this.lines = lines;
+  }
+
+  public long getBalanceCents() {
+    return balanceCents;
+  }
+
+  public long getSelectedCostCents() {
+    return selectedCostCents;
+  }
+
+  public List<CartLine> getLines() {
+    return lines;
+  }
+}
@@ -0,0 +1,41 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.model.Product;
+
+/**
+ * Result of selecting or deselecting one unit, captured under the session lock so that the quantity,
+ * the selection cost and the balance are consistent with each other.
+ */
+public final class CartUpdate {
+
+  private final Product product;
+  private final int quantity;
+  private final long selectedCostCents;
+  private final long balanceCents;
+
+  CartUpdate(Product product, int quantity, long selectedCostCents, long balanceCents) {
+    this.product = product;
+    this.quantity = quantity;
+    this.selectedCostCents = selectedCostCents;
+    this.balanceCents = balanceCents;
+  }
+
+  public Product getProduct() {
+    return product;
+  }
+
+  /**
+   * @return the units of this product left in the selection after the update.
+   */
+  public int getQuantity() {
+    return quantity;
+  }
+
+  public long getSelectedCostCents() {
+    return selectedCostCents;
+  }
+
+  public long getBalanceCents() {
+    return balanceCents;
+  }
+}
@@ -0,0 +1,251 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.repository.ProductRepository;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Read-through, write-through cache of the product catalog. Reads are served from an immutable
+ * {@link CatalogSnapshot} without touching the database; writes go to the database and then atomically
+ * publish a new snapshot. Lookups for an unknown ID fall through to the database, in case the product was
+ * added by another node; a "not found" is then remembered for {@link #ABSENT_TTL} so clients asking for missing
+ * products do not reach the database on every call. {@link CatalogListener}s are told of each snapshot published.
+ * <p>
+ * Every {@code distributor.catalog.refresh-interval} the catalog is reread to pick up the products added, changed
+ * or imported through other nodes; a new snapshot is published only if a product's name or price changed, or the
+ * set of products did. Stock is left out of that comparison, {@link StockService} rereads it on its own.
+ */
+@Service
+public class CatalogCache {
+
+  static final Duration ABSENT_TTL = Duration.ofSeconds(1);
+  private static final int MAX_ABSENT = 10_000;
+
+  private final ProductRepository productRepository;
+  private final CatalogListener[] listeners;
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private volatile CatalogSnapshot snapshot;
+  private final ConcurrentMap<Long, Long> absentUntilNanos = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final AtomicLong rebuilds = new AtomicLong();
+  private volatile long lastRebuildNanos;
+
+  @Autowired
+  public CatalogCache(ProductRepository productRepository, ObjectProvider<CatalogListener> listeners) {
+    this(productRepository, listeners.orderedStream().toArray(CatalogListener[]::new));
+  }
+
+  public CatalogCache(ProductRepository productRepository, CatalogListener... listeners) {
+    this.productRepository = productRepository;
+    this.listeners = listeners;
+  }
+
+  public CatalogSnapshot getSnapshot() {
+    CatalogSnapshot current = snapshot;
+    return current != null ? current : refresh();
+  }
+
+  /**
+   * @return the current snapshot, or null if none was loaded yet. Never touches the database.
+   */
+  public CatalogSnapshot peekSnapshot() {
+    return snapshot;
+  }
+
+  public List<Product> getProducts() {
+    hits.increment();
+    return getSnapshot().getProducts();
+  }
+
+  /**
+   * @return the product, or null if it exists neither in the snapshot nor in the database.
+   */
+  public Product findById(Long productId) {
+    Product product = getSnapshot().get(productId);
+    if (product != null) {
+      hits.increment();
+      return product;
+    }
+    Long absentUntil = absentUntilNanos.get(productId);
+    if (absentUntil != null && System.nanoTime() - absentUntil < 0) {
+      hits.increment();
+      return null;
+    }
+    misses.increment();
+    product = productRepository.findById(productId).map(this::publish).orElse(null);
+    if (product == null) {
+      if (absentUntilNanos.size() >= MAX_ABSENT) {
+        absentUntilNanos.clear();
+      }
+      absentUntilNanos.put(productId, System.nanoTime() + ABSENT_TTL.toNanos());
+    }
+    return product;
+  }
+
+  public Product save(Product product) {
+    return publish(productRepository.save(product));
+  }
+
+  /**
+   * Reloads one product from the database, e.g. after its stock was changed with a bulk UPDATE.
+   */
+  public void reload(Long productId) {
+    productRepository.findById(productId).ifPresent(this::publish);
+  }
+
+  /**
+   * Rebuilds the whole snapshot from the database.
+   */
+  public CatalogSnapshot refresh() {
+    writeLock.lock();
+    try {
+      return install(productRepository.findAll());
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Rebuilds the snapshot from the database if its products were changed elsewhere, see the class comment.
+   * Does nothing until a snapshot was loaded.
+   * @return whether a new snapshot was published.
+   */
+  @Scheduled(fixedDelayString = "${distributor.catalog.refresh-interval:PT30S}")
+  public boolean refreshIfChanged() {
+    if (snapshot == null) {
+      return false;
+    }
+    writeLock.lock();
+    try {
+      List<Product> products = productRepository.findAll();
+      if (sameListing(snapshot, products)) {
+        return false;
+      }
+      install(products);
+      return true;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private static boolean sameListing(CatalogSnapshot current, List<Product> products) {
+    if (current.size() != products.size()) {
+      return false;
+    }
+    for (Product product : products) {
+      Product cached = current.get(product.getId());
+      if (cached == null || cached.getPriceCents() != product.getPriceCents()
+        || !Objects.equals(cached.getName(), product.getName())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Publishes a whole catalog read by the caller, e.g. over a non-blocking connection.
+   */
+  public CatalogSnapshot install(List<Product> products) {
+    writeLock.lock();
+    try {
+      long start = System.nanoTime();
+      CatalogSnapshot current = snapshot;
+      CatalogSnapshot next = new CatalogSnapshot(current == null ? 1 : current.getVersion() + 1, products);
+      snapshot = next;
+      absentUntilNanos.clear();
+      recordRebuild(start);
+      for (CatalogListener listener : listeners) {
+        listener.onCatalogInstalled(next.getProducts());
+      }
+      return next;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Publishes one product read by the caller. Without a loaded snapshot it is left to the next full load.
+   */
+  public Product install(Product product) {
+    writeLock.lock();
+    try {
+      CatalogSnapshot current = snapshot;
+      if (current != null) {
+        long start = System.nanoTime();
+        snapshot = current.with(product);
+        absentUntilNanos.remove(product.getId());
+        recordRebuild(start);
+        for (CatalogListener listener : listeners) {
+          listener.onProductInstalled(product);
+        }
+      }
+      return product;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private Product publish(Product product) {
+    writeLock.lock();
+    try {
+      long start = System.nanoTime();
+      CatalogSnapshot current = snapshot;
+      snapshot = current == null
+        ? new CatalogSnapshot(1, productRepository.findAll())
+        : current.with(product);
+      absentUntilNanos.remove(product.getId());
+      recordRebuild(start);
+      for (CatalogListener listener : listeners) {
+        if (current == null) {
+          listener.onCatalogInstalled(snapshot.getProducts());
+        } else {
+          listener.onProductInstalled(product);
+        }
+      }
+      return product;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void recordRebuild(long startNanos) {
+    lastRebuildNanos = System.nanoTime() - startNanos;
+    rebuilds.incrementAndGet();
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public double getHitRatio() {
+    long h = hits.sum();
+    long total = h + misses.sum();
+    return total == 0 ? 1.0 : (double) h / total;
+  }
+
+  public long getRebuilds() {
+    return rebuilds.get();
+  }
+
+  public long getLastRebuildNanos() {
+    return lastRebuildNanos;
+  }
+}
@@ -0,0 +1,24 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.model.Product;
+
+import java.util.List;
+
+/**
+ * Told by {@link CatalogCache} of every snapshot it publishes, in order, while its write lock is held.
+ * Implementations must not call back into the cache.
+ */
+public interface CatalogListener {
+
+  /**
+   * A whole catalog replaced the previous one, e.g. at the first load or after a bulk import.
+   */
+  default void onCatalogInstalled(List<Product> products) {
+  }
+
+  /**
+   * One product was added or replaced, e.g. with a new name or stock.
+   */
+  default void onProductInstalled(Product product) {
+  }
+}
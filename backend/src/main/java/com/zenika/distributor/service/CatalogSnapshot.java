@@ -0,0 +1,177 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.model.Product;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, versioned copy of the product catalog. A new snapshot is built on every catalog write and
+ * swapped in atomically by {@link CatalogCache}; readers never see a partially updated catalog. A single product
+ * write copies the arrays of the previous snapshot with one entry inserted or replaced, without sorting again.
+ */
+public final class CatalogSnapshot {
+
+  private static final Comparator<Product> BY_PRICE =
+    Comparator.comparingLong(Product::getPriceCents).thenComparing(Product::getId);
+
+  private final long version;
+  private final long builtAtMillis;
+  private final List<Product> products; // ordered by ID
+  private final Map<Long, Product> byId;
+  // Affordability index: prices in ascending order, aligned with productsByPrice. A price coins cannot pay
+  // exactly is never affordable, so such products (only in catalogs older than the check) are left out.
+  private final long[] sortedPrices;
+  private final List<Product> productsByPrice;
+
+  CatalogSnapshot(long version, Collection<Product> products) {
+    this.version = version;
+    this.builtAtMillis = System.currentTimeMillis();
+    List<Product> ordered = new ArrayList<>(products);
+    ordered.sort(Comparator.comparing(Product::getId));
+    this.products = Collections.unmodifiableList(ordered);
+    Map<Long, Product> index = new HashMap<>(ordered.size() * 2);
+    for (Product product : ordered) {
+      index.put(product.getId(), product);
+    }
+    this.byId = Collections.unmodifiableMap(index);
+
+    Product[] byPrice = ordered.stream().filter(product -> Coin.isPayable(product.getPriceCents())).toArray(Product[]::new);
+    Arrays.sort(byPrice, BY_PRICE);
+    this.sortedPrices = new long[byPrice.length];
+    for (int i = 0; i < byPrice.length; i++) {
+      sortedPrices[i] = byPrice[i].getPriceCents();
+    }
+    this.productsByPrice = Collections.unmodifiableList(Arrays.asList(byPrice));
+  }
+
+  private CatalogSnapshot(long version, Product[] products, Map<Long, Product> byId, long[] sortedPrices,
+                          Product[] productsByPrice) {
+    this.version = version;
+    this.builtAtMillis = System.currentTimeMillis();
+    this.products = Collections.unmodifiableList(Arrays.asList(products));
+    this.byId = Collections.unmodifiableMap(byId);
+    this.sortedPrices = sortedPrices;
+    this.productsByPrice = Collections.unmodifiableList(Arrays.asList(productsByPrice));
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public long getBuiltAtMillis() {
+    return builtAtMillis;
+  }
+
+  public List<Product> getProducts() {
+    return products;
+  }
+
+  public int size() {
+    return products.size();
+  }
+
+  /**
+   * @return up to {@code limit} products with an ID above {@code afterId}, in ID order, as a view (no copy).
+   */
+  public List<Product> productsAfter(long afterId, int limit) {
+    int low = 0;
+    int high = products.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (products.get(mid).getId() <= afterId) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return products.subList(low, Math.min(products.size(), low + Math.max(0, limit)));
+  }
+
+  /**
+   * @return how many products cost at most {@code spendableCents}, found with one binary search.
+   */
+  public int affordableCount(long spendableCents) {
+    int low = 0;
+    int high = sortedPrices.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sortedPrices[mid] <= spendableCents) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the products costing at most {@code spendableCents}, cheapest first, as a view (no copy).
+   */
+  public List<Product> affordableProducts(long spendableCents) {
+    return productsByPrice.subList(0, affordableCount(spendableCents));
+  }
+
+  /**
+   * @return the products priced above {@code lowCents} and at most {@code highCents}, cheapest first: the ones
+   * whose affordability flips when the spendable amount moves between the two.
+   */
+  public List<Product> pricedBetween(long lowCents, long highCents) {
+    return productsByPrice.subList(affordableCount(lowCents), affordableCount(Math.max(lowCents, highCents)));
+  }
+
+  Product get(Long productId) {
+    return byId.get(productId);
+  }
+
+  /**
+   * @return a copy of this snapshot with the given product added or replaced, one version later. The product
+   * goes in its place in the ID and price orders found by binary search: O(n) copying, no sorting.
+   */
+  CatalogSnapshot with(Product product) {
+    Map<Long, Product> nextById = new HashMap<>(byId);
+    Product previous = nextById.put(product.getId(), product);
+
+    Product[] current = products.toArray(new Product[0]);
+    Product[] nextProducts;
+    int index = Collections.binarySearch(products, product, Comparator.comparing(Product::getId));
+    if (index >= 0) {
+      nextProducts = current;
+      nextProducts[index] = product;
+    } else {
+      nextProducts = inserted(current, -index - 1, product);
+    }
+
+    Product[] byPrice = productsByPrice.toArray(new Product[0]);
+    int at = previous != null ? Arrays.binarySearch(byPrice, previous, BY_PRICE) : -1;
+    if (at >= 0) {
+      Product[] removed = new Product[byPrice.length - 1];
+      System.arraycopy(byPrice, 0, removed, 0, at);
+      System.arraycopy(byPrice, at + 1, removed, at, removed.length - at);
+      byPrice = removed;
+    }
+    if (Coin.isPayable(product.getPriceCents())) {
+      byPrice = inserted(byPrice, -Arrays.binarySearch(byPrice, product, BY_PRICE) - 1, product);
+    }
+    long[] prices = new long[byPrice.length];
+    for (int i = 0; i < byPrice.length; i++) {
+      prices[i] = byPrice[i].getPriceCents();
+    }
+    return new CatalogSnapshot(version + 1, nextProducts, nextById, prices, byPrice);
+  }
+
+  private static Product[] inserted(Product[] products, int at, Product product) {
+    Product[] next = new Product[products.length + 1];
+    System.arraycopy(products, 0, next, 0, at);
+    next[at] = product;
+    System.arraycopy(products, at, next, at + 1, products.length - at);
+    return next;
+  }
+}
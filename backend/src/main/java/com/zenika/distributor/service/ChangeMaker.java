@@ -0,0 +1,109 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.enums.Coin;
+
+import java.util.Arrays;
+
+/**
+ * Bounded coin change solver. Given how many coins of each denomination a machine holds, finds the
+ * combination that returns an exact amount with the fewest coins, or reports that none exists.
+ * <p>
+ * Amounts are expressed in units of the greatest common divisor of all denominations (50 cents for MAD),
+ * which keeps the dynamic-programming tables small. A {@link Table} is built once per inventory snapshot
+ * and answers any amount up to its capacity.
+ */
+final class ChangeMaker {
+
+  private static final Coin[] COINS = Coin.values();
+  private static final int UNIT_CENTS = Coin.gridCents();
+  private static final int[] UNITS; // value of each coin in units, indexed by ordinal
+  private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+  static {
+    UNITS = new int[COINS.length];
+    for (Coin coin : COINS) {
+      UNITS[coin.ordinal()] = coin.getCents() / UNIT_CENTS;
+    }
+  }
+
+  private ChangeMaker() {
+  }
+
+  /**
+   * @return the amount expressed in solver units, or -1 if no combination of coins can ever add up to it.
+   */
+  static int toUnits(long amountCents) {
+    if (amountCents < 0 || amountCents % UNIT_CENTS != 0 || amountCents / UNIT_CENTS > Integer.MAX_VALUE / 2) {
+      return -1;
+    }
+    return (int) (amountCents / UNIT_CENTS);
+  }
+
+  /**
+   * Builds the table for the given coin counts, able to answer amounts up to {@code capacityUnits}.
+   */
+  static Table build(int[] counts, int capacityUnits) {
+    // layers[i][a] = fewest coins making amount a using only the first i denominations
+    int[][] layers = new int[COINS.length + 1][capacityUnits + 1];
+    Arrays.fill(layers[0], INFINITY);
+    layers[0][0] = 0;
+    for (int i = 0; i < COINS.length; i++) {
+      int[] previous = layers[i];
+      int[] current = layers[i + 1];
+      int value = UNITS[i];
+      int available = counts[i];
+      for (int amount = 0; amount <= capacityUnits; amount++) {
+        int best = previous[amount];
+        int maxTaken = Math.min(available, amount / value);
+        for (int taken = 1; taken <= maxTaken; taken++) {
+          int candidate = previous[amount - taken * value] + taken;
+          if (candidate < best) {
+            best = candidate;
+          }
+        }
+        current[amount] = best;
+      }
+    }
+    return new Table(counts, layers, capacityUnits);
+  }
+
+  static final class Table {
+    private final int[] counts;
+    private final int[][] layers;
+    private final int capacityUnits;
+
+    private Table(int[] counts, int[][] layers, int capacityUnits) {
+      this.counts = counts;
+      this.layers = layers;
+      this.capacityUnits = capacityUnits;
+    }
+
+    int capacityUnits() {
+      return capacityUnits;
+    }
+
+    /**
+     * @return the number of coins to return per denomination (indexed by ordinal), or null if the amount cannot be made.
+     */
+    int[] solve(int amountUnits) {
+      if (amountUnits > capacityUnits || layers[COINS.length][amountUnits] >= INFINITY) {
+        return null;
+      }
+      int[] used = new int[COINS.length];
+      int remaining = amountUnits;
+      for (int i = COINS.length; i > 0; i--) {
+        int target = layers[i][remaining];
+        int value = UNITS[i - 1];
+        int maxTaken = Math.min(counts[i - 1], remaining / value);
+        for (int taken = 0; taken <= maxTaken; taken++) {
+          if (layers[i - 1][remaining - taken * value] + taken == target) {
+            used[i - 1] = taken;
+            remaining -= taken * value;
+            break;
+          }
+        }
+      }
+      return used;
+    }
+  }
+}
@@ -0,0 +1,197 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.model.CoinInventory;
+import com.zenika.distributor.repository.BatchWriteRepository;
+import com.zenika.distributor.repository.CoinInventoryRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tracks the coins held by each machine. Counts are kept in memory as immutable snapshots (loaded from the
+ * database on first use) and every change is written through to the {@code coin_inventory} table. A machine with
+ * no row at all yet is given {@code distributor.coins.initial-float} coins of each denomination when first loaded,
+ * so that it can return change from its first sale.
+ */
+@Service
+public class CoinInventoryService {
+
+  private static final int[] NONE = new int[CoinInventorySnapshot.COIN_COUNT];
+
+  private final CoinInventoryRepository coinInventoryRepository;
+  private final BatchWriteRepository batchWriteRepository;
+  private final ConcurrentMap<String, CoinInventorySnapshot> inventories = new ConcurrentHashMap<>();
+  private final int initialFloat;
+
+  @Autowired
+  public CoinInventoryService(CoinInventoryRepository coinInventoryRepository, BatchWriteRepository batchWriteRepository,
+                              @Value("${distributor.coins.initial-float:10}") int initialFloat) {
+    this.coinInventoryRepository = coinInventoryRepository;
+    this.batchWriteRepository = batchWriteRepository;
+    this.initialFloat = initialFloat;
+  }
+
+  public CoinInventoryService(CoinInventoryRepository coinInventoryRepository, BatchWriteRepository batchWriteRepository) {
+    this(coinInventoryRepository, batchWriteRepository, 0);
+  }
+
+  public CoinInventorySnapshot getInventory(String machineId) {
+    CoinInventorySnapshot snapshot = inventories.get(machineId);
+    return snapshot != null ? snapshot : inventories.computeIfAbsent(machineId, this::load);
+  }
+
+  public void deposit(String machineId, Coin coin) {
+    CoinInventorySnapshot current;
+    CoinInventorySnapshot next;
+    do {
+      current = getInventory(machineId);
+      next = current.plus(coin);
+    } while (!inventories.replace(machineId, current, next));
+    coinInventoryRepository.upsert(machineId, coin.name(), next.count(coin));
+  }
+
+  /**
+   * Removes coins from the machine. Like {@link #exchange(String, int[], int[])}, a failed write is undone before
+   * the error is rethrown.
+   * @param coins number of coins to remove per denomination, indexed by {@link Coin#ordinal()}.
+   */
+  public void withdraw(String machineId, int[] coins) {
+    exchange(machineId, new int[CoinInventorySnapshot.COIN_COUNT], coins);
+  }
+
+  /**
+   * Applies the coins taken in and paid out by one sale as a single change, writing only the touched rows.
+   * If a write fails the change is undone, in memory and as far as the database allows, before the error is
+   * rethrown, so the caller can treat the sale as not paid.
+   * @param in coins inserted per denomination, indexed by {@link Coin#ordinal()}.
+   * @param out coins returned as change per denomination, indexed by {@link Coin#ordinal()}.
+   */
+  public void exchange(String machineId, int[] in, int[] out) {
+    CoinInventorySnapshot next = exchangeInMemory(machineId, in, out);
+    try {
+      writeExchanged(machineId, in, out, next);
+    } catch (RuntimeException e) {
+      CoinInventorySnapshot previous = exchangeInMemory(machineId, out, in);
+      try {
+        writeExchanged(machineId, in, out, previous);
+      } catch (RuntimeException undo) {
+        e.addSuppressed(undo);
+      }
+      throw e;
+    }
+  }
+
+  private void writeExchanged(String machineId, int[] in, int[] out, CoinInventorySnapshot counts) {
+    for (Coin coin : Coin.values()) {
+      if (in[coin.ordinal()] != out[coin.ordinal()]) {
+        coinInventoryRepository.upsert(machineId, coin.name(), counts.count(coin));
+      }
+    }
+  }
+
+  /**
+   * Like {@link #exchange(String, int[], int[])} without writing to the database; the caller writes the
+   * machines it touched with {@link #flush(Collection)}.
+   */
+  CoinInventorySnapshot exchangeInMemory(String machineId, int[] in, int[] out) {
+    CoinInventorySnapshot current;
+    CoinInventorySnapshot next;
+    do {
+      current = getInventory(machineId);
+      next = current.exchange(in, out);
+    } while (!inventories.replace(machineId, current, next));
+    return next;
+  }
+
+  /**
+   * Writes the current counts of the given machines in one JDBC batch.
+   */
+  public void flush(Collection<String> machineIds) {
+    List<Object[]> rows = new ArrayList<>(machineIds.size() * CoinInventorySnapshot.COIN_COUNT);
+    for (String machineId : machineIds) {
+      CoinInventorySnapshot snapshot = getInventory(machineId);
+      for (Coin coin : Coin.values()) {
+        rows.add(new Object[] {machineId, coin.name(), snapshot.count(coin)});
+      }
+    }
+    if (!rows.isEmpty()) {
+      batchWriteRepository.upsertCoins(rows);
+    }
+  }
+
+  public void setQuantity(String machineId, Coin coin, int quantity) {
+    CoinInventorySnapshot current;
+    CoinInventorySnapshot next;
+    do {
+      current = getInventory(machineId);
+      next = current.with(coin, quantity);
+    } while (!inventories.replace(machineId, current, next));
+    coinInventoryRepository.upsert(machineId, coin.name(), next.count(coin));
+  }
+
+  /**
+   * Drops the cached counts of a machine, which is reloaded from the database on next use. Counts are
+   * written through, so nothing is lost; used when another instance takes the machine over.
+   */
+  public void forget(String machineId) {
+    inventories.remove(machineId);
+  }
+
+  /**
+   * @return the machines whose counts are cached by this instance.
+   */
+  public List<String> cachedMachineIds() {
+    return new ArrayList<>(inventories.keySet());
+  }
+
+  /**
+   * Coins of one denomination held by all the machines this instance has served.
+   */
+  public long totalCount(Coin coin) {
+    long total = 0;
+    for (CoinInventorySnapshot snapshot : inventories.values()) {
+      total += snapshot.count(coin);
+    }
+    return total;
+  }
+
+  /**
+   * @return coins to return per denomination (indexed by ordinal), or null if the machine cannot make exact change.
+   */
+  public int[] planChange(String machineId, long amountCents) {
+    return getInventory(machineId).planChange(amountCents);
+  }
+
+  /**
+   * Plans change as if the {@code incoming} coins were already in the machine.
+   * @return coins to return per denomination (indexed by ordinal), or null if the machine cannot make exact change.
+   */
+  public int[] planChange(String machineId, int[] incoming, long amountCents) {
+    return getInventory(machineId).exchange(incoming, NONE).planChange(amountCents);
+  }
+
+  private CoinInventorySnapshot load(String machineId) {
+    int[] counts = new int[CoinInventorySnapshot.COIN_COUNT];
+    List<CoinInventory> rows = coinInventoryRepository.findByIdMachineId(machineId);
+    if (rows.isEmpty() && initialFloat > 0) {
+      // A machine never seen before; one emptied since keeps its rows at zero and is not refilled
+      List<Object[]> seeded = new ArrayList<>(CoinInventorySnapshot.COIN_COUNT);
+      for (Coin coin : Coin.values()) {
+        counts[coin.ordinal()] = initialFloat;
+        seeded.add(new Object[] {machineId, coin.name(), initialFloat});
+      }
+      batchWriteRepository.upsertCoins(seeded);
+    }
+    for (CoinInventory row : rows) {
+      counts[row.getId().getCoin().ordinal()] = row.getQuantity();
+    }
+    return new CoinInventorySnapshot(counts);
+  }
+}
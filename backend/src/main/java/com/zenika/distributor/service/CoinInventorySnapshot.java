@@ -0,0 +1,89 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.enums.Coin;
+
+/**
+ * Immutable view of the coins held by one machine. Every deposit or withdrawal produces a new snapshot,
+ * so the change-making table memoized here never goes stale.
+ */
+public final class CoinInventorySnapshot {
+
+  static final int COIN_COUNT = Coin.values().length;
+
+  private final int[] counts; // indexed by Coin.ordinal()
+  private final long totalCents;
+  private volatile ChangeMaker.Table changeTable;
+
+  CoinInventorySnapshot(int[] counts) {
+    this.counts = counts;
+    long total = 0L;
+    for (Coin coin : Coin.values()) {
+      total += (long) counts[coin.ordinal()] * coin.getCents();
+    }
+    this.totalCents = total;
+  }
+
+  static CoinInventorySnapshot empty() {
+    return new CoinInventorySnapshot(new int[COIN_COUNT]);
+  }
+
+  public int count(Coin coin) {
+    return counts[coin.ordinal()];
+  }
+
+  public long totalCents() {
+    return totalCents;
+  }
+
+  CoinInventorySnapshot with(Coin coin, int quantity) {
+    int[] next = counts.clone();
+    next[coin.ordinal()] = Math.max(0, quantity);
+    return new CoinInventorySnapshot(next);
+  }
+
+  CoinInventorySnapshot plus(Coin coin) {
+    return with(coin, counts[coin.ordinal()] + 1);
+  }
+
+  /**
+   * Applies the coins taken in and paid out by one sale.
+   * @param in coins added per denomination, indexed by ordinal.
+   * @param out coins removed per denomination, indexed by ordinal.
+   */
+  CoinInventorySnapshot exchange(int[] in, int[] out) {
+    int[] next = counts.clone();
+    for (int i = 0; i < COIN_COUNT; i++) {
+      next[i] = Math.max(0, next[i] + in[i] - out[i]);
+    }
+    return new CoinInventorySnapshot(next);
+  }
+
+  CoinInventorySnapshot minus(int[] coins) {
+    int[] next = counts.clone();
+    for (int i = 0; i < COIN_COUNT; i++) {
+      next[i] = Math.max(0, next[i] - coins[i]);
+    }
+    return new CoinInventorySnapshot(next);
+  }
+
+  /**
+   * Plans the fewest-coins way to return {@code amountCents} from this inventory.
+   * @return coins to return per denomination (indexed by ordinal), or null if exact change is impossible.
+   */
+  int[] planChange(long amountCents) {
+    if (amountCents == 0) {
+      return new int[COIN_COUNT];
+    }
+    int units = ChangeMaker.toUnits(amountCents);
+    if (units < 0 || amountCents > totalCents) {
+      return null;
+    }
+    ChangeMaker.Table table = changeTable;
+    if (table == null || table.capacityUnits() < units) {
+      // Round the capacity up so later, slightly larger amounts reuse the same table
+      table = ChangeMaker.build(counts, (units + 63) & ~63);
+      changeTable = table;
+    }
+    return table.solve(units);
+  }
+}
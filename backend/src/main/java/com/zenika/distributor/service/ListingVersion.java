@@ -0,0 +1,28 @@
+package com.zenika.distributor.service;
+
+/**
+ * Validators of the product listing as one machine sees it: an entity tag that changes with anything the listing
+ * shows (catalog, units left of the listed products, unit prices, balance left) and the time this node first served
+ * it.
+ */
+public final class ListingVersion {
+
+  private final String etag;
+  private final long lastModifiedMillis;
+
+  ListingVersion(String etag, long lastModifiedMillis) {
+    this.etag = etag;
+    this.lastModifiedMillis = lastModifiedMillis;
+  }
+
+  /**
+   * @return the quoted entity tag.
+   */
+  public String getEtag() {
+    return etag;
+  }
+
+  public long getLastModifiedMillis() {
+    return lastModifiedMillis;
+  }
+}
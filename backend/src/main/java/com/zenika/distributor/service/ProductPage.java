@@ -0,0 +1,30 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.dto.ProductDTO;
+
+import java.util.List;
+
+/**
+ * One page of the product listing, in ID order.
+ */
+public final class ProductPage {
+
+  private final List<ProductDTO> products;
+  private final Long nextAfter;
+
+  ProductPage(List<ProductDTO> products, Long nextAfter) {
+    this.products = products;
+    this.nextAfter = nextAfter;
+  }
+
+  public List<ProductDTO> getProducts() {
+    return products;
+  }
+
+  /**
+   * @return the cursor of the next page, the ID of the last product of this one, or null on the last page.
+   */
+  public Long getNextAfter() {
+    return nextAfter;
+  }
+}
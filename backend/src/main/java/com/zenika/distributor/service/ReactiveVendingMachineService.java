@@ -0,0 +1,147 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.dto.DispenseResponse;
+import com.zenika.distributor.dto.ProductDTO;
+import com.zenika.distributor.dto.RefundResponse;
+import com.zenika.distributor.events.MachineEventStream;
+import com.zenika.distributor.events.ServerSentEventSink;
+import com.zenika.distributor.exception.ProductNotFoundException;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.pricing.PriceBook;
+import com.zenika.distributor.repository.ReactiveProductRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+
+/**
+ * Non-blocking front of {@link VendingMachineService} for the reactive API.
+ * <p>
+ * The catalog is read over R2DBC: a cold listing streams rows straight from the database and publishes them as
+ * the cache snapshot once complete, later listings stream from the snapshot. Anything that takes a machine lock
+ * runs on {@link Schedulers#boundedElastic()}: a dispense holds the lock across its JDBC commit, so waiting for it
+ * on an event loop would stall every connection served by that loop. Journal appends are copies into the mapped
+ * segment and stay on the same thread as the session update.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveVendingMachineService {
+
+  private final VendingMachineService vendingMachineService;
+  private final CatalogCache catalogCache;
+  private final ReactiveProductRepository productRepository;
+  private final MachineEventStream machineEventStream;
+  private final Scheduler lockingScheduler;
+
+  @Autowired
+  public ReactiveVendingMachineService(VendingMachineService vendingMachineService, CatalogCache catalogCache,
+                                       ReactiveProductRepository productRepository, MachineEventStream machineEventStream) {
+    this(vendingMachineService, catalogCache, productRepository, machineEventStream, Schedulers.boundedElastic());
+  }
+
+  public ReactiveVendingMachineService(VendingMachineService vendingMachineService, CatalogCache catalogCache,
+                                       ReactiveProductRepository productRepository, MachineEventStream machineEventStream,
+                                       Scheduler lockingScheduler) {
+    this.vendingMachineService = vendingMachineService;
+    this.catalogCache = catalogCache;
+    this.productRepository = productRepository;
+    this.machineEventStream = machineEventStream;
+    this.lockingScheduler = lockingScheduler;
+  }
+
+  public Mono<BigDecimal> insertCoin(String sessionId, BigDecimal value) {
+    return locking(() -> vendingMachineService.insertCoin(sessionId, value));
+  }
+
+  /**
+   * Streams the catalog with the purchasable flag of each product, in product ID order, at the machine's
+   * promotional prices like the servlet listing.
+   */
+  public Flux<ProductDTO> listAvailableProducts(String sessionId) {
+    // The price book may load the rules over JDBC, so it is read off the event loop too
+    return locking(() -> {
+      long spendable = vendingMachineService.getSpendableCents(sessionId);
+      PriceBook book = vendingMachineService.priceBook(sessionId);
+      return (Function<Product, ProductDTO>) product -> vendingMachineService.toProductDTO(product, spendable, book);
+    }).flatMapMany(toDTO -> products().map(toDTO));
+  }
+
+  public Mono<CartUpdate> addToCart(String sessionId, Long productId) {
+    return findProduct(productId)
+      .switchIfEmpty(Mono.error(() -> new ProductNotFoundException("Product with ID " + productId + " not found.")))
+      .then(locking(() -> vendingMachineService.addToCart(sessionId, productId)));
+  }
+
+  /**
+   * @return the update, or empty if the product was not selected.
+   */
+  public Mono<CartUpdate> removeFromCart(String sessionId, Long productId) {
+    return locking(() -> vendingMachineService.removeFromCart(sessionId, productId));
+  }
+
+  public Mono<DispenseResponse> dispenseProducts(String sessionId) {
+    return locking(() -> vendingMachineService.dispenseProducts(sessionId));
+  }
+
+  public Mono<RefundResponse> cancelTransaction(String sessionId) {
+    return locking(() -> vendingMachineService.cancelTransaction(sessionId));
+  }
+
+  public Mono<CartState> getCartState(String sessionId) {
+    return locking(() -> vendingMachineService.getCartState(sessionId));
+  }
+
+  /**
+   * Opens the machine's event stream, see {@link MachineEventStream}; closed when the client goes away.
+   */
+  public Flux<ServerSentEvent<String>> streamEvents(String sessionId) {
+    return Flux.defer(() -> {
+      ServerSentEventSink sink = new ServerSentEventSink(machineEventStream.getMaxQueuedEvents());
+      return locking(() -> vendingMachineService.withCartState(sessionId,
+          (id, state) -> machineEventStream.subscribe(id, state, sink)))
+        .flatMapMany(subscription -> sink.asFlux().doFinally(signal -> subscription.close()));
+    });
+  }
+
+  private Flux<Product> products() {
+    CatalogSnapshot snapshot = catalogCache.peekSnapshot();
+    if (snapshot != null) {
+      return Flux.fromIterable(snapshot.getProducts());
+    }
+    return Flux.defer(() -> {
+      List<Product> loaded = new ArrayList<>();
+      return productRepository.findAll()
+        .doOnNext(loaded::add)
+        .doOnComplete(() -> catalogCache.install(loaded));
+    });
+  }
+
+  private Mono<Product> findProduct(Long productId) {
+    CatalogSnapshot snapshot = catalogCache.peekSnapshot();
+    if (snapshot == null) {
+      return productRepository.findAll().collectList()
+        .map(catalogCache::install)
+        .flatMap(loaded -> Mono.justOrEmpty(loaded.get(productId)));
+    }
+    Product product = snapshot.get(productId);
+    if (product != null) {
+      return Mono.just(product);
+    }
+    // Possibly added by another node since the snapshot was built
+    return productRepository.findById(productId).map(catalogCache::install);
+  }
+
+  private <T> Mono<T> locking(Callable<T> call) {
+    return Mono.fromCallable(call).subscribeOn(lockingScheduler);
+  }
+}
@@ -0,0 +1,43 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.enums.Coin;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A session's coins and selection as sent to the instance taking the machine over, see
+ * {@link VendingMachineService#handOffSession}. The transfer ID lets the receiver apply it once however many times
+ * it is sent.
+ */
+public final class SessionHandOff {
+
+  private final String transferId;
+  private final List<Coin> coins;
+  private final Map<Long, Integer> selection;
+
+  SessionHandOff(String transferId, List<Coin> coins, Map<Long, Integer> selection) {
+    this.transferId = transferId;
+    this.coins = coins;
+    this.selection = selection;
+  }
+
+  public String getTransferId() {
+    return transferId;
+  }
+
+  public List<Coin> getCoins() {
+    return coins;
+  }
+
+  /**
+   * @return units selected per product ID.
+   */
+  public Map<Long, Integer> getSelection() {
+    return selection;
+  }
+
+  boolean holds(List<Coin> coins, Map<Long, Integer> selection) {
+    return this.coins.equals(coins) && this.selection.equals(selection);
+  }
+}
@@ -0,0 +1,119 @@
+package com.zenika.distributor.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Holds one {@link VendingSession} per machine (or client session) ID.
+ * Sessions are created on first use and evicted once idle for longer than the configured timeout. A session
+ * still holding coins is never evicted, its balance stays the customer's credit until spent or refunded; only its
+ * selection is given up, so an abandoned cart does not keep stock reserved.
+ * Each session has its own lock, so requests for different machines never contend with each other.
+ */
+@Component
+public class SessionRegistry {
+
+  public static final String DEFAULT_SESSION_ID = "default";
+
+  private final ConcurrentMap<String, VendingSession> sessions = new ConcurrentHashMap<>();
+  private final long idleTimeoutNanos;
+  private volatile Consumer<VendingSession> evictionListener = session -> { };
+  private volatile Consumer<VendingSession> abandonListener = session -> { };
+
+  @Autowired
+  public SessionRegistry(@Value("${distributor.session.idle-timeout:PT15M}") Duration idleTimeout) {
+    this.idleTimeoutNanos = idleTimeout.toNanos();
+  }
+
+  /**
+   * Returns the session for the given ID, locked by the current thread.
+   * The caller must release it with {@link VendingSession#unlock()} in a finally block.
+   */
+  public VendingSession acquire(String sessionId) {
+    String key = normalize(sessionId);
+    while (true) {
+      VendingSession session = sessions.computeIfAbsent(key, VendingSession::new);
+      session.lock();
+      if (!session.isEvicted()) {
+        session.touch();
+        return session;
+      }
+      // Lost a race with the eviction sweep, retry with a fresh session
+      session.unlock();
+    }
+  }
+
+  /**
+   * Registers a callback run (with the session locked) just before an idle session is dropped,
+   * so resources held by it, such as stock reservations, can be released.
+   */
+  public void setEvictionListener(Consumer<VendingSession> evictionListener) {
+    this.evictionListener = evictionListener;
+  }
+
+  /**
+   * Registers a callback run (with the session locked) when a session holding coins has been idle for the
+   * timeout, so its selection can be given up. The session itself is kept.
+   */
+  public void setAbandonListener(Consumer<VendingSession> abandonListener) {
+    this.abandonListener = abandonListener;
+  }
+
+  public int activeSessions() {
+    return sessions.size();
+  }
+
+  /**
+   * @return the IDs of the sessions held right now, idle ones included.
+   */
+  public List<String> sessionIds() {
+    return new ArrayList<>(sessions.keySet());
+  }
+
+  /**
+   * Drops a session without notifying the eviction listener. Must be called with the session locked.
+   */
+  void discard(VendingSession session) {
+    session.markEvicted();
+    sessions.remove(session.getId(), session);
+  }
+
+  @Scheduled(fixedDelayString = "${distributor.session.eviction-interval:PT1M}")
+  public void evictIdleSessions() {
+    long now = System.nanoTime();
+    for (VendingSession session : sessions.values()) {
+      if (now - session.getLastAccessNanos() < idleTimeoutNanos || !session.tryLock()) {
+        continue;
+      }
+      try {
+        if (now - session.getLastAccessNanos() < idleTimeoutNanos) {
+          continue;
+        }
+        if (session.getBalanceCents() > 0) {
+          if (!session.getCart().isEmpty()) {
+            abandonListener.accept(session);
+          }
+          continue;
+        }
+        evictionListener.accept(session);
+        session.markEvicted();
+        sessions.remove(session.getId(), session);
+      } finally {
+        session.unlock();
+      }
+    }
+  }
+
+  public static String normalize(String sessionId) {
+    return (sessionId == null || sessionId.isBlank()) ? DEFAULT_SESSION_ID : sessionId;
+  }
+}
@@ -0,0 +1,237 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.exception.OutOfStockException;
+import com.zenika.distributor.exception.ProductNotFoundException;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.repository.BatchWriteRepository;
+import com.zenika.distributor.repository.ProductRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Product stock with two phases: units are reserved in memory when a product is selected (a lock-free
+ * compare-and-set per product) and committed to the database at dispense time with one conditional
+ * UPDATE per product. The UPDATE only succeeds while enough units are left, so the database can never
+ * be oversold even if several JVMs share it, and no row is locked for longer than that one statement.
+ * <p>
+ * Units on hand are reread from the database every {@code distributor.stock.refresh-interval}, picking up the
+ * sales and restocks made through other nodes.
+ */
+@Service
+public class StockService {
+
+  private final ProductRepository productRepository;
+  private final BatchWriteRepository batchWriteRepository;
+  private final ConcurrentMap<Long, StockLevel> levels = new ConcurrentHashMap<>();
+
+  @Autowired
+  public StockService(ProductRepository productRepository, BatchWriteRepository batchWriteRepository) {
+    this.productRepository = productRepository;
+    this.batchWriteRepository = batchWriteRepository;
+  }
+
+  /**
+   * Reserves one unit of the product for a cart.
+   * @return false if every unit on hand is already reserved.
+   */
+  public boolean reserve(Product product) {
+    return reserve(product, 1);
+  }
+
+  /**
+   * Reserves {@code quantity} units at once, or none of them.
+   * @return false if fewer units than requested are left unreserved.
+   */
+  public boolean reserve(Product product, int quantity) {
+    StockLevel level = level(product);
+    AtomicInteger reserved = level.reserved;
+    int current;
+    do {
+      current = reserved.get();
+      if (current + quantity > level.onHand.get()) {
+        return false;
+      }
+    } while (!reserved.compareAndSet(current, current + quantity));
+    return true;
+  }
+
+  public void release(Long productId, int quantity) {
+    StockLevel level = levels.get(productId);
+    if (level != null && quantity > 0) {
+      level.reserved.addAndGet(-quantity);
+    }
+  }
+
+  /**
+   * Units that can still be reserved (on hand minus reserved by carts).
+   */
+  public int available(Product product) {
+    StockLevel level = level(product);
+    return Math.max(0, level.onHand.get() - level.reserved.get());
+  }
+
+  /**
+   * Units held by open carts across all machines.
+   */
+  public int reservedUnits() {
+    int total = 0;
+    for (StockLevel level : levels.values()) {
+      total += level.reserved.get();
+    }
+    return total;
+  }
+
+  /**
+   * Turns the reservations of one cart into a sale. Runs in one database transaction, so if any product
+   * cannot be decremented the whole commit is rolled back and the failing product's counter is resynced
+   * from the database. The caller still owns the reservations and must release them.
+   * @param quantities units sold per product ID, all previously reserved through {@link #reserve(Product)}.
+   * @throws OutOfStockException if the database holds fewer units than reserved for one of the products.
+   */
+  @Transactional
+  public void commit(Map<Long, Integer> quantities) {
+    for (Map.Entry<Long, Integer> line : quantities.entrySet()) {
+      Long productId = line.getKey();
+      int quantity = line.getValue();
+      if (productRepository.decrementStock(productId, quantity) == 0) {
+        resync(productId);
+        throw new OutOfStockException(productId, "Product with ID " + productId + " is out of stock.");
+      }
+    }
+    // Only adjust the in-memory counters once every UPDATE went through
+    consume(quantities);
+  }
+
+  /**
+   * Commits several carts with all their UPDATEs sent as one JDBC batch in one transaction.
+   * If any row cannot be decremented the whole batch is rolled back, so either every cart is sold or none is.
+   * @throws OutOfStockException for the first product the database could not supply.
+   */
+  @Transactional
+  public void commitAll(List<Map<Long, Integer>> carts) {
+    List<long[]> rows = new ArrayList<>();
+    for (Map<Long, Integer> quantities : carts) {
+      for (Map.Entry<Long, Integer> line : quantities.entrySet()) {
+        rows.add(new long[] {line.getKey(), line.getValue()});
+      }
+    }
+    int[] updated = batchWriteRepository.decrementStock(rows);
+    for (int i = 0; i < updated.length; i++) {
+      if (updated[i] == 0) {
+        Long productId = rows.get(i)[0];
+        resync(productId);
+        throw new OutOfStockException(productId, "Product with ID " + productId + " is out of stock.");
+      }
+    }
+    for (Map<Long, Integer> quantities : carts) {
+      consume(quantities);
+    }
+  }
+
+  /**
+   * Puts back the units of a {@link #commit} whose sale did not go through after all, e.g. because the
+   * coins could not be recorded.
+   */
+  @Transactional
+  public void uncommit(Map<Long, Integer> quantities) {
+    putBack(quantities, false);
+  }
+
+  /**
+   * Like {@link #uncommit}, for a cart that stays open: the units are reserved for it again rather than put
+   * back on sale.
+   */
+  @Transactional
+  public void uncommitReserved(Map<Long, Integer> quantities) {
+    putBack(quantities, true);
+  }
+
+  private void putBack(Map<Long, Integer> quantities, boolean reserved) {
+    for (Map.Entry<Long, Integer> line : quantities.entrySet()) {
+      productRepository.incrementStock(line.getKey(), line.getValue());
+    }
+    for (Map.Entry<Long, Integer> line : quantities.entrySet()) {
+      StockLevel level = levels.get(line.getKey());
+      if (level != null) {
+        if (reserved) {
+          // Reserve first so a concurrent reserve never sees the units as free
+          level.reserved.addAndGet(line.getValue());
+        }
+        level.onHand.addAndGet(line.getValue());
+      }
+    }
+  }
+
+  private void consume(Map<Long, Integer> quantities) {
+    for (Map.Entry<Long, Integer> line : quantities.entrySet()) {
+      StockLevel level = levels.get(line.getKey());
+      if (level != null) {
+        // Lower on-hand first so a concurrent reserve never sees more units than exist
+        level.onHand.addAndGet(-line.getValue());
+        level.reserved.addAndGet(-line.getValue());
+      }
+    }
+  }
+
+  @Transactional
+  public int restock(Long productId, int quantity) {
+    if (productRepository.incrementStock(productId, quantity) == 0) {
+      throw new ProductNotFoundException("Product with ID " + productId + " not found.");
+    }
+    StockLevel level = levels.get(productId);
+    if (level != null) {
+      level.onHand.addAndGet(quantity);
+    }
+    return productRepository.findById(productId).map(Product::getStock).orElse(0);
+  }
+
+  /**
+   * Rereads the units on hand of every product tracked here. A product whose counter moved here while the
+   * database was read is left to the next round.
+   */
+  @Scheduled(fixedDelayString = "${distributor.stock.refresh-interval:PT5S}")
+  public void refresh() {
+    if (levels.isEmpty()) {
+      return;
+    }
+    Map<Long, Integer> before = new HashMap<>(levels.size() * 2);
+    for (Map.Entry<Long, StockLevel> entry : levels.entrySet()) {
+      before.put(entry.getKey(), entry.getValue().onHand.get());
+    }
+    for (Product product : productRepository.findAllById(before.keySet())) {
+      StockLevel level = levels.get(product.getId());
+      level.onHand.compareAndSet(before.get(product.getId()), product.getStock());
+    }
+  }
+
+  private void resync(Long productId) {
+    StockLevel level = levels.get(productId);
+    if (level != null) {
+      productRepository.findById(productId).ifPresent(product -> level.onHand.set(product.getStock()));
+    }
+  }
+
+  private StockLevel level(Product product) {
+    StockLevel level = levels.get(product.getId());
+    return level != null ? level : levels.computeIfAbsent(product.getId(), id -> new StockLevel(product.getStock()));
+  }
+
+  private static final class StockLevel {
+    private final AtomicInteger onHand;
+    private final AtomicInteger reserved = new AtomicInteger();
+
+    private StockLevel(int onHand) {
+      this.onHand = new AtomicInteger(onHand);
+    }
+  }
+}
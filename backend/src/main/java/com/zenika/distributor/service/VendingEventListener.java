@@ -0,0 +1,99 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.model.Product;
+
+import java.util.List;
+
+/**
+ * Receives every state change of a vending session, in order, while the session is still locked.
+ * Implementations must be fast and must not call back into the service.
+ * Coin arrays are counts per denomination indexed by {@link Coin#ordinal()}.
+ */
+public interface VendingEventListener {
+
+  default void onCoinInserted(String machineId, Coin coin) {
+  }
+
+  default void onProductSelected(String machineId, Product product) {
+  }
+
+  /**
+   * Called by the service instead of {@link #onProductSelected(String, Product)}, with the selection cost
+   * after the change, promotions applied.
+   */
+  default void onProductSelected(String machineId, Product product, long selectedCostCents) {
+    onProductSelected(machineId, product);
+  }
+
+  default void onProductDeselected(String machineId, Long productId, int quantity) {
+  }
+
+  /**
+   * Called by the service instead of {@link #onProductDeselected(String, Long, int)}, with the selection cost
+   * after the change, promotions applied.
+   */
+  default void onProductDeselected(String machineId, Long productId, int quantity, long selectedCostCents) {
+    onProductDeselected(machineId, productId, quantity);
+  }
+
+  default void onDispensed(String machineId, List<CartLine> lines, int[] change) {
+  }
+
+  /**
+   * Called by the service instead of {@link #onDispensed(String, List, int[])}, with the price paid for the
+   * cart, promotions applied.
+   */
+  default void onDispensed(String machineId, List<CartLine> lines, int[] change, long totalCents) {
+    onDispensed(machineId, lines, change);
+  }
+
+  default void onRefunded(String machineId, int[] coins) {
+  }
+
+  /**
+   * A whole order (see {@link VendingMachineService#placeOrder}) went through without touching the session.
+   */
+  default void onOrderPlaced(String machineId, int[] inserted, List<CartLine> lines, int[] change) {
+  }
+
+  /**
+   * Called by the service instead of {@link #onOrderPlaced(String, int[], List, int[])}, with the price paid
+   * for the order, promotions applied.
+   */
+  default void onOrderPlaced(String machineId, int[] inserted, List<CartLine> lines, int[] change, long totalCents) {
+    onOrderPlaced(machineId, inserted, lines, change);
+  }
+
+  default void onSessionEvicted(String machineId) {
+  }
+
+  /**
+   * Coins and a selection handed over by the instance that served the machine before, added to the session
+   * (see {@link VendingMachineService#adoptSession}). The coins are already in the coin inventory and
+   * {@code lines} only holds the units that could be reserved here.
+   */
+  default void onSessionAdopted(String machineId, List<Coin> coins, List<CartLine> lines) {
+  }
+
+  /**
+   * Called by the service instead of {@link #onSessionAdopted(String, List, List)}, with the selection cost
+   * of the merged session.
+   */
+  default void onSessionAdopted(String machineId, List<Coin> coins, List<CartLine> lines, long selectedCostCents) {
+    onSessionAdopted(machineId, coins, lines);
+  }
+
+  /**
+   * The service released the session of {@code machineId} after publishing its events. Called on the same thread
+   * before the service returns, so it may block, e.g. until those events are on disk.
+   */
+  default void onSessionReleased(String machineId) {
+  }
+
+  /**
+   * Units were added to a product by an operator; not tied to any session.
+   */
+  default void onRestocked(Long productId) {
+  }
+}
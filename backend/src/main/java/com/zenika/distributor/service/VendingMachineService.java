@@ -1,177 +1,1072 @@
 package com.zenika.distributor.service;
 
+import com.zenika.distributor.dto.BulkOrderResponse;
 import com.zenika.distributor.dto.DispenseResponse;
+import com.zenika.distributor.dto.MachineOrderRequest;
+import com.zenika.distributor.dto.OrderItem;
+import com.zenika.distributor.dto.OrderResult;
 import com.zenika.distributor.dto.ProductDTO;
 import com.zenika.distributor.dto.RefundResponse;
 import com.zenika.distributor.enums.Coin; // Make sure your Coin enum is in this package
+import com.zenika.distributor.exception.ExactChangeUnavailableException;
 import com.zenika.distributor.exception.InsufficientFundsException;
 import com.zenika.distributor.exception.InvalidCoinException;
 import com.zenika.distributor.exception.NoItemSelectedException;
+import com.zenika.distributor.exception.OutOfStockException;
 import com.zenika.distributor.exception.ProductNotFoundException;
+import com.zenika.distributor.exception.TransactionInProgressException;
+import com.zenika.distributor.model.Money;
 import com.zenika.distributor.model.Product;
-import com.zenika.distributor.repository.ProductRepository;
+import com.zenika.distributor.pricing.PriceBook;
+import com.zenika.distributor.pricing.PriceBookSource;
+import com.zenika.distributor.service.VendingMetrics.Operation;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.web.context.annotation.ApplicationScope; // Or default Singleton
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
 
 @Service
-@ApplicationScope // This makes it a singleton for the application
 public class VendingMachineService {
 
-  private final ProductRepository productRepository;
-
-  // Transactional state
-  private BigDecimal currentBalance = BigDecimal.ZERO;
-  private final List<Coin> insertedCoins = new ArrayList<>();
-  private final List<Product> selectedProducts = new ArrayList<>(); // Can hold multiple instances
+  private final CatalogCache catalogCache;
+  private final SessionRegistry sessionRegistry;
+  private final CoinInventoryService coinInventoryService;
+  private final StockService stockService;
+  private final VendingMetrics metrics;
+  private final PriceBookSource pricing;
+  private final VendingEventListener[] listeners;
 
   @Autowired
-  public VendingMachineService(ProductRepository productRepository) {
-    this.productRepository = productRepository;
+  public VendingMachineService(CatalogCache catalogCache, SessionRegistry sessionRegistry,
+                               CoinInventoryService coinInventoryService, StockService stockService,
+                               ObjectProvider<VendingMetrics> metrics, ObjectProvider<PriceBookSource> pricing,
+                               ObjectProvider<VendingEventListener> listeners) {
+    this(catalogCache, sessionRegistry, coinInventoryService, stockService, metrics.getIfAvailable(() -> VendingMetrics.NONE),
+      pricing.getIfAvailable(() -> PriceBookSource.NONE), listeners.orderedStream().toArray(VendingEventListener[]::new));
+  }
+
+  public VendingMachineService(CatalogCache catalogCache, SessionRegistry sessionRegistry,
+                               CoinInventoryService coinInventoryService, StockService stockService,
+                               VendingEventListener... listeners) {
+    this(catalogCache, sessionRegistry, coinInventoryService, stockService, VendingMetrics.NONE, listeners);
+  }
+
+  public VendingMachineService(CatalogCache catalogCache, SessionRegistry sessionRegistry,
+                               CoinInventoryService coinInventoryService, StockService stockService,
+                               VendingMetrics metrics, VendingEventListener... listeners) {
+    this(catalogCache, sessionRegistry, coinInventoryService, stockService, metrics, PriceBookSource.NONE, listeners);
+  }
+
+  public VendingMachineService(CatalogCache catalogCache, SessionRegistry sessionRegistry,
+                               CoinInventoryService coinInventoryService, StockService stockService,
+                               VendingMetrics metrics, PriceBookSource pricing, VendingEventListener... listeners) {
+    this.catalogCache = catalogCache;
+    this.sessionRegistry = sessionRegistry;
+    this.coinInventoryService = coinInventoryService;
+    this.stockService = stockService;
+    this.metrics = metrics;
+    this.pricing = pricing;
+    this.listeners = listeners;
+    // Abandoned carts must not keep stock reserved
+    sessionRegistry.setEvictionListener(session -> {
+      releaseReservations(session.getCart());
+      for (VendingEventListener listener : this.listeners) {
+        listener.onSessionEvicted(session.getId());
+      }
+    });
+    // A customer who walked away keeps their coins as credit, but not the units they had selected
+    sessionRegistry.setAbandonListener(session -> {
+      Cart cart = pricedCart(session);
+      for (CartLine line : cart.lines()) {
+        Long productId = line.getProduct().getId();
+        int removed = cart.removeAll(productId);
+        stockService.release(productId, removed);
+        for (VendingEventListener listener : this.listeners) {
+          listener.onProductDeselected(session.getId(), productId, removed, cart.totalCents());
+        }
+      }
+    });
   }
 
   public BigDecimal insertCoin(BigDecimal value) {
-    // Assuming Coin.isValid and Coin.fromValue are static methods in your Coin enum
-    if (!Coin.isValid(value)) {
-      throw new InvalidCoinException("Invalid coin value: " + value +
-        ". Accepted values: " + Coin.getSortedCoinsDesc().stream()
-        .map(Coin::getValue).map(BigDecimal::toPlainString)
-        .collect(Collectors.joining(", ")));
-    }
-    Coin coinEnum = Coin.fromValue(value)
-      .orElseThrow(() -> new InvalidCoinException("Internal error: Coin enum mapping failed for value: " + value));
+    return insertCoin(SessionRegistry.DEFAULT_SESSION_ID, value);
+  }
 
-    insertedCoins.add(coinEnum);
-    currentBalance = currentBalance.add(value);
-    return currentBalance;
+  public BigDecimal insertCoin(String sessionId, BigDecimal value) {
+    long startNanos = System.nanoTime();
+    boolean success = false;
+    try {
+      Coin coinEnum = Coin.lookup(value);
+      if (coinEnum == null) {
+        throw new InvalidCoinException("Invalid coin value: " + value + ". Accepted values: " + Coin.acceptedValues());
+      }
+
+      long balanceCents;
+      VendingSession session = sessionRegistry.acquire(sessionId);
+      try {
+        session.getInsertedCoins().add(coinEnum);
+        balanceCents = session.getBalanceCents() + coinEnum.getCents();
+        session.setBalanceCents(balanceCents);
+        coinInventoryService.deposit(session.getId(), coinEnum);
+        for (VendingEventListener listener : listeners) {
+          listener.onCoinInserted(session.getId(), coinEnum);
+        }
+      } finally {
+        unlock(session);
+      }
+      success = true;
+      return Money.fromCents(balanceCents);
+    } finally {
+      metrics.recordOperation(Operation.INSERT_COIN, System.nanoTime() - startNanos, success);
+    }
   }
 
   public List<ProductDTO> listAvailableProducts() {
-    // Calculate the cost of items already selected
-    BigDecimal totalSelectedCost = selectedProducts.stream()
-      .map(Product::getPrice)
-      .reduce(BigDecimal.ZERO, BigDecimal::add);
-    BigDecimal spendableForNewItems = currentBalance.subtract(totalSelectedCost);
-
-    return productRepository.findAll().stream()
-      .map(product -> new ProductDTO(
-        product.getId(),
-        product.getName(),
-        product.getPrice(),
-        // Can we afford one *more* of this product?
-        spendableForNewItems.compareTo(product.getPrice()) >= 0
-      ))
-      .collect(Collectors.toList());
+    return listAvailableProducts(SessionRegistry.DEFAULT_SESSION_ID);
+  }
+
+  public List<ProductDTO> listAvailableProducts(String sessionId) {
+    long spendableForNewItems = getSpendableCents(sessionId);
+    return toProductDTOs(catalogCache.getProducts(), spendableForNewItems, priceBook(sessionId));
+  }
+
+  /**
+   * One page of {@link #listAvailableProducts(String)}: up to {@code limit} products with an ID above
+   * {@code afterId}, found with a binary search over the snapshot.
+   */
+  public ProductPage listAvailableProducts(String sessionId, long afterId, int limit) {
+    long spendableForNewItems = getSpendableCents(sessionId);
+    CatalogSnapshot snapshot = catalogCache.getSnapshot();
+    List<Product> products = snapshot.productsAfter(afterId, limit);
+    Long nextAfter = null;
+    if (!products.isEmpty()) {
+      long lastId = products.get(products.size() - 1).getId();
+      nextAfter = snapshot.productsAfter(lastId, 1).isEmpty() ? null : lastId;
+    }
+    return new ProductPage(toProductDTOs(products, spendableForNewItems, priceBook(sessionId)), nextAfter);
+  }
+
+  /**
+   * @return the validators of {@link #listAvailableProducts(String)} for the session, made of the versions of
+   * what it shows. The database is not read, so an unchanged poll costs a session lock and a look at the units
+   * left of each listed product.
+   */
+  public ListingVersion listingVersion(String sessionId) {
+    CatalogSnapshot snapshot = catalogCache.getSnapshot();
+    return listingVersion(sessionId, snapshot, snapshot.getProducts());
+  }
+
+  /**
+   * @return the validators of the page {@link #listAvailableProducts(String, long, int)} returns.
+   */
+  public ListingVersion listingVersion(String sessionId, long afterId, int limit) {
+    CatalogSnapshot snapshot = catalogCache.getSnapshot();
+    return listingVersion(sessionId, snapshot, snapshot.productsAfter(afterId, limit));
+  }
+
+  private ListingVersion listingVersion(String sessionId, CatalogSnapshot snapshot, List<Product> listed) {
+    // The units left of the listed products only: reservations of other products keep the tag
+    long stockHash = 0;
+    for (int i = 0; i < listed.size(); i++) {
+      Product product = listed.get(i);
+      stockHash = 31 * stockHash + mix(product.getId() * 0x9E3779B97F4A7C15L + stockService.available(product));
+    }
+    PriceBook book = priceBook(sessionId);
+    VendingSession session = sessionRegistry.acquire(sessionId);
+    try {
+      pricedCart(session);
+      String etag = "\"" + snapshot.getVersion() + "-" + Long.toString(snapshot.getBuiltAtMillis(), 36)
+        + "-" + Long.toUnsignedString(stockHash, 36) + "-" + Long.toString(book.unitPricesHash(), 36)
+        + "-" + session.getSpendableCents() + "\"";
+      return new ListingVersion(etag, session.listedSince(etag, System.currentTimeMillis()));
+    } finally {
+      session.unlock();
+    }
+  }
+
+  // Spreads each bit over the whole value (SplitMix64 finalizer), so that nearby counts hash far apart
+  private static long mix(long value) {
+    value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+    value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+    return value ^ (value >>> 31);
+  }
+
+  /**
+   * @return the given products as {@link #listAvailableProducts(String)} shows them to the session, in the same
+   * order, e.g. search results.
+   */
+  public List<ProductDTO> listProducts(String sessionId, List<Product> products) {
+    return toProductDTOs(products, getSpendableCents(sessionId), priceBook(sessionId));
+  }
+
+  /**
+   * Lists only the products the session can still afford, cheapest first, as {@code /products} marks them
+   * purchasable. The boundary is found with one binary search over the price-sorted catalog; products with a
+   * promotional unit price are taken out of that order and merged back at their promotional price, and products
+   * with no unit left are left out.
+   */
+  public List<ProductDTO> listAffordableProducts(String sessionId) {
+    long spendableForNewItems = getSpendableCents(sessionId);
+    PriceBook book = priceBook(sessionId);
+    return toProductDTOs(affordableProducts(spendableForNewItems, book), spendableForNewItems, book);
+  }
+
+  public int countAffordableProducts(String sessionId) {
+    return affordableProducts(getSpendableCents(sessionId), priceBook(sessionId)).size();
+  }
+
+  private List<Product> affordableProducts(long spendableCents, PriceBook book) {
+    List<Product> byCatalogPrice = catalogCache.getSnapshot().affordableProducts(spendableCents);
+    List<Product> affordable = new ArrayList<>(byCatalogPrice.size());
+    for (int i = 0; i < byCatalogPrice.size(); i++) {
+      Product product = byCatalogPrice.get(i);
+      if (!book.hasUnitPrice(product.getId()) && stockService.available(product) > 0) {
+        affordable.add(product);
+      }
+    }
+    return book.hasUnitPrices() ? mergePromoted(affordable, book, spendableCents) : affordable;
+  }
+
+  private List<Product> mergePromoted(List<Product> byCatalogPrice, PriceBook book, long spendableCents) {
+    List<Product> promoted = new ArrayList<>(book.promotedCount());
+    for (int i = 0; i < book.promotedCount(); i++) {
+      long priceCents = book.promotedPriceCents(i);
+      Product product = priceCents <= spendableCents && Coin.isPayable(priceCents)
+        ? catalogCache.findById(book.promotedProductId(i))
+        : null;
+      if (product != null && stockService.available(product) > 0) {
+        promoted.add(product);
+      }
+    }
+    promoted.sort(Comparator.comparingLong(book::unitPriceCents));
+    List<Product> merged = new ArrayList<>(byCatalogPrice.size() + promoted.size());
+    int next = 0;
+    for (int i = 0; i < byCatalogPrice.size(); i++) {
+      Product product = byCatalogPrice.get(i);
+      while (next < promoted.size() && book.unitPriceCents(promoted.get(next)) <= product.getPriceCents()) {
+        merged.add(promoted.get(next++));
+      }
+      merged.add(product);
+    }
+    merged.addAll(promoted.subList(next, promoted.size()));
+    return merged;
+  }
+
+  /**
+   * @return the balance left once the items already selected are paid for.
+   */
+  public long getSpendableCents(String sessionId) {
+    VendingSession session = sessionRegistry.acquire(sessionId);
+    try {
+      pricedCart(session);
+      return session.getSpendableCents();
+    } finally {
+      session.unlock();
+    }
+  }
+
+  private List<ProductDTO> toProductDTOs(List<Product> products, long spendableForNewItems, PriceBook book) {
+    List<ProductDTO> dtos = new ArrayList<>(products.size());
+    for (int i = 0; i < products.size(); i++) {
+      dtos.add(toProductDTO(products.get(i), spendableForNewItems, book));
+    }
+    return dtos;
+  }
+
+  public ProductDTO toProductDTO(Product product, long spendableForNewItems) {
+    return toProductDTO(product, spendableForNewItems, PriceBook.NONE);
+  }
+
+  /**
+   * @param book the promotions of the machine, whose unit price is shown instead of the catalog price.
+   */
+  public ProductDTO toProductDTO(Product product, long spendableForNewItems, PriceBook book) {
+    int available = stockService.available(product);
+    long unitPriceCents = book.unitPriceCents(product);
+    return new ProductDTO(
+      product.getId(),
+      product.getName(),
+      unitPriceCents == product.getPriceCents() ? product.getPrice() : Money.fromCents(unitPriceCents),
+      // Can we afford one *more* of this product, and is one left?
+      available > 0 && unitPriceCents <= spendableForNewItems && Coin.isPayable(unitPriceCents),
+      available
+    );
+  }
+
+  /**
+   * @return the promotions in force for the machine now.
+   */
+  public PriceBook priceBook(String sessionId) {
+    return pricing.forMachine(SessionRegistry.normalize(sessionId));
+  }
+
+  /**
+   * Brings the session's cart to the promotions in force now. Must be called with the session locked.
+   */
+  private Cart pricedCart(VendingSession session) {
+    Cart cart = session.getCart();
+    cart.reprice(pricing.forMachine(session.getId()));
+    return cart;
   }
 
   public Product selectProduct(Long productId) {
-    Product product = productRepository.findById(productId)
-      .orElseThrow(() -> new ProductNotFoundException("Product with ID " + productId + " not found."));
+    return selectProduct(SessionRegistry.DEFAULT_SESSION_ID, productId);
+  }
 
-    // Calculate total cost if this product is added
-    BigDecimal costOfAlreadySelected = selectedProducts.stream()
-      .map(Product::getPrice)
-      .reduce(BigDecimal.ZERO, BigDecimal::add);
-    BigDecimal costWithNewProduct = costOfAlreadySelected.add(product.getPrice());
+  public Product selectProduct(String sessionId, Long productId) {
+    return addToCart(sessionId, productId).getProduct();
+  }
 
-    if (currentBalance.compareTo(costWithNewProduct) < 0) {
-      throw new InsufficientFundsException(
-        String.format("Insufficient funds to add '%s' (%.2f). Current selection cost: %.2f. Total needed: %.2f. Balance: %.2f",
-          product.getName(), product.getPrice(), costOfAlreadySelected, costWithNewProduct, currentBalance)
-      );
+  /**
+   * Adds one unit of a product to the session's cart.
+   * @return the product with its quantity in the cart and the new selection cost.
+   */
+  public CartUpdate addToCart(String sessionId, Long productId) {
+    long startNanos = System.nanoTime();
+    boolean success = false;
+    try {
+      Product product = catalogCache.findById(productId);
+      if (product == null) {
+        throw new ProductNotFoundException("Product with ID " + productId + " not found.");
+      }
+
+      VendingSession session = sessionRegistry.acquire(sessionId);
+      try {
+        Cart cart = pricedCart(session);
+        // Calculate total cost if this product is added, promotions included
+        long costOfAlreadySelected = cart.totalCents();
+        long costWithNewProduct = cart.quoteAdd(product, 1);
+
+        if (session.getBalanceCents() < costWithNewProduct) {
+          throw new InsufficientFundsException(
+            String.format("Insufficient funds to add '%s' (%s). Current selection cost: %s. Total needed: %s. Balance: %s",
+              product.getName(), Money.format(costWithNewProduct - costOfAlreadySelected), Money.format(costOfAlreadySelected),
+              Money.format(costWithNewProduct), Money.format(session.getBalanceCents()))
+          );
+        }
+        if (!stockService.reserve(product)) {
+          throw new OutOfStockException(product.getId(), "Product '" + product.getName() + "' is out of stock.");
+        }
+        int quantity = cart.add(product);
+        for (VendingEventListener listener : listeners) {
+          listener.onProductSelected(session.getId(), product, cart.totalCents());
+        }
+        success = true;
+        return new CartUpdate(product, quantity, cart.totalCents(), session.getBalanceCents());
+      } finally {
+        unlock(session);
+      }
+    } finally {
+      metrics.recordOperation(Operation.SELECT_PRODUCT, System.nanoTime() - startNanos, success);
     }
-    selectedProducts.add(product); // Add the product to the list
-    return product;
+  }
+
+  public Product deselectProduct(Long productId) {
+    return deselectProduct(SessionRegistry.DEFAULT_SESSION_ID, productId);
   }
 
   /**
    * Deselects (removes) one instance of a product from the current selection.
+   * @param sessionId The machine or client session the selection belongs to.
    * @param productId The ID of the product to remove.
    * @return The Product object that was removed, or null if no such product was found in the selection.
    */
-  public Product deselectProduct(Long productId) {
-    for (int i = 0; i < selectedProducts.size(); i++) {
-      Product selected = selectedProducts.get(i);
-      if (selected.getId().equals(productId)) {
-        selectedProducts.remove(i);
-        return selected; // Return the actual product instance that was removed
+  public Product deselectProduct(String sessionId, Long productId) {
+    CartUpdate update = removeFromCart(sessionId, productId);
+    return update == null ? null : update.getProduct();
+  }
+
+  /**
+   * Removes one unit of a product from the session's cart.
+   * @return the product with the quantity left in the cart, or null if it was not selected.
+   */
+  public CartUpdate removeFromCart(String sessionId, Long productId) {
+    long startNanos = System.nanoTime();
+    boolean success = false;
+    try {
+      VendingSession session = sessionRegistry.acquire(sessionId);
+      try {
+        Cart cart = pricedCart(session);
+        Product selected = cart.product(productId);
+        if (selected == null) {
+          success = true;
+          return null;
+        }
+        int remaining = cart.removeOne(productId);
+        stockService.release(productId, 1);
+        for (VendingEventListener listener : listeners) {
+          listener.onProductDeselected(session.getId(), productId, 1, cart.totalCents());
+        }
+        success = true;
+        return new CartUpdate(selected, remaining, cart.totalCents(), session.getBalanceCents());
+      } finally {
+        unlock(session);
       }
+    } finally {
+      metrics.recordOperation(Operation.DESELECT_PRODUCT, System.nanoTime() - startNanos, success);
     }
-    return null; // Product with this ID was not in the selected list
   }
 
-
   public DispenseResponse dispenseProducts() {
-    if (selectedProducts.isEmpty()) {
-      throw new NoItemSelectedException("No products selected for dispensing.");
+    return dispenseProducts(SessionRegistry.DEFAULT_SESSION_ID);
+  }
+
+  public DispenseResponse dispenseProducts(String sessionId) {
+    long startNanos = System.nanoTime();
+    boolean success = false;
+    try {
+      VendingSession session = sessionRegistry.acquire(sessionId);
+      try {
+        Cart cart = pricedCart(session);
+        if (cart.isEmpty()) {
+          throw new NoItemSelectedException("No products selected for dispensing.");
+        }
+
+        long totalCost = cart.totalCents();
+
+        if (session.getBalanceCents() < totalCost) {
+          throw new InsufficientFundsException("Insufficient funds to dispense. " +
+            "Total cost: " + Money.format(totalCost) + ", Current balance: " + Money.format(session.getBalanceCents()));
+        }
+
+        // Make sure change can be paid before anything is committed
+        long changeAmount = session.getBalanceCents() - totalCost;
+        int[] changePlan = calculateOptimizedChange(session.getId(), changeAmount);
+
+        Map<Long, Integer> quantities = toQuantities(cart);
+        try {
+          stockService.commit(quantities);
+        } catch (OutOfStockException e) {
+          // Another buyer took the last units: drop the product from this cart so the customer can retry
+          int removed = cart.removeAll(e.getProductId());
+          stockService.release(e.getProductId(), removed);
+          for (VendingEventListener listener : listeners) {
+            listener.onProductDeselected(session.getId(), e.getProductId(), removed, cart.totalCents());
+          }
+          throw e;
+        }
+        List<BigDecimal> changeCoins;
+        try {
+          changeCoins = payOutChange(session.getId(), changePlan);
+        } catch (RuntimeException e) {
+          // No change was paid, so nothing was sold: the cart keeps its units for a retry
+          try {
+            stockService.uncommitReserved(quantities);
+          } catch (RuntimeException undo) {
+            e.addSuppressed(undo);
+          }
+          throw e;
+        }
+        metrics.recordCheckout(cart.totalItems(), changePlan);
+        if (listeners.length > 0) {
+          List<CartLine> lines = cart.lines();
+          for (VendingEventListener listener : listeners) {
+            listener.onDispensed(session.getId(), lines, changePlan, totalCost);
+          }
+        }
+
+        List<Product> dispensed = cart.expand();
+        session.reset();
+
+        success = true;
+        return new DispenseResponse(dispensed, changeCoins, "Products dispensed. Thank you!");
+      } finally {
+        unlock(session);
+      }
+    } finally {
+      metrics.recordOperation(Operation.DISPENSE, System.nanoTime() - startNanos, success);
+    }
+  }
+
+  /**
+   * Runs a whole basket in one call: inserts the coins, selects the items and dispenses them with change.
+   * Either the full order goes through or nothing changes (no coin kept, no stock reserved).
+   * The machine must not have a transaction in progress.
+   */
+  public DispenseResponse placeOrder(String sessionId, List<BigDecimal> coins, List<OrderItem> items) {
+    long startNanos = System.nanoTime();
+    boolean success = false;
+    try {
+      VendingSession session = sessionRegistry.acquire(sessionId);
+      try {
+        PreparedOrder order = prepareOrder(session, coins, items);
+        Map<Long, Integer> quantities = order.quantities();
+        try {
+          stockService.commit(quantities);
+        } catch (RuntimeException e) {
+          releaseReservations(order.cart);
+          throw e;
+        }
+        try {
+          coinInventoryService.exchange(session.getId(), order.incoming, order.change);
+        } catch (RuntimeException e) {
+          // The coins were not taken, so nothing was sold: put the units back on sale
+          try {
+            stockService.uncommit(quantities);
+          } catch (RuntimeException undo) {
+            e.addSuppressed(undo);
+          }
+          throw e;
+        }
+        publishOrder(order);
+        success = true;
+        return order.toResponse();
+      } finally {
+        unlock(session);
+      }
+    } finally {
+      metrics.recordOperation(Operation.ORDER, System.nanoTime() - startNanos, success);
+    }
+  }
+
+  /**
+   * Runs independent orders for many machines. Each order is all-or-nothing on its own; a refused order
+   * does not affect the others. The stock of all accepted orders is committed with one JDBC batch and the
+   * coin inventories of the touched machines are written with another.
+   * @return one result per order, in request order.
+   */
+  public BulkOrderResponse placeOrders(List<MachineOrderRequest> orders) {
+    long startNanos = System.nanoTime();
+    boolean success = false;
+    try {
+      int count = orders.size();
+      OrderResult[] results = new OrderResult[count];
+      // Lock machines in a stable order so two bulk requests cannot deadlock each other
+      Integer[] lockOrder = new Integer[count];
+      for (int i = 0; i < count; i++) {
+        lockOrder[i] = i;
+      }
+      Arrays.sort(lockOrder, Comparator.comparing((Integer i) -> SessionRegistry.normalize(orders.get(i).getMachineId())));
+
+      List<VendingSession> locked = new ArrayList<>(count);
+      List<PreparedOrder> prepared = new ArrayList<>(count);
+      try {
+        for (Integer index : lockOrder) {
+          MachineOrderRequest request = orders.get(index);
+          VendingSession session = sessionRegistry.acquire(request.getMachineId());
+          locked.add(session);
+          try {
+            PreparedOrder order = prepareOrder(session, request.getCoins(), request.getItems());
+            order.index = index;
+            // Apply the coins now so the next order on the same machine plans its change against them
+            coinInventoryService.exchangeInMemory(order.machineId, order.incoming, order.change);
+            prepared.add(order);
+          } catch (RuntimeException e) {
+            results[index] = OrderResult.refused(session.getId(), e.getMessage());
+          }
+        }
+
+        commitOrders(prepared, results);
+
+        Set<String> touchedMachines = new LinkedHashSet<>();
+        for (PreparedOrder order : prepared) {
+          touchedMachines.add(order.machineId);
+        }
+        coinInventoryService.flush(touchedMachines);
+      } finally {
+        for (int i = locked.size() - 1; i >= 0; i--) {
+          locked.get(i).unlock();
+        }
+        for (VendingSession session : locked) {
+          released(session.getId());
+        }
+      }
+
+      int dispensed = 0;
+      for (OrderResult result : results) {
+        if (result.isSuccess()) {
+          dispensed++;
+        }
+      }
+      success = true;
+      return new BulkOrderResponse(Arrays.asList(results), dispensed, count - dispensed);
+    } finally {
+      metrics.recordOperation(Operation.BULK_ORDER, System.nanoTime() - startNanos, success);
+    }
+  }
+
+  private void commitOrders(List<PreparedOrder> prepared, OrderResult[] results) {
+    if (prepared.isEmpty()) {
+      return;
+    }
+    List<Map<Long, Integer>> carts = new ArrayList<>(prepared.size());
+    for (PreparedOrder order : prepared) {
+      carts.add(order.quantities());
+    }
+    try {
+      stockService.commitAll(carts);
+    } catch (OutOfStockException e) {
+      // The database has less stock than the reservations allowed for (another instance sold it).
+      // The batch was rolled back: undo the coins in reverse order, then replay the orders one by one.
+      undoCoins(prepared);
+      replayOrders(prepared, results);
+      return;
+    } catch (RuntimeException e) {
+      // Nothing was sold: give every order its coins and stock back before failing the request
+      undoCoins(prepared);
+      for (PreparedOrder order : prepared) {
+        releaseReservations(order.cart);
+      }
+      throw e;
+    }
+    for (PreparedOrder order : prepared) {
+      results[order.index] = OrderResult.dispensed(order.machineId, order.toResponse());
+      publishOrder(order);
+    }
+  }
+
+  private void undoCoins(List<PreparedOrder> prepared) {
+    for (int i = prepared.size() - 1; i >= 0; i--) {
+      PreparedOrder order = prepared.get(i);
+      coinInventoryService.exchangeInMemory(order.machineId, order.change, order.incoming);
+    }
+  }
+
+  private void replayOrders(List<PreparedOrder> prepared, OrderResult[] results) {
+    for (PreparedOrder order : prepared) {
+      try {
+        // Re-plan: an earlier order that is now refused may have supplied coins for this change
+        order.change = calculateOptimizedChange(order.machineId, order.incoming, order.changeCents);
+        stockService.commit(order.quantities());
+      } catch (RuntimeException e) {
+        releaseReservations(order.cart);
+        results[order.index] = OrderResult.refused(order.machineId, e.getMessage());
+        continue;
+      }
+      coinInventoryService.exchangeInMemory(order.machineId, order.incoming, order.change);
+      results[order.index] = OrderResult.dispensed(order.machineId, order.toResponse());
+      publishOrder(order);
     }
+  }
 
-    BigDecimal totalCost = selectedProducts.stream()
-      .map(Product::getPrice)
-      .reduce(BigDecimal.ZERO, BigDecimal::add);
+  private void publishOrder(PreparedOrder order) {
+    metrics.recordCheckout(order.cart.totalItems(), order.change);
+    if (listeners.length > 0) {
+      List<CartLine> lines = order.cart.lines();
+      for (VendingEventListener listener : listeners) {
+        listener.onOrderPlaced(order.machineId, order.incoming, lines, order.change, order.cart.totalCents());
+      }
+    }
+  }
 
-    if (currentBalance.compareTo(totalCost) < 0) {
-      throw new InsufficientFundsException("Insufficient funds to dispense. " +
-        "Total cost: " + totalCost + ", Current balance: " + currentBalance);
+  /**
+   * Validates an order and reserves its stock and change. Nothing is reserved if an exception is thrown.
+   */
+  private PreparedOrder prepareOrder(VendingSession session, List<BigDecimal> coins, List<OrderItem> items) {
+    if (!session.isIdle()) {
+      throw new TransactionInProgressException("Machine " + session.getId() +
+        " has a transaction in progress. Dispense or cancel it before placing an order.");
     }
 
-    BigDecimal changeAmount = currentBalance.subtract(totalCost);
-    List<BigDecimal> changeCoins = calculateOptimizedChange(changeAmount);
+    int[] incoming = new int[CoinInventorySnapshot.COIN_COUNT];
+    long paidCents = 0L;
+    for (BigDecimal value : coins) {
+      Coin coin = Coin.lookup(value);
+      if (coin == null) {
+        throw new InvalidCoinException("Invalid coin value: " + value + ". Accepted values: " + Coin.acceptedValues());
+      }
+      incoming[coin.ordinal()]++;
+      paidCents += coin.getCents();
+    }
 
-    List<Product> dispensed = new ArrayList<>(selectedProducts);
-    resetTransactionState();
+    Cart cart = new Cart();
+    cart.reprice(pricing.forMachine(session.getId()));
+    for (OrderItem item : items) {
+      Product product = catalogCache.findById(item.getProductId());
+      if (product == null) {
+        throw new ProductNotFoundException("Product with ID " + item.getProductId() + " not found.");
+      }
+      cart.add(product, item.getQuantity());
+    }
+    if (paidCents < cart.totalCents()) {
+      throw new InsufficientFundsException("Insufficient funds for the order. " +
+        "Total cost: " + Money.format(cart.totalCents()) + ", Coins inserted: " + Money.format(paidCents));
+    }
 
-    return new DispenseResponse(dispensed, changeCoins, "Products dispensed. Thank you!");
+    Cart reserved = new Cart();
+    try {
+      for (CartLine line : cart.lines()) {
+        Product product = line.getProduct();
+        if (!stockService.reserve(product, line.getQuantity())) {
+          throw new OutOfStockException(product.getId(), "Product '" + product.getName() + "' is out of stock.");
+        }
+        reserved.add(product, line.getQuantity());
+      }
+      long changeCents = paidCents - cart.totalCents();
+      int[] change = calculateOptimizedChange(session.getId(), incoming, changeCents);
+      return new PreparedOrder(session.getId(), cart, incoming, change, changeCents);
+    } catch (RuntimeException e) {
+      releaseReservations(reserved);
+      throw e;
+    }
   }
 
   public RefundResponse cancelTransaction() {
-    List<BigDecimal> coinsToRefund = insertedCoins.stream()
-      .map(Coin::getValue)
-      .collect(Collectors.toList());
-    resetTransactionState();
-    if (coinsToRefund.isEmpty()){
-      return new RefundResponse(coinsToRefund, "No coins inserted to refund. Transaction cancelled.");
-    }
-    return new RefundResponse(coinsToRefund, "Transaction cancelled. Coins refunded.");
+    return cancelTransaction(SessionRegistry.DEFAULT_SESSION_ID);
   }
 
-  private List<BigDecimal> calculateOptimizedChange(BigDecimal amount) {
-    List<BigDecimal> changeGiven = new ArrayList<>();
-    BigDecimal remainingAmount = amount;
-    for (Coin coin : Coin.getSortedCoinsDesc()) {
-      while (remainingAmount.compareTo(coin.getValue()) >= 0) {
-        changeGiven.add(coin.getValue());
-        remainingAmount = remainingAmount.subtract(coin.getValue());
+  public RefundResponse cancelTransaction(String sessionId) {
+    long startNanos = System.nanoTime();
+    boolean success = false;
+    try {
+      List<BigDecimal> coinsToRefund;
+      VendingSession session = sessionRegistry.acquire(sessionId);
+      try {
+        List<Coin> insertedCoins = session.getInsertedCoins();
+        coinsToRefund = new ArrayList<>(insertedCoins.size());
+        int[] returned = new int[CoinInventorySnapshot.COIN_COUNT];
+        for (Coin coin : insertedCoins) {
+          coinsToRefund.add(coin.getValue());
+          returned[coin.ordinal()]++;
+        }
+        if (!coinsToRefund.isEmpty()) {
+          coinInventoryService.withdraw(session.getId(), returned);
+        }
+        releaseReservations(session.getCart());
+        if (!session.isIdle()) {
+          for (VendingEventListener listener : listeners) {
+            listener.onRefunded(session.getId(), returned);
+          }
+        }
+        session.reset();
+      } finally {
+        unlock(session);
       }
+      if (coinsToRefund.isEmpty()){
+        success = true;
+        return new RefundResponse(coinsToRefund, "No coins inserted to refund. Transaction cancelled.");
+      }
+      success = true;
+      return new RefundResponse(coinsToRefund, "Transaction cancelled. Coins refunded.");
+    } finally {
+      metrics.recordOperation(Operation.CANCEL, System.nanoTime() - startNanos, success);
     }
-    if (remainingAmount.compareTo(BigDecimal.ZERO) > 0) {
-      System.err.println("Warning: Could not make exact change. Remaining: " + remainingAmount);
+  }
+
+  /**
+   * Plans change from the machine's coin inventory using the fewest coins the inventory allows.
+   * @return coins to return per denomination, indexed by {@link Coin#ordinal()}.
+   * @throws ExactChangeUnavailableException if the inventory cannot make the exact amount.
+   */
+  private int[] calculateOptimizedChange(String machineId, long amountCents) {
+    long startNanos = System.nanoTime();
+    int[] plan = coinInventoryService.planChange(machineId, amountCents);
+    metrics.recordChangePlanned(System.nanoTime() - startNanos);
+    return checkChangePlan(plan, amountCents);
+  }
+
+  /**
+   * Same as {@link #calculateOptimizedChange(String, long)} counting coins about to be inserted.
+   */
+  private int[] calculateOptimizedChange(String machineId, int[] incoming, long amountCents) {
+    long startNanos = System.nanoTime();
+    int[] plan = coinInventoryService.planChange(machineId, incoming, amountCents);
+    metrics.recordChangePlanned(System.nanoTime() - startNanos);
+    return checkChangePlan(plan, amountCents);
+  }
+
+  private static int[] checkChangePlan(int[] plan, long amountCents) {
+    if (plan == null) {
+      throw new ExactChangeUnavailableException("Cannot return exact change of " + Money.format(amountCents) +
+        ". Please adjust your selection or cancel the transaction.");
+    }
+    return plan;
+  }
+
+  /**
+   * Takes the planned change out of the coin inventory.
+   * @return the coin values handed back, largest first.
+   */
+  private List<BigDecimal> payOutChange(String machineId, int[] plan) {
+    List<BigDecimal> changeGiven = toCoinValues(plan);
+    if (!changeGiven.isEmpty()) {
+      coinInventoryService.withdraw(machineId, plan);
     }
     return changeGiven;
   }
 
-  private void resetTransactionState() {
-    currentBalance = BigDecimal.ZERO;
-    insertedCoins.clear();
-    selectedProducts.clear();
+  private static List<BigDecimal> toCoinValues(int[] plan) {
+    List<BigDecimal> coins = new ArrayList<>();
+    List<Coin> denominations = Coin.getSortedCoinsDesc();
+    for (int i = 0; i < denominations.size(); i++) {
+      Coin coin = denominations.get(i);
+      for (int n = plan[coin.ordinal()]; n > 0; n--) {
+        coins.add(coin.getValue());
+      }
+    }
+    return coins;
+  }
+
+  private static Map<Long, Integer> toQuantities(Cart cart) {
+    List<CartLine> lines = cart.lines();
+    Map<Long, Integer> quantities = new HashMap<>(lines.size() * 2);
+    for (int i = 0; i < lines.size(); i++) {
+      CartLine line = lines.get(i);
+      quantities.put(line.getProduct().getId(), line.getQuantity());
+    }
+    return quantities;
+  }
+
+  // Listeners may wait for their work on the events of the session (e.g. a journal fsync) once it is unlocked
+  private void unlock(VendingSession session) {
+    session.unlock();
+    released(session.getId());
+  }
+
+  private void released(String machineId) {
+    for (VendingEventListener listener : listeners) {
+      listener.onSessionReleased(machineId);
+    }
+  }
+
+  private void releaseReservations(Cart cart) {
+    List<CartLine> lines = cart.lines();
+    for (int i = 0; i < lines.size(); i++) {
+      CartLine line = lines.get(i);
+      stockService.release(line.getProduct().getId(), line.getQuantity());
+    }
   }
 
   public Product addProduct(String name, BigDecimal price) {
-    Product product = new Product(null, name, price);
-    return productRepository.save(product);
+    return addProduct(name, price, 0);
+  }
+
+  public Product addProduct(String name, BigDecimal price, int stock) {
+    if (!Coin.isPayable(Money.toCents(price))) {
+      throw new IllegalArgumentException("Price " + price + " is not a multiple of " + Coin.payableStep() + ".");
+    }
+    Product product = new Product(null, name, price, stock);
+    return catalogCache.save(product);
+  }
+
+  public int restockProduct(Long productId, int quantity) {
+    int stock = stockService.restock(productId, quantity);
+    catalogCache.reload(productId);
+    for (VendingEventListener listener : listeners) {
+      listener.onRestocked(productId);
+    }
+    return stock;
+  }
+
+  public CatalogCache getCatalogCache() {
+    return catalogCache;
+  }
+
+  public CoinInventorySnapshot getCoinInventory(String sessionId) {
+    VendingSession session = sessionRegistry.acquire(sessionId);
+    try {
+      return coinInventoryService.getInventory(session.getId());
+    } finally {
+      session.unlock();
+    }
+  }
+
+  public CoinInventorySnapshot setCoinQuantity(String sessionId, BigDecimal value, int quantity) {
+    Coin coin = Coin.lookup(value);
+    if (coin == null) {
+      throw new InvalidCoinException("Invalid coin value: " + value + ". Accepted values: " + Coin.acceptedValues());
+    }
+    VendingSession session = sessionRegistry.acquire(sessionId);
+    try {
+      coinInventoryService.setQuantity(session.getId(), coin, quantity);
+      return coinInventoryService.getInventory(session.getId());
+    } finally {
+      session.unlock();
+    }
+  }
+
+  /**
+   * Puts back a session recovered after a restart. The coins are already counted in the coin inventory, so
+   * only the balance is restored; the selection is reserved again, dropping products that no longer exist
+   * or have no unit left.
+   * @return false if the session already holds coins or a selection, in which case nothing is changed.
+   */
+  public boolean restoreSession(String sessionId, List<Coin> coins, Map<Long, Integer> selection) {
+    VendingSession session = sessionRegistry.acquire(sessionId);
+    try {
+      if (!session.isIdle()) {
+        return false;
+      }
+      long balanceCents = 0L;
+      for (Coin coin : coins) {
+        session.getInsertedCoins().add(coin);
+        balanceCents += coin.getCents();
+      }
+      session.setBalanceCents(balanceCents);
+      for (Map.Entry<Long, Integer> line : selection.entrySet()) {
+        Product product = catalogCache.findById(line.getKey());
+        if (product != null && stockService.reserve(product, line.getValue())) {
+          pricedCart(session).add(product, line.getValue());
+        }
+      }
+      return true;
+    } finally {
+      session.unlock();
+    }
+  }
+
+  /**
+   * Adds a session handed over by the instance that served the machine before, see {@link #handOffSession}.
+   * Like {@link #restoreSession} the coins are already in the coin inventory; unlike it, the session may have
+   * been used here in the meantime, so coins and selection are merged into it and the listeners are told.
+   * A transfer already adopted (sent again after its answer was lost) is not merged a second time.
+   * @return the merged session.
+   */
+  public CartState adoptSession(String sessionId, String transferId, List<Coin> coins, Map<Long, Integer> selection) {
+    VendingSession session = sessionRegistry.acquire(sessionId);
+    try {
+      Cart cart = pricedCart(session);
+      if (!session.markAdopted(transferId)) {
+        return new CartState(session.getBalanceCents(), cart.totalCents(), cart.lines());
+      }
+      long balanceCents = session.getBalanceCents();
+      for (Coin coin : coins) {
+        session.getInsertedCoins().add(coin);
+        balanceCents += coin.getCents();
+      }
+      session.setBalanceCents(balanceCents);
+      PriceBook book = cart.priceBook();
+      List<CartLine> adopted = new ArrayList<>(selection.size());
+      for (Map.Entry<Long, Integer> line : selection.entrySet()) {
+        Product product = catalogCache.findById(line.getKey());
+        if (product != null && stockService.reserve(product, line.getValue())) {
+          cart.add(product, line.getValue());
+          adopted.add(new CartLine(product, line.getValue(), book.lineCents(product, line.getValue())));
+        }
+      }
+      if (!coins.isEmpty() || !adopted.isEmpty()) {
+        for (VendingEventListener listener : listeners) {
+          listener.onSessionAdopted(session.getId(), coins, adopted, cart.totalCents());
+        }
+      }
+      return new CartState(balanceCents, cart.totalCents(), cart.lines());
+    } finally {
+      unlock(session);
+    }
+  }
+
+  /**
+   * Hands a machine over to another instance. If the session holds coins or a selection, {@code transfer}
+   * receives them with the session locked and, once it returns true, the listeners see the session evicted.
+   * The session and the machine's cached coin counts are then dropped from this instance.
+   * <p>
+   * A failed attempt may still have reached the other instance, e.g. when the answer timed out, so while the
+   * session is unchanged the next attempt sends the same transfer ID, which {@link #adoptSession} applies once.
+   * {@code transfer} is typically a blocking call to the other instance: it runs with the session lock held, so
+   * that the coins cannot be spent here while the other instance may already hold them, and requests for the
+   * machine on this instance wait for it (for at most the call's timeout).
+   * @return false if {@code transfer} failed, in which case the session is left as it was.
+   */
+  public boolean handOffSession(String sessionId, Predicate<SessionHandOff> transfer) {
+    VendingSession session = sessionRegistry.acquire(sessionId);
+    try {
+      if (!session.isIdle()) {
+        List<Coin> coins = List.copyOf(session.getInsertedCoins());
+        Map<Long, Integer> selection = toQuantities(session.getCart());
+        SessionHandOff handOff = session.getPendingHandOff();
+        if (handOff == null || !handOff.holds(coins, selection)) {
+          handOff = new SessionHandOff(UUID.randomUUID().toString(), coins, selection);
+          session.setPendingHandOff(handOff);
+        }
+        if (!transfer.test(handOff)) {
+          return false;
+        }
+        session.setPendingHandOff(null);
+        releaseReservations(session.getCart());
+        for (VendingEventListener listener : listeners) {
+          listener.onSessionEvicted(session.getId());
+        }
+        session.reset();
+      }
+      coinInventoryService.forget(session.getId());
+      sessionRegistry.discard(session);
+      return true;
+    } finally {
+      unlock(session);
+    }
   }
 
   public BigDecimal getCurrentBalance() {
-    return currentBalance;
+    return getCurrentBalance(SessionRegistry.DEFAULT_SESSION_ID);
+  }
+
+  public BigDecimal getCurrentBalance(String sessionId) {
+    VendingSession session = sessionRegistry.acquire(sessionId);
+    try {
+      return Money.fromCents(session.getBalanceCents());
+    } finally {
+      session.unlock();
+    }
   }
 
   public List<Product> getSelectedProducts() {
-    return new ArrayList<>(selectedProducts); // Return a copy
+    return getSelectedProducts(SessionRegistry.DEFAULT_SESSION_ID);
+  }
+
+  public List<Product> getSelectedProducts(String sessionId) {
+    VendingSession session = sessionRegistry.acquire(sessionId);
+    try {
+      return session.getSelectedProducts(); // Expanded copy of the cart
+    } finally {
+      session.unlock();
+    }
+  }
+
+  public CartState getCartState(String sessionId) {
+    return withCartState(sessionId, (id, state) -> state);
+  }
+
+  /**
+   * Hands the session's ID and cart to {@code whileLocked} without releasing the session lock in between, so
+   * no {@link VendingEventListener} event of that session can fall between the state and what the callback does.
+   */
+  public <T> T withCartState(String sessionId, BiFunction<String, CartState, T> whileLocked) {
+    VendingSession session = sessionRegistry.acquire(sessionId);
+    try {
+      Cart cart = pricedCart(session);
+      return whileLocked.apply(session.getId(), new CartState(session.getBalanceCents(), cart.totalCents(), cart.lines()));
+    } finally {
+      session.unlock();
+    }
+  }
+
+  /**
+   * An order that passed validation and holds its stock reservations and change plan.
+   */
+  private static final class PreparedOrder {
+    private final String machineId;
+    private final Cart cart;
+    private final int[] incoming;
+    private final long changeCents;
+    private int[] change;
+    private int index;
+
+    private PreparedOrder(String machineId, Cart cart, int[] incoming, int[] change, long changeCents) {
+      this.machineId = machineId;
+      this.cart = cart;
+      this.incoming = incoming;
+      this.change = change;
+      this.changeCents = changeCents;
+    }
+
+    private Map<Long, Integer> quantities() {
+      return toQuantities(cart);
+    }
+
+    private DispenseResponse toResponse() {
+      return new DispenseResponse(cart.expand(), toCoinValues(change), "Products dispensed. Thank you!");
+    }
   }
 }
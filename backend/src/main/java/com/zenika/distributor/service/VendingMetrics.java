@@ -0,0 +1,52 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.enums.Coin;
+
+/**
+ * Timings recorded by {@link VendingMachineService} on every call. Implementations are on the request path
+ * and must neither allocate nor block. Coin arrays are counts per denomination indexed by {@link Coin#ordinal()}.
+ */
+public interface VendingMetrics {
+
+  VendingMetrics NONE = new VendingMetrics() {
+  };
+
+  enum Operation {
+    INSERT_COIN("insertCoin"),
+    SELECT_PRODUCT("selectProduct"),
+    DESELECT_PRODUCT("deselectProduct"),
+    DISPENSE("dispense"),
+    CANCEL("cancel"),
+    ORDER("order"),
+    BULK_ORDER("bulkOrder");
+
+    private final String tag;
+
+    Operation(String tag) {
+      this.tag = tag;
+    }
+
+    public String getTag() {
+      return tag;
+    }
+  }
+
+  /**
+   * @param success false if the call ended with an exception.
+   */
+  default void recordOperation(Operation operation, long elapsedNanos, boolean success) {
+  }
+
+  /**
+   * Time spent planning change from a machine's coins, whether or not exact change was found.
+   */
+  default void recordChangePlanned(long elapsedNanos) {
+  }
+
+  /**
+   * A cart was sold, through a dispense or an order.
+   * @param change the coins returned to the customer.
+   */
+  default void recordCheckout(int items, int[] change) {
+  }
+}
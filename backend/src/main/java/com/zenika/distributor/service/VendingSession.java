@@ -0,0 +1,158 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.model.Product;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Transactional state of one vending machine (balance, inserted coins, selection).
+ * All accessors must be called while holding the session lock, see {@link SessionRegistry#acquire(String)}.
+ */
+public class VendingSession {
+
+  private static final int ADOPTED_TRANSFERS_KEPT = 16;
+
+  private final String id;
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private long balanceCents;
+  private final List<Coin> insertedCoins = new ArrayList<>();
+  private final Cart cart = new Cart();
+
+  private volatile long lastAccessNanos = System.nanoTime();
+  private boolean evicted; // guarded by lock
+
+  // Handoff sent to another instance without a successful answer, sent again while the session is unchanged
+  private SessionHandOff pendingHandOff; // guarded by lock
+  // IDs of the last handoffs adopted into this session, so one sent again is applied once
+  private final Set<String> adoptedTransfers = new LinkedHashSet<>();
+
+  // The last product listing version served to the machine, and since when
+  private String listingVersion;
+  private long listingSinceMillis;
+
+  VendingSession(String id) {
+    this.id = id;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public long getBalanceCents() {
+    return balanceCents;
+  }
+
+  public void setBalanceCents(long balanceCents) {
+    this.balanceCents = balanceCents;
+  }
+
+  public List<Coin> getInsertedCoins() {
+    return insertedCoins;
+  }
+
+  /**
+   * The selection as a product ID to quantity multiset with its running total.
+   */
+  public Cart getCart() {
+    return cart;
+  }
+
+  /**
+   * @return one element per selected unit.
+   */
+  public List<Product> getSelectedProducts() {
+    return cart.expand();
+  }
+
+  public long getSelectedCostCents() {
+    return cart.totalCents();
+  }
+
+  /**
+   * Balance left once the selected products are paid for.
+   */
+  public long getSpendableCents() {
+    return balanceCents - cart.totalCents();
+  }
+
+  public void reset() {
+    balanceCents = 0L;
+    insertedCoins.clear();
+    cart.clear();
+  }
+
+  public boolean isIdle() {
+    return insertedCoins.isEmpty() && cart.isEmpty();
+  }
+
+  SessionHandOff getPendingHandOff() {
+    return pendingHandOff;
+  }
+
+  void setPendingHandOff(SessionHandOff pendingHandOff) {
+    this.pendingHandOff = pendingHandOff;
+  }
+
+  /**
+   * Records a handoff adopted into this session.
+   * @return false if it was already adopted.
+   */
+  boolean markAdopted(String transferId) {
+    if (!adoptedTransfers.add(transferId)) {
+      return false;
+    }
+    if (adoptedTransfers.size() > ADOPTED_TRANSFERS_KEPT) {
+      Iterator<String> oldest = adoptedTransfers.iterator();
+      oldest.next();
+      oldest.remove();
+    }
+    return true;
+  }
+
+  /**
+   * @return when {@code version} was first served to this machine: {@code nowMillis} if it differs from the last
+   * one served.
+   */
+  long listedSince(String version, long nowMillis) {
+    if (!version.equals(listingVersion)) {
+      listingVersion = version;
+      listingSinceMillis = nowMillis;
+    }
+    return listingSinceMillis;
+  }
+
+  long getLastAccessNanos() {
+    return lastAccessNanos;
+  }
+
+  void touch() {
+    lastAccessNanos = System.nanoTime();
+  }
+
+  void lock() {
+    lock.lock();
+  }
+
+  boolean tryLock() {
+    return lock.tryLock();
+  }
+
+  public void unlock() {
+    lock.unlock();
+  }
+
+  boolean isEvicted() {
+    return evicted;
+  }
+
+  void markEvicted() {
+    evicted = true;
+  }
+}
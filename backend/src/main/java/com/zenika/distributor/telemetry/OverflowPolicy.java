@@ -0,0 +1,11 @@
+package com.zenika.distributor.telemetry;
+
+/**
+ * What {@link TelemetryPipeline} does with readings arriving while its ring is full.
+ */
+public enum OverflowPolicy {
+  /** Readings that do not fit are counted and dropped; the machine's next report supersedes them anyway. */
+  DROP,
+  /** The rest of the request is refused with 503 and {@code Retry-After}, so the machine resends it later. */
+  REJECT
+}
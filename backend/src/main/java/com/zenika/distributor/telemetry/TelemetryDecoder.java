@@ -0,0 +1,164 @@
+package com.zenika.distributor.telemetry;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zenika.distributor.dto.TelemetryIngestResponse;
+import com.zenika.distributor.exception.MalformedTelemetryException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads telemetry uploads as they arrive and offers each reading to the {@link TelemetryPipeline}. All the
+ * readings of a request are decoded into the same {@link TelemetryReading}, the machine ID being the only
+ * object created per reading.
+ * <p>
+ * NDJSON has one object per line, e.g.
+ * {@code {"machineId": "kiosk-1", "timestamp": 1760695200000, "temperature": 4.5, "coinBoxLevel": 63, "errorCode": 0}};
+ * other properties are ignored and a missing timestamp means now. The binary format is a sequence of frames,
+ * big-endian: machine ID length (1 byte) and UTF-8 bytes, timestamp in epoch millis (8 bytes), temperature in
+ * tenths of a degree (2 bytes, signed), coin box level in percent (1 byte), error code (4 bytes).
+ */
+@Component
+public class TelemetryDecoder {
+
+  static final int MAX_MACHINE_ID_LENGTH = 255;
+
+  private final TelemetryPipeline pipeline;
+  private final JsonFactory jsonFactory;
+
+  @Autowired
+  public TelemetryDecoder(TelemetryPipeline pipeline, ObjectMapper objectMapper) {
+    this.pipeline = pipeline;
+    this.jsonFactory = objectMapper.getFactory();
+  }
+
+  public TelemetryIngestResponse readNdjson(InputStream input) throws IOException {
+    Upload upload = new Upload();
+    try (JsonParser parser = jsonFactory.createParser(input)) {
+      JsonToken token;
+      while (!upload.refused && (token = parser.nextToken()) != null) {
+        if (token != JsonToken.START_OBJECT) {
+          parser.skipChildren();
+          upload.reject();
+          continue;
+        }
+        String machineId = null;
+        long timestamp = -1;
+        int temperature = 0;
+        int level = -1;
+        int errorCode = 0;
+        boolean valid = true;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String field = parser.currentName();
+          JsonToken value = parser.nextToken();
+          if (value.isStructStart()) {
+            parser.skipChildren();
+            continue;
+          }
+          switch (field) {
+            case "machineId" -> machineId = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+            case "timestamp" -> {
+              valid &= value == JsonToken.VALUE_NUMBER_INT;
+              timestamp = valid ? parser.getLongValue() : -1;
+            }
+            case "temperature" -> {
+              valid &= value.isNumeric();
+              temperature = valid ? (int) Math.round(parser.getDoubleValue() * 10) : 0;
+            }
+            case "coinBoxLevel" -> {
+              valid &= value == JsonToken.VALUE_NUMBER_INT;
+              level = valid ? parser.getIntValue() : -1;
+            }
+            case "errorCode" -> {
+              valid &= value == JsonToken.VALUE_NUMBER_INT;
+              errorCode = valid ? parser.getIntValue() : 0;
+            }
+            default -> { }
+          }
+        }
+        if (valid) {
+          upload.add(machineId, timestamp, temperature, level, errorCode);
+        } else {
+          upload.reject();
+        }
+      }
+    } catch (JsonProcessingException e) {
+      throw new MalformedTelemetryException("Line " + e.getLocation().getLineNr() + ": " + e.getOriginalMessage()
+        + " (" + upload.accepted + " readings before it accepted)", e);
+    }
+    return upload.finish();
+  }
+
+  public TelemetryIngestResponse readBinary(InputStream input) throws IOException {
+    Upload upload = new Upload();
+    DataInputStream in = new DataInputStream(new BufferedInputStream(input, 65536));
+    byte[] id = new byte[MAX_MACHINE_ID_LENGTH];
+    long frame = 0;
+    int length;
+    while (!upload.refused && (length = in.read()) >= 0) {
+      frame++;
+      try {
+        in.readFully(id, 0, length);
+        long timestamp = in.readLong();
+        int temperature = in.readShort();
+        int level = in.readUnsignedByte();
+        int errorCode = in.readInt();
+        upload.add(length == 0 ? null : new String(id, 0, length, StandardCharsets.UTF_8), timestamp, temperature,
+          level, errorCode);
+      } catch (EOFException e) {
+        throw new MalformedTelemetryException("Frame " + frame + " is truncated (" + upload.accepted
+          + " readings before it accepted)", e);
+      }
+    }
+    return upload.finish();
+  }
+
+  /**
+   * The reading being decoded and the counts of the request so far.
+   */
+  private final class Upload {
+
+    private final TelemetryReading reading = new TelemetryReading();
+    private long accepted;
+    private long rejected;
+    private long dropped;
+    private boolean refused;
+
+    void add(String machineId, long timestamp, int temperatureTenths, int coinBoxLevel, int errorCode) {
+      if (machineId == null || machineId.isBlank() || machineId.length() > MAX_MACHINE_ID_LENGTH
+        || coinBoxLevel < 0 || coinBoxLevel > 100) {
+        reject();
+        return;
+      }
+      reading.set(machineId, timestamp >= 0 ? timestamp : System.currentTimeMillis(), temperatureTenths,
+        coinBoxLevel, errorCode);
+      if (pipeline.offer(reading)) {
+        accepted++;
+      } else if (pipeline.getOverflowPolicy() == OverflowPolicy.DROP) {
+        dropped++;
+      } else {
+        refused = true;
+        pipeline.refuse();
+      }
+    }
+
+    void reject() {
+      rejected++;
+      pipeline.reject();
+    }
+
+    TelemetryIngestResponse finish() {
+      return new TelemetryIngestResponse(accepted, rejected, dropped, refused);
+    }
+  }
+}
@@ -0,0 +1,263 @@
+package com.zenika.distributor.telemetry;
+
+import com.zenika.distributor.repository.BatchWriteRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Carries machine telemetry from the request threads to the database. Readings are offered to a
+ * {@link TelemetryRing} of {@code ring-size} slots and a single writer thread drains it, keeping the latest
+ * reading per machine, and writes them as one JDBC batch every {@code flush-interval} or {@code batch-size}
+ * machines. Memory is bounded by the ring and the batch; what does not fit is handled per
+ * {@link OverflowPolicy} and counted.
+ * <p>
+ * A batch the database refuses is logged and counted as failed, not retried: the machines report again within
+ * seconds.
+ */
+@Component
+public class TelemetryPipeline implements MeterBinder {
+
+  private static final Logger log = LoggerFactory.getLogger(TelemetryPipeline.class);
+
+  /**
+   * Writes the latest reading of each machine of a batch.
+   */
+  @FunctionalInterface
+  public interface Store {
+    void upsert(List<TelemetryReading> readings);
+  }
+
+  private final TelemetryRing ring;
+  private final Store store;
+  private final OverflowPolicy overflowPolicy;
+  private final int batchSize;
+  private final long flushIntervalNanos;
+
+  // Writer thread only
+  private final Map<String, TelemetryReading> latest = new HashMap<>();
+  private final List<TelemetryReading> batch = new ArrayList<>();
+  private final ArrayDeque<TelemetryReading> pool = new ArrayDeque<>();
+  private final Consumer<TelemetryReading> stage = this::stage;
+
+  private final LongAdder accepted = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder refusedRequests = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder written = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder batches = new LongAdder();
+
+  private final Thread writer;
+  private volatile boolean closed;
+
+  @Autowired
+  public TelemetryPipeline(BatchWriteRepository batchWriteRepository,
+                           @Value("${distributor.telemetry.ring-size:65536}") int ringSize,
+                           @Value("${distributor.telemetry.batch-size:1000}") int batchSize,
+                           @Value("${distributor.telemetry.flush-interval:200ms}") Duration flushInterval,
+                           @Value("${distributor.telemetry.overflow:drop}") OverflowPolicy overflowPolicy) {
+    this(batchWriteRepository::upsertTelemetry, ringSize, batchSize, flushInterval, overflowPolicy);
+  }
+
+  public TelemetryPipeline(Store store, int ringSize, int batchSize, Duration flushInterval,
+                           OverflowPolicy overflowPolicy) {
+    this.ring = new TelemetryRing(ringSize);
+    this.store = store;
+    this.overflowPolicy = overflowPolicy;
+    this.batchSize = batchSize;
+    this.flushIntervalNanos = flushInterval.toNanos();
+    this.writer = new Thread(this::writeLoop, "telemetry-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /**
+   * Queues a copy of {@code reading}; the caller may reuse it at once.
+   * @return false if the ring is full, the reading is then counted as dropped with {@link OverflowPolicy#DROP}.
+   */
+  public boolean offer(TelemetryReading reading) {
+    if (ring.offer(reading)) {
+      accepted.increment();
+      return true;
+    }
+    if (overflowPolicy == OverflowPolicy.DROP) {
+      dropped.increment();
+    }
+    return false;
+  }
+
+  /**
+   * Counts a reading refused before being offered, such as one without a machine ID.
+   */
+  public void reject() {
+    rejected.increment();
+  }
+
+  /**
+   * Counts a request cut short because the ring was full, with {@link OverflowPolicy#REJECT}.
+   */
+  public void refuse() {
+    refusedRequests.increment();
+  }
+
+  private void writeLoop() {
+    long deadline = System.nanoTime() + flushIntervalNanos;
+    while (true) {
+      boolean stopping = closed;
+      int drained = ring.drain(stage, batchSize);
+      long now = System.nanoTime();
+      if (batch.size() >= batchSize || (!batch.isEmpty() && (now - deadline >= 0 || stopping))) {
+        flush();
+        deadline = System.nanoTime() + flushIntervalNanos;
+      } else if (batch.isEmpty()) {
+        deadline = now + flushIntervalNanos;
+      }
+      if (stopping) {
+        return;
+      }
+      if (ring.size() == 0) {
+        LockSupport.parkNanos(Math.max(deadline - System.nanoTime(), 1_000_000));
+      } else if (drained == 0) {
+        Thread.onSpinWait(); // A producer claimed the next slot but has not filled it yet
+      }
+    }
+  }
+
+  private void stage(TelemetryReading reading) {
+    TelemetryReading staged = latest.get(reading.getMachineId());
+    if (staged != null) {
+      coalesced.increment();
+      if (reading.getReportedAt() >= staged.getReportedAt()) {
+        staged.copyFrom(reading);
+      }
+      return;
+    }
+    staged = pool.isEmpty() ? new TelemetryReading() : pool.poll();
+    staged.copyFrom(reading);
+    latest.put(staged.getMachineId(), staged);
+    batch.add(staged);
+  }
+
+  private void flush() {
+    try {
+      store.upsert(batch);
+      written.add(batch.size());
+      batches.increment();
+    } catch (RuntimeException e) {
+      failed.add(batch.size());
+      log.warn("Could not write {} telemetry readings", batch.size(), e);
+    }
+    for (TelemetryReading reading : batch) {
+      reading.set(null, 0, 0, 0, 0);
+      if (pool.size() < batchSize) {
+        pool.add(reading);
+      }
+    }
+    batch.clear();
+    latest.clear();
+  }
+
+  /**
+   * Writes what is queued and stops the writer; readings offered afterwards are not written.
+   */
+  @PreDestroy
+  public void close() {
+    closed = true;
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    counter(registry, "accepted", accepted);
+    counter(registry, "dropped", dropped);
+    counter(registry, "rejected", rejected);
+    counter(registry, "coalesced", coalesced);
+    counter(registry, "written", written);
+    counter(registry, "failed", failed);
+    FunctionCounter.builder("distributor.telemetry.refused.requests", refusedRequests, LongAdder::sum)
+      .description("Telemetry requests cut short by a full queue")
+      .register(registry);
+    FunctionCounter.builder("distributor.telemetry.batches", batches, LongAdder::sum)
+      .register(registry);
+    Gauge.builder("distributor.telemetry.queued", ring, TelemetryRing::size)
+      .description("Readings waiting for the writer")
+      .strongReference(true)
+      .register(registry);
+  }
+
+  private static void counter(MeterRegistry registry, String result, LongAdder adder) {
+    FunctionCounter.builder("distributor.telemetry.readings", adder, (ToDoubleFunction<LongAdder>) LongAdder::sum)
+      .description("Machine readings by outcome")
+      .tag("result", result)
+      .register(registry);
+  }
+
+  public long getAccepted() {
+    return accepted.sum();
+  }
+
+  public long getDropped() {
+    return dropped.sum();
+  }
+
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  public long getRefusedRequests() {
+    return refusedRequests.sum();
+  }
+
+  public long getCoalesced() {
+    return coalesced.sum();
+  }
+
+  public long getWritten() {
+    return written.sum();
+  }
+
+  public long getFailed() {
+    return failed.sum();
+  }
+
+  public long getBatches() {
+    return batches.sum();
+  }
+
+  public int getQueued() {
+    return ring.size();
+  }
+
+  public int getCapacity() {
+    return ring.capacity();
+  }
+}
@@ -0,0 +1,49 @@
+package com.zenika.distributor.telemetry;
+
+/**
+ * One report sent by a machine: it is alive, how full its coin box is, how cold it is and the error it shows.
+ * Instances are mutable and reused: a decoder fills the same one for every reading of a request, and the
+ * {@link TelemetryRing} and the writer copy it into instances of their own.
+ */
+public final class TelemetryReading {
+
+  private String machineId;
+  private long reportedAt; // epoch millis, as sent by the machine
+  private int temperatureTenths; // tenths of a degree Celsius
+  private int coinBoxLevel; // percent
+  private int errorCode; // 0 when the machine reports no error
+
+  public String getMachineId() {
+    return machineId;
+  }
+
+  public long getReportedAt() {
+    return reportedAt;
+  }
+
+  public int getTemperatureTenths() {
+    return temperatureTenths;
+  }
+
+  public int getCoinBoxLevel() {
+    return coinBoxLevel;
+  }
+
+  public int getErrorCode() {
+    return errorCode;
+  }
+
+  public TelemetryReading set(String machineId, long reportedAt, int temperatureTenths, int coinBoxLevel,
+                              int errorCode) {
+    this.machineId = machineId;
+    this.reportedAt = reportedAt;
+    this.temperatureTenths = temperatureTenths;
+    this.coinBoxLevel = coinBoxLevel;
+    this.errorCode = errorCode;
+    return this;
+  }
+
+  void copyFrom(TelemetryReading other) {
+    set(other.machineId, other.reportedAt, other.temperatureTenths, other.coinBoxLevel, other.errorCode);
+  }
+}
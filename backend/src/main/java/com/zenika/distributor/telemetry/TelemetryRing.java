@@ -0,0 +1,76 @@
+package com.zenika.distributor.telemetry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded multi-producer, single-consumer queue of {@link TelemetryReading}s. Slots are allocated once:
+ * a producer claims a sequence number with a compare-and-set, copies its reading into the slot and publishes
+ * the sequence; the consumer reads slots in sequence order, as long as they are published. Offering to a full
+ * ring fails at once rather than blocking.
+ */
+final class TelemetryRing {
+
+  private final TelemetryReading[] slots;
+  private final AtomicLongArray published; // per slot, the sequence last written there, plus one
+  private final int mask;
+  private final AtomicLong claimed = new AtomicLong(); // next sequence for producers
+  private volatile long consumed; // next sequence for the consumer, written by the consumer only
+
+  /**
+   * @param capacity rounded up to a power of two.
+   */
+  TelemetryRing(int capacity) {
+    int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+    slots = new TelemetryReading[size];
+    for (int i = 0; i < size; i++) {
+      slots[i] = new TelemetryReading();
+    }
+    published = new AtomicLongArray(size);
+    mask = size - 1;
+  }
+
+  boolean offer(TelemetryReading reading) {
+    long sequence;
+    do {
+      sequence = claimed.get();
+      if (sequence - consumed >= slots.length) {
+        return false;
+      }
+    } while (!claimed.compareAndSet(sequence, sequence + 1));
+    int index = (int) sequence & mask;
+    slots[index].copyFrom(reading);
+    published.lazySet(index, sequence + 1);
+    return true;
+  }
+
+  /**
+   * Hands up to {@code max} published readings to {@code consumer}, which must copy what it keeps: the slots
+   * are reused once it returns. Consumer thread only.
+   * @return the number of readings handed over.
+   */
+  int drain(Consumer<TelemetryReading> consumer, int max) {
+    long sequence = consumed;
+    int drained = 0;
+    while (drained < max) {
+      int index = (int) sequence & mask;
+      if (published.get(index) != sequence + 1) {
+        break;
+      }
+      consumer.accept(slots[index]);
+      sequence++;
+      drained++;
+    }
+    consumed = sequence;
+    return drained;
+  }
+
+  int size() {
+    return (int) Math.max(0, claimed.get() - consumed);
+  }
+
+  int capacity() {
+    return slots.length;
+  }
+}
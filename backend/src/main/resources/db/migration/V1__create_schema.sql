@@ -0,0 +1,17 @@
+-- Schema as generated by Hibernate from Product and CoinInventory. Databases created by ddl-auto=update
+-- are baselined before this version (spring.flyway.baseline-on-migrate) and only get the missing tables.
+
+CREATE TABLE IF NOT EXISTS product (
+  price NUMERIC(12, 2) NOT NULL,
+  stock INTEGER DEFAULT 0 NOT NULL CHECK (stock >= 0),
+  id BIGINT GENERATED BY DEFAULT AS IDENTITY,
+  name VARCHAR(255) NOT NULL,
+  PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS coin_inventory (
+  quantity INTEGER NOT NULL,
+  machine_id VARCHAR(255) NOT NULL,
+  coin ENUM ('FIVE_MAD', 'HALF_MAD', 'ONE_MAD', 'TEN_MAD', 'TWO_MAD') NOT NULL,
+  PRIMARY KEY (machine_id, coin)
+);
@@ -0,0 +1,14 @@
+-- Promotions, see PriceRule.
+
+CREATE TABLE IF NOT EXISTS price_rule (
+  amount NUMERIC(12, 2),
+  end_time TIME(6),
+  quantity INTEGER,
+  start_time TIME(6),
+  id BIGINT GENERATED BY DEFAULT AS IDENTITY,
+  product_ids VARCHAR(1000) NOT NULL,
+  machine_id VARCHAR(255),
+  name VARCHAR(255) NOT NULL,
+  type ENUM ('BUY_N_GET_ONE', 'COMBO', 'UNIT_PRICE') NOT NULL,
+  PRIMARY KEY (id)
+);
@@ -0,0 +1,10 @@
+-- Last report of each machine, see MachineTelemetry.
+
+CREATE TABLE IF NOT EXISTS machine_telemetry (
+  coin_box_level INTEGER NOT NULL,
+  error_code INTEGER NOT NULL,
+  temperature_tenths INTEGER NOT NULL,
+  reported_at BIGINT NOT NULL,
+  machine_id VARCHAR(255) NOT NULL,
+  PRIMARY KEY (machine_id)
+);
@@ -0,0 +1,3 @@
+-- Databases created by ddl-auto=update before products had a stock: V1 keeps their product table as it is.
+
+ALTER TABLE product ADD COLUMN IF NOT EXISTS stock INTEGER DEFAULT 0 NOT NULL CHECK (stock >= 0);
@@ -0,0 +1,110 @@
+package com.zenika.distributor.analytics;
+
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.service.Cart;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SalesAnalyticsTest {
+
+  private final Product soda = new Product(1L, "Soda", new BigDecimal("3.50"), 100);
+  private final Product chips = new Product(2L, "Chips", new BigDecimal("4.00"), 100);
+  private final Product water = new Product(3L, "Water", new BigDecimal("1.50"), 100);
+
+  private Instant now = Instant.parse("2026-10-17T10:00:00Z");
+
+  private final Clock clock = new Clock() {
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  };
+
+  private static Cart cart(Product product, int quantity) {
+    Cart cart = new Cart();
+    cart.add(product, quantity);
+    return cart;
+  }
+
+  private static void sell(SalesAnalytics analytics, String machineId, Cart cart) {
+    analytics.onDispensed(machineId, cart.lines(), new int[0], cart.totalCents());
+  }
+
+  @Test
+  void figures_shouldOnlyCountSalesInsideTheWindow() {
+    SalesAnalytics analytics = new SalesAnalytics(8, clock);
+    sell(analytics, "kiosk-1", cart(soda, 2));
+    now = now.plus(Duration.ofSeconds(30));
+    sell(analytics, "kiosk-1", cart(chips, 1));
+
+    assertEquals(3, analytics.getNodeFigures(SalesWindow.MINUTE).getUnits());
+    assertEquals(1100, analytics.getNodeFigures(SalesWindow.MINUTE).getRevenueCents());
+
+    now = now.plus(Duration.ofSeconds(45)); // The soda sale is 75 s old
+    assertEquals(1, analytics.getNodeFigures(SalesWindow.MINUTE).getUnits());
+    assertEquals(3, analytics.getNodeFigures(SalesWindow.HOUR).getUnits());
+
+    now = now.plus(Duration.ofHours(2));
+    assertEquals(0, analytics.getNodeFigures(SalesWindow.HOUR).getUnits());
+    assertEquals(3, analytics.getNodeFigures(SalesWindow.DAY).getUnits());
+
+    now = now.plus(Duration.ofDays(2));
+    assertEquals(0, analytics.getNodeFigures(SalesWindow.DAY).getUnits());
+    assertEquals(1100, analytics.getNodeFigures(SalesWindow.TOTAL).getRevenueCents());
+  }
+
+  @Test
+  void machineFigures_shouldBeKeptPerMachine() {
+    SalesAnalytics analytics = new SalesAnalytics(8, clock);
+    sell(analytics, "kiosk-1", cart(soda, 1));
+    sell(analytics, "default", cart(water, 3));
+    analytics.onOrderPlaced("kiosk-1", new int[0], cart(chips, 2).lines(), new int[0], 750);
+
+    assertEquals(3, analytics.getMachineFigures("kiosk-1", SalesWindow.HOUR).getUnits());
+    assertEquals(1100, analytics.getMachineFigures("kiosk-1", SalesWindow.HOUR).getRevenueCents());
+    assertEquals(3, analytics.getMachineFigures(null, SalesWindow.HOUR).getUnits()); // The default machine
+    assertEquals(0, analytics.getMachineFigures("kiosk-9", SalesWindow.HOUR).getUnits());
+    assertEquals(6, analytics.getNodeFigures(SalesWindow.TOTAL).getUnits());
+  }
+
+  @Test
+  void bestSellers_shouldRankTheHeaviestProductsWithinTheSketchCapacity() {
+    SalesAnalytics analytics = new SalesAnalytics(2, clock);
+    sell(analytics, "kiosk-1", cart(soda, 5));
+    sell(analytics, "kiosk-1", cart(chips, 9));
+    sell(analytics, "kiosk-2", cart(water, 1)); // Takes over the soda slot, the smallest count
+    sell(analytics, "kiosk-2", cart(soda, 7)); // Takes it back
+
+    List<BestSeller> bestSellers = analytics.getBestSellers(SalesWindow.HOUR, 10);
+
+    assertEquals(2, bestSellers.size());
+    assertEquals("Soda", bestSellers.get(0).getName());
+    assertEquals(12, bestSellers.get(0).getUnits()); // Exact units, not the sketch estimate
+    assertEquals(4200, bestSellers.get(0).getRevenueCents());
+    assertEquals(2L, bestSellers.get(1).getProductId());
+    assertEquals(1, analytics.getBestSellers(SalesWindow.HOUR, 1).size());
+
+    now = now.plus(Duration.ofHours(2));
+    assertTrue(analytics.getBestSellers(SalesWindow.HOUR, 10).isEmpty());
+    assertEquals(2, analytics.getBestSellers(SalesWindow.DAY, 10).size());
+  }
+}
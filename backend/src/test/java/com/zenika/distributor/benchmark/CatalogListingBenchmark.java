@@ -0,0 +1,74 @@
+package com.zenika.distributor.benchmark;
+
+import com.zenika.distributor.dto.ProductDTO;
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.service.ListingVersion;
+import com.zenika.distributor.service.ProductPage;
+import com.zenika.distributor.service.ServiceFixture;
+import com.zenika.distributor.service.VendingMachineService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Product listing for a session with 5.00 to spend, from a small kiosk catalog up to a very large one: in full,
+ * one page of 100, and the version an unchanged poll is answered with.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogListingBenchmark {
+
+  private static final String MACHINE = "bench";
+
+  @Param({"10", "1000", "100000"})
+  public int catalogSize;
+
+  private VendingMachineService service;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    service = ServiceFixture.inMemory(ServiceFixture.catalog(catalogSize)).service();
+    service.insertCoin(MACHINE, Coin.FIVE_MAD.getValue());
+  }
+
+  @Benchmark
+  public List<ProductDTO> listAvailableProducts() {
+    return service.listAvailableProducts(MACHINE);
+  }
+
+  @Benchmark
+  public ProductPage listPage() {
+    return service.listAvailableProducts(MACHINE, catalogSize / 2, 100);
+  }
+
+  @Benchmark
+  public ListingVersion listingVersion() {
+    return service.listingVersion(MACHINE);
+  }
+
+  @Benchmark
+  public List<ProductDTO> listAffordableProducts() {
+    return service.listAffordableProducts(MACHINE);
+  }
+
+  @Benchmark
+  public int countAffordableProducts() {
+    return service.countAffordableProducts(MACHINE);
+  }
+}
@@ -0,0 +1,62 @@
+package com.zenika.distributor.benchmark;
+
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.service.CoinInventoryService;
+import com.zenika.distributor.service.ServiceFixture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Change planning against a machine holding 10 coins of each denomination. {@code memoized} reuses the
+ * table of an unchanged inventory; {@code afterInventoryChange} pays for a rebuild on every call, as the
+ * first sale after a coin was inserted does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChangePlanningBenchmark {
+
+  private static final String MACHINE = "bench";
+
+  @Param({"50", "1850", "9950", "18000"})
+  public long amountCents;
+
+  private CoinInventoryService coinInventoryService;
+  private int toggle;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    coinInventoryService = ServiceFixture.inMemory(List.of()).coinInventoryService;
+    for (Coin coin : Coin.values()) {
+      coinInventoryService.setQuantity(MACHINE, coin, 10);
+    }
+  }
+
+  @Benchmark
+  public int[] memoized() {
+    return coinInventoryService.planChange(MACHINE, amountCents);
+  }
+
+  @Benchmark
+  public int[] afterInventoryChange() {
+    toggle ^= 1;
+    coinInventoryService.setQuantity(MACHINE, Coin.TEN_MAD, 10 + toggle);
+    return coinInventoryService.planChange(MACHINE, amountCents);
+  }
+}
@@ -0,0 +1,80 @@
+package com.zenika.distributor.benchmark;
+
+import com.zenika.distributor.enums.Coin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Coin validation and change-making: the former stream/sort implementation (reproduced here as a baseline)
+ * against the precomputed lookup tables in {@link Coin}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoinLookupBenchmark {
+
+  private final BigDecimal inserted = new BigDecimal("2.00");
+  private final long changeCents = 1_850L;
+
+  @Benchmark
+  public Coin streamLookup() {
+    if (!Arrays.stream(Coin.values()).anyMatch(coin -> coin.getValue().compareTo(inserted) == 0)) {
+      return null;
+    }
+    Optional<Coin> coin = Arrays.stream(Coin.values())
+      .filter(c -> c.getValue().compareTo(inserted) == 0)
+      .findFirst();
+    return coin.orElse(null);
+  }
+
+  @Benchmark
+  public Coin tableLookup() {
+    return Coin.lookup(inserted);
+  }
+
+  @Benchmark
+  public void sortedChange(Blackhole bh) {
+    List<Coin> sorted = Arrays.stream(Coin.values())
+      .sorted(Comparator.comparing(Coin::getValue).reversed())
+      .collect(Collectors.toList());
+    long remaining = changeCents;
+    for (Coin coin : sorted) {
+      while (remaining >= coin.getCents()) {
+        bh.consume(coin);
+        remaining -= coin.getCents();
+      }
+    }
+  }
+
+  @Benchmark
+  public void cachedChange(Blackhole bh) {
+    List<Coin> sorted = Coin.getSortedCoinsDesc();
+    long remaining = changeCents;
+    for (int i = 0; i < sorted.size(); i++) {
+      Coin coin = sorted.get(i);
+      while (remaining >= coin.getCents()) {
+        bh.consume(coin);
+        remaining -= coin.getCents();
+      }
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package com.zenika.distributor.benchmark;
+
+import com.zenika.distributor.dto.DispenseResponse;
+import com.zenika.distributor.dto.OrderItem;
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.service.CoinInventoryService;
+import com.zenika.distributor.service.ServiceFixture;
+import com.zenika.distributor.service.VendingMachineService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full purchase with change: 10.00 inserted for 7.50 of products, 2.50 paid back.
+ * {@code chainedCalls} goes through insertCoin/selectProduct/dispenseProducts like the per-action endpoints,
+ * {@code placeOrder} does the same basket in one call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispenseBenchmark {
+
+  private static final String MACHINE = "bench";
+
+  private VendingMachineService service;
+  private CoinInventoryService coinInventoryService;
+  private Long sodaId;
+  private Long chipsId;
+  private final BigDecimal ten = Coin.TEN_MAD.getValue();
+  private List<BigDecimal> orderCoins;
+  private List<OrderItem> orderItems;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Product soda = new Product(1L, "Soda", new BigDecimal("3.50"), Integer.MAX_VALUE / 2);
+    Product chips = new Product(2L, "Chips", new BigDecimal("4.00"), Integer.MAX_VALUE / 2);
+    ServiceFixture fixture = ServiceFixture.inMemory(List.of(soda, chips));
+    service = fixture.service();
+    coinInventoryService = fixture.coinInventoryService;
+    sodaId = soda.getId();
+    chipsId = chips.getId();
+    orderCoins = List.of(ten);
+    orderItems = List.of(new OrderItem(sodaId, 1), new OrderItem(chipsId, 1));
+  }
+
+  /**
+   * Each sale pays change out of the float, so refill it before every iteration.
+   */
+  @Setup(Level.Iteration)
+  public void refillFloat() {
+    for (Coin coin : Coin.values()) {
+      coinInventoryService.setQuantity(MACHINE, coin, 50_000_000);
+    }
+  }
+
+  @Benchmark
+  public DispenseResponse chainedCalls() {
+    service.insertCoin(MACHINE, ten);
+    service.selectProduct(MACHINE, sodaId);
+    service.selectProduct(MACHINE, chipsId);
+    return service.dispenseProducts(MACHINE);
+  }
+
+  @Benchmark
+  public DispenseResponse placeOrder() {
+    return service.placeOrder(MACHINE, orderCoins, orderItems);
+  }
+}
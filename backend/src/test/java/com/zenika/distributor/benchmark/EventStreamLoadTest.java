@@ -0,0 +1,278 @@
+package com.zenika.distributor.benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connections-per-node test for {@code /api/distributor/events} against a running backend. Each level opens
+ * that many event streams, one machine each, then a few driver threads insert coins into those machines and
+ * cancel every fifth session. Reported per level: streams that received their initial state, time to that
+ * state, delay between a coin request being sent and its {@code balance} event arriving, events per second,
+ * and the requests the same screens would have made polling {@code /state} and {@code /products}.
+ * <p>
+ * Start the backend first (servlet or {@code reactive} profile), then:
+ * <pre>
+ *   ./mvnw -Ploadtest test-compile exec:exec -Dloadtest.main=com.zenika.distributor.benchmark.EventStreamLoadTest \
+ *     -Dloadtest.args="--url http://localhost:8080 --connections 1000,5000,10000"
+ * </pre>
+ */
+public final class EventStreamLoadTest {
+
+  private static final String API = "/api/distributor";
+
+  private final HttpClient client;
+  private final String baseUrl;
+  private final Duration duration;
+  private final int drivers;
+  private final Duration thinkTime;
+  private final Duration pollInterval;
+
+  private EventStreamLoadTest(String baseUrl, Duration duration, int drivers, Duration thinkTime, Duration pollInterval) {
+    this.baseUrl = baseUrl;
+    this.duration = duration;
+    this.drivers = drivers;
+    this.thinkTime = thinkTime;
+    this.pollInterval = pollInterval;
+    this.client = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .connectTimeout(Duration.ofSeconds(10))
+      .build();
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = parse(args);
+    String url = options.getOrDefault("url", "http://localhost:8080");
+    int[] levels = Arrays.stream(options.getOrDefault("connections", "1000,5000,10000").split(","))
+      .mapToInt(level -> Integer.parseInt(level.trim())).toArray();
+    Duration duration = Duration.parse("PT" + options.getOrDefault("duration", "20s").toUpperCase(Locale.ROOT));
+    int drivers = Integer.parseInt(options.getOrDefault("drivers", "8"));
+    Duration thinkTime = Duration.ofMillis(Long.parseLong(options.getOrDefault("think-ms", "5")));
+    Duration pollInterval = Duration.ofMillis(Long.parseLong(options.getOrDefault("poll-ms", "1000")));
+
+    EventStreamLoadTest test = new EventStreamLoadTest(url, duration, drivers, thinkTime, pollInterval);
+    System.out.printf("Event stream test against %s, %s per level, %d drivers%n", url, duration, drivers);
+    System.out.printf("%8s %8s %10s %10s %10s %10s %9s %12s %12s%n", "streams", "open", "conn p50", "conn p99",
+      "event p50", "event p99", "events/s", "stream reqs", "polling reqs");
+    for (int level : levels) {
+      Result result = test.run(level);
+      System.out.printf("%8d %8d %9.1fms %9.1fms %9.1fms %9.1fms %9.0f %12d %12d%n",
+        level, result.open, percentileMillis(result.connect, 0.50), percentileMillis(result.connect, 0.99),
+        percentileMillis(result.delivery, 0.50), percentileMillis(result.delivery, 0.99), result.eventsPerSecond(),
+        result.streamRequests, result.pollingRequests);
+    }
+  }
+
+  private Result run(int streams) throws InterruptedException {
+    String prefix = "sse-" + streams + "-" + System.currentTimeMillis() + "-";
+    AtomicLongArray coinSentAt = new AtomicLongArray(streams);
+    Queue<Long> connect = new ConcurrentLinkedQueue<>();
+    Queue<Long> delivery = new ConcurrentLinkedQueue<>();
+    LongAdder events = new LongAdder();
+    CountDownLatch opened = new CountDownLatch(streams);
+    List<Stream> open = new ArrayList<>(streams);
+
+    for (int i = 0; i < streams; i++) {
+      Stream stream = new Stream(i, System.nanoTime(), coinSentAt, connect, delivery, events, opened);
+      HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + API + "/events?machineId=" + prefix + i))
+        .header("Accept", "text/event-stream")
+        .GET().build();
+      client.sendAsync(request, HttpResponse.BodyHandlers.fromLineSubscriber(stream))
+        .whenComplete((response, error) -> opened.countDown()); // Ended or refused before the state arrived
+      open.add(stream);
+    }
+    opened.await(30, TimeUnit.SECONDS);
+    int connected = connect.size();
+
+    long deadline = System.nanoTime() + duration.toNanos();
+    long start = System.nanoTime();
+    LongAdder driverRequests = new LongAdder();
+    long eventsBefore = events.sum();
+    CountDownLatch done = new CountDownLatch(drivers);
+    for (int d = 0; d < drivers; d++) {
+      int driver = d;
+      Thread thread = new Thread(() -> {
+        try {
+          for (int n = driver, round = 0; System.nanoTime() < deadline; n += drivers) {
+            if (n >= streams) {
+              n = driver;
+              round++;
+            }
+            coinSentAt.set(n, System.nanoTime());
+            send(post("/coin", prefix + n, "{\"value\": 1.00}"));
+            driverRequests.increment();
+            if (round % 5 == 4) {
+              send(post("/cancel", prefix + n, ""));
+              driverRequests.increment();
+            }
+            if (!thinkTime.isZero()) {
+              Thread.sleep(thinkTime.toMillis());
+            }
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          done.countDown();
+        }
+      }, "driver-" + d);
+      thread.setDaemon(true);
+      thread.start();
+    }
+    done.await();
+    long elapsed = System.nanoTime() - start;
+    long received = events.sum() - eventsBefore;
+    open.forEach(Stream::cancel);
+
+    // Polling screens would fetch /state and /products every interval whether or not anything changed
+    long pollingRequests = (long) connected * 2 * Math.max(1, duration.toMillis() / pollInterval.toMillis());
+    return new Result(connected, sorted(connect), sorted(delivery), received, elapsed, streams, pollingRequests);
+  }
+
+  private HttpRequest post(String path, String machineId, String body) {
+    return HttpRequest.newBuilder(URI.create(baseUrl + API + path))
+      .header("X-Machine-Id", machineId)
+      .header("Content-Type", "application/json")
+      .timeout(Duration.ofSeconds(30))
+      .POST(HttpRequest.BodyPublishers.ofString(body))
+      .build();
+  }
+
+  private void send(HttpRequest request) throws InterruptedException {
+    try {
+      client.send(request, HttpResponse.BodyHandlers.discarding());
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Exception e) {
+      // Counted by the missing balance event
+    }
+  }
+
+  private static long[] sorted(Queue<Long> samples) {
+    long[] values = samples.stream().mapToLong(Long::longValue).toArray();
+    Arrays.sort(values);
+    return values;
+  }
+
+  private static double percentileMillis(long[] sortedNanos, double percentile) {
+    if (sortedNanos.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.min(sortedNanos.length - 1, Math.ceil(percentile * sortedNanos.length) - 1);
+    return sortedNanos[Math.max(0, index)] / 1e6;
+  }
+
+  private static Map<String, String> parse(String[] args) {
+    Map<String, String> options = new LinkedHashMap<>();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+    }
+    return options;
+  }
+
+  /**
+   * One open event stream, read line by line.
+   */
+  private static final class Stream implements Flow.Subscriber<String> {
+    private final int index;
+    private final long openedAt;
+    private final AtomicLongArray coinSentAt;
+    private final Queue<Long> connect;
+    private final Queue<Long> delivery;
+    private final LongAdder events;
+    private final CountDownLatch opened;
+    private volatile Flow.Subscription subscription;
+    private boolean stateReceived;
+
+    private Stream(int index, long openedAt, AtomicLongArray coinSentAt, Queue<Long> connect, Queue<Long> delivery,
+                   LongAdder events, CountDownLatch opened) {
+      this.index = index;
+      this.openedAt = openedAt;
+      this.coinSentAt = coinSentAt;
+      this.connect = connect;
+      this.delivery = delivery;
+      this.events = events;
+      this.opened = opened;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(String line) {
+      if (!line.startsWith("event:")) {
+        return;
+      }
+      events.increment();
+      String event = line.substring("event:".length()).trim();
+      long now = System.nanoTime();
+      if (event.equals("state") && !stateReceived) {
+        stateReceived = true;
+        connect.add(now - openedAt);
+        opened.countDown();
+      } else if (event.equals("balance")) {
+        long sentAt = coinSentAt.getAndSet(index, 0);
+        if (sentAt != 0) {
+          delivery.add(now - sentAt);
+        }
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+    }
+
+    @Override
+    public void onComplete() {
+    }
+
+    void cancel() {
+      Flow.Subscription current = subscription;
+      if (current != null) {
+        current.cancel();
+      }
+    }
+  }
+
+  private static final class Result {
+    private final int open;
+    private final long[] connect;
+    private final long[] delivery;
+    private final long events;
+    private final long elapsedNanos;
+    private final long streamRequests;
+    private final long pollingRequests;
+
+    private Result(int open, long[] connect, long[] delivery, long events, long elapsedNanos, long streamRequests,
+                   long pollingRequests) {
+      this.open = open;
+      this.connect = connect;
+      this.delivery = delivery;
+      this.events = events;
+      this.elapsedNanos = elapsedNanos;
+      this.streamRequests = streamRequests;
+      this.pollingRequests = pollingRequests;
+    }
+
+    double eventsPerSecond() {
+      return events * 1e9 / elapsedNanos;
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package com.zenika.distributor.benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop HTTP load test against a running backend, used to compare the default Tomcat pool with the
+ * {@code virtual-threads} profile. Each simulated kiosk holds its own connection and loops over a small
+ * session (insert a coin, read the state, cancel), which goes through the coin inventory upsert in H2 on
+ * every call. Every concurrency level is reported with throughput, latency percentiles and errors; the
+ * capacity is the highest level that stays within the error and p99 budgets.
+ * <p>
+ * Start the backend first (with or without {@code --spring.profiles.active=virtual-threads}), then:
+ * <pre>
+ *   ./mvnw -Ploadtest test-compile exec:exec -Dloadtest.args="--url http://localhost:8080 --concurrency 50,200,1000,2000"
+ * </pre>
+ */
+public final class HttpLoadTest {
+
+  private static final String API = "/api/distributor";
+
+  private final HttpClient client;
+  private final String baseUrl;
+  private final Duration duration;
+  private final Duration thinkTime;
+  private final Duration requestTimeout;
+
+  private HttpLoadTest(String baseUrl, Duration duration, Duration thinkTime, Duration requestTimeout) {
+    this.baseUrl = baseUrl;
+    this.duration = duration;
+    this.thinkTime = thinkTime;
+    this.requestTimeout = requestTimeout;
+    this.client = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .connectTimeout(Duration.ofSeconds(5))
+      .build();
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = parse(args);
+    String url = options.getOrDefault("url", "http://localhost:8080");
+    int[] levels = Arrays.stream(options.getOrDefault("concurrency", "50,200,1000,2000").split(","))
+      .mapToInt(level -> Integer.parseInt(level.trim())).toArray();
+    Duration duration = Duration.parse("PT" + options.getOrDefault("duration", "20s").toUpperCase(Locale.ROOT));
+    Duration thinkTime = Duration.ofMillis(Long.parseLong(options.getOrDefault("think-ms", "0")));
+    long p99BudgetMillis = Long.parseLong(options.getOrDefault("p99-budget-ms", "500"));
+    double errorBudget = Double.parseDouble(options.getOrDefault("error-budget", "0.01"));
+
+    HttpLoadTest test = new HttpLoadTest(url, duration, thinkTime, Duration.ofSeconds(30));
+    System.out.printf("Load test against %s, %s per level%n", url, duration);
+    System.out.printf("%8s %10s %9s %9s %9s %9s %9s %8s%n",
+      "kiosks", "requests", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors");
+
+    int capacity = 0;
+    for (int level : levels) {
+      Result result = test.run(level);
+      System.out.printf("%8d %10d %9.0f %9.1f %9.1f %9.1f %9.1f %7.2f%%%n",
+        level, result.requests, result.throughput(), result.percentileMillis(0.50), result.percentileMillis(0.99),
+        result.percentileMillis(0.999), result.percentileMillis(1.0), result.errorRate() * 100);
+      if (result.errorRate() <= errorBudget && result.percentileMillis(0.99) <= p99BudgetMillis) {
+        capacity = level;
+      }
+    }
+    System.out.printf("Capacity: %d concurrent kiosks within p99 <= %d ms and errors <= %.1f%%%n",
+      capacity, p99BudgetMillis, errorBudget * 100);
+  }
+
+  private Result run(int kiosks) throws InterruptedException {
+    long deadline = System.nanoTime() + duration.toNanos();
+    LongAdder errors = new LongAdder();
+    List<long[]> latencies = new ArrayList<>(kiosks);
+    int[] counts = new int[kiosks];
+    CountDownLatch done = new CountDownLatch(kiosks);
+    long start = System.nanoTime();
+    for (int i = 0; i < kiosks; i++) {
+      int kiosk = i;
+      long[][] samples = {new long[1024]};
+      latencies.add(null);
+      Thread thread = new Thread(null, () -> {
+        try {
+          String machineId = "load-" + kiosks + "-" + kiosk;
+          while (System.nanoTime() < deadline) {
+            for (HttpRequest request : session(machineId)) {
+              long sent = System.nanoTime();
+              boolean ok = send(request);
+              long elapsed = System.nanoTime() - sent;
+              if (!ok) {
+                errors.increment();
+              }
+              if (counts[kiosk] == samples[0].length) {
+                samples[0] = Arrays.copyOf(samples[0], samples[0].length * 2);
+              }
+              samples[0][counts[kiosk]++] = elapsed;
+            }
+            if (!thinkTime.isZero()) {
+              Thread.sleep(thinkTime.toMillis());
+            }
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          synchronized (latencies) {
+            latencies.set(kiosk, samples[0]);
+          }
+          done.countDown();
+        }
+      }, "kiosk-" + i, 256 * 1024);
+      thread.setDaemon(true);
+      thread.start();
+    }
+    done.await();
+    long elapsed = System.nanoTime() - start;
+
+    int total = 0;
+    for (int count : counts) {
+      total += count;
+    }
+    long[] all = new long[total];
+    int position = 0;
+    synchronized (latencies) {
+      for (int i = 0; i < kiosks; i++) {
+        System.arraycopy(latencies.get(i), 0, all, position, counts[i]);
+        position += counts[i];
+      }
+    }
+    Arrays.sort(all);
+    return new Result(all, errors.sum(), elapsed);
+  }
+
+  private List<HttpRequest> session(String machineId) {
+    return List.of(
+      post("/coin", machineId, "{\"value\": 1.00}"),
+      HttpRequest.newBuilder(URI.create(baseUrl + API + "/state")).header("X-Machine-Id", machineId)
+        .timeout(requestTimeout).GET().build(),
+      post("/cancel", machineId, ""));
+  }
+
+  private HttpRequest post(String path, String machineId, String body) {
+    return HttpRequest.newBuilder(URI.create(baseUrl + API + path))
+      .header("X-Machine-Id", machineId)
+      .header("Content-Type", "application/json")
+      .timeout(requestTimeout)
+      .POST(HttpRequest.BodyPublishers.ofString(body))
+      .build();
+  }
+
+  private boolean send(HttpRequest request) {
+    try {
+      HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+      return response.statusCode() < 400;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (Exception e) {
+      return false; // Refused, reset or timed out: the server ran out of capacity
+    }
+  }
+
+  private static Map<String, String> parse(String[] args) {
+    Map<String, String> options = new LinkedHashMap<>();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+    }
+    return options;
+  }
+
+  private static final class Result {
+    private final long[] sortedNanos;
+    private final long requests;
+    private final long errors;
+    private final long elapsedNanos;
+
+    private Result(long[] sortedNanos, long errors, long elapsedNanos) {
+      this.sortedNanos = sortedNanos;
+      this.requests = sortedNanos.length;
+      this.errors = errors;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    double throughput() {
+      return requests * 1e9 / elapsedNanos;
+    }
+
+    double errorRate() {
+      return requests == 0 ? 1.0 : (double) errors / requests;
+    }
+
+    double percentileMillis(double percentile) {
+      if (sortedNanos.length == 0) {
+        return 0;
+      }
+      int index = (int) Math.min(sortedNanos.length - 1, Math.ceil(percentile * sortedNanos.length) - 1);
+      return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package com.zenika.distributor.benchmark;
+
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.idempotency.IdempotencyCache;
+import com.zenika.distributor.service.ServiceFixture;
+import com.zenika.distributor.service.VendingMachineService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A coin insertion through {@link IdempotencyCache} as the controller runs it: without a key, with a new key
+ * each time (stored, then evicted once the cache is full) and with a retried key answered from the cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdempotencyBenchmark {
+
+  private static final String MACHINE = "bench";
+  private static final BigDecimal COIN = Coin.ONE_MAD.getValue();
+
+  private VendingMachineService service;
+  private IdempotencyCache cache;
+  private long sequence;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    service = ServiceFixture.inMemory(ServiceFixture.catalog(100)).service();
+    cache = new IdempotencyCache(Duration.ofMinutes(10), 100_000);
+    insert("retried");
+  }
+
+  @Benchmark
+  public ResponseEntity<BigDecimal> withoutKey() {
+    return insert(null);
+  }
+
+  @Benchmark
+  public ResponseEntity<BigDecimal> newKey() {
+    return insert("key-" + sequence++);
+  }
+
+  @Benchmark
+  public ResponseEntity<BigDecimal> retriedKey() {
+    return insert("retried");
+  }
+
+  private ResponseEntity<BigDecimal> insert(String key) {
+    return cache.execute(MACHINE, key, "coin", COIN,
+      () -> ResponseEntity.ok(service.insertCoin(MACHINE, COIN)));
+  }
+}
@@ -0,0 +1,79 @@
+package com.zenika.distributor.benchmark;
+
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.journal.FsyncPolicy;
+import com.zenika.distributor.journal.TransactionJournal;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.service.Cart;
+import com.zenika.distributor.service.CartLine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journal appends on one thread for each fsync policy. {@code coinInserted} is the smallest record,
+ * {@code dispensed} a sale of three products with change.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalAppendBenchmark {
+
+  @Param({"NONE", "BATCH", "SYNC"})
+  public FsyncPolicy fsync;
+
+  private Path directory;
+  private TransactionJournal journal;
+  private List<CartLine> lines;
+  private final int[] change = new int[Coin.values().length];
+
+  @Setup(Level.Trial)
+  public void open() throws IOException {
+    directory = Files.createTempDirectory("journal-benchmark");
+    journal = new TransactionJournal(directory, DataSize.ofMegabytes(256), fsync, Duration.ofMillis(10));
+    Cart cart = new Cart();
+    cart.add(new Product(1L, "Soda", new BigDecimal("3.50"), 10), 2);
+    cart.add(new Product(2L, "Chips", new BigDecimal("4.00"), 10));
+    lines = cart.lines();
+    change[Coin.ONE_MAD.ordinal()] = 1;
+  }
+
+  @TearDown(Level.Trial)
+  public void close() throws IOException {
+    journal.close();
+    FileSystemUtils.deleteRecursively(directory);
+  }
+
+  @Benchmark
+  public void coinInserted() {
+    journal.onCoinInserted("kiosk-42", Coin.TWO_MAD);
+  }
+
+  @Benchmark
+  public void dispensed() {
+    journal.onDispensed("kiosk-42", lines, change);
+  }
+}
@@ -0,0 +1,71 @@
+package com.zenika.distributor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the former BigDecimal selection arithmetic with the long-cents path now used by
+ * VendingMachineService: sum the cart, then check the balance covers it plus one more product.
+ * Run with {@code -prof gc} to see the allocation rate drop to zero on the cents path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoneyArithmeticBenchmark {
+
+  @Param({"1", "10", "100"})
+  private int cartSize;
+
+  private final List<BigDecimal> pricesDecimal = new ArrayList<>();
+  private long[] pricesCents;
+  private BigDecimal balanceDecimal;
+  private long balanceCents;
+  private BigDecimal nextPriceDecimal;
+  private long nextPriceCents;
+
+  @Setup
+  public void setUp() {
+    pricesCents = new long[cartSize];
+    for (int i = 0; i < cartSize; i++) {
+      long cents = 150 + (i % 8) * 50;
+      pricesCents[i] = cents;
+      pricesDecimal.add(BigDecimal.valueOf(cents, 2));
+    }
+    balanceCents = 1_000L * cartSize;
+    balanceDecimal = BigDecimal.valueOf(balanceCents, 2);
+    nextPriceCents = 350L;
+    nextPriceDecimal = new BigDecimal("3.50");
+  }
+
+  @Benchmark
+  public boolean bigDecimalCanAfford() {
+    BigDecimal selected = pricesDecimal.stream().reduce(BigDecimal.ZERO, BigDecimal::add);
+    return balanceDecimal.compareTo(selected.add(nextPriceDecimal)) >= 0;
+  }
+
+  @Benchmark
+  public boolean centsCanAfford() {
+    long selected = 0L;
+    for (long price : pricesCents) {
+      selected += price;
+    }
+    return balanceCents >= selected + nextPriceCents;
+  }
+}
@@ -0,0 +1,138 @@
+package com.zenika.distributor.benchmark;
+
+import com.zenika.distributor.dto.ProductDTO;
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.enums.PriceRuleType;
+import com.zenika.distributor.model.PriceRule;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.pricing.PriceBook;
+import com.zenika.distributor.pricing.PricingEngine;
+import com.zenika.distributor.service.ServiceFixture;
+import com.zenika.distributor.service.VendingMachineService;
+import com.zenika.distributor.service.VendingMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cart operations with {@code rules} promotions in force over a 100-product catalog: unit prices, buy-N-get-one
+ * and combos, some for this machine only, some limited to an hour of the day. The cart holds 20 units and the
+ * toggled product is part of combos. Also measures compiling the rules into the book a machine uses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PricingBenchmark {
+
+  private static final String MACHINE = "bench";
+  private static final int CART_SIZE = 20;
+
+  @Param({"0", "100", "500"})
+  public int rules;
+
+  private VendingMachineService service;
+  private PricingEngine pricingEngine;
+  private List<PriceRule> ruleSet;
+  private Long toggledProductId;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    List<Product> catalog = ServiceFixture.catalog(100);
+    ruleSet = rules(catalog, rules);
+    ServiceFixture fixture = ServiceFixture.inMemory(catalog);
+    pricingEngine = fixture.pricing(ruleSet);
+    service = fixture.service(VendingMetrics.NONE, pricingEngine);
+    for (int i = 0; i < CART_SIZE + 1; i++) {
+      service.insertCoin(MACHINE, Coin.TEN_MAD.getValue());
+    }
+    for (int i = 0; i < CART_SIZE; i++) {
+      service.selectProduct(MACHINE, catalog.get(i).getId());
+    }
+    toggledProductId = catalog.get(0).getId();
+  }
+
+  @Benchmark
+  public Product selectThenDeselect() {
+    service.selectProduct(MACHINE, toggledProductId);
+    return service.deselectProduct(MACHINE, toggledProductId);
+  }
+
+  @Benchmark
+  public List<ProductDTO> listAffordable() {
+    return service.listAffordableProducts(MACHINE);
+  }
+
+  /**
+   * What a rule change costs before the next cart operation of the machine.
+   */
+  @Benchmark
+  public PriceBook compile() {
+    pricingEngine.install(ruleSet);
+    return pricingEngine.forMachine(MACHINE);
+  }
+
+  /**
+   * 40% unit prices, 30% buy-N-get-one and 30% combos of two or three products; one in five rules is for this
+   * machine, one in seven for another, and one in ten only applies for an hour.
+   */
+  static List<PriceRule> rules(List<Product> catalog, int count) {
+    Random random = new Random(42);
+    List<PriceRule> rules = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Product product = catalog.get(random.nextInt(catalog.size()));
+      PriceRule rule = new PriceRule();
+      rule.setName("Rule " + i);
+      switch (i % 10) {
+        case 0, 1, 2, 3 -> {
+          rule.setType(PriceRuleType.UNIT_PRICE);
+          rule.setProductIds(List.of(product.getId()));
+          rule.setAmount(BigDecimal.valueOf(product.getPriceCents() * 8 / 10, 2));
+        }
+        case 4, 5, 6 -> {
+          rule.setType(PriceRuleType.BUY_N_GET_ONE);
+          rule.setProductIds(List.of(product.getId()));
+          rule.setQuantity(2 + random.nextInt(4));
+        }
+        default -> {
+          List<Long> members = new ArrayList<>(List.of(catalog.get(0).getId(), product.getId()));
+          if (random.nextBoolean()) {
+            members.add(catalog.get(random.nextInt(catalog.size())).getId());
+          }
+          rule.setType(PriceRuleType.COMBO);
+          rule.setProductIds(members);
+          rule.setAmount(new BigDecimal("0.20"));
+        }
+      }
+      if (i % 5 == 0) {
+        rule.setMachineId(MACHINE);
+      } else if (i % 7 == 0) {
+        rule.setMachineId("other-" + i);
+      }
+      if (i % 10 == 9) {
+        rule.setStartTime(LocalTime.of(i % 24, 0));
+        rule.setEndTime(LocalTime.of((i + 1) % 24, 0));
+      }
+      rules.add(rule);
+    }
+    return rules;
+  }
+}
@@ -0,0 +1,105 @@
+package com.zenika.distributor.benchmark;
+
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.search.ProductSearchIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries against {@link ProductSearchIndex} over a 1,000,000-product catalog whose names combine a few hundred
+ * words the way vending products do ("Jus d'Orange Pressée Bio 33cl"), and renaming one product in place.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ProductSearchBenchmark {
+
+  private static final int PRODUCTS = 1_000_000;
+
+  private static final String[] TYPES = {
+    "Jus", "Soda", "Eau", "Thé Glacé", "Café", "Chocolat Chaud", "Barre", "Biscuits", "Gaufre", "Madeleine",
+    "Croissant", "Sandwich", "Salade", "Wrap", "Chips", "Compote", "Yaourt", "Smoothie", "Limonade", "Nectar",
+    "Bonbons", "Crêpe", "Cookie", "Muffin", "Brioche", "Quiche", "Tartelette", "Sirop", "Infusion", "Soupe"
+  };
+  private static final String[] FLAVOURS = {
+    "d'Orange", "de Pomme", "de Poire", "de Fraise", "de Framboise", "à la Pêche", "au Citron", "à la Menthe",
+    "au Caramel", "à la Vanille", "aux Noisettes", "au Chocolat", "à l'Abricot", "de Mangue", "à l'Ananas",
+    "au Miel", "de Cerise", "au Jambon", "au Poulet", "au Thon", "aux Légumes", "à la Tomate", "au Fromage",
+    "au Beurre Salé", "de Myrtille", "au Gingembre", "à la Cannelle", "de Pamplemousse", "au Coco", "de Litchi"
+  };
+  private static final String[] QUALITIES = {
+    "Pressée", "Pétillante", "Naturelle", "Fondant", "Croquant", "Allégé", "Sans Sucre", "Bio", "Fermier",
+    "Artisanal", "Intense", "Doux", "Frais", "Gourmand", "Complet", "Léger", "Extra", "Maison", "Traditionnel",
+    "Fruité", "Épicé", "Crémeux", "Nature", "Glacé", "Tiède", "Classique", "Original", "Premium", "Mini", "Maxi"
+  };
+  private static final String[] BRANDS = {
+    "Zenika", "Atlas", "Sahara", "Oasis", "Marrakech", "Casablanca", "Fès", "Rif", "Souss", "Médina",
+    "Agadir", "Tanger", "Rabat", "Ifrane", "Chefchaouen", "Essaouira", "Ouarzazate", "Meknès", "Oujda", "Tétouan"
+  };
+  private static final String[] SIZES = {"25cl", "33cl", "50cl", "1L", "100g", "200g", "x2", "x4", "XL", ""};
+
+  private ProductSearchIndex index;
+  private Product renamed;
+  private Product original;
+  private boolean toggle;
+
+  static List<Product> catalog(int size, long seed) {
+    Random random = new Random(seed);
+    List<Product> catalog = new ArrayList<>(size);
+    for (int i = 1; i <= size; i++) {
+      String name = String.join(" ", TYPES[random.nextInt(TYPES.length)], FLAVOURS[random.nextInt(FLAVOURS.length)],
+        QUALITIES[random.nextInt(QUALITIES.length)], BRANDS[random.nextInt(BRANDS.length)],
+        SIZES[random.nextInt(SIZES.length)]).strip();
+      catalog.add(new Product((long) i, name, BigDecimal.valueOf(50L * (1 + i % 20), 2), 10));
+    }
+    return catalog;
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    List<Product> catalog = catalog(PRODUCTS, 42);
+    index = new ProductSearchIndex(10_000, 50);
+    index.onCatalogInstalled(catalog);
+    original = catalog.get(PRODUCTS / 2);
+    renamed = new Product(original.getId(), "Smoothie Mangue Passion Zenika 33cl", original.getPrice(), 10);
+  }
+
+  @Benchmark
+  public List<Product> prefix() {
+    return index.search("pamplem", 10);
+  }
+
+  @Benchmark
+  public List<Product> multiWord() {
+    return index.search("jus orange bio atlas", 10);
+  }
+
+  @Benchmark
+  public List<Product> fuzzy() {
+    return index.search("framboize chocolt", 10);
+  }
+
+  @Benchmark
+  public void incrementalUpdate() {
+    toggle = !toggle;
+    index.onProductInstalled(toggle ? renamed : original);
+  }
+}
@@ -0,0 +1,77 @@
+package com.zenika.distributor.benchmark;
+
+import com.zenika.distributor.analytics.BestSeller;
+import com.zenika.distributor.analytics.SalesAnalytics;
+import com.zenika.distributor.analytics.SalesFigures;
+import com.zenika.distributor.analytics.SalesWindow;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.service.Cart;
+import com.zenika.distributor.service.CartLine;
+import com.zenika.distributor.service.ServiceFixture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording a three-product sale into {@link SalesAnalytics} after a day of sales of a 1000-product catalog
+ * over 50 machines, and the queries behind {@code /admin/analytics}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SalesAnalyticsBenchmark {
+
+  private static final int MACHINES = 50;
+
+  private SalesAnalytics analytics;
+  private List<CartLine> sale;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    List<Product> catalog = ServiceFixture.catalog(1000);
+    analytics = new SalesAnalytics(64, Clock.systemUTC());
+    Random random = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      Cart cart = new Cart();
+      // Skewed towards the first products, as real best sellers are
+      cart.add(catalog.get((int) (catalog.size() * Math.pow(random.nextDouble(), 3))), 1 + random.nextInt(2));
+      analytics.onDispensed("kiosk-" + random.nextInt(MACHINES), cart.lines(), new int[0], cart.totalCents());
+    }
+    Cart cart = new Cart();
+    cart.add(catalog.get(0), 2);
+    cart.add(catalog.get(10));
+    cart.add(catalog.get(500));
+    sale = cart.lines();
+  }
+
+  @Benchmark
+  public void recordSale() {
+    analytics.onDispensed("kiosk-7", sale, new int[0], 1000);
+  }
+
+  @Benchmark
+  public SalesFigures nodeFiguresLastHour() {
+    return analytics.getNodeFigures(SalesWindow.HOUR);
+  }
+
+  @Benchmark
+  public List<BestSeller> bestSellersLastHour() {
+    return analytics.getBestSellers(SalesWindow.HOUR, 10);
+  }
+}
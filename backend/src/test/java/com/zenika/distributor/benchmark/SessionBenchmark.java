@@ -0,0 +1,80 @@
+package com.zenika.distributor.benchmark;
+
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.service.ServiceFixture;
+import com.zenika.distributor.service.VendingMachineService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request session operations: inserting a coin, and selecting then deselecting one unit while the cart
+ * already holds {@code cartSize} units spread over up to 50 products.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionBenchmark {
+
+  private static final String MACHINE = "bench";
+  private static final int REFUND_EVERY = 64;
+
+  @Param({"1", "10", "100", "1000"})
+  public int cartSize;
+
+  private VendingMachineService service;
+  private final BigDecimal coin = Coin.TWO_MAD.getValue();
+  private Long toggledProductId;
+  private String coinMachine;
+  private int insertedSinceRefund;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    List<Product> catalog = ServiceFixture.catalog(100);
+    service = ServiceFixture.inMemory(catalog).service();
+    // Enough balance for the cart and the toggled unit, whatever the cart size
+    for (int i = 0; i < cartSize + 1; i++) {
+      service.insertCoin(MACHINE, Coin.TEN_MAD.getValue());
+    }
+    for (int i = 0; i < cartSize; i++) {
+      service.selectProduct(MACHINE, catalog.get(i % 50).getId());
+    }
+    toggledProductId = catalog.get(0).getId();
+    coinMachine = "bench-coins";
+  }
+
+  /**
+   * One coin per call; the machine is refunded every {@value #REFUND_EVERY} coins so the session stays small.
+   */
+  @Benchmark
+  public BigDecimal insertCoin() {
+    if (++insertedSinceRefund == REFUND_EVERY) {
+      insertedSinceRefund = 0;
+      service.cancelTransaction(coinMachine);
+    }
+    return service.insertCoin(coinMachine, coin);
+  }
+
+  @Benchmark
+  public Product selectThenDeselect() {
+    service.selectProduct(MACHINE, toggledProductId);
+    return service.deselectProduct(MACHINE, toggledProductId);
+  }
+}
@@ -0,0 +1,151 @@
+package com.zenika.distributor.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to first request of a packaged backend, as when a node is added to serve an existing database. Each run
+ * starts the jar, measures from the process start to the first successful {@code GET /api/distributor/products},
+ * then stops it. A first, untimed run per configuration creates its database. Reported per configuration: the
+ * fastest, median and slowest run.
+ * <p>
+ * Compares the default profile, the {@code prod} profile and the {@code prod} profile with AOT and CDS, after
+ * packaging with {@code -Pstartup}:
+ * <pre>
+ *   ./mvnw -Pstartup package
+ *   ./mvnw -Ploadtest test-compile exec:exec -Dloadtest.main=com.zenika.distributor.benchmark.StartupTimeTest \
+ *     -Dloadtest.args="--app target/app --runs 5"
+ * </pre>
+ */
+public final class StartupTimeTest {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(120);
+
+  private final HttpClient client = HttpClient.newBuilder()
+    .version(HttpClient.Version.HTTP_1_1)
+    .connectTimeout(Duration.ofSeconds(1))
+    .build();
+  private final Path app;
+  private final Path jar;
+
+  private StartupTimeTest(Path app) throws IOException {
+    this.app = app.toAbsolutePath();
+    try (var files = Files.list(this.app)) {
+      this.jar = files.filter(file -> file.toString().endsWith(".jar")).findFirst()
+        .orElseThrow(() -> new IOException("No jar in " + this.app + ", package with -Pstartup first"));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = parse(args);
+    StartupTimeTest test = new StartupTimeTest(Path.of(options.getOrDefault("app", "target/app")));
+    int runs = Integer.parseInt(options.getOrDefault("runs", "5"));
+
+    Map<String, List<String>> configurations = new LinkedHashMap<>();
+    configurations.put("default", List.of());
+    configurations.put("prod", List.of("-Dspring.profiles.active=prod"));
+    configurations.put("prod + AOT", List.of("-Dspring.profiles.active=prod", "-Dspring.aot.enabled=true"));
+    if (Files.exists(test.app.resolve("application.jsa"))) {
+      configurations.put("prod + AOT + CDS", List.of("-Dspring.profiles.active=prod", "-Dspring.aot.enabled=true",
+        "-XX:SharedArchiveFile=application.jsa"));
+    }
+
+    System.out.printf("Time to first request of %s, %d runs each%n", test.jar.getFileName(), runs);
+    System.out.printf("%-18s %10s %10s %10s%n", "configuration", "min", "median", "max");
+    for (Map.Entry<String, List<String>> configuration : configurations.entrySet()) {
+      Path directory = Files.createTempDirectory("startup-");
+      long[] millis = new long[runs];
+      try {
+        test.run(configuration.getValue(), directory);
+        for (int i = 0; i < runs; i++) {
+          millis[i] = test.run(configuration.getValue(), directory);
+        }
+      } finally {
+        deleteRecursively(directory.toFile());
+      }
+      Arrays.sort(millis);
+      System.out.printf("%-18s %8dms %8dms %8dms%n", configuration.getKey(), millis[0], millis[runs / 2],
+        millis[runs - 1]);
+    }
+  }
+
+  /**
+   * @return milliseconds from the process start to the first answered request.
+   */
+  private long run(List<String> jvmOptions, Path directory) throws IOException, InterruptedException {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    List<String> command = new ArrayList<>();
+    command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+    command.addAll(jvmOptions);
+    command.addAll(List.of("-jar", jar.getFileName().toString(), // As recorded in the CDS archive
+      "--server.port=" + port,
+      "--spring.datasource.url=jdbc:h2:file:" + directory.resolve("db") + ";AUTO_SERVER=TRUE",
+      "--distributor.journal.directory=" + directory.resolve("journal")));
+    HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/distributor/products"))
+      .timeout(Duration.ofSeconds(5))
+      .GET().build();
+
+    long start = System.nanoTime();
+    Process process = new ProcessBuilder(command)
+      .directory(app.toFile())
+      .redirectErrorStream(true)
+      .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+      .start();
+    try {
+      while (System.nanoTime() - start < TIMEOUT.toNanos()) {
+        if (!process.isAlive()) {
+          throw new IllegalStateException("Backend exited with " + process.exitValue() + ": " + command);
+        }
+        try {
+          if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+            return (System.nanoTime() - start) / 1_000_000;
+          }
+        } catch (IOException e) {
+          // Not listening yet
+        }
+        Thread.sleep(10);
+      }
+      throw new IllegalStateException("Backend not answering after " + TIMEOUT + ": " + command);
+    } finally {
+      process.destroy();
+      if (!process.waitFor(30, TimeUnit.SECONDS)) {
+        process.destroyForcibly();
+      }
+    }
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static Map<String, String> parse(String[] args) {
+    Map<String, String> options = new LinkedHashMap<>();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+    }
+    return options;
+  }
+}
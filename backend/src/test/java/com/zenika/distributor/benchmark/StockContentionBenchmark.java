@@ -0,0 +1,98 @@
+package com.zenika.distributor.benchmark;
+
+import com.zenika.distributor.DistributorApplication;
+import com.zenika.distributor.dto.DispenseResponse;
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.repository.ProductRepository;
+import com.zenika.distributor.service.VendingMachineService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Many kiosks (one per JMH thread) buying the same product at once, against the real service and an
+ * in-memory H2 database. At tear-down the remaining stock is checked against the number of sales, so a
+ * run also proves the product was never oversold.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class StockContentionBenchmark {
+
+  private static final int INITIAL_STOCK = Integer.MAX_VALUE / 2;
+
+  private ConfigurableApplicationContext context;
+  private VendingMachineService service;
+  private Long hotProductId;
+  private final LongAdder sales = new LongAdder();
+
+  @State(Scope.Thread)
+  public static class Kiosk {
+    final String machineId = "bench-" + UUID.randomUUID();
+  }
+
+  @Setup(Level.Trial)
+  public void startApplication() {
+    context = new SpringApplicationBuilder(DistributorApplication.class)
+      .web(WebApplicationType.NONE)
+      .run(
+        "--spring.datasource.url=jdbc:h2:mem:stock-benchmark;DB_CLOSE_DELAY=-1",
+        "--spring.jpa.hibernate.ddl-auto=create-drop",
+        "--spring.jpa.show-sql=false",
+        "--spring.main.banner-mode=off",
+        "--logging.level.root=WARN");
+    service = context.getBean(VendingMachineService.class);
+    hotProductId = service.addProduct("Hot SKU", new BigDecimal("5.00"), INITIAL_STOCK).getId();
+  }
+
+  @TearDown(Level.Trial)
+  public void checkNoOversellAndStop() {
+    Product product = context.getBean(ProductRepository.class).findById(hotProductId).orElseThrow();
+    long expected = INITIAL_STOCK - sales.sum();
+    context.close();
+    if (product.getStock() != expected) {
+      throw new IllegalStateException("Stock is " + product.getStock() + " but " + expected + " was expected");
+    }
+  }
+
+  @Benchmark
+  public DispenseResponse buyHotProduct(Kiosk kiosk) {
+    service.insertCoin(kiosk.machineId, Coin.FIVE_MAD.getValue());
+    service.selectProduct(kiosk.machineId, hotProductId);
+    DispenseResponse response = service.dispenseProducts(kiosk.machineId);
+    sales.increment();
+    return response;
+  }
+
+  @Benchmark
+  public Product reserveAndRelease(Kiosk kiosk) {
+    service.insertCoin(kiosk.machineId, Coin.FIVE_MAD.getValue());
+    service.selectProduct(kiosk.machineId, hotProductId);
+    Product released = service.deselectProduct(kiosk.machineId, hotProductId);
+    service.cancelTransaction(kiosk.machineId);
+    return released;
+  }
+}
@@ -0,0 +1,90 @@
+package com.zenika.distributor.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zenika.distributor.dto.TelemetryIngestResponse;
+import com.zenika.distributor.telemetry.OverflowPolicy;
+import com.zenika.distributor.telemetry.TelemetryDecoder;
+import com.zenika.distributor.telemetry.TelemetryPipeline;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads of 1000 readings from distinct machines decoded into the {@link TelemetryPipeline}, whose writer
+ * hands its batches to a store doing nothing: the cost per reading of parsing, queueing and coalescing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TelemetryIngestBenchmark {
+
+  private static final int READINGS = 1000;
+
+  private TelemetryPipeline pipeline;
+  private TelemetryDecoder decoder;
+  private byte[] ndjson;
+  private byte[] binary;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    pipeline = new TelemetryPipeline(readings -> { }, 65536, 1000, Duration.ofMillis(200), OverflowPolicy.DROP);
+    decoder = new TelemetryDecoder(pipeline, new ObjectMapper());
+    StringBuilder json = new StringBuilder();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream frames = new DataOutputStream(bytes);
+    for (int i = 0; i < READINGS; i++) {
+      String machineId = "kiosk-" + i;
+      json.append("{\"machineId\":\"").append(machineId).append("\",\"timestamp\":1760695200000,")
+        .append("\"temperature\":4.5,\"coinBoxLevel\":").append(i % 101).append(",\"errorCode\":0}\n");
+      byte[] id = machineId.getBytes(StandardCharsets.UTF_8);
+      frames.writeByte(id.length);
+      frames.write(id);
+      frames.writeLong(1760695200000L);
+      frames.writeShort(45);
+      frames.writeByte(i % 101);
+      frames.writeInt(0);
+    }
+    ndjson = json.toString().getBytes(StandardCharsets.UTF_8);
+    binary = bytes.toByteArray();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    System.out.printf("%naccepted %d, dropped %d, written %d in %d batches%n", pipeline.getAccepted(),
+      pipeline.getDropped(), pipeline.getWritten(), pipeline.getBatches());
+    pipeline.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(READINGS)
+  public TelemetryIngestResponse ndjson() throws IOException {
+    return decoder.readNdjson(new ByteArrayInputStream(ndjson));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(READINGS)
+  public TelemetryIngestResponse binary() throws IOException {
+    return decoder.readBinary(new ByteArrayInputStream(binary));
+  }
+}
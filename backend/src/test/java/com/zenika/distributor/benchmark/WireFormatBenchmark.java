@@ -0,0 +1,124 @@
+package com.zenika.distributor.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zenika.distributor.analytics.SalesAnalytics;
+import com.zenika.distributor.config.CborConfig;
+import com.zenika.distributor.controller.AnalyticsController;
+import com.zenika.distributor.controller.VendingMachineController;
+import com.zenika.distributor.dto.CoinInsertRequest;
+import com.zenika.distributor.dto.SelectionRequest;
+import com.zenika.distributor.events.MachineEventStream;
+import com.zenika.distributor.idempotency.IdempotencyCache;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.service.Cart;
+import com.zenika.distributor.service.ServiceFixture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing the bodies of the main endpoints, as returned by the controllers over a 100-product machine, in JSON and
+ * in CBOR. The size of each body on the wire is printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+  @Param({"products", "state", "select", "coin", "dispense", "analytics"})
+  public String endpoint;
+
+  @Param({"json", "cbor"})
+  public String format;
+
+  private ObjectMapper mapper;
+  private Object body;
+
+  @Setup(Level.Trial)
+  public void setUp() throws JsonProcessingException {
+    List<Product> catalog = ServiceFixture.catalog(100);
+    ServiceFixture fixture = ServiceFixture.inMemory(catalog);
+    VendingMachineController controller = new VendingMachineController(fixture.service(),
+      new MachineEventStream(fixture.catalogCache, fixture.stockService, Runnable::run, 256),
+      new IdempotencyCache(Duration.ofMinutes(10), 1000));
+
+    Object coin = controller.insertCoin("kiosk-1", null, coin("10.00")).getBody();
+    controller.selectProduct("kiosk-1", null, selection(1L));
+    controller.selectProduct("kiosk-1", null, selection(2L));
+    Object select = controller.selectProduct("kiosk-1", null, selection(3L)).getBody();
+    Object state = controller.getCurrentState("kiosk-1").getBody();
+    Object products = controller.listProducts("kiosk-1", null, null,
+      new ServletWebRequest(new MockHttpServletRequest())).getBody();
+    // Paid exactly, so the empty coin inventory does not have to give change
+    controller.insertCoin("kiosk-2", null, coin("2.00"));
+    controller.insertCoin("kiosk-2", null, coin("1.00"));
+    controller.selectProduct("kiosk-2", null, selection(1L));
+    controller.selectProduct("kiosk-2", null, selection(3L));
+    Object dispense = controller.dispense("kiosk-2", null).getBody();
+
+    body = switch (endpoint) {
+      case "products" -> products;
+      case "state" -> state;
+      case "select" -> select;
+      case "coin" -> coin;
+      case "dispense" -> dispense;
+      case "analytics" -> new AnalyticsController(analytics(catalog)).getSales("day", 10).getBody();
+      default -> throw new IllegalArgumentException(endpoint);
+    };
+    mapper = "cbor".equals(format)
+      ? CborConfig.cborMapper(Jackson2ObjectMapperBuilder.json())
+      : Jackson2ObjectMapperBuilder.json().build();
+    System.out.printf("%n%s as %s: %d bytes%n", endpoint, format, mapper.writeValueAsBytes(body).length);
+  }
+
+  private static CoinInsertRequest coin(String value) {
+    CoinInsertRequest request = new CoinInsertRequest();
+    request.setValue(new BigDecimal(value));
+    return request;
+  }
+
+  private static SelectionRequest selection(long productId) {
+    SelectionRequest request = new SelectionRequest();
+    request.setProductId(productId);
+    return request;
+  }
+
+  private static SalesAnalytics analytics(List<Product> catalog) {
+    SalesAnalytics analytics = new SalesAnalytics(64, Clock.systemUTC());
+    Random random = new Random(42);
+    for (int i = 0; i < 10_000; i++) {
+      Cart cart = new Cart();
+      cart.add(catalog.get(random.nextInt(catalog.size())));
+      analytics.onDispensed("kiosk-" + random.nextInt(50), cart.lines(), new int[0], cart.totalCents());
+    }
+    return analytics;
+  }
+
+  @Benchmark
+  public byte[] serialize() throws JsonProcessingException {
+    return mapper.writeValueAsBytes(body);
+  }
+}
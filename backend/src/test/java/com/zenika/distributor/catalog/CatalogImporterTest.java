@@ -0,0 +1,143 @@
+package com.zenika.distributor.catalog;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zenika.distributor.dto.CatalogImportResponse;
+import com.zenika.distributor.exception.CatalogImportException;
+import com.zenika.distributor.repository.BatchWriteRepository;
+import com.zenika.distributor.repository.ProductCursorRepository;
+import com.zenika.distributor.service.CatalogCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CatalogImporterTest {
+
+  @Mock
+  private BatchWriteRepository batchWriteRepository;
+
+  @Mock
+  private ProductCursorRepository productCursorRepository;
+
+  @Mock
+  private CatalogCache catalogCache;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final List<List<Object[]>> batches = new ArrayList<>();
+  private CatalogImporter importer;
+
+  @BeforeEach
+  void setUp() {
+    importer = new CatalogImporter(batchWriteRepository, catalogCache, new TransactionTemplate(transactionManager),
+      objectMapper, 2);
+    lenient().doAnswer(invocation -> batches.add(List.copyOf(invocation.<List<Object[]>>getArgument(0))))
+      .when(batchWriteRepository).insertProducts(any());
+  }
+
+  @Test
+  void importCsv_shouldInsertValidRowsInBatchesAndReportTheOthers() throws IOException {
+    CatalogImportResponse response = importer.importCsv(input("\uFEFFid,Price,NAME,stock\r\n"
+      + "7,1.50,Water,10\r\n"
+      + "8,2,\"Cola, \"\"Zero\"\"\",\r\n"
+      + "\r\n"
+      + "9,-1,Bad,1\r\n"
+      + "10,3.00,\"Two\nlines\",4\r\n"
+      + "11,1.999,Rounded,1\r\n"
+      + "12,1.00,Negative,-2"));
+
+    assertEquals(3, response.getImported());
+    assertEquals(3, response.getRejected());
+    assertEquals(List.of(
+      "Line 5: price must be positive",
+      "Line 8: price must have at most 10 digits and 2 decimal places",
+      "Line 9: stock cannot be negative"), response.getErrors());
+    assertEquals(2, batches.size());
+    assertArrayEquals(new Object[] {"Water", new BigDecimal("1.50"), 10}, batches.get(0).get(0));
+    assertArrayEquals(new Object[] {"Cola, \"Zero\"", new BigDecimal("2"), 0}, batches.get(0).get(1));
+    assertArrayEquals(new Object[] {"Two\nlines", new BigDecimal("3.00"), 4}, batches.get(1).get(0));
+    verify(transactionManager, times(2)).commit(any());
+    verify(catalogCache).refresh();
+  }
+
+  @Test
+  void importNdjson_shouldReadPricesAsWrittenAndSkipUnknownFields() throws IOException {
+    CatalogImportResponse response = importer.importNdjson(input("""
+      {"id": 1, "name": "Water", "price": 1.50, "stock": 10, "tags": ["cold"]}
+      {"name": "Crisps", "price": "0.5"}
+      {"name": "Rounded", "price": 1.499}
+      {"name": "Chips", "price": 2.75}
+      [1, 2]
+      """));
+
+    assertEquals(2, response.getImported());
+    assertEquals(List.of(
+      "Line 3: price must have at most 10 digits and 2 decimal places",
+      "Line 4: price must be a multiple of 0.50, or it cannot be paid in coins",
+      "Line 5: expected a JSON object"), response.getErrors());
+    assertArrayEquals(new Object[] {"Water", new BigDecimal("1.50"), 10}, batches.get(0).get(0));
+    assertArrayEquals(new Object[] {"Crisps", new BigDecimal("0.5"), 0}, batches.get(0).get(1));
+  }
+
+  @Test
+  void malformedInput_shouldStopTheImportAndKeepCommittedBatches() {
+    CatalogImportException e = assertThrows(CatalogImportException.class, () -> importer.importNdjson(input("""
+      {"name": "A", "price": 1}
+      {"name": "B", "price": 2}
+      {"name": "C", "price":
+      """)));
+    assertTrue(e.getMessage().contains("2 products imported before"), e.getMessage());
+    assertEquals(1, batches.size());
+    verify(catalogCache).refresh();
+
+    assertThrows(CatalogImportException.class, () -> importer.importCsv(input("name,stock\nWater,1\n")));
+    assertThrows(CatalogImportException.class, () -> importer.importCsv(input("name,price\n\"Water,1\n")));
+  }
+
+  @Test
+  void export_shouldWriteFilesTheImporterReadsBack() throws IOException {
+    doAnswer(invocation -> {
+      ProductCursorRepository.ProductRowHandler handler = invocation.getArgument(0);
+      handler.accept(1, "Water", new BigDecimal("1.50"), 10);
+      handler.accept(2, "Cola, \"Zero\"", new BigDecimal("2.00"), 0);
+      return null;
+    }).when(productCursorRepository).forEach(any());
+    CatalogExporter exporter = new CatalogExporter(productCursorRepository, objectMapper);
+
+    ByteArrayOutputStream csv = new ByteArrayOutputStream();
+    exporter.exportCsv(csv);
+    assertEquals("id,name,price,stock\r\n1,Water,1.50,10\r\n2,\"Cola, \"\"Zero\"\"\",2.00,0\r\n",
+      csv.toString(StandardCharsets.UTF_8));
+    ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+    exporter.exportNdjson(ndjson);
+    assertEquals("{\"id\":1,\"name\":\"Water\",\"price\":1.50,\"stock\":10}\n"
+      + "{\"id\":2,\"name\":\"Cola, \\\"Zero\\\"\",\"price\":2.00,\"stock\":0}\n", ndjson.toString(StandardCharsets.UTF_8));
+
+    assertEquals(2, importer.importCsv(new ByteArrayInputStream(csv.toByteArray())).getImported());
+    assertEquals(2, importer.importNdjson(new ByteArrayInputStream(ndjson.toByteArray())).getImported());
+    assertArrayEquals(batches.get(0).get(1), batches.get(1).get(1));
+  }
+
+  private static InputStream input(String text) {
+    return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,254 @@
+package com.zenika.distributor.cluster;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs a cluster of separate JVMs on localhost sharing one H2 database, adds a node under load and takes it
+ * away again, checking that no machine loses its balance or selection on the way.
+ */
+class ClusterIT {
+
+  private static final int MACHINES = 40;
+  private static final String SECRET = "cluster-it-secret";
+  private static final Duration STARTUP = Duration.ofSeconds(120);
+  private static final Duration SETTLE = Duration.ofSeconds(30);
+
+  @TempDir
+  Path directory;
+
+  private final HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final List<Node> nodes = new ArrayList<>();
+
+  @AfterEach
+  void stopNodes() throws InterruptedException {
+    for (Node node : nodes) {
+      node.process.destroyForcibly();
+      node.process.waitFor(30, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  void joiningAndLeavingNodes_shouldKeepEveryMachineSession() throws Exception {
+    Node a = start(null);
+    Node b = start(a);
+    awaitMembers(2, a, b);
+
+    // Every request goes through A, which forwards those of B's machines
+    for (int i = 0; i < MACHINES; i++) {
+      assertEquals(200, post(a, machine(i), "/coin", "{\"value\": 2}").statusCode());
+      if (i % 4 == 0) {
+        assertEquals(200, post(a, machine(i), "/select", "{\"productId\": 3}").statusCode());
+      }
+    }
+    assertAllSessionsKept(b);
+    assertEquals(401, send(HttpRequest.newBuilder(URI.create(a.url + "/internal/cluster/sessions"))
+      .header("Content-Type", "application/json")
+      .POST(HttpRequest.BodyPublishers.ofString("{\"machineId\": \"kiosk-0\", \"transferId\": \"t-1\", \"coins\": [10], \"selection\": {}}"))
+      .build()).statusCode());
+
+    Node c = start(a);
+    awaitMembers(3, a, b, c);
+    Set<String> ownedByC = new HashSet<>();
+    for (int i = 0; i < MACHINES; i++) {
+      if (owner(a, machine(i)).equals(c.url)) {
+        ownedByC.add(machine(i));
+      }
+    }
+    assertFalse(ownedByC.isEmpty(), "The new node should take some machines over");
+    // Served by C itself, not forwarded back to the previous owner
+    await("sessions handed over to " + c.url, () -> allHold(c, ownedByC, true));
+    assertAllSessionsKept(a);
+
+    // A graceful stop hands C's sessions back to the remaining nodes
+    c.process.destroy();
+    assertTrue(c.process.waitFor(60, TimeUnit.SECONDS));
+    awaitMembers(2, a, b);
+    await("sessions handed back", () -> allHold(a, ownedByC, false));
+    assertAllSessionsKept(b);
+
+    JsonNode refund = objectMapper.readTree(post(b, machine(1), "/cancel", "").body());
+    assertEquals(2.0, refund.get("refundedCoins").get(0).asDouble());
+  }
+
+  private void assertAllSessionsKept(Node entry) throws Exception {
+    for (int i = 0; i < MACHINES; i++) {
+      JsonNode state = objectMapper.readTree(get(entry, machine(i), "/state", false).body());
+      assertEquals(2.0, state.get("currentBalance").asDouble(), machine(i));
+      assertEquals(i % 4 == 0 ? 1 : 0, state.get("selectedProducts").size(), machine(i));
+    }
+  }
+
+  private static String machine(int i) {
+    return "kiosk-" + i;
+  }
+
+  private Node start(Node seed) throws IOException {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    String classpath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+    Path log = directory.resolve("node-" + port + ".log");
+    List<String> command = new ArrayList<>(List.of(
+      Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+      "-Xmx256m", "-XX:TieredStopAtLevel=1",
+      "-cp", classpath,
+      "com.zenika.distributor.DistributorApplication",
+      "--server.port=" + port,
+      "--spring.datasource.url=jdbc:h2:file:" + directory.resolve("db").toAbsolutePath() + ";AUTO_SERVER=TRUE",
+      "--spring.jpa.show-sql=false",
+      "--spring.h2.console.enabled=false",
+      "--distributor.journal.directory=" + directory.resolve("journal-" + port).toAbsolutePath(),
+      "--distributor.cluster.enabled=true",
+      "--distributor.cluster.secret=" + SECRET,
+      "--distributor.cluster.heartbeat-interval=PT0.2S",
+      "--distributor.cluster.seeds=" + (seed != null ? seed.url : "")));
+    Process process = new ProcessBuilder(command)
+      .redirectErrorStream(true)
+      .redirectOutput(log.toFile())
+      .start();
+    Node node = new Node("http://localhost:" + port, process, log);
+    nodes.add(node);
+    await(node.url + " started", () -> {
+      assertTrue(process.isAlive(), () -> node.url + " exited:\n" + node.tail());
+      try {
+        return get(node, null, "/internal/cluster", true).statusCode() == 200;
+      } catch (IOException e) {
+        return false;
+      }
+    }, STARTUP);
+    return node;
+  }
+
+  private void awaitMembers(int count, Node... members) {
+    await(count + " members", () -> {
+      for (Node node : members) {
+        JsonNode status = objectMapper.readTree(get(node, null, "/internal/cluster", true).body());
+        if (status.get("members").size() != count) {
+          return false;
+        }
+      }
+      return true;
+    });
+  }
+
+  private String owner(Node node, String machineId) throws IOException {
+    return objectMapper.readTree(get(node, null, "/internal/cluster/owner?machineId=" + machineId, true).body())
+      .get("owner").asText();
+  }
+
+  /**
+   * @param local read the node's own sessions instead of routing to the owners.
+   * @return true if each machine holds the balance it was given.
+   */
+  private boolean allHold(Node node, Set<String> machineIds, boolean local) throws IOException {
+    for (String machineId : machineIds) {
+      JsonNode state = objectMapper.readTree(get(node, machineId, "/state", local).body());
+      if (state.get("currentBalance").asDouble() != 2.0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private HttpResponse<String> get(Node node, String machineId, String path, boolean local) throws IOException {
+    String uri = path.startsWith("/internal") ? node.url + path : node.url + "/api/distributor" + path;
+    HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(uri)).timeout(Duration.ofSeconds(10)).GET();
+    if (machineId != null) {
+      request.header("X-Machine-Id", machineId);
+    }
+    if (local) {
+      request.header(ClusterClient.FORWARDED_HEADER, "true");
+    }
+    if (local || path.startsWith("/internal")) {
+      request.header(ClusterClient.SECRET_HEADER, SECRET);
+    }
+    return send(request.build());
+  }
+
+  private HttpResponse<String> post(Node node, String machineId, String path, String json) throws IOException {
+    return send(HttpRequest.newBuilder(URI.create(node.url + "/api/distributor" + path))
+      .timeout(Duration.ofSeconds(10))
+      .header("X-Machine-Id", machineId)
+      .header("Content-Type", "application/json")
+      .POST(HttpRequest.BodyPublishers.ofString(json))
+      .build());
+  }
+
+  private HttpResponse<String> send(HttpRequest request) throws IOException {
+    try {
+      return http.send(request, HttpResponse.BodyHandlers.ofString());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
+  private void await(String what, Check check) {
+    await(what, check, SETTLE);
+  }
+
+  private void await(String what, Check check, Duration timeout) {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    while (true) {
+      try {
+        if (check.passes()) {
+          return;
+        }
+      } catch (IOException e) {
+        // Not there yet
+      }
+      if (System.nanoTime() > deadline) {
+        StringBuilder logs = new StringBuilder();
+        for (Node node : nodes) {
+          logs.append("\n--- ").append(node.url).append('\n').append(node.tail());
+        }
+        fail("Timed out waiting for " + what + logs);
+      }
+      try {
+        Thread.sleep(200);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        fail("Interrupted waiting for " + what);
+      }
+    }
+  }
+
+  @FunctionalInterface
+  private interface Check {
+    boolean passes() throws IOException;
+  }
+
+  private record Node(String url, Process process, Path log) {
+    private String tail() {
+      try {
+        List<String> lines = Files.readAllLines(log);
+        return String.join("\n", lines.subList(Math.max(0, lines.size() - 40), lines.size()));
+      } catch (IOException e) {
+        return e.toString();
+      }
+    }
+  }
+}
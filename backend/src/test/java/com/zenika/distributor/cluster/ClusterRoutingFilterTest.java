@@ -0,0 +1,200 @@
+package com.zenika.distributor.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zenika.distributor.config.CborConfig;
+import com.zenika.distributor.dto.BulkOrderRequest;
+import com.zenika.distributor.dto.BulkOrderResponse;
+import com.zenika.distributor.dto.MachineOrderRequest;
+import com.zenika.distributor.dto.OrderItem;
+import com.zenika.distributor.dto.OrderResult;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletRequest;
+import jakarta.validation.Validation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class ClusterRoutingFilterTest {
+
+  private static final String SELF = "http://node-a";
+  private static final String OTHER = "http://node-b";
+
+  @Mock
+  private ClusterMembership membership;
+
+  @Mock
+  private ClusterClient client;
+
+  private final ObjectMapper jsonMapper = Jackson2ObjectMapperBuilder.json().build();
+  private final ObjectMapper cborMapper = CborConfig.cborMapper(Jackson2ObjectMapperBuilder.json());
+  private final List<ServletRequest> served = new ArrayList<>();
+  private ClusterRoutingFilter filter;
+
+  @BeforeEach
+  void setUp() {
+    when(client.getObjectMapper()).thenReturn(jsonMapper);
+    when(membership.getSelf()).thenReturn(SELF);
+    when(membership.ownerOf(any())).thenAnswer(call -> call.getArgument(0, String.class).startsWith("b-") ? OTHER : SELF);
+    filter = new ClusterRoutingFilter(membership, client, Validation.buildDefaultValidatorFactory().getValidator(),
+      new HttpMessageConverters(false, List.of(new MappingJackson2HttpMessageConverter(jsonMapper),
+        new MappingJackson2CborHttpMessageConverter(cborMapper))), "forward");
+  }
+
+  @Test
+  void cborBulkOrder_shouldBeSplitAndAnsweredInCbor() throws Exception {
+    BulkOrderResponse remote = new BulkOrderResponse(List.of(OrderResult.refused("b-1", "Out of stock")), 0, 1);
+    HttpResponse<byte[]> answer = answer(200, jsonMapper.writeValueAsBytes(remote));
+    when(client.sendAsync(any())).thenReturn(CompletableFuture.completedFuture(answer));
+    MockHttpServletRequest request = ordersRequest(MediaType.APPLICATION_CBOR_VALUE,
+      cborMapper.writeValueAsBytes(bulk("a-1", "b-1")));
+    request.addHeader("Accept", MediaType.APPLICATION_CBOR_VALUE);
+    MockHttpServletResponse response = new MockHttpServletResponse();
+
+    filter.doFilter(request, response, chain(new BulkOrderResponse(
+      List.of(OrderResult.dispensed("a-1", null)), 1, 0)));
+
+    // The local share reaches the controller re-encoded in JSON, the merged answer goes back in CBOR
+    assertEquals(200, response.getStatus());
+    assertEquals(MediaType.APPLICATION_CBOR_VALUE, response.getContentType());
+    BulkOrderResponse merged = cborMapper.readValue(response.getContentAsByteArray(), BulkOrderResponse.class);
+    assertEquals(List.of("a-1", "b-1"), merged.getResults().stream().map(OrderResult::getMachineId).toList());
+    assertEquals(1, merged.getDispensed());
+    assertEquals(1, merged.getRefused());
+  }
+
+  @Test
+  void unreadableBulkOrder_shouldBeRefusedWithoutPlacingAnything() throws Exception {
+    MockHttpServletResponse unsupported = new MockHttpServletResponse();
+    filter.doFilter(ordersRequest(MediaType.TEXT_PLAIN_VALUE, "a-1".getBytes()), unsupported, chain(null));
+    MockHttpServletResponse malformed = new MockHttpServletResponse();
+    filter.doFilter(ordersRequest(MediaType.APPLICATION_CBOR_VALUE, "{\"orders\": [".getBytes()), malformed, chain(null));
+    MockHttpServletResponse invalid = new MockHttpServletResponse();
+    filter.doFilter(ordersRequest(MediaType.APPLICATION_JSON_VALUE, "{\"orders\": []}".getBytes()), invalid, chain(null));
+
+    assertEquals(415, unsupported.getStatus());
+    assertEquals(400, malformed.getStatus());
+    assertEquals(400, invalid.getStatus());
+    assertTrue(invalid.getContentAsString().contains("At least one order is required"));
+    assertTrue(served.isEmpty(), "Nothing should reach the controller");
+  }
+
+  @Test
+  void localBulkOrder_shouldBeReadableAsynchronously() throws Exception {
+    byte[] body = jsonMapper.writeValueAsBytes(bulk("a-1"));
+    List<String> events = new ArrayList<>();
+    FilterChain chain = (request, response) -> {
+      ServletInputStream in = request.getInputStream();
+      in.setReadListener(new ReadListener() {
+        @Override
+        public void onDataAvailable() throws IOException {
+          events.add("available");
+          assertArrayEquals(body, in.readAllBytes());
+        }
+
+        @Override
+        public void onAllDataRead() {
+          events.add("all read");
+        }
+
+        @Override
+        public void onError(Throwable t) {
+          events.add("error");
+        }
+      });
+    };
+
+    filter.doFilter(ordersRequest(MediaType.APPLICATION_JSON_VALUE, body), new MockHttpServletResponse(), chain);
+
+    assertEquals(List.of("available", "all read"), events);
+  }
+
+  @Test
+  void forwardedHeaderWithoutSecret_shouldStillBeRouted() throws Exception {
+    when(client.isClusterSecret("secret")).thenReturn(true);
+    when(client.newRequest(any())).thenAnswer(call -> HttpRequest.newBuilder(call.getArgument(0, URI.class)));
+    HttpResponse<byte[]> answer = answer(200, "{}".getBytes());
+    when(answer.headers()).thenReturn(HttpHeaders.of(Map.of(), (name, value) -> true));
+    when(client.send(any())).thenReturn(answer);
+    MockHttpServletRequest forged = new MockHttpServletRequest("GET", "/api/distributor/state");
+    forged.addHeader("X-Machine-Id", "b-1");
+    forged.addHeader(ClusterClient.FORWARDED_HEADER, "true");
+    MockHttpServletRequest trusted = new MockHttpServletRequest("GET", "/api/distributor/state");
+    trusted.addHeader("X-Machine-Id", "b-1");
+    trusted.addHeader(ClusterClient.FORWARDED_HEADER, "true");
+    trusted.addHeader(ClusterClient.SECRET_HEADER, "secret");
+
+    filter.doFilter(forged, new MockHttpServletResponse(), chain(null));
+    filter.doFilter(trusted, new MockHttpServletResponse(), (request, response) -> served.add(request));
+
+    verify(client).send(any());
+    assertEquals(List.of(trusted), served);
+  }
+
+  private MockHttpServletRequest ordersRequest(String contentType, byte[] body) {
+    MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/distributor/orders");
+    request.setContentType(contentType);
+    request.setContent(body);
+    return request;
+  }
+
+  // Answers the local share like the controller would, after checking it was handed JSON
+  private FilterChain chain(BulkOrderResponse local) {
+    return (request, response) -> {
+      served.add(request);
+      assertEquals(MediaType.APPLICATION_JSON_VALUE, request.getContentType());
+      jsonMapper.readValue(request.getInputStream(), BulkOrderRequest.class);
+      response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+      response.getOutputStream().write(jsonMapper.writeValueAsBytes(local));
+    };
+  }
+
+  private static BulkOrderRequest bulk(String... machineIds) {
+    List<MachineOrderRequest> orders = new ArrayList<>();
+    for (String machineId : machineIds) {
+      orders.add(new MachineOrderRequest(machineId, List.of(new BigDecimal("2.00")), List.of(new OrderItem(1L, 1))));
+    }
+    BulkOrderRequest request = new BulkOrderRequest();
+    request.setOrders(orders);
+    return request;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static HttpResponse<byte[]> answer(int status, byte[] body) {
+    HttpResponse<byte[]> answer = mock(HttpResponse.class);
+    when(answer.statusCode()).thenReturn(status);
+    when(answer.body()).thenReturn(body);
+    return answer;
+  }
+}
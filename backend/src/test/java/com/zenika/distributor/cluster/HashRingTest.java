@@ -0,0 +1,55 @@
+package com.zenika.distributor.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashRingTest {
+
+  private static final List<String> NODES = List.of("http://localhost:8081", "http://localhost:8082", "http://localhost:8083");
+  private static final int MACHINES = 30_000;
+
+  @Test
+  void ownerOf_shouldSpreadMachinesEvenly() {
+    HashRing ring = new HashRing(NODES, 128);
+    Map<String, Integer> owned = new HashMap<>();
+    for (int i = 0; i < MACHINES; i++) {
+      owned.merge(ring.ownerOf("kiosk-" + i), 1, Integer::sum);
+    }
+    assertEquals(NODES.size(), owned.size());
+    for (int count : owned.values()) {
+      // Within 20% of a third
+      assertTrue(Math.abs(count - MACHINES / 3) < MACHINES / 15, "Unbalanced ring: " + owned);
+    }
+  }
+
+  @Test
+  void addingANode_shouldOnlyMoveMachinesToIt() {
+    HashRing before = new HashRing(NODES.subList(0, 2), 128);
+    HashRing after = new HashRing(NODES, 128);
+    int moved = 0;
+    for (int i = 0; i < MACHINES; i++) {
+      String machineId = "kiosk-" + i;
+      String owner = after.ownerOf(machineId);
+      if (!owner.equals(before.ownerOf(machineId))) {
+        assertEquals(NODES.get(2), owner);
+        moved++;
+      }
+    }
+    assertTrue(Math.abs(moved - MACHINES / 3) < MACHINES / 15, "Moved " + moved);
+  }
+
+  @Test
+  void ring_shouldNotDependOnTheOrderNodesAreListedIn() {
+    HashRing ring = new HashRing(NODES, 16);
+    HashRing reversed = new HashRing(List.of(NODES.get(2), NODES.get(1), NODES.get(0)), 16);
+    for (int i = 0; i < 1_000; i++) {
+      assertEquals(ring.ownerOf("kiosk-" + i), reversed.ownerOf("kiosk-" + i));
+    }
+    assertNull(new HashRing(List.of(), 16).ownerOf("kiosk-1"));
+  }
+}
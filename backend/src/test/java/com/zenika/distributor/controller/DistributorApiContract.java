@@ -0,0 +1,271 @@
+package com.zenika.distributor.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zenika.distributor.config.CborConfig;
+import com.zenika.distributor.enums.PriceRuleType;
+import com.zenika.distributor.events.MachineEventStream;
+import com.zenika.distributor.idempotency.IdempotencyCache;
+import com.zenika.distributor.model.PriceRule;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.repository.ProductRepository;
+import com.zenika.distributor.service.CatalogCache;
+import com.zenika.distributor.service.ServiceFixture;
+import com.zenika.distributor.service.VendingMachineService;
+import com.zenika.distributor.service.VendingMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The {@code /api/distributor} contract, run against each controller variant over the same service.
+ */
+abstract class DistributorApiContract {
+
+  protected ProductRepository productRepository;
+  protected CatalogCache catalogCache;
+  protected WebTestClient client;
+
+  private ServiceFixture fixture;
+  private MachineEventStream machineEventStream;
+
+  protected Product soda;
+  protected Product chips;
+  protected Product water;
+
+  /**
+   * @param catalog the rows of the product table.
+   */
+  protected abstract WebTestClient bind(VendingMachineService vendingMachineService, MachineEventStream machineEventStream,
+                                        List<Product> catalog);
+
+  @BeforeEach
+  void setUp() {
+    soda = new Product(1L, "Soda", new BigDecimal("3.50"), 10);
+    chips = new Product(2L, "Chips", new BigDecimal("4.00"), 10);
+    water = new Product(3L, "Water", new BigDecimal("1.50"), 1);
+    List<Product> catalog = Arrays.asList(soda, chips, water);
+
+    fixture = ServiceFixture.mocked(catalog);
+    productRepository = fixture.productRepository;
+    catalogCache = fixture.catalogCache;
+    machineEventStream = new MachineEventStream(catalogCache, fixture.stockService, Runnable::run, 256);
+    VendingMachineService vendingMachineService = fixture.service(machineEventStream);
+    client = bind(vendingMachineService, machineEventStream, catalog);
+  }
+
+  /**
+   * Binds the API again over a service pricing with {@code rules}.
+   */
+  protected void bindWithRules(List<PriceRule> rules) {
+    VendingMachineService vendingMachineService = fixture.service(VendingMetrics.NONE, fixture.pricing(rules),
+      machineEventStream);
+    client = bind(vendingMachineService, machineEventStream, Arrays.asList(soda, chips, water));
+  }
+
+  protected WebTestClient.ResponseSpec post(String machineId, String path, String json) {
+    return client.post().uri("/api/distributor" + path)
+      .header(VendingMachineController.MACHINE_ID_HEADER, machineId)
+      .contentType(MediaType.APPLICATION_JSON)
+      .bodyValue(json)
+      .exchange();
+  }
+
+  protected WebTestClient.ResponseSpec get(String machineId, String path) {
+    return client.get().uri("/api/distributor" + path)
+      .header(VendingMachineController.MACHINE_ID_HEADER, machineId)
+      .accept(MediaType.APPLICATION_JSON)
+      .exchange();
+  }
+
+  protected WebTestClient.ResponseSpec postWithKey(String path, String key, String json) {
+    return client.post().uri("/api/distributor" + path)
+      .header(VendingMachineController.MACHINE_ID_HEADER, "kiosk-1")
+      .header(IdempotencyCache.HEADER, key)
+      .contentType(MediaType.APPLICATION_JSON)
+      .bodyValue(json)
+      .exchange();
+  }
+
+  @Test
+  void retriedRequests_withIdempotencyKey_shouldNotBeAppliedTwice() {
+    postWithKey("/coin", "c1", "{\"value\": 1}").expectStatus().isOk();
+    postWithKey("/coin", "c1", "{\"value\": 1}").expectStatus().isOk()
+      .expectHeader().valueEquals(IdempotencyCache.REPLAYED_HEADER, "true")
+      .expectBody().jsonPath("$.currentBalance").isEqualTo(1.0);
+    postWithKey("/coin", "c1", "{\"value\": 2}").expectStatus().isEqualTo(422)
+      .expectBody().jsonPath("$.error").isEqualTo("Idempotency Key Reused");
+    postWithKey("/coin", "c2", "{\"value\": 0.5}").expectStatus().isOk()
+      .expectBody().jsonPath("$.currentBalance").isEqualTo(1.5);
+    postWithKey("/select", "s1", "{\"productId\": 3}").expectStatus().isOk();
+
+    postWithKey("/dispense", "d1", "{}").expectStatus().isOk()
+      .expectBody().jsonPath("$.dispensedProducts.length()").isEqualTo(1);
+    postWithKey("/dispense", "d1", "{}").expectStatus().isOk()
+      .expectHeader().valueEquals(IdempotencyCache.REPLAYED_HEADER, "true")
+      .expectBody().jsonPath("$.dispensedProducts.length()").isEqualTo(1);
+    get("kiosk-1", "/state").expectStatus().isOk()
+      .expectBody().jsonPath("$.currentBalance").isEqualTo(0.0);
+  }
+
+  @Test
+  void products_withUnitPriceRule_shouldShowThePromotionalPrice() {
+    bindWithRules(List.of(new PriceRule(null, "Chips deal", PriceRuleType.UNIT_PRICE,
+      List.of(chips.getId()), null, new BigDecimal("1.00"), "kiosk-1", null, null)));
+    post("kiosk-1", "/coin", "{\"value\": 2.00}").expectStatus().isOk();
+
+    get("kiosk-1", "/products").expectStatus().isOk()
+      .expectBody()
+      .jsonPath("$[0].purchasable").isEqualTo(false)
+      .jsonPath("$[1].price").isEqualTo(1.0)
+      .jsonPath("$[1].purchasable").isEqualTo(true);
+    get("kiosk-2", "/products").expectStatus().isOk()
+      .expectBody().jsonPath("$[1].price").isEqualTo(4.0);
+  }
+
+  @Test
+  void coin_validCoins_shouldAccumulateBalance() {
+    post("kiosk-1", "/coin", "{\"value\": 5.00}").expectStatus().isOk()
+      .expectBody().jsonPath("$.currentBalance").isEqualTo(5.0);
+    post("kiosk-1", "/coin", "{\"value\": 1}").expectStatus().isOk()
+      .expectBody().jsonPath("$.currentBalance").isEqualTo(6.0);
+  }
+
+  @Test
+  void coin_invalidCoin_shouldBeRejected() {
+    post("kiosk-1", "/coin", "{\"value\": 0.75}").expectStatus().isBadRequest()
+      .expectBody().jsonPath("$.error").isEqualTo("Invalid Coin");
+  }
+
+  @Test
+  void products_shouldFlagWhatTheBalanceCovers() {
+    post("kiosk-1", "/coin", "{\"value\": 2.00}").expectStatus().isOk();
+
+    get("kiosk-1", "/products").expectStatus().isOk()
+      .expectBody()
+      .jsonPath("$.length()").isEqualTo(3)
+      .jsonPath("$[0].name").isEqualTo("Soda")
+      .jsonPath("$[0].purchasable").isEqualTo(false)
+      .jsonPath("$[2].name").isEqualTo("Water")
+      .jsonPath("$[2].purchasable").isEqualTo(true)
+      .jsonPath("$[2].stock").isEqualTo(1);
+  }
+
+  @Test
+  void cbor_shouldBeNegotiated_withMoneyAsCents() throws IOException {
+    ObjectMapper cbor = CborConfig.cborMapper(Jackson2ObjectMapperBuilder.json());
+    byte[] coin = client.post().uri("/api/distributor/coin")
+      .header(VendingMachineController.MACHINE_ID_HEADER, "kiosk-1")
+      .contentType(MediaType.APPLICATION_CBOR)
+      .accept(MediaType.APPLICATION_CBOR)
+      .bodyValue(cbor.writeValueAsBytes(Map.of("value", 200)))
+      .exchange().expectStatus().isOk()
+      .expectHeader().contentType(MediaType.APPLICATION_CBOR)
+      .expectBody(byte[].class).returnResult().getResponseBody();
+    assertEquals(200, cbor.readTree(coin).get("currentBalance").longValue());
+
+    byte[] products = client.get().uri("/api/distributor/products")
+      .header(VendingMachineController.MACHINE_ID_HEADER, "kiosk-1")
+      .accept(MediaType.APPLICATION_CBOR)
+      .exchange().expectStatus().isOk()
+      .expectHeader().contentType(MediaType.APPLICATION_CBOR)
+      .expectBody(byte[].class).returnResult().getResponseBody();
+    JsonNode listing = cbor.readTree(products);
+    assertEquals(3, listing.size());
+    assertTrue(listing.get(0).get("price").isIntegralNumber());
+    assertEquals(350, listing.get(0).get("price").longValue());
+    assertTrue(listing.get(2).get("purchasable").booleanValue());
+  }
+
+  @Test
+  void select_thenState_shouldReportTheCart() {
+    post("kiosk-1", "/coin", "{\"value\": 10.00}").expectStatus().isOk();
+    post("kiosk-1", "/select", "{\"productId\": 1}").expectStatus().isOk();
+
+    post("kiosk-1", "/select", "{\"productId\": 1}").expectStatus().isOk()
+      .expectBody()
+      .jsonPath("$.action").isEqualTo("selected")
+      .jsonPath("$.product.name").isEqualTo("Soda")
+      .jsonPath("$.quantityOfThisProductInSelection").isEqualTo(2)
+      .jsonPath("$.currentSelectedItemsCost").isEqualTo(7.0)
+      .jsonPath("$.currentBalance").isEqualTo(10.0);
+
+    get("kiosk-1", "/state").expectStatus().isOk()
+      .expectBody()
+      .jsonPath("$.currentBalance").isEqualTo(10.0)
+      .jsonPath("$.totalSelectedCost").isEqualTo(7.0)
+      .jsonPath("$.selectedProducts[0].id").isEqualTo(1)
+      .jsonPath("$.selectedProducts[0].quantity").isEqualTo(2);
+  }
+
+  @Test
+  void select_refusals_shouldMapToTheirStatus() {
+    post("kiosk-1", "/coin", "{\"value\": 1.00}").expectStatus().isOk();
+
+    post("kiosk-1", "/select", "{\"productId\": 1}").expectStatus().isEqualTo(402)
+      .expectBody().jsonPath("$.error").isEqualTo("Insufficient Funds");
+    post("kiosk-1", "/select", "{\"productId\": 99}").expectStatus().isNotFound()
+      .expectBody().jsonPath("$.message").isEqualTo("Product with ID 99 not found.");
+    post("kiosk-1", "/select", "{}").expectStatus().isBadRequest()
+      .expectBody()
+      .jsonPath("$.error").isEqualTo("Validation Failed")
+      .jsonPath("$.fieldErrors.productId").isEqualTo("Product ID cannot be null");
+    post("kiosk-1", "/select", "{not json").expectStatus().isBadRequest()
+      .expectBody().jsonPath("$.error").isEqualTo("Malformed JSON Request or Missing Body");
+  }
+
+  @Test
+  void deselect_shouldRemoveOneUnitOrReportItMissing() {
+    post("kiosk-1", "/coin", "{\"value\": 5.00}").expectStatus().isOk();
+    post("kiosk-1", "/select", "{\"productId\": 3}").expectStatus().isOk();
+
+    post("kiosk-1", "/deselect", "{\"productId\": 1}").expectStatus().isBadRequest()
+      .expectBody().jsonPath("$.message")
+      .isEqualTo("Product with ID 1 not found in current selection or does not exist.");
+    post("kiosk-1", "/deselect", "{\"productId\": 3}").expectStatus().isOk()
+      .expectBody()
+      .jsonPath("$.action").isEqualTo("deselected")
+      .jsonPath("$.quantityOfThisProductRemainingInSelection").isEqualTo(0)
+      .jsonPath("$.currentSelectedItemsCost").isEqualTo(0.0);
+  }
+
+  @Test
+  void dispense_shouldReturnProductsAndChangeAndResetTheMachine() {
+    post("kiosk-1", "/coin", "{\"value\": 5.00}").expectStatus().isOk();
+    post("kiosk-1", "/coin", "{\"value\": 1.00}").expectStatus().isOk();
+    post("kiosk-1", "/select", "{\"productId\": 1}").expectStatus().isOk();
+    post("kiosk-1", "/select", "{\"productId\": 3}").expectStatus().isOk();
+
+    post("kiosk-1", "/dispense", "").expectStatus().isOk()
+      .expectBody()
+      .jsonPath("$.dispensedProducts.length()").isEqualTo(2)
+      .jsonPath("$.changeCoins.length()").isEqualTo(1)
+      .jsonPath("$.changeCoins[0]").isEqualTo(1.0);
+    get("kiosk-1", "/state").expectStatus().isOk()
+      .expectBody().jsonPath("$.currentBalance").isEqualTo(0.0);
+    post("kiosk-1", "/dispense", "").expectStatus().isBadRequest()
+      .expectBody().jsonPath("$.error").isEqualTo("No Item Selected");
+  }
+
+  @Test
+  void cancel_shouldRefundOnlyThatMachine() {
+    post("kiosk-1", "/coin", "{\"value\": 5.00}").expectStatus().isOk();
+    post("kiosk-2", "/coin", "{\"value\": 2.00}").expectStatus().isOk();
+
+    post("kiosk-1", "/cancel", "").expectStatus().isOk()
+      .expectBody().jsonPath("$.refundedCoins[0]").isEqualTo(5.0);
+    get("kiosk-2", "/state").expectStatus().isOk()
+      .expectBody().jsonPath("$.currentBalance").isEqualTo(2.0);
+  }
+}
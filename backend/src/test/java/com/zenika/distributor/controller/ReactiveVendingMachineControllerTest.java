@@ -0,0 +1,81 @@
+package com.zenika.distributor.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zenika.distributor.config.CborConfig;
+import com.zenika.distributor.dto.ProductDTO;
+import com.zenika.distributor.events.MachineEventStream;
+import com.zenika.distributor.events.MachineEventStream;
+import com.zenika.distributor.idempotency.IdempotencyCache;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.repository.ReactiveProductRepository;
+import com.zenika.distributor.service.ReactiveVendingMachineService;
+import com.zenika.distributor.service.VendingMachineService;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class ReactiveVendingMachineControllerTest extends DistributorApiContract {
+
+  @Override
+  protected WebTestClient bind(VendingMachineService vendingMachineService, MachineEventStream machineEventStream,
+                               List<Product> catalog) {
+    ConnectionFactory connectionFactory = ConnectionFactories.get(
+      "r2dbc:h2:mem:///" + UUID.randomUUID() + "?options=DB_CLOSE_DELAY=-1");
+    DatabaseClient database = DatabaseClient.create(connectionFactory);
+    database.sql("CREATE TABLE product (id BIGINT PRIMARY KEY, name VARCHAR(255), price DECIMAL(12, 2), stock INT NOT NULL)")
+      .then()
+      .thenMany(Flux.fromIterable(catalog).concatMap(product -> database
+        .sql("INSERT INTO product (id, name, price, stock) VALUES (:id, :name, :price, :stock)")
+        .bind("id", product.getId())
+        .bind("name", product.getName())
+        .bind("price", product.getPrice())
+        .bind("stock", product.getStock())
+        .then()))
+      .blockLast();
+
+    ReactiveVendingMachineService reactiveService = new ReactiveVendingMachineService(vendingMachineService,
+      catalogCache, new ReactiveProductRepository(connectionFactory), machineEventStream);
+    ObjectMapper json = Jackson2ObjectMapperBuilder.json().build();
+    ObjectMapper cbor = CborConfig.cborMapper(Jackson2ObjectMapperBuilder.json());
+    return WebTestClient.bindToController(new ReactiveVendingMachineController(reactiveService,
+        new IdempotencyCache(Duration.ofMinutes(10), 1000)))
+      .controllerAdvice(new GlobalExceptionHandler())
+      .httpMessageCodecs(configurer -> CborConfig.registerCodecs(configurer, json, cbor))
+      .build();
+  }
+
+  @Test
+  void products_coldCatalog_shouldStreamFromR2dbcAndCacheTheSnapshot() {
+    assertNull(catalogCache.peekSnapshot());
+
+    List<ProductDTO> products = client.get().uri("/api/distributor/products")
+      .accept(MediaType.APPLICATION_NDJSON)
+      .exchange()
+      .expectStatus().isOk()
+      .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+      .expectBodyList(ProductDTO.class)
+      .returnResult()
+      .getResponseBody();
+
+    assertEquals(List.of("Soda", "Chips", "Water"), products.stream().map(ProductDTO::getName).toList());
+    assertEquals(1, products.get(2).getStock());
+    assertNotNull(catalogCache.peekSnapshot());
+    assertEquals(3, catalogCache.peekSnapshot().size());
+    verify(productRepository, never()).findAll();
+  }
+}
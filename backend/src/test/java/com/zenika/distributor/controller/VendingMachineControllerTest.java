@@ -0,0 +1,109 @@
+package com.zenika.distributor.controller;
+
+import com.zenika.distributor.config.CborConfig;
+import com.zenika.distributor.events.MachineEventStream;
+import com.zenika.distributor.idempotency.IdempotencyCache;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.service.VendingMachineService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class VendingMachineControllerTest extends DistributorApiContract {
+
+  @Override
+  protected WebTestClient bind(VendingMachineService vendingMachineService, MachineEventStream machineEventStream,
+                               List<Product> catalog) {
+    return MockMvcWebTestClient.bindToController(new VendingMachineController(vendingMachineService, machineEventStream,
+        new IdempotencyCache(Duration.ofMinutes(10), 1000)))
+      .controllerAdvice(new GlobalExceptionHandler())
+      .messageConverters(new MappingJackson2HttpMessageConverter(),
+        new MappingJackson2CborHttpMessageConverter(CborConfig.cborMapper(Jackson2ObjectMapperBuilder.json())))
+      .build();
+  }
+
+  private WebTestClient.ResponseSpec getIfNoneMatch(String path, String etag) {
+    return client.get().uri("/api/distributor" + path)
+      .header(VendingMachineController.MACHINE_ID_HEADER, "kiosk-1")
+      .header(HttpHeaders.IF_NONE_MATCH, etag)
+      .exchange();
+  }
+
+  @Test
+  void products_unchangedPoll_shouldAnswerNotModified() {
+    String etag = get("kiosk-1", "/products").expectStatus().isOk()
+      .expectHeader().exists(HttpHeaders.LAST_MODIFIED)
+      .expectBody().returnResult().getResponseHeaders().getETag();
+    assertNotNull(etag);
+
+    getIfNoneMatch("/products", etag).expectStatus().isNotModified()
+      .expectHeader().valueEquals(HttpHeaders.ETAG, etag)
+      .expectBody().isEmpty();
+    verify(productRepository, times(1)).findAll();
+
+    // The balance changes what is purchasable, a reservation the units left
+    post("kiosk-1", "/coin", "{\"value\": 2.00}").expectStatus().isOk();
+    String afterCoin = getIfNoneMatch("/products", etag).expectStatus().isOk()
+      .expectBody().jsonPath("$[2].purchasable").isEqualTo(true)
+      .returnResult().getResponseHeaders().getETag();
+    String firstPage = get("kiosk-1", "/products?limit=1").expectStatus().isOk()
+      .expectBody().returnResult().getResponseHeaders().getETag();
+    post("kiosk-2", "/coin", "{\"value\": 5.00}").expectStatus().isOk();
+    post("kiosk-2", "/select", "{\"productId\": 3}").expectStatus().isOk();
+    getIfNoneMatch("/products?limit=1", firstPage).expectStatus().isNotModified(); // Water is not on that page
+    String afterWater = getIfNoneMatch("/products", afterCoin).expectStatus().isOk()
+      .expectBody().jsonPath("$[2].stock").isEqualTo(0)
+      .returnResult().getResponseHeaders().getETag();
+    // One soda sold of ten, still in stock
+    post("kiosk-2", "/select", "{\"productId\": 1}").expectStatus().isOk();
+    post("kiosk-2", "/dispense", "{}").expectStatus().isOk();
+    getIfNoneMatch("/products", afterWater).expectStatus().isOk()
+      .expectBody().jsonPath("$[0].stock").isEqualTo(9);
+    getIfNoneMatch("/products?limit=1", firstPage).expectStatus().isOk();
+  }
+
+  @Test
+  void bulkOrders_retriedWithIdempotencyKey_shouldNotBePlacedTwice() {
+    String orders = "{\"orders\": [{\"machineId\": \"kiosk-1\", \"coins\": [1, 0.5], \"items\": [{\"productId\": 3, \"quantity\": 1}]}]}";
+    postWithKey("/orders", "b1", orders).expectStatus().isOk()
+      .expectBody().jsonPath("$.dispensed").isEqualTo(1);
+    postWithKey("/orders", "b1", orders.replace("[1, 0.5]", "[1.00, 0.50]")).expectStatus().isOk()
+      .expectHeader().valueEquals(IdempotencyCache.REPLAYED_HEADER, "true")
+      .expectBody().jsonPath("$.dispensed").isEqualTo(1);
+    postWithKey("/orders", "b2", orders).expectStatus().isOk()
+      .expectBody().jsonPath("$.dispensed").isEqualTo(0); // Water is sold out
+    // Keys are scoped by the machines ordered for
+    postWithKey("/orders", "b1", orders.replace("kiosk-1", "kiosk-2")).expectStatus().isOk()
+      .expectHeader().doesNotExist(IdempotencyCache.REPLAYED_HEADER);
+  }
+
+  @Test
+  void products_withLimit_shouldBePagedByProductId() {
+    get("kiosk-1", "/products?limit=2").expectStatus().isOk()
+      .expectHeader().valueEquals(HttpHeaders.LINK, "</api/distributor/products?after=2&limit=2>; rel=\"next\"")
+      .expectBody()
+      .jsonPath("$.length()").isEqualTo(2)
+      .jsonPath("$[0].name").isEqualTo("Soda")
+      .jsonPath("$[1].name").isEqualTo("Chips");
+
+    get("kiosk-1", "/products?after=2&limit=2").expectStatus().isOk()
+      .expectHeader().doesNotExist(HttpHeaders.LINK)
+      .expectBody()
+      .jsonPath("$.length()").isEqualTo(1)
+      .jsonPath("$[0].name").isEqualTo("Water");
+
+    get("kiosk-1", "/products?after=3").expectStatus().isOk()
+      .expectBody().jsonPath("$.length()").isEqualTo(0);
+  }
+}
@@ -0,0 +1,206 @@
+package com.zenika.distributor.events;
+
+import com.zenika.distributor.enums.PriceRuleType;
+import com.zenika.distributor.model.PriceRule;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.pricing.PricingEngine;
+import com.zenika.distributor.service.CatalogCache;
+import com.zenika.distributor.service.ServiceFixture;
+import com.zenika.distributor.service.StockService;
+import com.zenika.distributor.service.VendingMachineService;
+import com.zenika.distributor.service.VendingMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MachineEventStreamTest {
+
+  private ServiceFixture fixture;
+  private CatalogCache catalogCache;
+  private StockService stockService;
+
+  @BeforeEach
+  void setUp() {
+    Product soda = new Product(1L, "Soda", new BigDecimal("3.50"), 10);
+    Product chips = new Product(2L, "Chips", new BigDecimal("4.00"), 10);
+    Product water = new Product(3L, "Water", new BigDecimal("1.50"), 1);
+    fixture = ServiceFixture.mocked(Arrays.asList(soda, chips, water));
+    catalogCache = fixture.catalogCache;
+    stockService = fixture.stockService;
+  }
+
+  private static EventSubscription subscribe(VendingMachineService service, MachineEventStream stream,
+                                             String machineId, EventSink sink) {
+    return service.withCartState(machineId, (id, state) -> stream.subscribe(id, state, sink));
+  }
+
+  @Test
+  void subscribe_shouldSendStateThenDeltas() {
+    MachineEventStream stream = new MachineEventStream(catalogCache, stockService, Runnable::run, 256);
+    VendingMachineService service = fixture.service(stream);
+    RecordingSink sink = new RecordingSink();
+
+    subscribe(service, stream, "kiosk-1", sink);
+    assertEquals(List.of("state {\"balance\":0.00,\"selectedCost\":0.00,\"cart\":[],\"affordable\":[]}"), sink.take());
+
+    service.insertCoin("kiosk-1", new BigDecimal("2.00"));
+    assertEquals(List.of(
+      "balance {\"balance\":2.00,\"selectedCost\":0.00}",
+      "affordability {\"affordable\":[3]}"), sink.take());
+
+    service.insertCoin("kiosk-1", new BigDecimal("5.00"));
+    service.addToCart("kiosk-1", 1L);
+    assertEquals(List.of(
+      "balance {\"balance\":7.00,\"selectedCost\":0.00}",
+      "affordability {\"affordable\":[1,2]}",
+      "cart {\"lines\":[{\"productId\":1,\"quantity\":1}]}",
+      "balance {\"balance\":7.00,\"selectedCost\":3.50}",
+      "affordability {\"unaffordable\":[2]}"), sink.take());
+
+    stream.flushStock();
+    assertEquals(List.of("stock {\"products\":[{\"productId\":1,\"stock\":9}]}"), sink.take());
+
+    service.cancelTransaction("kiosk-1");
+    assertEquals(List.of(
+      "cart {\"lines\":[{\"productId\":1,\"quantity\":0}]}",
+      "balance {\"balance\":0.00,\"selectedCost\":0.00}",
+      "affordability {\"unaffordable\":[3,1]}"), sink.take());
+    stream.flushStock();
+    assertEquals(List.of("stock {\"products\":[{\"productId\":1,\"stock\":10}]}"), sink.take());
+  }
+
+  @Test
+  void subscribe_midTransaction_shouldStartFromTheCurrentCart() {
+    MachineEventStream stream = new MachineEventStream(catalogCache, stockService, Runnable::run, 256);
+    VendingMachineService service = fixture.service(stream);
+    service.insertCoin("kiosk-1", new BigDecimal("5.00"));
+    service.addToCart("kiosk-1", 3L);
+    RecordingSink sink = new RecordingSink();
+
+    subscribe(service, stream, "kiosk-1", sink);
+
+    // The only water is in the cart, so one more is not affordable
+    assertEquals(List.of("state {\"balance\":5.00,\"selectedCost\":1.50,"
+      + "\"cart\":[{\"productId\":3,\"quantity\":1}],\"affordable\":[1]}"), sink.take());
+  }
+
+  @Test
+  void affordability_shouldFollowPromotionsAndStock() {
+    PricingEngine pricing = fixture.pricing(List.of(new PriceRule(null, "Chips deal", PriceRuleType.UNIT_PRICE,
+      List.of(2L), null, new BigDecimal("1.00"), "kiosk-1", null, null)));
+    MachineEventStream stream = new MachineEventStream(catalogCache, stockService, pricing, Runnable::run, 256);
+    VendingMachineService service = fixture.service(VendingMetrics.NONE, pricing, stream);
+    RecordingSink sink = new RecordingSink();
+    subscribe(service, stream, "kiosk-1", sink);
+    sink.take();
+
+    service.insertCoin("kiosk-1", new BigDecimal("2.00"));
+    assertEquals(List.of(
+      "balance {\"balance\":2.00,\"selectedCost\":0.00}",
+      "affordability {\"affordable\":[3,2]}"), sink.take());
+
+    // Another machine takes the last water, then gives it back
+    service.insertCoin("kiosk-2", new BigDecimal("2.00"));
+    service.addToCart("kiosk-2", 3L);
+    stream.flushStock();
+    assertEquals(List.of(
+      "stock {\"products\":[{\"productId\":3,\"stock\":0}]}",
+      "affordability {\"unaffordable\":[3]}"), sink.take());
+    service.cancelTransaction("kiosk-2");
+    stream.flushStock();
+    assertEquals(List.of(
+      "stock {\"products\":[{\"productId\":3,\"stock\":1}]}",
+      "affordability {\"affordable\":[3]}"), sink.take());
+
+    // The promotion ends: the next event resends the whole state at catalog prices
+    pricing.install(List.of());
+    service.insertCoin("kiosk-1", new BigDecimal("1.00"));
+    assertEquals(List.of("state {\"balance\":3.00,\"selectedCost\":0.00,\"cart\":[],\"affordable\":[3]}"),
+      sink.take());
+  }
+
+  @Test
+  void otherMachines_shouldOnlyShareStock() {
+    MachineEventStream stream = new MachineEventStream(catalogCache, stockService, Runnable::run, 256);
+    VendingMachineService service = fixture.service(stream);
+    RecordingSink sink = new RecordingSink();
+    subscribe(service, stream, "kiosk-1", sink);
+    sink.take();
+
+    service.insertCoin("kiosk-2", new BigDecimal("5.00"));
+    service.addToCart("kiosk-2", 3L);
+    assertEquals(List.of(), sink.take());
+
+    stream.flushStock();
+    stream.flushStock();
+    assertEquals(List.of("stock {\"products\":[{\"productId\":3,\"stock\":0}]}"), sink.take());
+  }
+
+  @Test
+  void close_shouldStopDeliveryAndForgetTheMachine() {
+    MachineEventStream stream = new MachineEventStream(catalogCache, stockService, Runnable::run, 256);
+    VendingMachineService service = fixture.service(stream);
+    RecordingSink sink = new RecordingSink();
+    EventSubscription subscription = subscribe(service, stream, "kiosk-1", sink);
+    assertEquals(1, stream.getSubscriptions());
+
+    subscription.close();
+    subscription.close();
+    service.insertCoin("kiosk-1", new BigDecimal("1.00"));
+
+    assertEquals(0, stream.getSubscriptions());
+    assertEquals(1, sink.closed);
+    assertEquals(1, sink.take().size());
+  }
+
+  @Test
+  void slowConnection_shouldBeClosedOnceTooFarBehind() {
+    List<Runnable> pending = new ArrayList<>();
+    Executor stalled = pending::add;
+    MachineEventStream stream = new MachineEventStream(catalogCache, stockService, stalled, 2);
+    VendingMachineService service = fixture.service(stream);
+    RecordingSink sink = new RecordingSink();
+    EventSubscription subscription = subscribe(service, stream, "kiosk-1", sink);
+
+    service.insertCoin("kiosk-1", new BigDecimal("2.00")); // balance and affordability
+
+    assertTrue(subscription.isClosed());
+    assertEquals(0, stream.getSubscriptions());
+    assertEquals(1, sink.closed);
+    pending.forEach(Runnable::run);
+    assertEquals(List.of(), sink.take());
+  }
+
+  private static final class RecordingSink implements EventSink {
+    private final List<String> events = new ArrayList<>();
+    private int closed;
+
+    @Override
+    public void send(String event, String data) {
+      events.add(event + " " + data);
+    }
+
+    @Override
+    public void heartbeat() {
+      events.add(":");
+    }
+
+    @Override
+    public void close() {
+      closed++;
+    }
+
+    List<String> take() {
+      List<String> taken = new ArrayList<>(events);
+      events.clear();
+      return taken;
+    }
+  }
+}
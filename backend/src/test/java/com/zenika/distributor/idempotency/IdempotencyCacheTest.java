@@ -0,0 +1,177 @@
+package com.zenika.distributor.idempotency;
+
+import com.zenika.distributor.exception.IdempotencyKeyReusedException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyCacheTest {
+
+  private final AtomicInteger runs = new AtomicInteger();
+
+  private ResponseEntity<Integer> count() {
+    return ResponseEntity.ok(runs.incrementAndGet());
+  }
+
+  @Test
+  void execute_sameKey_shouldRunOnceAndReplayTheResponse() {
+    IdempotencyCache cache = new IdempotencyCache(Duration.ofMinutes(10), 100);
+
+    ResponseEntity<Integer> first = cache.execute("kiosk-1", "k1", "coin", "5", this::count);
+    ResponseEntity<Integer> retry = cache.execute("kiosk-1", "k1", "coin", "5", this::count);
+
+    assertEquals(1, first.getBody());
+    assertEquals(1, retry.getBody());
+    assertEquals("true", retry.getHeaders().getFirst(IdempotencyCache.REPLAYED_HEADER));
+    assertEquals(2, cache.execute("kiosk-2", "k1", "coin", "5", this::count).getBody()); // Keys are per machine
+    assertEquals(3, cache.execute("kiosk-1", null, "coin", "5", this::count).getBody());
+    assertEquals(1, cache.getReplays());
+  }
+
+  @Test
+  void execute_keyReusedForAnotherRequest_shouldBeRefused() {
+    IdempotencyCache cache = new IdempotencyCache(Duration.ofMinutes(10), 100);
+    cache.execute("kiosk-1", "k1", "coin", "5", this::count);
+
+    assertThrows(IdempotencyKeyReusedException.class, () -> cache.execute("kiosk-1", "k1", "coin", "10", this::count));
+    assertThrows(IdempotencyKeyReusedException.class, () -> cache.execute("kiosk-1", "k1", "dispense", null, this::count));
+    assertEquals(1, runs.get());
+  }
+
+  @Test
+  void execute_sameAmountAtAnotherScale_shouldReplay() {
+    IdempotencyCache cache = new IdempotencyCache(Duration.ofMinutes(10), 100);
+    cache.execute("kiosk-1", "k1", "coin", IdempotencyCache.normalized(new BigDecimal("1.00")), this::count);
+
+    ResponseEntity<Integer> retry = cache.execute("kiosk-1", "k1", "coin",
+      IdempotencyCache.normalized(new BigDecimal("1")), this::count);
+
+    assertEquals(1, retry.getBody());
+    assertEquals("true", retry.getHeaders().getFirst(IdempotencyCache.REPLAYED_HEADER));
+  }
+
+  @Test
+  void execute_failedAttempt_shouldBeForgotten() {
+    IdempotencyCache cache = new IdempotencyCache(Duration.ofMinutes(10), 100);
+
+    assertThrows(IllegalStateException.class, () -> cache.execute("kiosk-1", "k1", "dispense", null, () -> {
+      throw new IllegalStateException("no change");
+    }));
+    assertEquals(1, cache.execute("kiosk-1", "k1", "dispense", null, this::count).getBody());
+  }
+
+  @Test
+  void execute_shouldDropExpiredAndOldestEntries() {
+    IdempotencyCache expiring = new IdempotencyCache(Duration.ZERO, 100);
+    expiring.execute("kiosk-1", "k1", "coin", "5", this::count);
+    assertEquals(2, expiring.execute("kiosk-1", "k1", "coin", "5", this::count).getBody());
+    assertEquals(0, expiring.size()); // Expired as soon as stored
+
+    runs.set(0);
+    IdempotencyCache bounded = new IdempotencyCache(Duration.ofMinutes(10), 3);
+    for (int i = 0; i < 10; i++) {
+      bounded.execute("kiosk-1", "key-" + i, "coin", "5", this::count);
+    }
+    assertEquals(3, bounded.size());
+    assertEquals(10, bounded.execute("kiosk-1", "key-9", "coin", "5", this::count).getBody());
+    assertEquals(11, bounded.execute("kiosk-1", "key-0", "coin", "5", this::count).getBody());
+  }
+
+  @Test
+  void execute_concurrentRetries_shouldWaitForTheFirstAttempt() throws Exception {
+    IdempotencyCache cache = new IdempotencyCache(Duration.ofMinutes(10), 100);
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<ResponseEntity<Integer>>> responses = new ArrayList<>();
+      responses.add(executor.submit(() -> cache.execute("kiosk-1", "k1", "dispense", null, () -> {
+        running.countDown();
+        await(release);
+        return count();
+      })));
+      assertTrue(running.await(5, TimeUnit.SECONDS));
+      for (int i = 0; i < 3; i++) {
+        responses.add(executor.submit(() -> cache.execute("kiosk-1", "k1", "dispense", null, this::count)));
+      }
+      release.countDown();
+      for (Future<ResponseEntity<Integer>> response : responses) {
+        assertEquals(1, response.get(5, TimeUnit.SECONDS).getBody());
+      }
+      assertEquals(1, runs.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void execute_overCapacity_shouldKeepEntriesStillRunning() throws Exception {
+    IdempotencyCache cache = new IdempotencyCache(Duration.ofMinutes(10), 1);
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<ResponseEntity<Integer>> first = executor.submit(() -> cache.execute("kiosk-1", "k1", "dispense", null, () -> {
+        running.countDown();
+        await(release);
+        return count();
+      }));
+      assertTrue(running.await(5, TimeUnit.SECONDS));
+      // Pushes the cache over capacity while k1 runs
+      cache.execute("kiosk-1", "k2", "dispense", null, this::count);
+      cache.execute("kiosk-1", "k3", "dispense", null, this::count);
+      Future<ResponseEntity<Integer>> retry = executor.submit(() -> cache.execute("kiosk-1", "k1", "dispense", null, this::count));
+      release.countDown();
+
+      assertEquals(first.get(5, TimeUnit.SECONDS).getBody(), retry.get(5, TimeUnit.SECONDS).getBody());
+      assertEquals(3, runs.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void execute_expiredWhileRunning_shouldNotRunAgain() throws Exception {
+    IdempotencyCache cache = new IdempotencyCache(Duration.ZERO, 100);
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<ResponseEntity<Integer>> first = executor.submit(() -> cache.execute("kiosk-1", "k1", "dispense", null, () -> {
+        running.countDown();
+        await(release);
+        return count();
+      }));
+      assertTrue(running.await(5, TimeUnit.SECONDS));
+      // k1 has outlived its TTL but still runs
+      Future<ResponseEntity<Integer>> retry = executor.submit(() -> cache.execute("kiosk-1", "k1", "dispense", null, this::count));
+      release.countDown();
+
+      assertEquals(1, first.get(5, TimeUnit.SECONDS).getBody());
+      assertEquals(1, retry.get(5, TimeUnit.SECONDS).getBody());
+      assertEquals(1, runs.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
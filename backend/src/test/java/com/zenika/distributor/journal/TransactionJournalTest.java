@@ -0,0 +1,219 @@
+package com.zenika.distributor.journal;
+
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.service.Cart;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionJournalTest {
+
+  @TempDir
+  Path directory;
+
+  private final Product soda = new Product(1L, "Soda", new BigDecimal("3.50"), 10);
+  private final Product chips = new Product(2L, "Chips", new BigDecimal("4.00"), 10);
+
+  private TransactionJournal open(FsyncPolicy policy, DataSize segmentSize) throws IOException {
+    return new TransactionJournal(directory, segmentSize, policy, Duration.ofMillis(5));
+  }
+
+  private static int[] coins(Coin coin, int count) {
+    int[] coins = new int[Coin.values().length];
+    coins[coin.ordinal()] = count;
+    return coins;
+  }
+
+  @Test
+  void replay_shouldRebuildInFlightSessionsAndTotals() throws IOException {
+    try (TransactionJournal journal = open(FsyncPolicy.BATCH, DataSize.ofMegabytes(1))) {
+      // kiosk-1 buys a soda and gets 1.50 back
+      journal.onCoinInserted("kiosk-1", Coin.FIVE_MAD);
+      journal.onProductSelected("kiosk-1", soda);
+      Cart sold = new Cart();
+      sold.add(soda);
+      int[] change = coins(Coin.ONE_MAD, 1);
+      change[Coin.HALF_MAD.ordinal()] = 1;
+      journal.onDispensed("kiosk-1", sold.lines(), change);
+      // kiosk-2 is still choosing
+      journal.onCoinInserted("kiosk-2", Coin.TEN_MAD);
+      journal.onProductSelected("kiosk-2", chips);
+      journal.onProductSelected("kiosk-2", chips);
+      journal.onProductSelected("kiosk-2", soda);
+      journal.onProductDeselected("kiosk-2", soda.getId(), 1);
+      // kiosk-3 cancelled
+      journal.onCoinInserted("kiosk-3", Coin.TWO_MAD);
+      journal.onRefunded("kiosk-3", coins(Coin.TWO_MAD, 1));
+    }
+
+    try (TransactionJournal journal = open(FsyncPolicy.BATCH, DataSize.ofMegabytes(1))) {
+      JournalReplay replay = journal.getReplay();
+      assertEquals(10, replay.getEvents());
+      assertEquals(1, replay.getSales());
+      assertEquals(1, replay.getRefunds());
+
+      assertEquals(1, replay.getPendingSessions().size());
+      JournalReplay.PendingSession pending = replay.getPendingSessions().iterator().next();
+      assertEquals("kiosk-2", pending.getMachineId());
+      assertEquals(List.of(Coin.TEN_MAD), pending.getCoins());
+      assertEquals(Map.of(chips.getId(), 2), pending.getSelection());
+
+      // Appends continue after the replayed records
+      journal.onRefunded("kiosk-2", coins(Coin.TEN_MAD, 1));
+    }
+
+    try (TransactionJournal journal = open(FsyncPolicy.NONE, DataSize.ofMegabytes(1))) {
+      assertEquals(11, journal.getReplay().getEvents());
+      assertTrue(journal.getReplay().getPendingSessions().isEmpty());
+    }
+  }
+
+  @Test
+  void replay_adoptedSession_shouldBePendingWithItsCoins() throws IOException {
+    try (TransactionJournal journal = open(FsyncPolicy.BATCH, DataSize.ofMegabytes(1))) {
+      Cart handedOver = new Cart();
+      handedOver.add(chips, 2);
+      journal.onSessionAdopted("kiosk-1", List.of(Coin.TEN_MAD, Coin.ONE_MAD), handedOver.lines());
+      journal.onCoinInserted("kiosk-1", Coin.HALF_MAD);
+      journal.onSessionAdopted("kiosk-2", List.of(Coin.TWO_MAD), List.of());
+      journal.onSessionEvicted("kiosk-2"); // Handed over again
+    }
+
+    try (TransactionJournal journal = open(FsyncPolicy.BATCH, DataSize.ofMegabytes(1))) {
+      JournalReplay replay = journal.getReplay();
+      assertEquals(1, replay.getPendingSessions().size());
+      JournalReplay.PendingSession pending = replay.getPendingSessions().iterator().next();
+      assertEquals("kiosk-1", pending.getMachineId());
+      assertEquals(List.of(Coin.ONE_MAD, Coin.TEN_MAD, Coin.HALF_MAD), pending.getCoins());
+      assertEquals(Map.of(chips.getId(), 2), pending.getSelection());
+    }
+  }
+
+  @Test
+  void replay_tornLastRecord_shouldStopBeforeItAndBeOverwritten() throws IOException {
+    long sizeBefore;
+    try (TransactionJournal journal = open(FsyncPolicy.NONE, DataSize.ofKilobytes(64))) {
+      journal.onCoinInserted("kiosk-1", Coin.ONE_MAD);
+      sizeBefore = journal.getAppendedBytes();
+      journal.onCoinInserted("kiosk-1", Coin.TWO_MAD);
+    }
+    try (RandomAccessFile file = new RandomAccessFile(JournalReader.segmentPath(directory, 0).toFile(), "rw")) {
+      file.seek(sizeBefore + TransactionJournal.HEADER_BYTES + 2); // Inside the second record's body
+      file.write(0x7F);
+    }
+
+    try (TransactionJournal journal = open(FsyncPolicy.NONE, DataSize.ofKilobytes(64))) {
+      assertEquals(1, journal.getReplay().getEvents());
+      journal.onCoinInserted("kiosk-1", Coin.HALF_MAD);
+    }
+    try (TransactionJournal journal = open(FsyncPolicy.NONE, DataSize.ofKilobytes(64))) {
+      assertEquals(2, journal.getReplay().getEvents());
+      assertEquals(List.of(Coin.ONE_MAD, Coin.HALF_MAD), journal.getReplay().getPendingSessions().iterator().next().getCoins());
+    }
+  }
+
+  @Test
+  void append_pastSegmentSize_shouldRollToNewSegments() throws IOException {
+    try (TransactionJournal journal = open(FsyncPolicy.NONE, DataSize.ofBytes(512))) {
+      for (int i = 0; i < 100; i++) {
+        journal.onCoinInserted("kiosk-" + (i % 7), Coin.ONE_MAD);
+      }
+    }
+    assertTrue(JournalReader.segments(directory).size() > 1);
+    try (TransactionJournal journal = open(FsyncPolicy.NONE, DataSize.ofBytes(512))) {
+      assertEquals(100, journal.getReplay().getEvents());
+      assertEquals(7, journal.getReplay().getPendingSessions().size());
+    }
+  }
+
+  @Test
+  void append_pastSegmentSize_shouldCheckpointSoOpeningReadsOnlyNewSegments() throws IOException {
+    try (TransactionJournal journal = open(FsyncPolicy.NONE, DataSize.ofBytes(512))) {
+      for (int i = 0; i < 60; i++) {
+        journal.onCoinInserted("kiosk-" + (i % 3), Coin.ONE_MAD);
+      }
+      journal.onProductSelected("kiosk-0", soda);
+      Cart sold = new Cart();
+      sold.add(soda);
+      journal.onDispensed("kiosk-1", sold.lines(), coins(Coin.ONE_MAD, 16));
+    }
+    int lastSegment = JournalReader.segments(directory).size() - 1;
+    assertTrue(lastSegment > 0);
+    // Older segments stay as the audit log but are no longer read
+    for (int segment = 0; segment < lastSegment; segment++) {
+      try (RandomAccessFile file = new RandomAccessFile(JournalReader.segmentPath(directory, segment).toFile(), "rw")) {
+        file.write(new byte[(int) file.length()]);
+      }
+    }
+
+    try (TransactionJournal journal = open(FsyncPolicy.NONE, DataSize.ofBytes(512))) {
+      JournalReplay replay = journal.getReplay();
+      assertEquals(List.of(JournalCheckpoint.checkpointPath(directory, lastSegment)), JournalCheckpoint.checkpoints(directory));
+      assertEquals(62, replay.getEvents());
+      assertEquals(1, replay.getSales());
+      assertEquals(2, replay.getPendingSessions().size());
+      JournalReplay.PendingSession kiosk0 = replay.getPendingSessions().iterator().next();
+      assertEquals("kiosk-0", kiosk0.getMachineId());
+      assertEquals(20, kiosk0.getCoins().size());
+      assertEquals(Map.of(soda.getId(), 1), kiosk0.getSelection());
+    }
+  }
+
+  @Test
+  void syncPolicy_shouldWaitForTheDiskOnceTheSessionIsReleased() throws IOException {
+    try (TransactionJournal journal = new TransactionJournal(directory, DataSize.ofMegabytes(1), FsyncPolicy.SYNC,
+      Duration.ofHours(1))) {
+      journal.onCoinInserted("kiosk-1", Coin.ONE_MAD);
+      journal.onProductSelected("kiosk-1", soda);
+      assertTrue(journal.getForcedBytes() < journal.getAppendedBytes(), "No fsync while the session is locked");
+
+      journal.onSessionReleased("kiosk-1");
+      assertEquals(journal.getAppendedBytes(), journal.getForcedBytes());
+    }
+  }
+
+  @Test
+  void syncPolicy_concurrentAppenders_shouldAllBeDurableOnReturn() throws Exception {
+    int threads = 8;
+    int perThread = 200;
+    try (TransactionJournal journal = open(FsyncPolicy.SYNC, DataSize.ofMegabytes(1))) {
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      List<Future<?>> appenders = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        String machineId = "kiosk-" + t;
+        appenders.add(executor.submit(() -> {
+          for (int i = 0; i < perThread; i++) {
+            journal.onCoinInserted(machineId, Coin.HALF_MAD);
+            journal.onSessionReleased(machineId);
+            long forced = journal.getForcedBytes();
+            assertTrue(forced > 0 && forced <= journal.getAppendedBytes());
+          }
+        }));
+      }
+      for (Future<?> appender : appenders) {
+        appender.get(30, TimeUnit.SECONDS);
+      }
+      executor.shutdown();
+      assertEquals(journal.getAppendedBytes(), journal.getForcedBytes());
+    }
+    try (TransactionJournal journal = open(FsyncPolicy.NONE, DataSize.ofMegabytes(1))) {
+      assertEquals(threads * perThread, journal.getReplay().getEvents());
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package com.zenika.distributor.metrics;
+
+import com.zenika.distributor.events.MachineEventStream;
+import com.zenika.distributor.exception.InvalidCoinException;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.pricing.PriceBookSource;
+import com.zenika.distributor.service.ServiceFixture;
+import com.zenika.distributor.service.SessionRegistry;
+import com.zenika.distributor.service.VendingMachineService;
+import com.zenika.distributor.service.VendingMetrics.Operation;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class MicrometerVendingMetricsTest {
+
+  private static final Operation[] OPERATIONS = Operation.values();
+
+  private PrometheusMeterRegistry registry;
+  private MicrometerVendingMetrics metrics;
+  private VendingMachineService vendingMachineService;
+
+  @BeforeEach
+  void setUp() {
+    ServiceFixture fixture = ServiceFixture.mocked(List.of(new Product(1L, "Soda", new BigDecimal("3.50"), 10)));
+    SessionRegistry sessionRegistry = new SessionRegistry(Duration.ofMinutes(15));
+    registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+    metrics = new MicrometerVendingMetrics(registry, sessionRegistry, fixture.stockService, fixture.coinInventoryService,
+      fixture.catalogCache, new MachineEventStream(fixture.catalogCache, fixture.stockService, Runnable::run, 256));
+    vendingMachineService = fixture.service(sessionRegistry, metrics, PriceBookSource.NONE);
+  }
+
+  private Timer operation(String operation, String outcome) {
+    return registry.get("distributor.operations").tag("operation", operation).tag("outcome", outcome).timer();
+  }
+
+  @Test
+  void operations_shouldBeTimedByOutcome() {
+    vendingMachineService.insertCoin("kiosk-1", new BigDecimal("5.00"));
+    assertThrows(InvalidCoinException.class, () -> vendingMachineService.insertCoin("kiosk-1", new BigDecimal("0.75")));
+    vendingMachineService.addToCart("kiosk-1", 1L);
+
+    assertEquals(1, operation("insertCoin", "success").count());
+    assertEquals(1, operation("insertCoin", "failure").count());
+    assertEquals(1, operation("selectProduct", "success").count());
+    assertEquals(1, registry.get("distributor.sessions.active").gauge().value());
+    assertEquals(1, registry.get("distributor.cart.reserved").gauge().value());
+    assertEquals(1, registry.get("distributor.coins.inventory").tag("coin", "5.00").gauge().value());
+  }
+
+  @Test
+  void dispense_shouldRecordCheckoutAndChange() {
+    vendingMachineService.insertCoin("kiosk-1", new BigDecimal("2.00"));
+    vendingMachineService.insertCoin("kiosk-1", new BigDecimal("1.00"));
+    vendingMachineService.insertCoin("kiosk-1", new BigDecimal("0.50"));
+    vendingMachineService.insertCoin("kiosk-1", new BigDecimal("0.50"));
+    vendingMachineService.addToCart("kiosk-1", 1L);
+
+    vendingMachineService.dispenseProducts("kiosk-1");
+
+    assertEquals(1, operation("dispense", "success").count());
+    assertEquals(1, registry.get("distributor.change.planning").timer().count());
+    assertEquals(1, registry.get("distributor.checkout.items").summary().totalAmount());
+    assertEquals(1, registry.get("distributor.change.coins").summary().totalAmount()); // 0.50 back
+    String scrape = registry.scrape();
+    assertTrue(scrape.contains("distributor_operations_seconds_bucket{"));
+    assertTrue(scrape.contains("distributor_change_coins_bucket{"));
+  }
+
+  @Test
+  void recording_shouldNotAllocate() {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+    int[] change = {1, 0, 2, 0, 0};
+    for (int i = 0; i < 200_000; i++) {
+      record(i, change);
+    }
+
+    long threadId = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < 100_000; i++) {
+      record(i, change);
+    }
+    long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+    // Anything per call would show as megabytes; allow for the measurement itself
+    assertTrue(allocated < 16 * 1024, "allocated " + allocated + " bytes for 100000 recordings");
+  }
+
+  private void record(int i, int[] change) {
+    metrics.recordOperation(OPERATIONS[i % OPERATIONS.length], 1_000L + i, (i & 1) == 0);
+    metrics.recordChangePlanned(500L + i);
+    metrics.recordCheckout(1 + (i & 3), change);
+  }
+}
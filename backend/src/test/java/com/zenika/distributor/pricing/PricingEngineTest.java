@@ -0,0 +1,190 @@
+package com.zenika.distributor.pricing;
+
+import com.zenika.distributor.enums.PriceRuleType;
+import com.zenika.distributor.exception.InvalidPriceRuleException;
+import com.zenika.distributor.model.PriceRule;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.repository.PriceRuleRepository;
+import com.zenika.distributor.repository.ProductRepository;
+import com.zenika.distributor.service.Cart;
+import com.zenika.distributor.service.CatalogCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class PricingEngineTest {
+
+  private final Product soda = new Product(1L, "Soda", new BigDecimal("3.50"), 10);
+  private final Product chips = new Product(2L, "Chips", new BigDecimal("4.00"), 10);
+  private final Product water = new Product(3L, "Water", new BigDecimal("1.50"), 10);
+
+  private PriceRuleRepository priceRuleRepository;
+  private CatalogCache catalogCache;
+
+  @BeforeEach
+  void setUp() {
+    ProductRepository productRepository = mock(ProductRepository.class);
+    when(productRepository.findAll()).thenReturn(List.of(soda, chips, water));
+    when(productRepository.findById(any())).thenReturn(Optional.empty());
+    for (Product product : List.of(soda, chips, water)) {
+      when(productRepository.findById(product.getId())).thenReturn(Optional.of(product));
+    }
+    catalogCache = new CatalogCache(productRepository);
+    priceRuleRepository = mock(PriceRuleRepository.class);
+    when(priceRuleRepository.findAll()).thenReturn(List.of());
+  }
+
+  private PricingEngine engineAt(String time) {
+    Instant instant = Instant.parse("2026-01-01T" + time + ":00Z");
+    return new PricingEngine(priceRuleRepository, catalogCache, Clock.fixed(instant, ZoneOffset.UTC));
+  }
+
+  private static PriceRule rule(PriceRuleType type, List<Long> productIds, Integer quantity, String amount,
+                                String machineId) {
+    return new PriceRule(null, type.name(), type, productIds, quantity, amount != null ? new BigDecimal(amount) : null,
+      machineId, null, null);
+  }
+
+  @Test
+  void unitPrice_machineRuleShouldWinOverSharedRule() {
+    PricingEngine engine = engineAt("12:00");
+    engine.install(List.of(
+      rule(PriceRuleType.UNIT_PRICE, List.of(1L), null, "3.00", null),
+      rule(PriceRuleType.UNIT_PRICE, List.of(1L), null, "2.50", null),
+      rule(PriceRuleType.UNIT_PRICE, List.of(1L), null, "3.20", "kiosk-1")));
+
+    assertEquals(250L, engine.forMachine("kiosk-2").unitPriceCents(soda));
+    assertEquals(320L, engine.forMachine("kiosk-1").unitPriceCents(soda));
+    assertEquals(400L, engine.forMachine("kiosk-1").unitPriceCents(chips));
+    assertTrue(engine.forMachine("kiosk-1").hasUnitPrices());
+  }
+
+  @Test
+  void buyNGetOneAndCombo_shouldPriceTheCart() {
+    PricingEngine engine = engineAt("12:00");
+    engine.install(List.of(
+      rule(PriceRuleType.BUY_N_GET_ONE, List.of(3L), 2, null, null),
+      rule(PriceRuleType.COMBO, List.of(1L, 2L), null, "1.50", null)));
+    Cart cart = new Cart();
+    cart.reprice(engine.forMachine("kiosk-1"));
+
+    cart.add(water, 3);
+    assertEquals(300L, cart.totalCents()); // third water free
+    cart.add(soda);
+    assertEquals(650L, cart.totalCents());
+    assertEquals(900L, cart.quoteAdd(chips, 1));
+    cart.add(chips);
+    assertEquals(900L, cart.totalCents()); // 3.00 + 3.50 + 4.00 - 1.50
+    cart.removeOne(soda.getId());
+    assertEquals(700L, cart.totalCents());
+  }
+
+  @Test
+  void timeWindow_shouldApplyBetweenStartAndEnd_wrappingPastMidnight() {
+    PriceRule happyHour = rule(PriceRuleType.UNIT_PRICE, List.of(2L), null, "3.00", null);
+    happyHour.setStartTime(LocalTime.of(22, 0));
+    happyHour.setEndTime(LocalTime.of(2, 0));
+    List<PriceRule> rules = List.of(happyHour);
+
+    for (String time : List.of("22:00", "23:59", "01:59")) {
+      PricingEngine engine = engineAt(time);
+      engine.install(rules);
+      assertEquals(300L, engine.forMachine("kiosk-1").unitPriceCents(chips), time);
+    }
+    for (String time : List.of("02:00", "12:00", "21:59")) {
+      PricingEngine engine = engineAt(time);
+      engine.install(rules);
+      assertSame(PriceBook.NONE, engine.forMachine("kiosk-1"), time);
+    }
+  }
+
+  @Test
+  void incrementalTotal_shouldMatchAFullReprice() {
+    PricingEngine engine = engineAt("12:00");
+    engine.install(List.of(
+      rule(PriceRuleType.UNIT_PRICE, List.of(2L), null, "3.80", null),
+      rule(PriceRuleType.BUY_N_GET_ONE, List.of(1L), 1, null, null),
+      rule(PriceRuleType.COMBO, List.of(1L, 2L, 2L), null, "2.00", null),
+      rule(PriceRuleType.COMBO, List.of(2L, 3L), null, "0.50", null)));
+    PriceBook book = engine.forMachine("kiosk-1");
+    List<Product> products = List.of(soda, chips, water);
+    Cart cart = new Cart();
+    cart.reprice(book);
+    Random random = new Random(19);
+
+    for (int i = 0; i < 2_000; i++) {
+      Product product = products.get(random.nextInt(products.size()));
+      switch (random.nextInt(4)) {
+        case 0 -> cart.removeOne(product.getId());
+        case 1 -> cart.removeAll(product.getId());
+        default -> cart.add(product, 1 + random.nextInt(3));
+      }
+      long incremental = cart.totalCents();
+      cart.reprice(PriceBook.NONE);
+      cart.reprice(book);
+      assertEquals(cart.totalCents(), incremental, "after step " + i);
+    }
+  }
+
+  @Test
+  void addRule_shouldRejectRulesThatDoNotFitTheirType() {
+    PricingEngine engine = engineAt("12:00");
+
+    assertThrows(InvalidPriceRuleException.class,
+      () -> engine.addRule(rule(PriceRuleType.UNIT_PRICE, List.of(99L), null, "1.00", null)));
+    assertThrows(InvalidPriceRuleException.class,
+      () -> engine.addRule(rule(PriceRuleType.BUY_N_GET_ONE, List.of(1L), null, null, null)));
+    assertThrows(InvalidPriceRuleException.class,
+      () -> engine.addRule(rule(PriceRuleType.COMBO, List.of(1L, 3L), null, "5.00", null)));
+    PriceRule halfWindow = rule(PriceRuleType.UNIT_PRICE, List.of(1L), null, "3.00", null);
+    halfWindow.setStartTime(LocalTime.NOON);
+    assertThrows(InvalidPriceRuleException.class, () -> engine.addRule(halfWindow));
+    verify(priceRuleRepository, never()).save(any());
+  }
+
+  @Test
+  void combo_stackedOnUnitPrices_shouldBeRejectedAndNeverMakeTheCartNegative() {
+    List<PriceRule> unitPrices = List.of(
+      rule(PriceRuleType.UNIT_PRICE, List.of(1L), null, "1.00", null),
+      rule(PriceRuleType.UNIT_PRICE, List.of(2L), null, "1.00", null));
+    when(priceRuleRepository.findAll()).thenReturn(unitPrices);
+    PricingEngine engine = engineAt("12:00");
+
+    // Less than the 7.50 catalog price of the set, but not than its 2.00 promoted price
+    assertThrows(InvalidPriceRuleException.class,
+      () -> engine.addRule(rule(PriceRuleType.COMBO, List.of(1L, 2L), null, "5.00", null)));
+    // Each combo alone is below the catalog price of the set, together they are not
+    when(priceRuleRepository.findAll()).thenReturn(List.of(rule(PriceRuleType.COMBO, List.of(2L, 1L), null, "4.00", null)));
+    engine.refresh();
+    assertThrows(InvalidPriceRuleException.class,
+      () -> engine.addRule(rule(PriceRuleType.COMBO, List.of(1L, 2L), null, "4.00", "kiosk-1")));
+    verify(priceRuleRepository, never()).save(any());
+
+    // Rules written straight to the database are capped when compiled
+    engine.install(List.of(unitPrices.get(0), unitPrices.get(1),
+      rule(PriceRuleType.COMBO, List.of(1L, 2L), null, "5.00", null),
+      rule(PriceRuleType.COMBO, List.of(1L, 3L), null, "3.00", null)));
+    Cart cart = new Cart();
+    cart.reprice(engine.forMachine("kiosk-1"));
+    cart.add(soda);
+    cart.add(chips);
+    assertEquals(0L, cart.totalCents());
+    cart.add(water);
+    assertEquals(0L, cart.totalCents()); // Both combos discount the same soda
+    cart.removeOne(chips.getId());
+    assertEquals(0L, cart.totalCents());
+    assertEquals(0L, cart.quoteAdd(chips, 1));
+  }
+}
@@ -0,0 +1,146 @@
+package com.zenika.distributor.search;
+
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.repository.ProductRepository;
+import com.zenika.distributor.service.CatalogCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ProductSearchIndexTest {
+
+  private final List<Product> catalog = List.of(
+    product(1L, "Jus d'Orange Frais"),
+    product(2L, "Eau Minérale Naturelle"),
+    product(3L, "Crème Brûlée"),
+    product(4L, "Orangina"),
+    product(5L, "Jus de Pomme"),
+    product(6L, "Barre Chocolatée aux Noisettes"),
+    product(7L, "Soda Orange")
+  );
+
+  private ProductSearchIndex index;
+
+  private static Product product(Long id, String name) {
+    return new Product(id, name, new BigDecimal("2.00"), 10);
+  }
+
+  private List<Long> search(String query) {
+    return index.search(query, 10).stream().map(Product::getId).toList();
+  }
+
+  @BeforeEach
+  void setUp() {
+    index = new ProductSearchIndex(10_000, 50);
+    index.onCatalogInstalled(catalog);
+  }
+
+  @Test
+  void words_shouldBeLowercasedAndAccentFolded() {
+    assertArrayEquals(new String[] {"jus", "d", "orange", "frais"}, ProductSearchIndex.words("Jus d'Orange Frais"));
+    assertArrayEquals(new String[] {"creme", "brulee"}, ProductSearchIndex.words("CRÈME  brûlée!"));
+    assertArrayEquals(new String[] {"oeuf", "coeur"}, ProductSearchIndex.words("Œuf cœur"));
+  }
+
+  @Test
+  void search_shouldMatchEveryWordAsAPrefixAndRankBetterMatchesFirst() {
+    assertEquals(List.of(1L), search("jus or"));
+    assertEquals(List.of(2L), search("minerale"));
+    assertEquals(List.of(3L), search("Crème BRUL"));
+    // Exact words before prefixes, names starting with the first query word before the others
+    assertEquals(List.of(7L, 1L), search("orange"));
+    assertEquals(List.of(4L, 7L, 1L), search("oran")); // Orangina starts with it, then the shorter name
+    assertEquals(List.of(5L, 1L), search("jus"));
+    assertEquals(List.of(5L), index.search("jus", 1).stream().map(Product::getId).toList());
+    assertTrue(search("jus chocolat").isEmpty());
+    assertTrue(search("  ").isEmpty());
+  }
+
+  @Test
+  void search_shouldCorrectTyposWhenNothingMatches() {
+    assertEquals(List.of(7L, 1L), search("ornage"));
+    assertEquals(List.of(5L), search("jus pome"));
+    assertEquals(List.of(6L), search("chocolatee noisetes"));
+    assertTrue(search("xyz").isEmpty());
+  }
+
+  @Test
+  void updates_shouldOnlyMoveTheChangedProduct() {
+    index.onProductInstalled(product(4L, "Limonade"));
+    index.onProductInstalled(product(8L, "Jus d'Ananas"));
+
+    assertEquals(List.of(7L, 1L), search("oran"));
+    assertEquals(List.of(4L), search("limo"));
+    assertEquals(List.of(8L), search("ananas"));
+
+    index.onCatalogInstalled(catalog.subList(0, 3)); // Products 4 to 8 are gone
+    assertTrue(search("jus de").isEmpty());
+    assertEquals(List.of(1L), search("jus"));
+    assertEquals(3, index.size());
+  }
+
+  @Test
+  void search_shouldFindTheSameProductsAsAFullScan() {
+    // Rare and common words, so that both posting lists and bitmaps are used, and renames in between
+    String[] vocabulary = {"jus", "eau", "the", "pomme", "poire", "peche", "menthe", "bio", "frais", "mini",
+      "atlas", "rif", "pom", "poivre", "thym", "jasmin", "orange", "orge", "or"};
+    Random random = new Random(7);
+    List<Product> products = new ArrayList<>();
+    for (long id = 1; id <= 5000; id++) {
+      StringBuilder name = new StringBuilder();
+      for (int i = 2 + random.nextInt(4); i > 0; i--) {
+        name.append(vocabulary[(int) (vocabulary.length * Math.pow(random.nextDouble(), 2))]).append(' ');
+      }
+      products.add(product(id, name.toString().strip()));
+    }
+    index.onCatalogInstalled(products);
+    for (int i = 0; i < 500; i++) {
+      Product renamed = product(1L + random.nextInt(5000), vocabulary[random.nextInt(vocabulary.length)] + " jasmin");
+      products.set(renamed.getId().intValue() - 1, renamed);
+      index.onProductInstalled(renamed);
+    }
+
+    for (String query : List.of("jus", "or", "pom bio", "jasmin the", "thym orge rif", "po po", "mini jasmin thym")) {
+      String[] terms = ProductSearchIndex.words(query);
+      Set<Long> expected = products.stream()
+        .filter(product -> Arrays.stream(terms).allMatch(term ->
+          Arrays.stream(ProductSearchIndex.words(product.getName())).anyMatch(word -> word.startsWith(term))))
+        .map(Product::getId)
+        .collect(Collectors.toSet());
+      List<Product> found = index.search(query, 10_000);
+      assertEquals(expected, found.stream().map(Product::getId).collect(Collectors.toSet()), query);
+      assertEquals(expected.size(), found.size(), query);
+      // Stopping the scan early does not change the best results
+      assertEquals(found.subList(0, Math.min(10, found.size())), index.search(query, 10), query);
+    }
+  }
+
+  @Test
+  void catalogCache_shouldKeepTheIndexUpToDate() {
+    ProductRepository productRepository = mock(ProductRepository.class);
+    when(productRepository.findAll()).thenReturn(catalog);
+    when(productRepository.save(any(Product.class))).thenAnswer(invocation -> invocation.getArgument(0));
+    when(productRepository.findById(9L)).thenReturn(Optional.empty());
+    index = new ProductSearchIndex(10_000, 50);
+    CatalogCache catalogCache = new CatalogCache(productRepository, index);
+
+    catalogCache.getSnapshot();
+    assertEquals(List.of(2L), search("eau"));
+
+    catalogCache.save(product(9L, "Eau Pétillante"));
+    assertEquals(List.of(9L, 2L), search("eau")); // The shorter name first
+    assertEquals(List.of(9L), search("petillante"));
+  }
+}
@@ -0,0 +1,77 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.model.Product;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CartTest {
+
+  private static Product product(long id, String price) {
+    return new Product(id, "P" + id, new BigDecimal(price));
+  }
+
+  @Test
+  void addAndRemove_shouldTrackQuantitiesAndTotal() {
+    Cart cart = new Cart();
+    Product soda = product(1L, "3.50");
+    Product chips = product(2L, "4.00");
+
+    assertEquals(1, cart.add(soda));
+    assertEquals(2, cart.add(soda));
+    assertEquals(1, cart.add(chips));
+    assertEquals(1100L, cart.totalCents());
+    assertEquals(3, cart.totalItems());
+    assertEquals(2, cart.lineCount());
+
+    assertEquals(1, cart.removeOne(1L));
+    assertEquals(-1, cart.removeOne(99L));
+    assertEquals(1, cart.removeAll(2L));
+    assertEquals(350L, cart.totalCents());
+    assertEquals(1, cart.lines().size());
+    assertEquals(1, cart.expand().size());
+
+    cart.clear();
+    assertTrue(cart.isEmpty());
+    assertNull(cart.product(1L));
+  }
+
+  @Test
+  void randomOperations_shouldMatchReferenceMap() {
+    Cart cart = new Cart();
+    Map<Long, Integer> reference = new HashMap<>();
+    Random random = new Random(42);
+    long expectedTotal = 0L;
+
+    for (int op = 0; op < 20_000; op++) {
+      long id = 1 + random.nextInt(64); // Small key space forces collisions, resizes and chain deletions
+      if (random.nextInt(3) == 0) {
+        int expectedLeft = reference.containsKey(id) ? reference.get(id) - 1 : -1;
+        assertEquals(expectedLeft, cart.removeOne(id));
+        if (expectedLeft >= 0) {
+          expectedTotal -= id;
+          if (expectedLeft == 0) {
+            reference.remove(id);
+          } else {
+            reference.put(id, expectedLeft);
+          }
+        }
+      } else {
+        // Price in cents equals the ID so the total can be checked independently
+        assertEquals(reference.merge(id, 1, Integer::sum), cart.add(product(id, BigDecimal.valueOf(id, 2).toPlainString())));
+        expectedTotal += id;
+      }
+      assertEquals(expectedTotal, cart.totalCents());
+    }
+
+    assertEquals(reference.size(), cart.lineCount());
+    for (Map.Entry<Long, Integer> entry : reference.entrySet()) {
+      assertEquals(entry.getValue(), cart.quantity(entry.getKey()));
+    }
+  }
+}
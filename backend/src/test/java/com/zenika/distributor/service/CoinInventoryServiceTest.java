@@ -0,0 +1,61 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.model.CoinInventory;
+import com.zenika.distributor.repository.BatchWriteRepository;
+import com.zenika.distributor.repository.CoinInventoryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CoinInventoryServiceTest {
+
+  @Mock
+  private CoinInventoryRepository coinInventoryRepository;
+
+  @Mock
+  private BatchWriteRepository batchWriteRepository;
+
+  private CoinInventoryService coinInventoryService;
+
+  @BeforeEach
+  void setUp() {
+    coinInventoryService = new CoinInventoryService(coinInventoryRepository, batchWriteRepository, 5);
+  }
+
+  @Test
+  void getInventory_newMachine_shouldGetTheInitialFloatAndMakeChange() {
+    when(coinInventoryRepository.findByIdMachineId("kiosk-7")).thenReturn(List.of());
+
+    CoinInventorySnapshot inventory = coinInventoryService.getInventory("kiosk-7");
+
+    for (Coin coin : Coin.values()) {
+      assertEquals(5, inventory.count(coin));
+    }
+    verify(batchWriteRepository).upsertCoins(anyList());
+    assertNotNull(coinInventoryService.planChange("kiosk-7", 350));
+  }
+
+  @Test
+  void getInventory_emptiedMachine_shouldNotBeRefilled() {
+    when(coinInventoryRepository.findByIdMachineId("kiosk-7")).thenReturn(List.of(
+      new CoinInventory(new CoinInventory.Key("kiosk-7", Coin.ONE_MAD), 0),
+      new CoinInventory(new CoinInventory.Key("kiosk-7", Coin.TWO_MAD), 3)));
+
+    CoinInventorySnapshot inventory = coinInventoryService.getInventory("kiosk-7");
+
+    assertEquals(0, inventory.count(Coin.ONE_MAD));
+    assertEquals(3, inventory.count(Coin.TWO_MAD));
+    assertEquals(600L, inventory.totalCents());
+    verify(batchWriteRepository, never()).upsertCoins(anyList());
+  }
+}
@@ -0,0 +1,157 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.model.PriceRule;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.pricing.PriceBookSource;
+import com.zenika.distributor.pricing.PricingEngine;
+import com.zenika.distributor.repository.BatchWriteRepository;
+import com.zenika.distributor.repository.CoinInventoryRepository;
+import com.zenika.distributor.repository.PriceRuleRepository;
+import com.zenika.distributor.repository.ProductRepository;
+import org.mockito.quality.Strictness;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * The real catalog, stock and coin services over stand-in repositories, shared by the tests and the benchmarks.
+ * The repositories hold {@code catalog} and acknowledge every write: {@link #mocked} ones are lenient Mockito
+ * mocks that tests can stub and verify further, {@link #inMemory} ones are allocation-free proxies so the
+ * benchmarks measure the service code and not a database or a mocking library.
+ */
+public final class ServiceFixture {
+
+  public final ProductRepository productRepository;
+  public final CoinInventoryRepository coinInventoryRepository;
+  public final BatchWriteRepository batchWriteRepository;
+  public final CatalogCache catalogCache;
+  public final StockService stockService;
+  public final CoinInventoryService coinInventoryService;
+
+  private ServiceFixture(ProductRepository productRepository, CoinInventoryRepository coinInventoryRepository,
+                         BatchWriteRepository batchWriteRepository) {
+    this.productRepository = productRepository;
+    this.coinInventoryRepository = coinInventoryRepository;
+    this.batchWriteRepository = batchWriteRepository;
+    this.catalogCache = new CatalogCache(productRepository);
+    this.stockService = new StockService(productRepository, batchWriteRepository);
+    this.coinInventoryService = new CoinInventoryService(coinInventoryRepository, batchWriteRepository);
+  }
+
+  public static ServiceFixture mocked(List<Product> catalog) {
+    ProductRepository products = mock(ProductRepository.class, withSettings().strictness(Strictness.LENIENT));
+    when(products.findAll()).thenReturn(catalog);
+    for (Product product : catalog) {
+      when(products.findById(product.getId())).thenReturn(Optional.of(product));
+    }
+    when(products.decrementStock(anyLong(), anyInt())).thenReturn(1);
+    BatchWriteRepository batches = mock(BatchWriteRepository.class, withSettings().strictness(Strictness.LENIENT));
+    when(batches.decrementStock(anyList())).thenAnswer(invocation -> {
+      int[] updated = new int[invocation.<List<?>>getArgument(0).size()];
+      Arrays.fill(updated, 1);
+      return updated;
+    });
+    return new ServiceFixture(products,
+      mock(CoinInventoryRepository.class, withSettings().strictness(Strictness.LENIENT)), batches);
+  }
+
+  public static ServiceFixture inMemory(List<Product> catalog) {
+    Map<Long, Optional<Product>> byId = new HashMap<>();
+    for (Product product : catalog) {
+      byId.put(product.getId(), Optional.of(product));
+    }
+    List<Product> all = Collections.unmodifiableList(new ArrayList<>(catalog));
+
+    ProductRepository products = proxy(ProductRepository.class, (proxy, method, args) -> switch (method.getName()) {
+      case "findAll" -> all;
+      case "findById" -> byId.getOrDefault((Long) args[0], Optional.empty());
+      case "decrementStock", "incrementStock" -> 1;
+      case "save" -> args[0];
+      default -> objectMethod(proxy, method.getName(), args);
+    });
+    CoinInventoryRepository coins = proxy(CoinInventoryRepository.class, (proxy, method, args) -> switch (method.getName()) {
+      case "findByIdMachineId" -> List.of();
+      case "upsert" -> 1;
+      default -> objectMethod(proxy, method.getName(), args);
+    });
+    BatchWriteRepository batches = new BatchWriteRepository(new JdbcTemplate()) {
+      @Override
+      public int[] decrementStock(List<long[]> rows) {
+        int[] updated = new int[rows.size()];
+        Arrays.fill(updated, 1);
+        return updated;
+      }
+
+      @Override
+      public void upsertCoins(List<Object[]> rows) {
+      }
+    };
+    return new ServiceFixture(products, coins, batches);
+  }
+
+  public VendingMachineService service(VendingEventListener... listeners) {
+    return service(VendingMetrics.NONE, PriceBookSource.NONE, listeners);
+  }
+
+  public VendingMachineService service(VendingMetrics metrics, PriceBookSource pricing, VendingEventListener... listeners) {
+    return service(new SessionRegistry(Duration.ofMinutes(15)), metrics, pricing, listeners);
+  }
+
+  public VendingMachineService service(SessionRegistry sessionRegistry, VendingMetrics metrics, PriceBookSource pricing,
+                                       VendingEventListener... listeners) {
+    return new VendingMachineService(catalogCache, sessionRegistry, coinInventoryService, stockService, metrics, pricing,
+      listeners);
+  }
+
+  /**
+   * A pricing engine over this catalog with {@code rules} in force.
+   */
+  public PricingEngine pricing(List<PriceRule> rules) {
+    PriceRuleRepository priceRules = proxy(PriceRuleRepository.class, (proxy, method, args) ->
+      "findAll".equals(method.getName()) ? rules : objectMethod(proxy, method.getName(), args));
+    PricingEngine engine = new PricingEngine(priceRules, catalogCache);
+    engine.install(rules);
+    return engine;
+  }
+
+  /**
+   * Products priced from 0.50 to 10.00 in 0.50 steps, with stock that will not run out during a run.
+   */
+  public static List<Product> catalog(int size) {
+    List<Product> catalog = new ArrayList<>(size);
+    for (int i = 1; i <= size; i++) {
+      catalog.add(new Product((long) i, "Product " + i, BigDecimal.valueOf(50L * (1 + i % 20), 2), Integer.MAX_VALUE / 2));
+    }
+    return catalog;
+  }
+
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+  }
+
+  private static Object objectMethod(Object proxy, String name, Object[] args) {
+    return switch (name) {
+      case "hashCode" -> System.identityHashCode(proxy);
+      case "equals" -> proxy == args[0];
+      case "toString" -> "InMemoryRepository";
+      default -> throw new UnsupportedOperationException(name);
+    };
+  }
+}
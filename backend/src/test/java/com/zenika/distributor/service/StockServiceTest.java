@@ -0,0 +1,105 @@
+package com.zenika.distributor.service;
+
+import com.zenika.distributor.exception.OutOfStockException;
+import com.zenika.distributor.model.Product;
+import com.zenika.distributor.repository.BatchWriteRepository;
+import com.zenika.distributor.repository.ProductRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StockServiceTest {
+
+  @Mock
+  private ProductRepository productRepository;
+
+  @Mock
+  private BatchWriteRepository batchWriteRepository;
+
+  private StockService stockService;
+  private Product hotProduct;
+
+  @BeforeEach
+  void setUp() {
+    stockService = new StockService(productRepository, batchWriteRepository);
+    hotProduct = new Product(1L, "Soda", new BigDecimal("3.50"), 50);
+  }
+
+  @Test
+  void reserve_concurrentBuyers_shouldNeverReserveMoreThanOnHand() throws InterruptedException {
+    int threads = 16;
+    AtomicInteger reserved = new AtomicInteger();
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    for (int t = 0; t < threads; t++) {
+      pool.submit(() -> {
+        start.await();
+        for (int i = 0; i < 100; i++) {
+          if (stockService.reserve(hotProduct)) {
+            reserved.incrementAndGet();
+          }
+        }
+        return null;
+      });
+    }
+    start.countDown();
+    pool.shutdown();
+    assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+    assertEquals(50, reserved.get());
+    assertEquals(0, stockService.available(hotProduct));
+  }
+
+  @Test
+  void commit_shouldTurnReservationsIntoSale() {
+    when(productRepository.decrementStock(1L, 2)).thenReturn(1);
+    stockService.reserve(hotProduct);
+    stockService.reserve(hotProduct);
+
+    stockService.commit(Map.of(1L, 2));
+
+    assertEquals(48, stockService.available(hotProduct));
+  }
+
+  @Test
+  void commit_databaseHasLessStock_shouldThrowAndResync() {
+    when(productRepository.decrementStock(1L, 1)).thenReturn(0);
+    when(productRepository.findById(1L)).thenReturn(Optional.of(new Product(1L, "Soda", new BigDecimal("3.50"), 0)));
+    stockService.reserve(hotProduct);
+
+    assertThrows(OutOfStockException.class, () -> stockService.commit(Map.of(1L, 1)));
+    stockService.release(1L, 1);
+    assertEquals(0, stockService.available(hotProduct));
+  }
+
+  @Test
+  void refresh_shouldPickUpStockChangedThroughOtherNodes() {
+    stockService.reserve(hotProduct, 5);
+    when(productRepository.findAllById(Set.of(1L)))
+      .thenReturn(List.of(new Product(1L, "Soda", new BigDecimal("3.50"), 80)));
+
+    stockService.refresh();
+
+    assertEquals(75, stockService.available(hotProduct));
+
+    stockService.refresh(); // Unchanged
+    assertEquals(75, stockService.available(hotProduct));
+  }
+}
@@ -1,44 +1,57 @@
 package com.zenika.distributor.service;
 
 import com.zenika.distributor.enums.Coin;
+import com.zenika.distributor.enums.PriceRuleType;
+import com.zenika.distributor.exception.ExactChangeUnavailableException;
 import com.zenika.distributor.exception.InsufficientFundsException;
 import com.zenika.distributor.exception.InvalidCoinException;
 import com.zenika.distributor.exception.NoItemSelectedException;
+import com.zenika.distributor.exception.OutOfStockException;
 import com.zenika.distributor.exception.ProductNotFoundException;
+import com.zenika.distributor.exception.TransactionInProgressException;
+import com.zenika.distributor.model.PriceRule;
 import com.zenika.distributor.model.Product;
+import com.zenika.distributor.pricing.PriceBookSource;
+import com.zenika.distributor.pricing.PricingEngine;
+import com.zenika.distributor.repository.BatchWriteRepository;
 import com.zenika.distributor.repository.ProductRepository;
+import com.zenika.distributor.dto.BulkOrderResponse;
 import com.zenika.distributor.dto.DispenseResponse;
+import com.zenika.distributor.dto.MachineOrderRequest;
+import com.zenika.distributor.dto.OrderItem;
 import com.zenika.distributor.dto.ProductDTO;
 import com.zenika.distributor.dto.RefundResponse;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
-import org.mockito.Mock;
-import org.mockito.junit.jupiter.MockitoExtension;
-import org.mockito.junit.jupiter.MockitoSettings; // <<<<<<<< IMPORT THIS
-import org.mockito.quality.Strictness;          // <<<<<<<< IMPORT THIS
+import org.springframework.dao.QueryTimeoutException;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
-@ExtendWith(MockitoExtension.class)
-@MockitoSettings(strictness = Strictness.LENIENT) // <<<<<<<< ADD THIS ANNOTATION
 class VendingMachineServiceTest {
 
-  @Mock
   private ProductRepository productRepository;
+  private BatchWriteRepository batchWriteRepository;
+
+  private ServiceFixture fixture;
+  private CoinInventoryService coinInventoryService;
+  private StockService stockService;
+  private CatalogCache catalogCache;
 
-  @InjectMocks
   private VendingMachineService vendingMachineService;
 
   private Product soda;
@@ -47,20 +60,17 @@ class VendingMachineServiceTest {
 
   @BeforeEach
   void setUp() {
-    vendingMachineService = new VendingMachineService(productRepository);
-
-    soda = new Product(1L, "Soda", new BigDecimal("3.50"));
-    chips = new Product(2L, "Chips", new BigDecimal("4.00"));
-    water = new Product(3L, "Water", new BigDecimal("1.50"));
-
-    // With class-level lenient strictness, you don't strictly need lenient() here anymore,
-    // but it doesn't hurt to keep them if you prefer being explicit.
-    // For this solution, the class-level annotation is the main fix.
-    when(productRepository.findAll()).thenReturn(Arrays.asList(soda, chips, water));
-    when(productRepository.findById(soda.getId())).thenReturn(Optional.of(soda));
-    when(productRepository.findById(chips.getId())).thenReturn(Optional.of(chips));
-    when(productRepository.findById(water.getId())).thenReturn(Optional.of(water));
-    when(productRepository.findById(99L)).thenReturn(Optional.empty());
+    soda = new Product(1L, "Soda", new BigDecimal("3.50"), 10);
+    chips = new Product(2L, "Chips", new BigDecimal("4.00"), 10);
+    water = new Product(3L, "Water", new BigDecimal("1.50"), 1);
+
+    fixture = ServiceFixture.mocked(Arrays.asList(soda, chips, water));
+    productRepository = fixture.productRepository;
+    batchWriteRepository = fixture.batchWriteRepository;
+    coinInventoryService = fixture.coinInventoryService;
+    stockService = fixture.stockService;
+    catalogCache = fixture.catalogCache;
+    vendingMachineService = fixture.service();
   }
 
   // ... ALL YOUR TEST METHODS REMAIN THE SAME ...
@@ -85,6 +95,13 @@ class VendingMachineServiceTest {
     assertTrue(exception.getMessage().contains("Invalid coin value: 0.75"));
   }
 
+  @Test
+  void insertCoin_subCentOrNegativeValue_shouldThrowException() {
+    assertThrows(InvalidCoinException.class, () -> vendingMachineService.insertCoin(new BigDecimal("0.505")));
+    assertThrows(InvalidCoinException.class, () -> vendingMachineService.insertCoin(new BigDecimal("-1.00")));
+    assertEquals(0, new BigDecimal("1.00").compareTo(vendingMachineService.insertCoin(new BigDecimal("1"))));
+  }
+
   @Test
   void listAvailableProducts_noBalance_allNotPurchasableExceptFree() { // Renamed for clarity
     List<ProductDTO> products = vendingMachineService.listAvailableProducts();
@@ -199,6 +216,40 @@ class VendingMachineServiceTest {
     assertTrue(vendingMachineService.getSelectedProducts().isEmpty());
   }
 
+  @Test
+  void dispenseProducts_withCombo_shouldChargeThePromotionalPrice() {
+    PricingEngine pricing = fixture.pricing(List.of(new PriceRule(null, "Soda and water", PriceRuleType.COMBO,
+      List.of(soda.getId(), water.getId()), null, new BigDecimal("1.00"), null, null, null)));
+    vendingMachineService = fixture.service(VendingMetrics.NONE, pricing);
+    vendingMachineService.insertCoin(Coin.TWO_MAD.getValue());
+    vendingMachineService.insertCoin(Coin.TWO_MAD.getValue());
+    vendingMachineService.insertCoin(Coin.ONE_MAD.getValue()); // The change of the promotion
+    vendingMachineService.selectProduct(soda.getId());
+
+    CartUpdate update = vendingMachineService.addToCart(SessionRegistry.DEFAULT_SESSION_ID, water.getId());
+    assertEquals(400L, update.getSelectedCostCents());
+    assertThrows(InsufficientFundsException.class, () -> vendingMachineService.selectProduct(chips.getId()));
+
+    DispenseResponse response = vendingMachineService.dispenseProducts();
+    assertEquals(2, response.getDispensedProducts().size());
+    assertEquals(List.of(Coin.ONE_MAD.getValue()), response.getChangeCoins());
+  }
+
+  @Test
+  void listAffordableProducts_withUnitPrice_shouldListThePromotedProductAtItsPrice() {
+    PricingEngine pricing = fixture.pricing(List.of(new PriceRule(null, "Chips deal", PriceRuleType.UNIT_PRICE,
+      List.of(chips.getId()), null, new BigDecimal("1.00"), "kiosk-1", null, null)));
+    vendingMachineService = fixture.service(VendingMetrics.NONE, pricing);
+    vendingMachineService.insertCoin("kiosk-1", Coin.TWO_MAD.getValue());
+    vendingMachineService.insertCoin("kiosk-2", Coin.TWO_MAD.getValue());
+
+    List<ProductDTO> affordable = vendingMachineService.listAffordableProducts("kiosk-1");
+    assertEquals(List.of(chips.getId(), water.getId()), affordable.stream().map(ProductDTO::getId).toList());
+    assertEquals(0, new BigDecimal("1.00").compareTo(affordable.get(0).getPrice()));
+    assertEquals(2, vendingMachineService.countAffordableProducts("kiosk-1"));
+    assertEquals(1, vendingMachineService.countAffordableProducts("kiosk-2"));
+  }
+
   @Test
   void dispenseProducts_noItemsSelected_shouldThrowException() {
     vendingMachineService.insertCoin(Coin.FIVE_MAD.getValue());
@@ -236,4 +287,423 @@ class VendingMachineServiceTest {
     assertTrue(response.getRefundedCoins().isEmpty());
     assertTrue(response.getMessage().contains("No coins inserted to refund"));
   }
+
+  @Test
+  void sessions_differentMachines_shouldKeepIndependentState() {
+    vendingMachineService.insertCoin("kiosk-1", Coin.FIVE_MAD.getValue());
+    vendingMachineService.insertCoin("kiosk-2", Coin.TWO_MAD.getValue());
+    vendingMachineService.selectProduct("kiosk-1", soda.getId());
+
+    assertEquals(0, new BigDecimal("5.00").compareTo(vendingMachineService.getCurrentBalance("kiosk-1")));
+    assertEquals(0, new BigDecimal("2.00").compareTo(vendingMachineService.getCurrentBalance("kiosk-2")));
+    assertEquals(1, vendingMachineService.getSelectedProducts("kiosk-1").size());
+    assertTrue(vendingMachineService.getSelectedProducts("kiosk-2").isEmpty());
+    assertEquals(0, BigDecimal.ZERO.compareTo(vendingMachineService.getCurrentBalance()));
+
+    RefundResponse refund = vendingMachineService.cancelTransaction("kiosk-2");
+    assertEquals(1, refund.getRefundedCoins().size());
+    assertEquals(0, new BigDecimal("5.00").compareTo(vendingMachineService.getCurrentBalance("kiosk-1")));
+  }
+
+  @Test
+  void sessions_idleSessions_shouldBeEvicted() {
+    SessionRegistry registry = new SessionRegistry(Duration.ZERO);
+    VendingMachineService service = fixture.service(registry, VendingMetrics.NONE, PriceBookSource.NONE);
+    service.getCurrentBalance("kiosk-1");
+    assertEquals(1, registry.activeSessions());
+
+    registry.evictIdleSessions();
+
+    assertEquals(0, registry.activeSessions());
+  }
+
+  @Test
+  void sessions_abandonedWithCoins_shouldKeepBalanceAndReleaseSelection() {
+    SessionRegistry registry = new SessionRegistry(Duration.ZERO);
+    VendingMachineService service = fixture.service(registry, VendingMetrics.NONE, PriceBookSource.NONE);
+    service.insertCoin("kiosk-1", Coin.TWO_MAD.getValue());
+    service.selectProduct("kiosk-1", water.getId());
+    assertEquals(0, stockService.available(water));
+
+    registry.evictIdleSessions();
+
+    assertEquals(1, registry.activeSessions());
+    assertEquals(0, new BigDecimal("2.00").compareTo(service.getCurrentBalance("kiosk-1")));
+    assertTrue(service.getSelectedProducts("kiosk-1").isEmpty());
+    assertEquals(1, stockService.available(water));
+  }
+
+  @Test
+  void dispenseProducts_changeNotAvailable_shouldRefuseSaleAndKeepSelection() {
+    vendingMachineService.insertCoin(Coin.TEN_MAD.getValue()); // Empty inventory apart from this coin
+    vendingMachineService.selectProduct(soda.getId());
+
+    assertThrows(ExactChangeUnavailableException.class, () -> vendingMachineService.dispenseProducts());
+    assertEquals(1, vendingMachineService.getSelectedProducts().size());
+    assertEquals(1, coinInventoryService.getInventory(SessionRegistry.DEFAULT_SESSION_ID).count(Coin.TEN_MAD));
+  }
+
+  @Test
+  void dispenseProducts_boundedInventory_shouldFindChangeGreedyWouldMiss() {
+    coinInventoryService.setQuantity(SessionRegistry.DEFAULT_SESSION_ID, Coin.FIVE_MAD, 1);
+    coinInventoryService.setQuantity(SessionRegistry.DEFAULT_SESSION_ID, Coin.TWO_MAD, 3);
+    vendingMachineService.insertCoin(Coin.TEN_MAD.getValue());
+    vendingMachineService.selectProduct(chips.getId()); // 4.00, change 6.00 without any 1.00 coin
+
+    DispenseResponse response = vendingMachineService.dispenseProducts();
+
+    assertEquals(3, response.getChangeCoins().size());
+    assertTrue(response.getChangeCoins().stream().allMatch(c -> Coin.TWO_MAD.getValue().compareTo(c) == 0));
+    CoinInventorySnapshot inventory = coinInventoryService.getInventory(SessionRegistry.DEFAULT_SESSION_ID);
+    assertEquals(0, inventory.count(Coin.TWO_MAD));
+    assertEquals(1, inventory.count(Coin.FIVE_MAD));
+    assertEquals(1, inventory.count(Coin.TEN_MAD));
+  }
+
+  @Test
+  void cancelTransaction_shouldTakeRefundedCoinsOutOfInventory() {
+    vendingMachineService.insertCoin(Coin.FIVE_MAD.getValue());
+    vendingMachineService.insertCoin(Coin.FIVE_MAD.getValue());
+    assertEquals(2, coinInventoryService.getInventory(SessionRegistry.DEFAULT_SESSION_ID).count(Coin.FIVE_MAD));
+
+    vendingMachineService.cancelTransaction();
+
+    assertEquals(0, coinInventoryService.getInventory(SessionRegistry.DEFAULT_SESSION_ID).totalCents());
+  }
+
+  @Test
+  void selectProduct_lastUnitReservedByAnotherMachine_shouldThrowOutOfStock() {
+    vendingMachineService.insertCoin("kiosk-1", Coin.FIVE_MAD.getValue());
+    vendingMachineService.insertCoin("kiosk-2", Coin.FIVE_MAD.getValue());
+    vendingMachineService.selectProduct("kiosk-1", water.getId()); // Only unit of water
+
+    assertThrows(OutOfStockException.class, () -> vendingMachineService.selectProduct("kiosk-2", water.getId()));
+    assertFalse(vendingMachineService.listAvailableProducts("kiosk-2").stream()
+      .filter(p -> p.getId().equals(water.getId())).findFirst().get().isPurchasable());
+
+    vendingMachineService.cancelTransaction("kiosk-1"); // Releases the reservation
+    assertNotNull(vendingMachineService.selectProduct("kiosk-2", water.getId()));
+  }
+
+  @Test
+  void dispenseProducts_stockCommitFails_shouldDropProductAndKeepCoins() {
+    when(productRepository.decrementStock(soda.getId(), 1)).thenReturn(0);
+    vendingMachineService.insertCoin(Coin.TWO_MAD.getValue());
+    vendingMachineService.insertCoin(Coin.ONE_MAD.getValue());
+    vendingMachineService.insertCoin(Coin.HALF_MAD.getValue()); // Exactly 3.50, no change needed
+    vendingMachineService.selectProduct(soda.getId());
+
+    assertThrows(OutOfStockException.class, () -> vendingMachineService.dispenseProducts());
+    assertTrue(vendingMachineService.getSelectedProducts().isEmpty());
+    assertEquals(0, new BigDecimal("3.50").compareTo(vendingMachineService.getCurrentBalance()));
+  }
+
+  @Test
+  void catalog_readsAfterFirstLoad_shouldNotQueryRepository() {
+    vendingMachineService.listAvailableProducts();
+    vendingMachineService.insertCoin(Coin.FIVE_MAD.getValue());
+    vendingMachineService.selectProduct(soda.getId());
+    vendingMachineService.listAvailableProducts();
+
+    verify(productRepository, times(1)).findAll();
+    verify(productRepository, never()).findById(soda.getId());
+    assertEquals(0, catalogCache.getMisses());
+  }
+
+  @Test
+  void catalog_addProduct_shouldPublishNewVersion() {
+    Product juice = new Product(4L, "Juice", new BigDecimal("2.00"), 5);
+    when(productRepository.save(any(Product.class))).thenReturn(juice);
+    long version = catalogCache.getSnapshot().getVersion();
+
+    vendingMachineService.addProduct("Juice", new BigDecimal("2.00"), 5);
+
+    assertEquals(version + 1, catalogCache.getSnapshot().getVersion());
+    assertEquals(4, vendingMachineService.listAvailableProducts().size());
+    verify(productRepository, times(1)).findAll();
+  }
+
+  @Test
+  void catalog_productWrites_shouldKeepIdAndPriceOrdersLikeAFullBuild() {
+    catalogCache.getSnapshot();
+    Product cheaperChips = new Product(2L, "Chips", new BigDecimal("1.00"), 10);
+    Product gum = new Product(0L, "Gum", new BigDecimal("0.50"), 20);
+    Product offGridSoda = new Product(1L, "Soda", new BigDecimal("3.25"), 10);
+    Product juice = new Product(7L, "Juice", new BigDecimal("1.50"), 5);
+    for (Product product : List.of(cheaperChips, gum, offGridSoda, juice)) {
+      catalogCache.install(product);
+    }
+
+    CatalogSnapshot incremental = catalogCache.getSnapshot();
+    CatalogSnapshot full = new CatalogSnapshot(1, List.of(water, juice, offGridSoda, gum, cheaperChips));
+    assertEquals(List.of(0L, 1L, 2L, 3L, 7L), incremental.getProducts().stream().map(Product::getId).toList());
+    assertEquals(full.getProducts(), incremental.getProducts());
+    assertEquals(full.affordableProducts(Long.MAX_VALUE), incremental.affordableProducts(Long.MAX_VALUE));
+    assertEquals(List.of("Gum", "Chips", "Water", "Juice"),
+      incremental.affordableProducts(150).stream().map(Product::getName).toList());
+    assertEquals(List.of("Chips", "Water", "Juice"),
+      incremental.pricedBetween(50, 150).stream().map(Product::getName).toList());
+    assertEquals(gum, catalogCache.findById(0L));
+  }
+
+  @Test
+  void catalog_refreshIfChanged_shouldPublishOnlyChangesMadeElsewhere() {
+    assertFalse(catalogCache.refreshIfChanged()); // Nothing loaded yet
+    long version = catalogCache.getSnapshot().getVersion();
+
+    // Sold elsewhere: stock alone is not a catalog change
+    when(productRepository.findAll()).thenReturn(List.of(new Product(1L, "Soda", new BigDecimal("3.50"), 2), chips, water));
+    assertFalse(catalogCache.refreshIfChanged());
+    assertEquals(version, catalogCache.getSnapshot().getVersion());
+
+    // Repriced and added elsewhere
+    Product juice = new Product(4L, "Juice", new BigDecimal("2.00"), 5);
+    when(productRepository.findAll()).thenReturn(List.of(soda, new Product(2L, "Chips", new BigDecimal("3.00"), 10), water, juice));
+    assertTrue(catalogCache.refreshIfChanged());
+    assertEquals(version + 1, catalogCache.getSnapshot().getVersion());
+    assertEquals(300L, catalogCache.findById(chips.getId()).getPriceCents());
+    assertEquals(juice, catalogCache.findById(4L));
+  }
+
+  @Test
+  void catalog_unknownProduct_shouldQueryRepositoryOnceUntilItIsSaved() {
+    assertNull(catalogCache.findById(99L));
+    assertNull(catalogCache.findById(99L));
+    verify(productRepository, times(1)).findById(99L);
+
+    Product juice = new Product(99L, "Juice", new BigDecimal("2.00"), 5);
+    when(productRepository.save(any(Product.class))).thenReturn(juice);
+    catalogCache.save(juice);
+    assertEquals(juice, catalogCache.findById(99L));
+  }
+
+  @Test
+  void offGridPrice_shouldBeRefusedAndNeverListedAsAffordable() {
+    assertThrows(IllegalArgumentException.class, () -> vendingMachineService.addProduct("Crisps", new BigDecimal("2.75"), 5));
+    verify(productRepository, never()).save(any());
+
+    // Saved before prices were checked: no coins can pay it exactly
+    Product crisps = new Product(4L, "Crisps", new BigDecimal("2.75"), 5);
+    catalogCache.install(List.of(soda, chips, water, crisps));
+    vendingMachineService.insertCoin(Coin.FIVE_MAD.getValue());
+
+    assertEquals(List.of("Water", "Soda", "Chips"),
+      vendingMachineService.listAffordableProducts("default").stream().map(ProductDTO::getName).toList());
+    assertEquals(3, vendingMachineService.countAffordableProducts("default"));
+    assertFalse(vendingMachineService.listAvailableProducts().get(3).isPurchasable());
+  }
+
+  @Test
+  void listAffordableProducts_soldOut_shouldBeLeftOutOfListAndCount() {
+    vendingMachineService.insertCoin("kiosk-2", Coin.TWO_MAD.getValue());
+    vendingMachineService.selectProduct("kiosk-2", water.getId()); // The only unit
+    vendingMachineService.insertCoin(Coin.FIVE_MAD.getValue());
+
+    assertEquals(List.of("Soda", "Chips"),
+      vendingMachineService.listAffordableProducts("default").stream().map(ProductDTO::getName).toList());
+    assertEquals(2, vendingMachineService.countAffordableProducts("default"));
+    assertFalse(vendingMachineService.listAvailableProducts().get(2).isPurchasable());
+  }
+
+  @Test
+  void listAffordableProducts_shouldReturnCheapestFirstUpToSpendable() {
+    vendingMachineService.insertCoin(Coin.FIVE_MAD.getValue());
+    vendingMachineService.selectProduct(water.getId()); // 3.50 left to spend
+
+    List<ProductDTO> affordable = vendingMachineService.listAffordableProducts(SessionRegistry.DEFAULT_SESSION_ID);
+
+    assertEquals(2, affordable.size());
+    assertEquals(water.getId(), affordable.get(0).getId());
+    assertEquals(soda.getId(), affordable.get(1).getId());
+    assertEquals(2, vendingMachineService.countAffordableProducts(SessionRegistry.DEFAULT_SESSION_ID));
+
+    vendingMachineService.deselectProduct(water.getId()); // 5.00 left to spend
+    assertEquals(3, vendingMachineService.countAffordableProducts(SessionRegistry.DEFAULT_SESSION_ID));
+  }
+
+  @Test
+  void placeOrder_coinsAndItems_shouldDispenseWithChangeFromInsertedCoins() {
+    List<BigDecimal> coins = List.of(Coin.TWO_MAD.getValue(), Coin.TWO_MAD.getValue(), Coin.ONE_MAD.getValue());
+
+    DispenseResponse response = vendingMachineService.placeOrder("kiosk-1", coins, List.of(new OrderItem(chips.getId(), 1)));
+
+    assertEquals(1, response.getDispensedProducts().size());
+    assertEquals(List.of(Coin.ONE_MAD.getValue()), response.getChangeCoins()); // Paid back with the customer's own coin
+    CoinInventorySnapshot inventory = coinInventoryService.getInventory("kiosk-1");
+    assertEquals(2, inventory.count(Coin.TWO_MAD));
+    assertEquals(0, inventory.count(Coin.ONE_MAD));
+    assertEquals(9, stockService.available(chips));
+    assertTrue(vendingMachineService.getSelectedProducts("kiosk-1").isEmpty());
+    verify(productRepository).decrementStock(chips.getId(), 1);
+  }
+
+  @Test
+  void placeOrder_outOfStock_shouldLeaveNothingReservedOrKept() {
+    List<BigDecimal> coins = List.of(Coin.FIVE_MAD.getValue(), Coin.TWO_MAD.getValue());
+    List<OrderItem> items = List.of(new OrderItem(soda.getId(), 1), new OrderItem(water.getId(), 2)); // 1 water in stock
+
+    assertThrows(OutOfStockException.class, () -> vendingMachineService.placeOrder("kiosk-1", coins, items));
+
+    assertEquals(10, stockService.available(soda));
+    assertEquals(1, stockService.available(water));
+    assertEquals(0L, coinInventoryService.getInventory("kiosk-1").totalCents());
+    verify(productRepository, never()).decrementStock(anyLong(), anyInt());
+  }
+
+  @Test
+  void placeOrder_transactionInProgress_shouldBeRefused() {
+    vendingMachineService.insertCoin(Coin.ONE_MAD.getValue());
+
+    assertThrows(TransactionInProgressException.class, () -> vendingMachineService.placeOrder(null,
+      List.of(Coin.FIVE_MAD.getValue()), List.of(new OrderItem(water.getId(), 1))));
+    assertEquals(0, new BigDecimal("1.00").compareTo(vendingMachineService.getCurrentBalance()));
+  }
+
+  @Test
+  void placeOrders_shouldBatchWritesAndIsolateRefusedOrders() {
+    List<MachineOrderRequest> orders = List.of(
+      new MachineOrderRequest("kiosk-1", List.of(Coin.TWO_MAD.getValue(), Coin.TWO_MAD.getValue()), List.of(new OrderItem(chips.getId(), 1))),
+      new MachineOrderRequest("kiosk-2", List.of(Coin.ONE_MAD.getValue()), List.of(new OrderItem(soda.getId(), 1))), // Not enough
+      new MachineOrderRequest("kiosk-0", List.of(Coin.ONE_MAD.getValue(), Coin.HALF_MAD.getValue()), List.of(new OrderItem(water.getId(), 1))));
+
+    BulkOrderResponse response = vendingMachineService.placeOrders(orders);
+
+    assertEquals(2, response.getDispensed());
+    assertEquals(1, response.getRefused());
+    assertTrue(response.getResults().get(0).isSuccess());
+    assertFalse(response.getResults().get(1).isSuccess());
+    assertEquals("kiosk-2", response.getResults().get(1).getMachineId());
+    assertTrue(response.getResults().get(2).getOrder().getChangeCoins().isEmpty());
+    verify(batchWriteRepository, times(1)).decrementStock(anyList());
+    verify(batchWriteRepository, times(1)).upsertCoins(anyList());
+    verify(productRepository, never()).decrementStock(anyLong(), anyInt());
+    assertEquals(10, stockService.available(soda));
+  }
+
+  @Test
+  void placeOrders_batchRejectedByDatabase_shouldReplayOrdersOneByOne() {
+    when(batchWriteRepository.decrementStock(anyList())).thenReturn(new int[] {1, 0});
+    when(productRepository.decrementStock(water.getId(), 1)).thenReturn(0); // Sold by another instance
+    List<MachineOrderRequest> orders = List.of(
+      new MachineOrderRequest("kiosk-1", List.of(Coin.TWO_MAD.getValue(), Coin.TWO_MAD.getValue()), List.of(new OrderItem(chips.getId(), 1))),
+      new MachineOrderRequest("kiosk-2", List.of(Coin.ONE_MAD.getValue(), Coin.HALF_MAD.getValue()), List.of(new OrderItem(water.getId(), 1))));
+
+    BulkOrderResponse response = vendingMachineService.placeOrders(orders);
+
+    assertTrue(response.getResults().get(0).isSuccess());
+    assertFalse(response.getResults().get(1).isSuccess());
+    assertEquals(0L, coinInventoryService.getInventory("kiosk-2").totalCents());
+    assertEquals(2, coinInventoryService.getInventory("kiosk-1").count(Coin.TWO_MAD));
+  }
+
+  @Test
+  void placeOrders_batchFailing_shouldGiveCoinsAndStockBackAndFail() {
+    when(batchWriteRepository.decrementStock(anyList())).thenThrow(new QueryTimeoutException("Database timed out"));
+    List<MachineOrderRequest> orders = List.of(
+      new MachineOrderRequest("kiosk-1", List.of(Coin.TWO_MAD.getValue(), Coin.TWO_MAD.getValue()), List.of(new OrderItem(chips.getId(), 1))),
+      new MachineOrderRequest("kiosk-1", List.of(Coin.ONE_MAD.getValue(), Coin.HALF_MAD.getValue()), List.of(new OrderItem(water.getId(), 1))));
+
+    assertThrows(QueryTimeoutException.class, () -> vendingMachineService.placeOrders(orders));
+
+    assertEquals(0L, coinInventoryService.getInventory("kiosk-1").totalCents());
+    assertEquals(10, stockService.available(chips));
+    assertEquals(1, stockService.available(water));
+    verify(batchWriteRepository, never()).upsertCoins(anyList());
+    // Nothing is left locked or reserved: the machine takes the next order
+    assertEquals(1, vendingMachineService.placeOrder("kiosk-1", List.of(Coin.ONE_MAD.getValue(), Coin.HALF_MAD.getValue()),
+      List.of(new OrderItem(water.getId(), 1))).getDispensedProducts().size());
+  }
+
+  @Test
+  void placeOrder_commitFailing_shouldReleaseReservations() {
+    when(productRepository.decrementStock(anyLong(), anyInt())).thenThrow(new QueryTimeoutException("Database timed out"));
+
+    assertThrows(QueryTimeoutException.class, () -> vendingMachineService.placeOrder("kiosk-1",
+      List.of(Coin.TWO_MAD.getValue()), List.of(new OrderItem(water.getId(), 1))));
+
+    assertEquals(1, stockService.available(water));
+    assertEquals(0L, coinInventoryService.getInventory("kiosk-1").totalCents());
+  }
+
+  @Test
+  void placeOrder_coinsNotRecorded_shouldPutTheUnitsSoldBack() {
+    when(fixture.coinInventoryRepository.upsert(anyString(), anyString(), anyInt()))
+      .thenThrow(new QueryTimeoutException("Database timed out"));
+
+    assertThrows(QueryTimeoutException.class, () -> vendingMachineService.placeOrder("kiosk-1",
+      List.of(Coin.ONE_MAD.getValue(), Coin.HALF_MAD.getValue()), List.of(new OrderItem(water.getId(), 1))));
+
+    verify(productRepository).incrementStock(water.getId(), 1);
+    assertEquals(1, stockService.available(water));
+    assertEquals(0L, coinInventoryService.getInventory("kiosk-1").totalCents());
+  }
+
+  @Test
+  void dispenseProducts_changeNotPaid_shouldLeaveStockAndSessionUnchanged() {
+    coinInventoryService.setQuantity("kiosk-1", Coin.HALF_MAD, 1);
+    vendingMachineService.insertCoin("kiosk-1", Coin.TWO_MAD.getValue());
+    vendingMachineService.selectProduct("kiosk-1", water.getId());
+    when(fixture.coinInventoryRepository.upsert(anyString(), anyString(), anyInt()))
+      .thenThrow(new QueryTimeoutException("Database timed out"));
+
+    assertThrows(QueryTimeoutException.class, () -> vendingMachineService.dispenseProducts("kiosk-1"));
+
+    verify(productRepository).decrementStock(water.getId(), 1);
+    verify(productRepository).incrementStock(water.getId(), 1);
+    assertEquals(0, stockService.available(water)); // Still reserved by the cart
+    assertEquals(0, new BigDecimal("2.00").compareTo(vendingMachineService.getCurrentBalance("kiosk-1")));
+    assertEquals(List.of(water), vendingMachineService.getSelectedProducts("kiosk-1"));
+    assertEquals(250L, coinInventoryService.getInventory("kiosk-1").totalCents());
+
+    doReturn(1).when(fixture.coinInventoryRepository).upsert(anyString(), anyString(), anyInt());
+    DispenseResponse retried = vendingMachineService.dispenseProducts("kiosk-1");
+    assertEquals(List.of(water), retried.getDispensedProducts());
+    assertEquals(0, stockService.available(water));
+    assertEquals(0, stockService.reservedUnits());
+  }
+
+  @Test
+  void restoreSession_shouldRestoreBalanceAndReserveSelection() {
+    boolean restored = vendingMachineService.restoreSession("kiosk-1",
+      List.of(Coin.FIVE_MAD, Coin.TWO_MAD), Map.of(soda.getId(), 1, water.getId(), 1, 99L, 1));
+
+    assertTrue(restored);
+    assertEquals(0, new BigDecimal("7.00").compareTo(vendingMachineService.getCurrentBalance("kiosk-1")));
+    assertEquals(2, vendingMachineService.getSelectedProducts("kiosk-1").size()); // Unknown product dropped
+    assertEquals(0, stockService.available(water));
+    assertFalse(vendingMachineService.restoreSession("kiosk-1", List.of(Coin.ONE_MAD), Map.of()));
+  }
+
+  @Test
+  void handOffSession_shouldMoveCoinsAndSelectionIntoTheNewOwner() {
+    // Another node: its own caches over the same catalog
+    VendingMachineService newOwner = ServiceFixture.mocked(Arrays.asList(soda, chips, water)).service();
+    vendingMachineService.insertCoin("kiosk-1", new BigDecimal("5"));
+    vendingMachineService.selectProduct("kiosk-1", water.getId());
+    newOwner.insertCoin("kiosk-1", new BigDecimal("1")); // Landed there before the handoff
+
+    assertFalse(vendingMachineService.handOffSession("kiosk-1", handOff -> false));
+    assertEquals(0, new BigDecimal("5.00").compareTo(vendingMachineService.getCurrentBalance("kiosk-1")));
+
+    // Adopted, but the answer is lost: sent again under the same transfer ID and not merged twice
+    List<String> transferIds = new ArrayList<>();
+    assertFalse(vendingMachineService.handOffSession("kiosk-1", handOff -> {
+      transferIds.add(handOff.getTransferId());
+      newOwner.adoptSession("kiosk-1", handOff.getTransferId(), handOff.getCoins(), handOff.getSelection());
+      return false;
+    }));
+    assertTrue(vendingMachineService.handOffSession("kiosk-1", handOff -> {
+      transferIds.add(handOff.getTransferId());
+      CartState merged = newOwner.adoptSession("kiosk-1", handOff.getTransferId(), handOff.getCoins(),
+        handOff.getSelection());
+      assertEquals(600L, merged.getBalanceCents());
+      assertEquals(150L, merged.getSelectedCostCents());
+      return true;
+    }));
+    assertEquals(transferIds.get(0), transferIds.get(1));
+    assertEquals(1, stockService.available(water)); // Released here, reserved by the new owner's stock service
+    assertEquals(0, new BigDecimal("6.00").compareTo(newOwner.getCurrentBalance("kiosk-1")));
+    assertEquals(List.of(water), newOwner.getSelectedProducts("kiosk-1"));
+    assertEquals(0, vendingMachineService.getCurrentBalance("kiosk-1").signum());
+  }
 }
@@ -0,0 +1,165 @@
+package com.zenika.distributor.telemetry;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zenika.distributor.dto.TelemetryIngestResponse;
+import com.zenika.distributor.exception.MalformedTelemetryException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TelemetryPipelineTest {
+
+  private final List<List<TelemetryReading>> batches = new ArrayList<>();
+  private TelemetryPipeline pipeline;
+
+  private synchronized void store(List<TelemetryReading> readings) {
+    List<TelemetryReading> copies = new ArrayList<>();
+    for (TelemetryReading reading : readings) {
+      TelemetryReading copy = new TelemetryReading();
+      copy.copyFrom(reading); // The pipeline reuses its instances
+      copies.add(copy);
+    }
+    batches.add(copies);
+  }
+
+  private static TelemetryReading reading(String machineId, long reportedAt, int level) {
+    return new TelemetryReading().set(machineId, reportedAt, 45, level, 0);
+  }
+
+  private static ByteArrayInputStream ndjson(String text) {
+    return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (pipeline != null) {
+      pipeline.close();
+    }
+  }
+
+  @Test
+  void ring_shouldHandOverReadingsInOrderAndRefuseWhenFull() {
+    TelemetryRing ring = new TelemetryRing(3); // Rounded up to 4
+    for (int i = 0; i < 4; i++) {
+      assertTrue(ring.offer(reading("kiosk-" + i, i, 50)));
+    }
+    assertFalse(ring.offer(reading("kiosk-4", 4, 50)));
+    assertEquals(4, ring.size());
+
+    List<String> drained = new ArrayList<>();
+    assertEquals(3, ring.drain(reading -> drained.add(reading.getMachineId()), 3));
+    assertTrue(ring.offer(reading("kiosk-5", 5, 50))); // Wraps around
+    ring.drain(reading -> drained.add(reading.getMachineId()), 10);
+
+    assertEquals(List.of("kiosk-0", "kiosk-1", "kiosk-2", "kiosk-3", "kiosk-5"), drained);
+    assertEquals(0, ring.size());
+  }
+
+  @Test
+  void writer_shouldKeepTheLatestReadingPerMachine() {
+    pipeline = new TelemetryPipeline(this::store, 1024, 1000, Duration.ofSeconds(10), OverflowPolicy.DROP);
+    pipeline.offer(reading("kiosk-1", 2000, 40));
+    pipeline.offer(reading("kiosk-2", 1000, 90));
+    pipeline.offer(reading("kiosk-1", 1000, 35)); // Sent before the first one, arrived late
+    pipeline.offer(reading("kiosk-1", 3000, 30));
+    pipeline.close(); // Writes what is queued
+
+    assertEquals(1, batches.size());
+    List<TelemetryReading> batch = batches.get(0);
+    assertEquals(2, batch.size());
+    assertEquals("kiosk-1", batch.get(0).getMachineId());
+    assertEquals(3000, batch.get(0).getReportedAt());
+    assertEquals(30, batch.get(0).getCoinBoxLevel());
+    assertEquals(90, batch.get(1).getCoinBoxLevel());
+    assertEquals(4, pipeline.getAccepted());
+    assertEquals(2, pipeline.getCoalesced());
+    assertEquals(2, pipeline.getWritten());
+  }
+
+  @Test
+  void fullRing_shouldDropOrRefuseReadings() throws Exception {
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    TelemetryPipeline.Store blocked = readings -> {
+      writing.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    };
+    pipeline = new TelemetryPipeline(blocked, 2, 1, Duration.ofMillis(1), OverflowPolicy.REJECT);
+    pipeline.offer(reading("kiosk-0", 0, 50));
+    assertTrue(writing.await(5, TimeUnit.SECONDS)); // The writer is stuck on the database, the ring is empty
+
+    TelemetryDecoder decoder = new TelemetryDecoder(pipeline, new ObjectMapper());
+    TelemetryIngestResponse response = decoder.readNdjson(ndjson("""
+      {"machineId": "kiosk-1", "coinBoxLevel": 10}
+      {"machineId": "kiosk-2", "coinBoxLevel": 20}
+      {"machineId": "kiosk-3", "coinBoxLevel": 30}
+      {"machineId": "kiosk-4", "coinBoxLevel": 40}
+      """));
+
+    assertEquals(2, response.getAccepted());
+    assertTrue(response.isRefused()); // kiosk-4 was not read
+    assertEquals(1, pipeline.getRefusedRequests());
+    assertEquals(0, pipeline.getDropped());
+    release.countDown();
+  }
+
+  @Test
+  void decoder_shouldReadNdjsonAndBinaryUploads() throws IOException {
+    pipeline = new TelemetryPipeline(this::store, 1024, 1000, Duration.ofSeconds(10), OverflowPolicy.DROP);
+    TelemetryDecoder decoder = new TelemetryDecoder(pipeline, new ObjectMapper());
+
+    TelemetryIngestResponse json = decoder.readNdjson(ndjson("""
+      {"machineId": "kiosk-1", "timestamp": 1000, "temperature": 4.5, "coinBoxLevel": 63, "errorCode": 12, "firmware": {"v": 2}}
+      {"machineId": "kiosk-2", "coinBoxLevel": 140}
+      {"coinBoxLevel": 10}
+      {"machineId": "kiosk-3", "coinBoxLevel": "full"}
+      [1, 2]
+      """));
+    assertEquals(1, json.getAccepted());
+    assertEquals(4, json.getRejected());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream frames = new DataOutputStream(bytes);
+    byte[] id = "kiosk-9".getBytes(StandardCharsets.UTF_8);
+    frames.writeByte(id.length);
+    frames.write(id);
+    frames.writeLong(2000);
+    frames.writeShort(-35);
+    frames.writeByte(100);
+    frames.writeInt(0);
+    TelemetryIngestResponse binary = decoder.readBinary(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(1, binary.getAccepted());
+
+    frames.writeByte(id.length);
+    frames.write(id);
+    assertThrows(MalformedTelemetryException.class, () -> decoder.readBinary(new ByteArrayInputStream(bytes.toByteArray())));
+    assertThrows(MalformedTelemetryException.class, () -> decoder.readNdjson(ndjson("{\"machineId\": ")));
+
+    pipeline.close();
+    List<TelemetryReading> written = new ArrayList<>();
+    batches.forEach(written::addAll);
+    TelemetryReading first = written.stream().filter(r -> r.getMachineId().equals("kiosk-1")).findFirst().orElseThrow();
+    assertEquals(45, first.getTemperatureTenths());
+    assertEquals(12, first.getErrorCode());
+    TelemetryReading frame = written.stream().filter(r -> r.getMachineId().equals("kiosk-9")).findFirst().orElseThrow();
+    assertEquals(-35, frame.getTemperatureTenths());
+    assertEquals(100, frame.getCoinBoxLevel());
+    assertEquals(2000, frame.getReportedAt());
+  }
+}
@@ -1,10 +1,21 @@
-import React, { useState, useEffect, useCallback } from 'react';
+import React, { useState, useEffect, useCallback, useMemo, useRef } from 'react';
 import ProductList from './components/ProductList';
 import CoinInserter from './components/CoinInserter';
 import SelectedItems from './components/SelectedItems';
 import * as api from './services/api';
 import { useTranslation } from 'react-i18next';
 
+// Applies cart line deltas (quantity 0 removes the line), taking names and prices from the product list
+const toSelectedProducts = (lines: api.CartLineDelta[], current: api.StateResponse['selectedProducts'],
+                            products: api.ProductDTO[]) => {
+    const selected = current.filter(item => !lines.some(line => line.productId === item.id));
+    lines.filter(line => line.quantity > 0).forEach(line => {
+        const product = products.find(p => p.id === line.productId);
+        selected.push({ id: line.productId, name: product?.name || '', price: product?.price || 0, quantity: line.quantity });
+    });
+    return selected.sort((a, b) => a.id - b.id);
+};
+
 function App() {
     const { t, i18n } = useTranslation();
 
@@ -12,6 +23,11 @@ function App() {
     const [currentState, setCurrentState] = useState<api.StateResponse | null>(null);
     const [message, setMessage] = useState<string>('');
     const [error, setError] = useState<string>('');
+    // While the event stream is connected the screen is updated from its deltas instead of reloading after each action
+    const [streaming, setStreaming] = useState<boolean>(false);
+    const [affordable, setAffordable] = useState<Set<number>>(new Set());
+    const productsRef = useRef<api.ProductDTO[]>([]);
+    productsRef.current = products;
 
     // Moved clearMessages to be defined before it's used
     const clearMessages = () => {
@@ -54,6 +70,57 @@ function App() {
         loadInitialData(true);
     }, [loadInitialData]);
 
+    const applyEvent = useCallback((event: api.MachineEvent) => {
+        switch (event.type) {
+            case 'state':
+                setCurrentState({
+                    currentBalance: event.balance,
+                    totalSelectedCost: event.selectedCost,
+                    selectedProducts: toSelectedProducts(event.cart, [], productsRef.current)
+                });
+                setAffordable(new Set(event.affordable));
+                break;
+            case 'balance':
+                setCurrentState(prev => ({
+                    selectedProducts: prev?.selectedProducts || [],
+                    currentBalance: event.balance,
+                    totalSelectedCost: event.selectedCost
+                }));
+                break;
+            case 'cart':
+                setCurrentState(prev => prev && { ...prev, selectedProducts: toSelectedProducts(event.lines, prev.selectedProducts, productsRef.current) });
+                break;
+            case 'affordability':
+                setAffordable(prev => {
+                    const next = new Set(prev);
+                    event.affordable?.forEach(id => next.add(id));
+                    event.unaffordable?.forEach(id => next.delete(id));
+                    return next;
+                });
+                break;
+            case 'stock':
+                setProducts(prev => prev.map(p => {
+                    const update = event.products.find(u => u.productId === p.id);
+                    return update ? { ...p, stock: update.stock } : p;
+                }));
+                break;
+        }
+    }, []);
+
+    useEffect(() => {
+        const source = api.openEventStream(applyEvent, setStreaming);
+        return () => source.close();
+    }, [applyEvent]);
+
+    const displayedProducts = useMemo(() => streaming
+        ? products.map(p => ({ ...p, purchasable: affordable.has(p.id) && p.stock > 0 }))
+        : products, [streaming, products, affordable]);
+
+    // Without the stream, poll once after each action
+    const refreshAfterAction = async () => {
+        if (!streaming) await loadInitialData();
+    };
+
     const changeLanguage = (lng: string) => {
       i18n.changeLanguage(lng);
      
@@ -67,7 +134,7 @@ function App() {
                 balance: response.currentBalance.toFixed(2),
                 currency: t('currencySymbol')
             });
-            await loadInitialData();
+            await refreshAfterAction();
         } catch (err: any) {
             const apiErrorMessage = err.response?.data?.message || err.message;
             const errorKey = apiErrorMessage && resourcesContainKey(apiErrorMessage) ? apiErrorMessage : 'messages.errorInsertCoin';
@@ -86,7 +153,7 @@ function App() {
             setMessage(displayMessage); 
              setTimeout(() => { clearMessages(); }, 4000);
 
-            await loadInitialData();
+            await refreshAfterAction();
         } catch (err: any) {
             const apiErrorMessage = err.response?.data?.message || err.message;
             const errorKey = apiErrorMessage && resourcesContainKey(apiErrorMessage) ? apiErrorMessage : 'messages.errorSelectProduct';
@@ -103,7 +170,7 @@ function App() {
             setMessage(displayMessage);
             setTimeout(() => { clearMessages(); }, 4000);
 
-            await loadInitialData();
+            await refreshAfterAction();
         }
         catch (err: any) {
             const apiErrorMessage = err.response?.data?.message || err.message;
@@ -143,7 +210,7 @@ function App() {
             setMessage(finalMessage);
             setTimeout(() => { clearMessages(); }, 6000); // Longer time for dispense message
 
-            await loadInitialData();
+            await refreshAfterAction();
         } catch (err: any) {
             const apiErrorMessage = err.response?.data?.message || err.message;
             const errorKey = apiErrorMessage && resourcesContainKey(apiErrorMessage) ? apiErrorMessage : 'messages.errorDispense';
@@ -159,7 +226,7 @@ function App() {
             const displayMessage = resourcesContainKey(messageKeyOrText) ? t(messageKeyOrText) : messageKeyOrText;
             setMessage(displayMessage);
             setTimeout(() => { clearMessages(); }, 4000);
-            await loadInitialData();
+            await refreshAfterAction();
         } catch (err: any) {
             const apiErrorMessage = err.response?.data?.message || err.message;
             const errorKey = apiErrorMessage && resourcesContainKey(apiErrorMessage) ? apiErrorMessage : 'messages.errorCancel';
@@ -187,7 +254,7 @@ function App() {
             <div className="row g-4 g-lg-5">
                 <section className="col-lg-7" aria-labelledby="products-heading">
                     <ProductList
-                        products={products}
+                        products={displayedProducts}
                         onSelect={handleSelectProduct} // Now correctly referenced
                     />
                 </section>
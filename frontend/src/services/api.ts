@@ -13,6 +13,7 @@ export interface ProductDTO {
     name: string;
     price: number;
     purchasable: boolean;
+    stock: number;
 }
 
 export interface SelectionRequest {
@@ -69,4 +70,30 @@ export const cancelTransaction = async () => {
 export const fetchCurrentState = async (): Promise<StateResponse> => {
     const response = await axios.get<StateResponse>(`${API_URL}/state`);
     return response.data;
-};
\ No newline at end of file
+};
+// Server-sent events pushed by /events, see MachineEventStream on the backend
+export interface CartLineDelta {
+    productId: number;
+    quantity: number; // 0 when the line was removed
+}
+
+export type MachineEvent =
+    | { type: 'state'; balance: number; selectedCost: number; cart: CartLineDelta[]; affordable: number[] }
+    | { type: 'balance'; balance: number; selectedCost: number }
+    | { type: 'cart'; lines: CartLineDelta[] }
+    | { type: 'affordability'; affordable?: number[]; unaffordable?: number[] }
+    | { type: 'stock'; products: Array<{ productId: number; stock: number }> };
+
+const EVENT_TYPES: MachineEvent['type'][] = ['state', 'balance', 'cart', 'affordability', 'stock'];
+
+// EventSource reconnects by itself after an error; every (re)connection starts with a 'state' event
+export const openEventStream = (onEvent: (event: MachineEvent) => void,
+                                onConnectionChange: (connected: boolean) => void): EventSource => {
+    const source = new EventSource(`${API_URL}/events`);
+    EVENT_TYPES.forEach(type => source.addEventListener(type, (e) => {
+        onEvent({ type, ...JSON.parse((e as MessageEvent).data) });
+    }));
+    source.addEventListener('state', () => onConnectionChange(true));
+    source.onerror = () => onConnectionChange(false);
+    return source;
+};